@@ -3,8 +3,10 @@ package com.techie.springai.rag;
 import jakarta.annotation.PostConstruct;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class SpringAiRagTutorialApplication {
 
     public static void main(String[] args) {
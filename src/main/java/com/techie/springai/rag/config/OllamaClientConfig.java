@@ -0,0 +1,30 @@
+package com.techie.springai.rag.config;
+
+import org.springframework.ai.ollama.api.OllamaApi;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.reactive.function.client.WebClient;
+
+/**
+ * 替换自动配置的 OllamaApi：对话、流式对话与向量化请求都走 OllamaHttpClients 的共享连接池
+ * 先按流量类别限流，再由 OllamaEndpointRouter 选择实际端点
+ */
+@Configuration
+public class OllamaClientConfig {
+
+    @Bean
+    public OllamaApi ollamaApi(@Value("${spring.ai.ollama.base-url:http://localhost:11434}") String baseUrl,
+                               OllamaHttpClients httpClients, OllamaEndpointRouter router) {
+        RestClient.Builder restClientBuilder = RestClient.builder()
+            .requestFactory(httpClients.requestFactory())
+            .requestInterceptor(httpClients.limiter())
+            .requestInterceptor(router.interceptor());
+        WebClient.Builder webClientBuilder = WebClient.builder()
+            .clientConnector(httpClients.streamingConnector())
+            .filter(httpClients.streamingLimiter())
+            .filter(router.streamingFilter());
+        return new OllamaApi(baseUrl, restClientBuilder, webClientBuilder);
+    }
+}
@@ -0,0 +1,421 @@
+package com.techie.springai.rag.config;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.support.HttpRequestWrapper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 多 Ollama 端点路由 - rag.ollama.endpoints 配置一组端点及各自提供的模型，扩容只需增加端点配置
+ * 按请求体中的 model 选出提供该模型的健康端点，取在途请求最少的一个（相同时随机）
+ * 探活失败、连接失败或连续网关错误时摘除 eject-seconds，期满后重新参与路由；流式响应全程固定在选中的端点上
+ * 端点对某模型返回 404（模型未安装）时只对该模型摘除，探活发现已安装或期满后恢复
+ * 模型管理请求（/api/tags、/api/pull）带 ENDPOINT_HEADER 时固定发往指定端点，供调用方逐个端点执行
+ */
+@Component
+public class OllamaEndpointRouter {
+
+    private static final Logger log = LoggerFactory.getLogger(OllamaEndpointRouter.class);
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    public static final String ENDPOINT_HEADER = "X-Rag-Ollama-Endpoint";
+
+    private final List<Endpoint> endpoints;
+    private final URI logicalBase;
+    private final ObjectMapper objectMapper;
+    private final HttpClient probeClient = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_1_1)
+        .connectTimeout(Duration.ofSeconds(2))
+        .build();
+
+    @Value("${spring.ai.ollama.chat.options.model:mistral}")
+    private String chatModel;
+
+    @Value("${spring.ai.ollama.embedding.options.model:nomic-embed-text}")
+    private String embeddingModel;
+
+    @Value("${rag.ollama.routing.eject-after-failures:3}")
+    private int ejectAfterFailures;
+
+    @Value("${rag.ollama.routing.eject-seconds:30}")
+    private long ejectSeconds;
+
+    public OllamaEndpointRouter(@Value("${spring.ai.ollama.base-url:http://localhost:11434}") String baseUrl,
+                                @Value("${rag.ollama.endpoints:}") String endpointSpec,
+                                ObjectMapper objectMapper) {
+        this.logicalBase = URI.create(trimSlash(baseUrl));
+        this.objectMapper = objectMapper;
+        this.endpoints = parse(endpointSpec.isBlank() ? baseUrl : endpointSpec);
+        log.info("Ollama 端点: {}", endpoints.stream().map(e -> e.base + (e.models.isEmpty() ? "" : e.models.toString())).toList());
+    }
+
+    public int size() {
+        return endpoints.size();
+    }
+
+    /**
+     * 应当提供该模型的端点地址：显式配置了模型列表的按列表判断，未配置的都算（安装与否由调用方检查）
+     */
+    public List<String> endpointsFor(String model) {
+        return endpoints.stream()
+            .filter(e -> e.models.isEmpty() || e.models.contains(normalizeModel(model)))
+            .map(e -> e.base.toString())
+            .toList();
+    }
+
+    /**
+     * 同步请求：从请求体解析 model，改写目标地址，响应关闭时结束在途计数
+     */
+    public ClientHttpRequestInterceptor interceptor() {
+        return (request, body, execution) -> {
+            if (endpoints.size() == 1 && endpoints.get(0).base.equals(logicalBase)) {
+                return execution.execute(request, body);
+            }
+            String model = modelOf(request.getURI(), body);
+            String pinned = request.getHeaders().getFirst(ENDPOINT_HEADER);
+            Endpoint endpoint = pinned == null ? choose(model) : pinned(pinned);
+            Runnable done = endpoint.begin();
+            HttpRequest routed = new HttpRequestWrapper(request) {
+                @Override
+                public URI getURI() {
+                    return endpoint.resolve(request.getURI(), logicalBase);
+                }
+            };
+            try {
+                ClientHttpResponse response = execution.execute(routed, body);
+                int status = response.getStatusCode().value();
+                if (status == 502 || status == 503 || status == 504) {
+                    endpoint.failure(ejectAfterFailures, ejectSeconds, false);
+                } else if (status == 404 && isModelRequest(request.getURI(), model)) {
+                    endpoint.modelMissing(model, ejectSeconds);
+                } else {
+                    endpoint.success();
+                }
+                return new ReleasingClientHttpResponse(response, done);
+            } catch (IOException | RuntimeException e) {
+                endpoint.failure(ejectAfterFailures, ejectSeconds, e instanceof ConnectException);
+                done.run();
+                throw e;
+            }
+        };
+    }
+
+    /**
+     * 流式请求：请求体是对象流无法预读，按路径对应的配置模型选端点；整个响应流只走这一个端点
+     */
+    public ExchangeFilterFunction streamingFilter() {
+        return (request, next) -> {
+            if (endpoints.size() == 1 && endpoints.get(0).base.equals(logicalBase)) {
+                return next.exchange(request);
+            }
+            String model = modelOf(request.url(), null);
+            Endpoint endpoint = choose(model);
+            Runnable done = endpoint.begin();
+            ClientRequest routed = ClientRequest.from(request).url(endpoint.resolve(request.url(), logicalBase)).build();
+            return next.exchange(routed)
+                .map(response -> {
+                    if (response.statusCode().value() == 404 && isModelRequest(request.url(), model)) {
+                        endpoint.modelMissing(model, ejectSeconds);
+                    } else {
+                        endpoint.success();
+                    }
+                    return response.mutate().body(flux -> flux.doFinally(signal -> done.run())).build();
+                })
+                .doOnError(e -> {
+                    endpoint.failure(ejectAfterFailures, ejectSeconds,
+                        e instanceof WebClientRequestException && e.getCause() instanceof ConnectException);
+                    done.run();
+                })
+                .doOnCancel(done);
+        };
+    }
+
+    /**
+     * 定时探活：失败即摘除，摘除期满后探活成功记为恢复；同时记录端点实际安装的模型
+     */
+    @Scheduled(initialDelayString = "${rag.ollama.routing.health-initial-delay-ms:1000}",
+        fixedDelayString = "${rag.ollama.routing.health-interval-ms:10000}")
+    public void healthCheck() {
+        if (endpoints.size() == 1 && endpoints.get(0).base.equals(logicalBase)) {
+            return;
+        }
+        for (Endpoint endpoint : endpoints) {
+            try {
+                java.net.http.HttpRequest probe = java.net.http.HttpRequest.newBuilder(URI.create(endpoint.base + "/api/tags"))
+                    .timeout(Duration.ofSeconds(3))
+                    .GET()
+                    .build();
+                HttpResponse<String> response = probeClient.send(probe, HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() / 100 != 2) {
+                    throw new IOException("HTTP " + response.statusCode());
+                }
+                Set<String> installed = new HashSet<>();
+                for (JsonNode model : objectMapper.readTree(response.body()).path("models")) {
+                    installed.add(model.path("name").asText(""));
+                }
+                endpoint.discovered = Set.copyOf(installed);
+                endpoint.clearMissing(installed);
+                if (endpoint.recover()) {
+                    log.info("Ollama 端点恢复: {}", endpoint.base);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                if (endpoint.eject(ejectSeconds)) {
+                    log.warn("Ollama 端点探活失败，已摘除: {}, {}", endpoint.base, e.getMessage());
+                }
+            }
+        }
+    }
+
+    public List<Map<String, Object>> status() {
+        return endpoints.stream().map(Endpoint::status).toList();
+    }
+
+    /**
+     * 提供该模型且未被摘除的端点中取在途最少者；全部摘除时退回到提供该模型的全部端点，避免整体不可用
+     */
+    Endpoint choose(String model) {
+        List<Endpoint> serving = endpoints.stream().filter(e -> e.serves(model)).toList();
+        if (serving.isEmpty()) {
+            serving = endpoints;
+        }
+        List<Endpoint> healthy = serving.stream().filter(Endpoint::available).toList();
+        List<Endpoint> pool = healthy.isEmpty() ? serving : healthy;
+        int min = pool.stream().mapToInt(e -> e.outstanding.get()).min().orElse(0);
+        List<Endpoint> least = pool.stream().filter(e -> e.outstanding.get() == min).toList();
+        return least.get(ThreadLocalRandom.current().nextInt(least.size()));
+    }
+
+    private Endpoint pinned(String base) {
+        String normalized = trimSlash(base);
+        return endpoints.stream()
+            .filter(e -> e.base.toString().equals(normalized))
+            .findFirst()
+            .orElseThrow(() -> new IllegalArgumentException("未配置的 Ollama 端点: " + base));
+    }
+
+    private static boolean isModelRequest(URI uri, String model) {
+        return model != null && OllamaHttpClients.classify(uri) != OllamaHttpClients.TrafficClass.ADMIN;
+    }
+
+    private String modelOf(URI uri, byte[] body) {
+        if (body != null && body.length > 0) {
+            String model = readModelField(body);
+            if (model != null) {
+                return model;
+            }
+        }
+        return switch (OllamaHttpClients.classify(uri)) {
+            case CHAT -> chatModel;
+            case EMBEDDING -> embeddingModel;
+            case ADMIN -> null;
+        };
+    }
+
+    /**
+     * 只扫描顶层字段找 model/name，不把整个请求体（可能是一大批待向量化文本）解析成树
+     */
+    private static String readModelField(byte[] body) {
+        try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (("model".equals(field) || "name".equals(field)) && value == JsonToken.VALUE_STRING) {
+                    return parser.getText();
+                }
+                parser.skipChildren();
+            }
+        } catch (IOException ignored) {
+        }
+        return null;
+    }
+
+    /**
+     * 格式：url|模型1|模型2,url2|模型3；不写模型表示按探活发现的已安装模型路由
+     */
+    private static List<Endpoint> parse(String spec) {
+        List<Endpoint> parsed = new ArrayList<>();
+        for (String entry : spec.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            String[] parts = entry.trim().split("\\|");
+            Set<String> models = new HashSet<>();
+            for (int i = 1; i < parts.length; i++) {
+                if (!parts[i].isBlank()) {
+                    models.add(normalizeModel(parts[i].trim()));
+                }
+            }
+            parsed.add(new Endpoint(URI.create(trimSlash(parts[0].trim())), Set.copyOf(models)));
+        }
+        if (parsed.isEmpty()) {
+            throw new IllegalStateException("rag.ollama.endpoints 未配置任何有效端点");
+        }
+        return List.copyOf(parsed);
+    }
+
+    private static String normalizeModel(String model) {
+        return model.endsWith(":latest") ? model.substring(0, model.length() - ":latest".length()) : model;
+    }
+
+    private static String trimSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    static final class Endpoint {
+
+        private final URI base;
+        private final Set<String> models;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private final AtomicLong ejectedUntil = new AtomicLong();
+        private final AtomicLong requests = new AtomicLong();
+        private volatile Set<String> discovered = Set.of();
+        private volatile boolean ejected = false;
+        private final Map<String, Long> missingUntil = new ConcurrentHashMap<>();
+
+        Endpoint(URI base, Set<String> models) {
+            this.base = base;
+            this.models = models;
+        }
+
+        boolean serves(String model) {
+            if (model == null) {
+                return true;
+            }
+            Long missing = missingUntil.get(normalizeModel(model));
+            if (missing != null && System.currentTimeMillis() < missing) {
+                return false;
+            }
+            Set<String> known = models.isEmpty() ? discovered : models;
+            if (known.isEmpty()) {
+                return true;
+            }
+            String normalized = normalizeModel(model);
+            return known.stream().map(OllamaEndpointRouter::normalizeModel).anyMatch(normalized::equals);
+        }
+
+        boolean available() {
+            return System.currentTimeMillis() >= ejectedUntil.get();
+        }
+
+        Runnable begin() {
+            outstanding.incrementAndGet();
+            requests.incrementAndGet();
+            AtomicBoolean finished = new AtomicBoolean(false);
+            return () -> {
+                if (finished.compareAndSet(false, true)) {
+                    outstanding.decrementAndGet();
+                }
+            };
+        }
+
+        URI resolve(URI original, URI logicalBase) {
+            String path = original.getRawPath() == null ? "" : original.getRawPath();
+            String basePath = logicalBase.getRawPath() == null ? "" : logicalBase.getRawPath();
+            if (!basePath.isEmpty() && path.startsWith(basePath)) {
+                path = path.substring(basePath.length());
+            }
+            String query = original.getRawQuery() == null ? "" : "?" + original.getRawQuery();
+            return URI.create(base + path + query);
+        }
+
+        void success() {
+            consecutiveFailures.set(0);
+        }
+
+        void failure(int ejectAfter, long ejectSeconds, boolean immediate) {
+            if (immediate || consecutiveFailures.incrementAndGet() >= Math.max(1, ejectAfter)) {
+                if (eject(ejectSeconds)) {
+                    log.warn("Ollama 端点连续失败，已摘除 {} 秒: {}", ejectSeconds, base);
+                }
+            }
+        }
+
+        /**
+         * 端点上没有该模型：只对该模型摘除，其他模型照常路由
+         */
+        void modelMissing(String model, long seconds) {
+            consecutiveFailures.set(0);
+            long now = System.currentTimeMillis();
+            Long previous = missingUntil.put(normalizeModel(model), now + seconds * 1000);
+            if (previous == null || previous <= now) {
+                log.warn("Ollama 端点未安装模型 {}，已对该模型摘除 {} 秒: {}", model, seconds, base);
+            }
+        }
+
+        void clearMissing(Set<String> installed) {
+            Set<String> normalized = new HashSet<>();
+            installed.forEach(name -> normalized.add(normalizeModel(name)));
+            missingUntil.keySet().removeIf(normalized::contains);
+        }
+
+        /**
+         * 返回 true 表示由可用变为摘除
+         */
+        boolean eject(long seconds) {
+            boolean wasAvailable = available();
+            ejectedUntil.set(System.currentTimeMillis() + seconds * 1000);
+            ejected = true;
+            return wasAvailable;
+        }
+
+        /**
+         * 探活成功；摘除期未满时保持摘除，期满后返回 true 表示恢复
+         */
+        boolean recover() {
+            if (!available()) {
+                return false;
+            }
+            consecutiveFailures.set(0);
+            boolean wasEjected = ejected;
+            ejected = false;
+            return wasEjected;
+        }
+
+        Map<String, Object> status() {
+            Map<String, Object> status = new LinkedHashMap<>();
+            status.put("url", base.toString());
+            status.put("models", models.isEmpty() ? discovered : models);
+            status.put("healthy", available());
+            status.put("outstanding", outstanding.get());
+            status.put("requests", requests.get());
+            status.put("consecutiveFailures", consecutiveFailures.get());
+            long now = System.currentTimeMillis();
+            status.put("missingModels", missingUntil.entrySet().stream()
+                .filter(e -> e.getValue() > now).map(Map.Entry::getKey).sorted().toList());
+            return status;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.techie.springai.rag.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.http.client.reactive.ClientHttpConnector;
+import org.springframework.http.client.reactive.JdkClientHttpConnector;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Ollama 共享 HTTP 客户端 - 对话、向量化、管理三类流量各用一个常驻的 JDK HttpClient（连接池 + keep-alive）
+ * 按请求路径区分流量类别，每类有独立的并发连接上限（按端点数放大）与超时，互不抢占连接
+ * OllamaApi（对话/向量化）与模型管理调用都从这里取客户端，热路径上不再新建连接工厂
+ * 许可按 RequestPriority 分配：查询优先，批量向量化只用预留份额之外的连接
+ */
+@Component
+public class OllamaHttpClients {
+
+    private static final Logger log = LoggerFactory.getLogger(OllamaHttpClients.class);
+
+    public enum TrafficClass { CHAT, EMBEDDING, ADMIN }
+
+    private final Map<TrafficClass, Lane> lanes = new EnumMap<>(TrafficClass.class);
+    private final Duration acquireTimeout;
+    private final Duration bulkAcquireTimeout;
+    private final OllamaEndpointRouter router;
+
+    public OllamaHttpClients(
+        @Value("${rag.ollama.http.chat.max-connections:8}") int chatMaxConnections,
+        @Value("${rag.ollama.http.chat.connect-timeout-ms:2000}") long chatConnectTimeoutMs,
+        @Value("${rag.ollama.http.chat.read-timeout-seconds:300}") long chatReadTimeoutSeconds,
+        @Value("${rag.ollama.http.embedding.max-connections:16}") int embeddingMaxConnections,
+        @Value("${rag.ollama.http.embedding.connect-timeout-ms:2000}") long embeddingConnectTimeoutMs,
+        @Value("${rag.ollama.http.embedding.read-timeout-seconds:60}") long embeddingReadTimeoutSeconds,
+        @Value("${rag.ollama.http.admin.max-connections:2}") int adminMaxConnections,
+        @Value("${rag.ollama.http.admin.connect-timeout-ms:5000}") long adminConnectTimeoutMs,
+        @Value("${rag.embedding.pull-timeout-seconds:300}") long adminReadTimeoutSeconds,
+        @Value("${rag.ollama.http.acquire-timeout-seconds:60}") long acquireTimeoutSeconds,
+        @Value("${rag.ollama.priority.reserved-share:0.25}") double reservedShare,
+        @Value("${rag.ollama.priority.bulk-acquire-timeout-seconds:600}") long bulkAcquireTimeoutSeconds,
+        OllamaEndpointRouter router
+    ) {
+        // 连接上限按单个端点配置，增加端点后总并发随之增长
+        int endpoints = router.size();
+        chatMaxConnections *= endpoints;
+        embeddingMaxConnections *= endpoints;
+        lanes.put(TrafficClass.CHAT, new Lane(chatMaxConnections, Duration.ofMillis(chatConnectTimeoutMs),
+            Duration.ofSeconds(chatReadTimeoutSeconds), reservedShare));
+        lanes.put(TrafficClass.EMBEDDING, new Lane(embeddingMaxConnections, Duration.ofMillis(embeddingConnectTimeoutMs),
+            Duration.ofSeconds(embeddingReadTimeoutSeconds), reservedShare));
+        lanes.put(TrafficClass.ADMIN, new Lane(adminMaxConnections, Duration.ofMillis(adminConnectTimeoutMs),
+            Duration.ofSeconds(Math.max(30, adminReadTimeoutSeconds)), reservedShare));
+        this.acquireTimeout = Duration.ofSeconds(Math.max(1, acquireTimeoutSeconds));
+        this.bulkAcquireTimeout = Duration.ofSeconds(Math.max(1, bulkAcquireTimeoutSeconds));
+        this.router = router;
+    }
+
+    public static TrafficClass classify(URI uri) {
+        String path = uri.getPath() == null ? "" : uri.getPath();
+        if (path.endsWith("/api/chat") || path.endsWith("/api/generate")) {
+            return TrafficClass.CHAT;
+        }
+        if (path.endsWith("/api/embed") || path.endsWith("/api/embeddings")) {
+            return TrafficClass.EMBEDDING;
+        }
+        return TrafficClass.ADMIN;
+    }
+
+    /**
+     * 按请求路径选择流量类别对应的连接池
+     */
+    public ClientHttpRequestFactory requestFactory() {
+        return (uri, method) -> lanes.get(classify(uri)).requestFactory.createRequest(uri, method);
+    }
+
+    /**
+     * 同步请求的并发上限：按调用线程的优先级拿到许可才发请求，响应关闭时归还
+     */
+    public ClientHttpRequestInterceptor limiter() {
+        return (request, body, execution) -> {
+            Lane lane = lanes.get(classify(request.getURI()));
+            Runnable release = acquire(lane, RequestPriority.current());
+            try {
+                return new ReleasingClientHttpResponse(execution.execute(request, body), release);
+            } catch (IOException | RuntimeException e) {
+                release.run();
+                throw e;
+            }
+        };
+    }
+
+    /**
+     * 流式对话（WebClient）使用对话类连接池
+     */
+    public ClientHttpConnector streamingConnector() {
+        Lane lane = lanes.get(TrafficClass.CHAT);
+        JdkClientHttpConnector connector = new JdkClientHttpConnector(lane.httpClient);
+        connector.setReadTimeout(lane.readTimeout);
+        return connector;
+    }
+
+    /**
+     * 流式请求的并发上限：许可一直持有到响应流结束、出错或被取消；流式对话只来自用户请求
+     */
+    public ExchangeFilterFunction streamingLimiter() {
+        return (request, next) -> {
+            Lane lane = lanes.get(classify(request.url()));
+            return Mono.fromCallable(() -> acquire(lane, RequestPriority.INTERACTIVE))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(release -> next.exchange(request)
+                    .map(response -> response.mutate().body(body -> body.doFinally(signal -> release.run())).build())
+                    .doOnError(e -> release.run())
+                    .doOnCancel(release));
+        };
+    }
+
+    /**
+     * 模型管理等同步调用使用的 RestTemplate，共享同一组连接池、并发上限与端点路由
+     */
+    public RestTemplate restTemplate() {
+        RestTemplate restTemplate = new RestTemplate(requestFactory());
+        restTemplate.setInterceptors(List.of(limiter(), router.interceptor()));
+        return restTemplate;
+    }
+
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        lanes.forEach((trafficClass, lane) -> {
+            Map<String, Object> laneStatus = new LinkedHashMap<>();
+            laneStatus.putAll(lane.permits.status());
+            laneStatus.put("connectTimeoutMs", lane.connectTimeout.toMillis());
+            laneStatus.put("readTimeoutSeconds", lane.readTimeout.toSeconds());
+            status.put(trafficClass.name().toLowerCase(), laneStatus);
+        });
+        status.put("endpoints", router.status());
+        return status;
+    }
+
+    private Runnable acquire(Lane lane, RequestPriority priority) throws IOException {
+        return lane.acquire(priority, priority == RequestPriority.BULK ? bulkAcquireTimeout : acquireTimeout);
+    }
+
+    private static final class Lane {
+
+        private final Duration connectTimeout;
+        private final Duration readTimeout;
+        private final PriorityPermits permits;
+        private final HttpClient httpClient;
+        private final JdkClientHttpRequestFactory requestFactory;
+
+        Lane(int maxConnections, Duration connectTimeout, Duration readTimeout, double reservedShare) {
+            this.connectTimeout = connectTimeout;
+            this.readTimeout = readTimeout;
+            this.permits = new PriorityPermits(maxConnections, reservedShare);
+            // Ollama 只支持 HTTP/1.1，同一客户端内空闲连接复用
+            this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(connectTimeout)
+                .build();
+            this.requestFactory = new JdkClientHttpRequestFactory(httpClient);
+            this.requestFactory.setReadTimeout(readTimeout);
+        }
+
+        Runnable acquire(RequestPriority priority, Duration timeout) throws IOException {
+            try {
+                if (!permits.acquire(priority, timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                    log.warn("等待 Ollama 连接超时: priority={}, capacity={}", priority, permits.capacity());
+                    throw new IOException("Ollama 连接繁忙，等待超过 " + timeout.toSeconds() + " 秒");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("等待 Ollama 连接时被中断", e);
+            }
+            AtomicBoolean released = new AtomicBoolean(false);
+            return () -> {
+                if (released.compareAndSet(false, true)) {
+                    permits.release(priority);
+                }
+            };
+        }
+    }
+}
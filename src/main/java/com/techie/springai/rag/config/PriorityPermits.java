@@ -0,0 +1,130 @@
+package com.techie.springai.rag.config;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 带优先级的连接许可：有 INTERACTIVE 请求在等待时 BULK 请求一律让行
+ * BULK 最多同时占用 capacity * (1 - reserved-share) 个许可，剩余部分始终留给查询
+ */
+final class PriorityPermits {
+
+    private final int capacity;
+    private final int bulkLimit;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition interactiveAvailable = lock.newCondition();
+    private final Condition bulkAvailable = lock.newCondition();
+    private final Map<RequestPriority, Stats> stats = new EnumMap<>(RequestPriority.class);
+    private int inUse;
+    private int bulkInUse;
+    private int interactiveWaiting;
+    private int bulkWaiting;
+
+    PriorityPermits(int capacity, double reservedShare) {
+        this.capacity = Math.max(1, capacity);
+        double share = Math.min(1.0, Math.max(0.0, reservedShare));
+        this.bulkLimit = Math.max(1, (int) Math.floor(this.capacity * (1.0 - share)));
+        for (RequestPriority priority : RequestPriority.values()) {
+            stats.put(priority, new Stats());
+        }
+    }
+
+    /**
+     * 超时返回 false
+     */
+    boolean acquire(RequestPriority priority, long timeout, TimeUnit unit) throws InterruptedException {
+        long start = System.nanoTime();
+        long nanos = unit.toNanos(timeout);
+        boolean bulk = priority == RequestPriority.BULK;
+        lock.lockInterruptibly();
+        try {
+            if (bulk) {
+                bulkWaiting++;
+            } else {
+                interactiveWaiting++;
+            }
+            try {
+                while (bulk ? (inUse >= capacity || bulkInUse >= bulkLimit || interactiveWaiting > 0) : inUse >= capacity) {
+                    if (nanos <= 0) {
+                        stats.get(priority).timeouts.increment();
+                        return false;
+                    }
+                    nanos = (bulk ? bulkAvailable : interactiveAvailable).awaitNanos(nanos);
+                }
+                inUse++;
+                if (bulk) {
+                    bulkInUse++;
+                }
+            } finally {
+                if (bulk) {
+                    bulkWaiting--;
+                } else if (--interactiveWaiting == 0) {
+                    // 查询队列清空后唤醒被压住的批量请求
+                    bulkAvailable.signalAll();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        Stats s = stats.get(priority);
+        s.granted.increment();
+        s.waitNanos.add(System.nanoTime() - start);
+        return true;
+    }
+
+    void release(RequestPriority priority) {
+        lock.lock();
+        try {
+            inUse--;
+            if (priority == RequestPriority.BULK) {
+                bulkInUse--;
+            }
+            if (interactiveWaiting > 0) {
+                interactiveAvailable.signal();
+            } else if (bulkWaiting > 0) {
+                bulkAvailable.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        lock.lock();
+        try {
+            status.put("capacity", capacity);
+            status.put("bulkLimit", bulkLimit);
+            status.put("inFlight", inUse);
+            status.put("bulkInFlight", bulkInUse);
+            status.put("interactiveWaiting", interactiveWaiting);
+            status.put("bulkWaiting", bulkWaiting);
+        } finally {
+            lock.unlock();
+        }
+        stats.forEach((priority, s) -> {
+            long granted = s.granted.sum();
+            Map<String, Object> priorityStatus = new LinkedHashMap<>();
+            priorityStatus.put("granted", granted);
+            priorityStatus.put("timeouts", s.timeouts.sum());
+            priorityStatus.put("avgWaitMs", granted == 0 ? 0.0 : Math.round(s.waitNanos.sum() / 1e4 / granted) / 100.0);
+            status.put(priority.name().toLowerCase(), priorityStatus);
+        });
+        return status;
+    }
+
+    private static final class Stats {
+        private final LongAdder granted = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final LongAdder waitNanos = new LongAdder();
+    }
+}
@@ -0,0 +1,36 @@
+package com.techie.springai.rag.config;
+
+import java.util.function.Supplier;
+
+/**
+ * Ollama 请求优先级 - 随调用线程传递，默认 INTERACTIVE（用户查询）
+ * 导入、重新切分、向量迁移等批量向量化在 BULK 作用域内执行，只使用查询之外的剩余连接
+ */
+public enum RequestPriority {
+
+    INTERACTIVE,
+    BULK;
+
+    private static final ThreadLocal<RequestPriority> CURRENT = ThreadLocal.withInitial(() -> INTERACTIVE);
+
+    public static RequestPriority current() {
+        return CURRENT.get();
+    }
+
+    public static <T> T call(RequestPriority priority, Supplier<T> work) {
+        RequestPriority previous = CURRENT.get();
+        CURRENT.set(priority);
+        try {
+            return work.get();
+        } finally {
+            CURRENT.set(previous);
+        }
+    }
+
+    public static void run(RequestPriority priority, Runnable work) {
+        call(priority, () -> {
+            work.run();
+            return null;
+        });
+    }
+}
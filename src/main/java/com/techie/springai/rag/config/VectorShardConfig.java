@@ -0,0 +1,29 @@
+package com.techie.springai.rag.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.techie.springai.rag.service.ShardedVectorStore;
+import com.techie.springai.rag.service.VectorShards;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+/**
+ * 配置了 rag.shards.urls 时用分片 VectorStore 替换注入点；自动配置的 PgVectorStore 保留为分片 0（主库）
+ */
+@Configuration
+@ConditionalOnExpression("!'${rag.shards.urls:}'.isBlank()")
+public class VectorShardConfig {
+
+    @Bean
+    @Primary
+    public VectorStore shardedVectorStore(VectorShards shards, PgVectorStore primaryStore, EmbeddingModel embeddingModel,
+                                          ObjectMapper objectMapper,
+                                          @Value("${rag.embedding.dimensions:768}") int dimensions) {
+        return new ShardedVectorStore(shards, primaryStore, embeddingModel, objectMapper, dimensions);
+    }
+}
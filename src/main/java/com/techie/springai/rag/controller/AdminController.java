@@ -0,0 +1,216 @@
+package com.techie.springai.rag.controller;
+
+import com.techie.springai.rag.config.OllamaHttpClients;
+import com.techie.springai.rag.ingestion.DocumentIngestionService;
+import com.techie.springai.rag.ingestion.ParserPool;
+import com.techie.springai.rag.ingestion.RechunkService;
+import com.techie.springai.rag.service.AnswerCacheService;
+import com.techie.springai.rag.service.DocumentCatalogService;
+import com.techie.springai.rag.service.EmbeddingMigrationService;
+import com.techie.springai.rag.service.HotTierService;
+import com.techie.springai.rag.service.NearDuplicateService;
+import com.techie.springai.rag.service.QueryCoalescer;
+import com.techie.springai.rag.service.VectorIndexService;
+import com.techie.springai.rag.service.VectorSearchService;
+import com.techie.springai.rag.service.VectorShards;
+import com.techie.springai.rag.service.VectorSnapshotService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+/**
+ * 运维接口 - 缓存统计等管理操作
+ */
+@RestController
+@RequestMapping("/api/admin")
+public class AdminController {
+
+    private final AnswerCacheService answerCache;
+    private final VectorIndexService vectorIndexService;
+    private final VectorSearchService vectorSearchService;
+    private final EmbeddingMigrationService migrationService;
+    private final ParserPool parserPool;
+    private final RechunkService rechunkService;
+    private final DocumentIngestionService bulkImportService;
+    private final NearDuplicateService nearDuplicateService;
+    private final OllamaHttpClients ollamaHttpClients;
+    private final QueryCoalescer queryCoalescer;
+    private final DocumentCatalogService catalogService;
+    private final HotTierService hotTierService;
+    private final VectorSnapshotService snapshotService;
+    private final VectorShards vectorShards;
+
+    public AdminController(AnswerCacheService answerCache, VectorIndexService vectorIndexService,
+                           VectorSearchService vectorSearchService, EmbeddingMigrationService migrationService,
+                           ParserPool parserPool, RechunkService rechunkService,
+                           DocumentIngestionService bulkImportService, NearDuplicateService nearDuplicateService,
+                           OllamaHttpClients ollamaHttpClients, QueryCoalescer queryCoalescer,
+                           DocumentCatalogService catalogService, HotTierService hotTierService,
+                           VectorSnapshotService snapshotService, VectorShards vectorShards) {
+        this.answerCache = answerCache;
+        this.vectorIndexService = vectorIndexService;
+        this.vectorSearchService = vectorSearchService;
+        this.migrationService = migrationService;
+        this.parserPool = parserPool;
+        this.rechunkService = rechunkService;
+        this.bulkImportService = bulkImportService;
+        this.nearDuplicateService = nearDuplicateService;
+        this.ollamaHttpClients = ollamaHttpClients;
+        this.queryCoalescer = queryCoalescer;
+        this.catalogService = catalogService;
+        this.hotTierService = hotTierService;
+        this.snapshotService = snapshotService;
+        this.vectorShards = vectorShards;
+    }
+
+    @GetMapping("/answer-cache")
+    public ResponseEntity<Map<String, Object>> answerCacheStats() {
+        return ResponseEntity.ok(answerCache.stats());
+    }
+
+    @DeleteMapping("/answer-cache")
+    public ResponseEntity<Map<String, Object>> clearAnswerCache() {
+        answerCache.clear();
+        return ResponseEntity.ok(answerCache.stats());
+    }
+
+    @GetMapping("/index")
+    public ResponseEntity<Map<String, Object>> indexStatus() {
+        return ResponseEntity.ok(vectorIndexService.status());
+    }
+
+    @PostMapping("/index/rebuild")
+    public ResponseEntity<Map<String, Object>> rebuildIndex() {
+        if (!vectorIndexService.rebuildAsync()) {
+            return ResponseEntity.status(409).body(Map.of("error", "索引正在构建中"));
+        }
+        return ResponseEntity.accepted().body(Map.of("message", "已开始后台重建索引，可通过 GET /api/admin/index 查看进度"));
+    }
+
+    @GetMapping("/index/recall")
+    public ResponseEntity<Map<String, Object>> measureRecall(
+        @RequestParam(value = "samples", defaultValue = "20") int samples,
+        @RequestParam(value = "topK", defaultValue = "10") int topK
+    ) {
+        try {
+            return ResponseEntity.ok(vectorSearchService.measureRecall(Math.max(1, Math.min(200, samples)),
+                Math.max(1, Math.min(100, topK))));
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().body(Map.of("error", "召回率评估失败: " + e.getMessage()));
+        }
+    }
+
+    @GetMapping("/embedding-migration")
+    public ResponseEntity<Map<String, Object>> embeddingMigrationStatus() {
+        return ResponseEntity.ok(migrationService.status());
+    }
+
+    @GetMapping("/dedup")
+    public ResponseEntity<Map<String, Object>> dedupStats() {
+        return ResponseEntity.ok(nearDuplicateService.stats());
+    }
+
+    @GetMapping("/ollama")
+    public ResponseEntity<Map<String, Object>> ollamaClients() {
+        return ResponseEntity.ok(ollamaHttpClients.status());
+    }
+
+    @GetMapping("/collections")
+    public ResponseEntity<Map<String, Object>> collections() {
+        return ResponseEntity.ok(Map.of(
+            "collections", catalogService.collections(),
+            "index", vectorIndexService.status().get("collectionIndexes")
+        ));
+    }
+
+    @GetMapping("/coalescing")
+    public ResponseEntity<Map<String, Object>> coalescingStats() {
+        return ResponseEntity.ok(queryCoalescer.stats());
+    }
+
+    @GetMapping("/hot-tier")
+    public ResponseEntity<Map<String, Object>> hotTierStats() {
+        return ResponseEntity.ok(hotTierService.stats());
+    }
+
+    @PostMapping("/hot-tier/reload")
+    public ResponseEntity<Map<String, Object>> reloadHotTier(@RequestParam("collection") String collection) {
+        if (!hotTierService.enabled()) {
+            return ResponseEntity.status(409).body(Map.of("error", "热集合内存层未启用（rag.hot-tier.enabled=false）"));
+        }
+        try {
+            if (!hotTierService.reload(collection)) {
+                return ResponseEntity.status(409).body(Map.of("error", "该集合正在加载中"));
+            }
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+        return ResponseEntity.accepted().body(Map.of("message", "已开始后台加载，可通过 GET /api/admin/hot-tier 查看进度"));
+    }
+
+    @GetMapping("/snapshots")
+    public ResponseEntity<Map<String, Object>> snapshotStats() {
+        return ResponseEntity.ok(snapshotService.stats());
+    }
+
+    @PostMapping("/snapshots/export")
+    public ResponseEntity<Map<String, Object>> exportSnapshot(@RequestParam("collection") String collection) {
+        if (!snapshotService.enabled()) {
+            return ResponseEntity.status(409).body(Map.of("error", "向量快照未启用（rag.snapshot.enabled=false）"));
+        }
+        try {
+            if (!snapshotService.export(collection)) {
+                return ResponseEntity.accepted().body(Map.of("message", "该集合正在导出，完成后将再导出一次"));
+            }
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+        return ResponseEntity.accepted().body(Map.of("message", "已开始后台导出，可通过 GET /api/admin/snapshots 查看进度"));
+    }
+
+    @GetMapping("/shards")
+    public ResponseEntity<Map<String, Object>> shardStatus() {
+        return ResponseEntity.ok(vectorShards.status());
+    }
+
+    @GetMapping("/parsers")
+    public ResponseEntity<Map<String, Object>> parserPoolStatus() {
+        return ResponseEntity.ok(parserPool.status());
+    }
+
+    @GetMapping("/rechunk")
+    public ResponseEntity<Map<String, Object>> rechunkStatus() {
+        return ResponseEntity.ok(rechunkService.status());
+    }
+
+    @PostMapping("/rechunk")
+    public ResponseEntity<Map<String, Object>> rechunk() {
+        if (!rechunkService.startAsync()) {
+            return ResponseEntity.status(409).body(Map.of("error", "重新切分任务正在运行"));
+        }
+        return ResponseEntity.accepted().body(Map.of("message", "已开始按当前切分参数重新切分全部文档，可通过 GET /api/admin/rechunk 查看进度"));
+    }
+
+    @GetMapping("/import")
+    public ResponseEntity<Map<String, Object>> importStatus() {
+        return ResponseEntity.ok(bulkImportService.status());
+    }
+
+    @PostMapping("/import")
+    public ResponseEntity<Map<String, Object>> bulkImport(@RequestBody Map<String, Object> req) {
+        String path = req == null ? "" : String.valueOf(req.getOrDefault("path", "")).trim();
+        if (path.isBlank()) {
+            return ResponseEntity.badRequest().body(Map.of("error", "path 不能为空"));
+        }
+        try {
+            Object collection = req.get("collection");
+            if (!bulkImportService.startAsync(path, collection == null ? null : collection.toString())) {
+                return ResponseEntity.status(409).body(Map.of("error", "批量导入任务正在运行"));
+            }
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+        return ResponseEntity.accepted().body(Map.of("message", "已开始后台批量导入，可通过 GET /api/admin/import 查看进度"));
+    }
+}
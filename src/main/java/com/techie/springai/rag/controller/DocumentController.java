@@ -1,30 +1,40 @@
 package com.techie.springai.rag.controller;
 
+import com.techie.springai.rag.ingestion.DocumentIngestionPipeline;
+import com.techie.springai.rag.ingestion.ParsedTextCache;
+import com.techie.springai.rag.service.AnswerCacheService;
+import com.techie.springai.rag.service.CollectionNames;
+import com.techie.springai.rag.service.ConversationHistoryManager;
+import com.techie.springai.rag.service.DocumentCatalogService;
+import com.techie.springai.rag.service.EmbeddingMigrationService;
+import com.techie.springai.rag.service.HotTierService;
+import com.techie.springai.rag.service.QueryCoalescer;
 import com.techie.springai.rag.service.RAGService;
 import com.techie.springai.rag.service.SessionStoreService;
+import com.techie.springai.rag.service.SingleFlight;
+import com.techie.springai.rag.service.VectorSnapshotService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.document.Document;
-import org.springframework.ai.reader.tika.TikaDocumentReader;
-import org.springframework.ai.transformer.splitter.TextSplitter;
-import org.springframework.ai.transformer.splitter.TokenTextSplitter;
-import org.springframework.ai.vectorstore.VectorStore;
-import org.springframework.core.io.FileSystemResource;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SignalType;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 @RestController
@@ -40,33 +50,59 @@ public class DocumentController {
         "jpg", "jpeg", "png", "gif", "webp", "bmp", "tiff"
     );
 
-    private final VectorStore vectorStore;
-    private final JdbcTemplate jdbcTemplate;
     private final ChatClient chatClient;
     private final RAGService ragService;
     private final SessionStoreService sessionStoreService;
+    private final ConversationHistoryManager historyManager;
+    private final AnswerCacheService answerCache;
+    private final EmbeddingMigrationService migrationService;
+    private final DocumentCatalogService catalogService;
+    private final DocumentIngestionPipeline ingestionPipeline;
+    private final ParsedTextCache parsedTextCache;
+    private final SseTokenCoalescer tokenCoalescer;
+    private final QueryCoalescer queryCoalescer;
+    private final HotTierService hotTierService;
+    private final VectorSnapshotService snapshotService;
 
     public DocumentController(
-        VectorStore vectorStore,
-        JdbcTemplate jdbcTemplate,
         ChatClient.Builder chatClientBuilder,
         RAGService ragService,
-        SessionStoreService sessionStoreService
+        SessionStoreService sessionStoreService,
+        ConversationHistoryManager historyManager,
+        AnswerCacheService answerCache,
+        EmbeddingMigrationService migrationService,
+        DocumentCatalogService catalogService,
+        DocumentIngestionPipeline ingestionPipeline,
+        ParsedTextCache parsedTextCache,
+        SseTokenCoalescer tokenCoalescer,
+        QueryCoalescer queryCoalescer,
+        HotTierService hotTierService,
+        VectorSnapshotService snapshotService
     ) {
-        this.vectorStore = vectorStore;
-        this.jdbcTemplate = jdbcTemplate;
         this.chatClient = chatClientBuilder.build();
         this.ragService = ragService;
         this.sessionStoreService = sessionStoreService;
+        this.historyManager = historyManager;
+        this.answerCache = answerCache;
+        this.migrationService = migrationService;
+        this.catalogService = catalogService;
+        this.ingestionPipeline = ingestionPipeline;
+        this.parsedTextCache = parsedTextCache;
+        this.tokenCoalescer = tokenCoalescer;
+        this.queryCoalescer = queryCoalescer;
+        this.hotTierService = hotTierService;
+        this.snapshotService = snapshotService;
         new File(UPLOAD_DIR).mkdirs();
     }
 
     @PostMapping("/upload")
     public ResponseEntity<Map<String, Object>> uploadDocument(
         @RequestParam(value = "file", required = false) MultipartFile file,
-        @RequestParam(value = "files", required = false) MultipartFile[] files
+        @RequestParam(value = "files", required = false) MultipartFile[] files,
+        @RequestParam(value = "collection", required = false) String collection
     ) {
         try {
+            String targetCollection = CollectionNames.normalize(collection);
             List<MultipartFile> inputs = new ArrayList<>();
             if (file != null) {
                 inputs.add(file);
@@ -80,11 +116,12 @@ public class DocumentController {
             }
 
             if (inputs.size() == 1) {
-                String imported = ingestSingleFile(inputs.get(0));
+                String imported = ingestSingleFile(inputs.get(0), targetCollection);
                 return ResponseEntity.ok(Map.of(
                     "mode", "single",
                     "message", "文件上传并导入成功",
                     "imported", imported,
+                    "collection", targetCollection,
                     "successCount", 1,
                     "failedCount", 0,
                     "success", List.of(imported),
@@ -92,7 +129,7 @@ public class DocumentController {
                 ));
             }
 
-            return uploadDocuments(inputs.toArray(new MultipartFile[0]));
+            return uploadDocuments(inputs.toArray(new MultipartFile[0]), targetCollection);
         } catch (IllegalArgumentException e) {
             return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
         } catch (IOException e) {
@@ -105,17 +142,26 @@ public class DocumentController {
     }
 
     @PostMapping("/upload/batch")
-    public ResponseEntity<Map<String, Object>> uploadDocuments(@RequestParam("files") MultipartFile[] files) {
+    public ResponseEntity<Map<String, Object>> uploadDocuments(
+        @RequestParam("files") MultipartFile[] files,
+        @RequestParam(value = "collection", required = false) String collection
+    ) {
         if (files == null || files.length == 0) {
             return ResponseEntity.badRequest().body(Map.of("error", "至少上传一个文件"));
         }
+        String targetCollection;
+        try {
+            targetCollection = CollectionNames.normalize(collection);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
 
         List<String> success = new ArrayList<>();
         List<Map<String, String>> failed = new ArrayList<>();
 
         for (MultipartFile file : files) {
             try {
-                String imported = ingestSingleFile(file);
+                String imported = ingestSingleFile(file, targetCollection);
                 success.add(imported);
             } catch (Exception e) {
                 String filename = file != null ? Objects.toString(file.getOriginalFilename(), "unknown") : "unknown";
@@ -126,6 +172,7 @@ public class DocumentController {
         Map<String, Object> resp = new HashMap<>();
         resp.put("mode", "batch");
         resp.put("requested", files.length);
+        resp.put("collection", targetCollection);
         resp.put("successCount", success.size());
         resp.put("failedCount", failed.size());
         resp.put("success", success);
@@ -135,23 +182,16 @@ public class DocumentController {
     }
 
     @GetMapping("/documents")
-    public ResponseEntity<List<Map<String, Object>>> listDocuments() {
+    public ResponseEntity<List<Map<String, Object>>> listDocuments(
+        @RequestParam(value = "collection", required = false) String collection
+    ) {
         try {
-            String sql = "SELECT metadata->>'source' as source, COUNT(*) as chunk_count " +
-                "FROM vector_store WHERE metadata->>'source' IS NOT NULL " +
-                "GROUP BY metadata->>'source' ORDER BY COUNT(*) DESC";
-
-            List<Map<String, Object>> documents = jdbcTemplate.query(sql, (rs, rowNum) -> {
-                Map<String, Object> doc = new HashMap<>();
-                String source = rs.getString("source");
-                String filename = extractReadableFileName(source);
-                doc.put("id", rowNum + 1);
-                doc.put("filename", filename);
-                doc.put("fullPath", source);
-                doc.put("chunkCount", rs.getInt("chunk_count"));
-                return doc;
-            });
+            List<Map<String, Object>> documents = catalogService.list(CollectionNames.normalizeOptional(collection)).stream()
+                .map(DocumentCatalogService.CatalogEntry::toMap)
+                .toList();
             return ResponseEntity.ok(documents);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(null);
         } catch (Exception e) {
             log.error("查询文档列表失败", e);
             return ResponseEntity.internalServerError().body(null);
@@ -159,31 +199,30 @@ public class DocumentController {
     }
 
     @GetMapping("/filters/options")
-    public ResponseEntity<Map<String, Object>> filterOptions() {
+    public ResponseEntity<Map<String, Object>> filterOptions(
+        @RequestParam(value = "collection", required = false) String collection
+    ) {
         try {
-            List<Map<String, Object>> docs = listDocuments().getBody();
-            if (docs == null) {
-                docs = Collections.emptyList();
-            }
-            List<String> sourceFiles = docs.stream()
-                .map(d -> Objects.toString(d.get("filename"), ""))
-                .filter(s -> !s.isBlank())
+            String scope = CollectionNames.normalizeOptional(collection);
+            List<String> sourceFiles = catalogService.list(scope).stream()
+                .map(DocumentCatalogService.CatalogEntry::originalName)
+                .filter(s -> s != null && !s.isBlank())
                 .distinct()
                 .sorted()
                 .toList();
 
-            List<String> fileTypes = docs.stream()
-                .map(d -> Objects.toString(d.get("filename"), ""))
-                .map(this::getExtension)
-                .filter(s -> !s.isBlank())
-                .distinct()
-                .sorted()
+            List<String> fileTypes = catalogService.distinctFileTypes(scope);
+            List<String> collections = catalogService.collections().stream()
+                .map(c -> c.get("name").toString())
                 .toList();
 
             return ResponseEntity.ok(Map.of(
                 "sourceFiles", sourceFiles,
-                "fileTypes", fileTypes
+                "fileTypes", fileTypes,
+                "collections", collections
             ));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
         } catch (Exception e) {
             log.error("获取过滤器选项失败", e);
             return ResponseEntity.internalServerError().body(Map.of("error", e.getMessage()));
@@ -191,32 +230,41 @@ public class DocumentController {
     }
 
     @DeleteMapping("/documents")
-    public ResponseEntity<Map<String, Object>> deleteDocument(@RequestParam("filename") String filename) {
+    public ResponseEntity<Map<String, Object>> deleteDocument(
+        @RequestParam(value = "filename", required = false) String filename,
+        @RequestParam(value = "documentId", required = false) String documentId
+    ) {
         try {
-            if (filename == null || filename.isBlank()) {
-                return ResponseEntity.badRequest().body(Map.of("error", "filename 不能为空"));
+            List<DocumentCatalogService.CatalogEntry> targets;
+            String normalized;
+            if (documentId != null && !documentId.isBlank()) {
+                targets = catalogService.findById(documentId.trim()).stream().toList();
+                normalized = targets.isEmpty() ? documentId.trim() : targets.get(0).originalName();
+            } else if (filename != null && !filename.isBlank()) {
+                normalized = Paths.get(filename).getFileName().toString();
+                targets = catalogService.findByName(normalized);
+            } else {
+                return ResponseEntity.badRequest().body(Map.of("error", "filename 或 documentId 不能为空"));
             }
 
-            String normalized = Paths.get(filename).getFileName().toString();
-
-            String deleteSql = "DELETE FROM vector_store WHERE metadata->>'source' LIKE ?";
-            int deletedRows = jdbcTemplate.update(deleteSql, "%" + normalized);
-
+            int deletedRows = 0;
             int deletedFiles = 0;
-            File uploadDir = new File(UPLOAD_DIR);
-            File[] files = uploadDir.listFiles();
-            if (files != null) {
-                for (File f : files) {
-                    if (f.getName().endsWith("_" + normalized) || f.getName().equals(normalized)) {
-                        if (f.delete()) {
-                            deletedFiles++;
-                        }
-                    }
+            for (DocumentCatalogService.CatalogEntry entry : targets) {
+                deletedRows += catalogService.delete(entry, migrationService::deleteByDocumentId);
+                hotTierService.syncDocument(entry);
+                snapshotService.onDocumentChanged(entry);
+                parsedTextCache.delete(entry.id());
+                if (Files.deleteIfExists(Paths.get(UPLOAD_DIR, entry.storedFilename()))) {
+                    deletedFiles++;
                 }
             }
+            if (!targets.isEmpty()) {
+                answerCache.onCorpusChanged();
+            }
 
             return ResponseEntity.ok(Map.of(
                 "filename", normalized,
+                "deletedDocuments", targets.size(),
                 "deletedVectors", deletedRows,
                 "deletedFiles", deletedFiles
             ));
@@ -265,46 +313,64 @@ public class DocumentController {
             Set<String> sourceFiles = toStringSet(request.get("sourceFiles"));
             Set<String> fileTypes = toStringSet(request.get("fileTypes"));
 
-            RAGService.RetrievalOptions options = new RAGService.RetrievalOptions(sourceFiles, fileTypes);
-            List<Document> similarDocs = ragService.hybridSearch(question, options);
-            if (similarDocs.isEmpty()) {
-                return ResponseEntity.ok(Map.of(
-                    "answer", "抱歉，未找到相关文档内容，请确认已上传相关文档。",
-                    "sources", Collections.emptyList(),
-                    "question", question,
-                    "sessionId", sessionId,
-                    "retrievedChunks", 0,
-                    "citations", Collections.emptyList()
-                ));
+            String collection = CollectionNames.normalizeOptional(Objects.toString(request.get("collection"), null));
+
+            RAGService.RetrievalOptions baseOptions = new RAGService.RetrievalOptions(sourceFiles, fileTypes, collection);
+            boolean firstTurn = sessionStoreService.getHistory(sessionId).isEmpty();
+            AnswerCacheService.Probe cacheProbe = answerCache.probe(question, baseOptions,
+                toBoolean(request.get("bypassCache")), !firstTurn);
+            // 缓存未命中时复用已算好的问题向量，原始查询检索不再重复向量化
+            RAGService.RetrievalOptions options = baseOptions.withQuestionEmbedding(cacheProbe.queryEmbedding());
+            if (cacheProbe.hit() != null) {
+                AnswerCacheService.CachedAnswer cached = cacheProbe.hit();
+                historyManager.recordExchange(sessionId, question, cached.answer());
+                Map<String, Object> response = new HashMap<>();
+                response.put("answer", cached.answer());
+                response.put("sources", collectSources(cached.citations()));
+                response.put("question", question);
+                response.put("sessionId", sessionId);
+                response.put("retrievedChunks", cached.chunkIds().size());
+                response.put("citations", cached.citations());
+                response.put("cached", true);
+                return ResponseEntity.ok(response);
             }
 
-            String historyContext = buildHistoryContext(sessionId);
-            String prompt = ragService.buildPrompt(question, similarDocs) + "\n\n### 对话历史:\n" + historyContext;
-            String draftAnswer = chatClient.prompt().user(prompt).call().content();
-
-            String verifyPrompt = ragService.buildVerificationPrompt(question, draftAnswer, similarDocs);
-            String verifyResult = chatClient.prompt().user(verifyPrompt).call().content();
-            String finalAnswer = mergeVerification(draftAnswer, verifyResult);
-
-            sessionStoreService.appendTurn(sessionId, "user", question);
-            sessionStoreService.appendTurn(sessionId, "assistant", finalAnswer);
+            // 会话无历史时 prompt 与会话无关，相同问题的并发请求共享一次检索与生成
+            GeneratedAnswer generated = queryCoalescer.canShareGeneration(firstTurn)
+                ? queryCoalescer.<GeneratedAnswer>flight("answer").execute(queryCoalescer.key(question, options),
+                    () -> generateAnswer(question, options, sessionId, cacheProbe))
+                : generateAnswer(question, options, sessionId, cacheProbe);
+            RAGService.RetrievalResult retrieval = generated.retrieval();
+            if (generated.answer() == null) {
+                Map<String, Object> response = new HashMap<>();
+                response.put("answer", "抱歉，未找到相关文档内容，请确认已上传相关文档。");
+                response.put("sources", Collections.emptyList());
+                response.put("question", question);
+                response.put("sessionId", sessionId);
+                response.put("retrievedChunks", 0);
+                response.put("citations", Collections.emptyList());
+                putDegradation(response, retrieval);
+                return ResponseEntity.ok(response);
+            }
 
-            List<Map<String, Object>> citations = buildCitations(similarDocs);
-            Set<String> sourceFilesOut = new LinkedHashSet<>();
-            citations.forEach(c -> sourceFilesOut.add(Objects.toString(c.get("source"), "unknown")));
+            historyManager.recordExchange(sessionId, question, generated.answer());
 
             Map<String, Object> response = new HashMap<>();
-            response.put("answer", finalAnswer);
-            response.put("draftAnswer", draftAnswer);
-            response.put("verification", verifyResult);
-            response.put("sources", new ArrayList<>(sourceFilesOut));
+            response.put("answer", generated.answer());
+            response.put("draftAnswer", generated.draftAnswer());
+            response.put("verification", generated.verification());
+            response.put("sources", collectSources(generated.citations()));
             response.put("question", question);
             response.put("sessionId", sessionId);
-            response.put("retrievedChunks", similarDocs.size());
-            response.put("citations", citations);
+            response.put("retrievedChunks", retrieval.documents().size());
+            response.put("citations", generated.citations());
+            response.put("cached", false);
+            putDegradation(response, retrieval);
 
             return ResponseEntity.ok(response);
 
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
         } catch (Exception e) {
             log.error("查询失败", e);
             return ResponseEntity.internalServerError().body(Map.of("error", "查询失败: " + e.getMessage()));
@@ -328,53 +394,89 @@ public class DocumentController {
                 Set<String> sourceFiles = toStringSet(request.get("sourceFiles"));
                 Set<String> fileTypes = toStringSet(request.get("fileTypes"));
 
-                RAGService.RetrievalOptions options = new RAGService.RetrievalOptions(sourceFiles, fileTypes);
-                List<Document> similarDocs = ragService.hybridSearch(question, options);
-
-                if (similarDocs.isEmpty()) {
-                    emitter.send(SseEmitter.event().name("token").data("抱歉，未找到相关文档内容，请确认已上传相关文档。"));
+                String collection = CollectionNames.normalizeOptional(Objects.toString(request.get("collection"), null));
+
+                RAGService.RetrievalOptions baseOptions = new RAGService.RetrievalOptions(sourceFiles, fileTypes, collection);
+                boolean firstTurn = sessionStoreService.getHistory(sessionId).isEmpty();
+                AnswerCacheService.Probe cacheProbe = answerCache.probe(question, baseOptions,
+                    toBoolean(request.get("bypassCache")), !firstTurn);
+                RAGService.RetrievalOptions options = baseOptions.withQuestionEmbedding(cacheProbe.queryEmbedding());
+                if (cacheProbe.hit() != null) {
+                    AnswerCacheService.CachedAnswer cached = cacheProbe.hit();
+                    historyManager.recordExchange(sessionId, question, cached.answer());
+                    emitter.send(SseEmitter.event().name("token").data(cached.answer()));
                     emitter.send(SseEmitter.event().name("meta").data(Map.of(
-                        "sources", Collections.emptyList(),
-                        "citations", Collections.emptyList(),
-                        "sessionId", sessionId
+                        "sources", collectSources(cached.citations()),
+                        "citations", cached.citations(),
+                        "sessionId", sessionId,
+                        "retrievedChunks", cached.chunkIds().size(),
+                        "cached", true
                     )));
                     emitter.send(SseEmitter.event().name("done").data("[DONE]"));
                     emitter.complete();
                     return;
                 }
 
-                String historyContext = buildHistoryContext(sessionId);
-                String prompt = ragService.buildPrompt(question, similarDocs) + "\n\n### 对话历史:\n" + historyContext;
+                // 会话无历史时相同问题的并发请求订阅同一次生成，后加入的订阅者先收到已生成的 token
+                String flightKey = queryCoalescer.key(question, options);
+                SingleFlight<StreamGeneration> flight = queryCoalescer.flight("stream");
+                boolean shared = queryCoalescer.canShareGeneration(firstTurn);
+                StreamGeneration generation;
+                do {
+                    // 拿到的共享生成刚被最后一个订阅者放弃时，其合并键随即释放，重新发起即可
+                    generation = shared
+                        ? flight.executeHeld(flightKey, () -> startGeneration(question, options, sessionId,
+                            () -> flight.release(flightKey)))
+                        : startGeneration(question, options, sessionId, () -> {});
+                } while (generation.tokens() != null && !generation.join());
+                RAGService.RetrievalResult retrieval = generation.retrieval();
+
+                if (generation.tokens() == null) {
+                    if (shared) {
+                        flight.release(flightKey);
+                    }
+                    emitter.send(SseEmitter.event().name("token").data("抱歉，未找到相关文档内容，请确认已上传相关文档。"));
+                    Map<String, Object> meta = new HashMap<>();
+                    meta.put("sources", Collections.emptyList());
+                    meta.put("citations", Collections.emptyList());
+                    meta.put("sessionId", sessionId);
+                    putDegradation(meta, retrieval);
+                    emitter.send(SseEmitter.event().name("meta").data(meta));
+                    emitter.send(SseEmitter.event().name("done").data("[DONE]"));
+                    emitter.complete();
+                    return;
+                }
 
                 StringBuilder answerBuilder = new StringBuilder();
-                chatClient.prompt()
-                    .user(prompt)
-                    .stream()
-                    .content()
+                SseTokenCoalescer.TokenStream tokens = tokenCoalescer.open(emitter);
+                generation.tokens()
                     .doOnNext(token -> {
                         answerBuilder.append(token);
                         try {
-                            emitter.send(SseEmitter.event().name("token").data(token));
+                            tokens.send(token);
                         } catch (IOException e) {
                             throw new RuntimeException(e);
                         }
                     })
+                    .doFinally(generation::leave)
                     .blockLast();
+                tokens.flush();
 
                 String finalAnswer = answerBuilder.toString();
-                sessionStoreService.appendTurn(sessionId, "user", question);
-                sessionStoreService.appendTurn(sessionId, "assistant", finalAnswer);
-
-                List<Map<String, Object>> citations = buildCitations(similarDocs);
-                Set<String> sourceFilesOut = new LinkedHashSet<>();
-                citations.forEach(c -> sourceFilesOut.add(Objects.toString(c.get("source"), "unknown")));
-
-                emitter.send(SseEmitter.event().name("meta").data(Map.of(
-                    "sources", new ArrayList<>(sourceFilesOut),
-                    "citations", citations,
-                    "sessionId", sessionId,
-                    "retrievedChunks", similarDocs.size()
-                )));
+                historyManager.recordExchange(sessionId, question, finalAnswer);
+
+                List<Map<String, Object>> citations = buildCitations(generation.contextDocs());
+                if (generation.claimCacheStore()) {
+                    storeAnswer(cacheProbe, retrieval, question, finalAnswer, citations, generation.contextDocs());
+                }
+
+                Map<String, Object> meta = new HashMap<>();
+                meta.put("sources", collectSources(citations));
+                meta.put("citations", citations);
+                meta.put("sessionId", sessionId);
+                meta.put("retrievedChunks", retrieval.documents().size());
+                putDegradation(meta, retrieval);
+                emitter.send(SseEmitter.event().name("meta").data(meta));
                 emitter.send(SseEmitter.event().name("done").data("[DONE]"));
                 emitter.complete();
             } catch (Exception e) {
@@ -388,7 +490,7 @@ public class DocumentController {
         return emitter;
     }
 
-    private String ingestSingleFile(MultipartFile file) throws IOException {
+    private String ingestSingleFile(MultipartFile file, String collection) throws IOException {
         if (file == null || file.isEmpty()) {
             throw new IllegalArgumentException("文件不能为空");
         }
@@ -410,32 +512,11 @@ public class DocumentController {
 
         String filename = System.nanoTime() + "_" + originalFilename;
         Path filepath = Paths.get(UPLOAD_DIR, filename);
-        Files.write(filepath, file.getBytes());
+        file.transferTo(filepath.toAbsolutePath());
         log.info("文件已保存: {}", filepath);
 
         try {
-            List<Document> readDocs = readAsDocumentsWithFallback(filepath, extension);
-            if (readDocs == null || readDocs.isEmpty()) {
-                throw new IllegalArgumentException("文档未解析出可用内容");
-            }
-
-            for (Document d : readDocs) {
-                d.getMetadata().put("source", filename);
-                d.getMetadata().put("fileType", extension);
-            }
-
-            TextSplitter textSplitter = createAdaptiveSplitter(extension);
-            List<Document> chunks = textSplitter.split(readDocs).stream()
-                .filter(d -> d.getText() != null && !d.getText().trim().isBlank())
-                .collect(Collectors.toList());
-
-            if (chunks.isEmpty()) {
-                throw new IllegalArgumentException("文档内容为空或无法切分为有效文本");
-            }
-
-            log.info("开始向量化并导入: {}, extension={}, chunks={}", filename, extension, chunks.size());
-            vectorStore.accept(chunks);
-            log.info("导入完成: {}", filename);
+            ingestionPipeline.ingest(filepath, filename, originalFilename, extension, collection);
             return filename;
         } catch (Exception e) {
             try {
@@ -447,74 +528,120 @@ public class DocumentController {
         }
     }
 
-    private List<Document> readAsDocumentsWithFallback(Path filepath, String extension) throws IOException {
-        if (isTextLike(extension)) {
-            String content = Files.readString(filepath, StandardCharsets.UTF_8);
-            if (content == null || content.trim().isBlank()) {
-                throw new IllegalArgumentException("文本文件内容为空");
-            }
-            Map<String, Object> metadata = new LinkedHashMap<>();
-            metadata.put("parser", "plain-text");
-            metadata.put("extension", extension);
-            return List.of(new Document(content, metadata));
+    private List<Map<String, Object>> buildCitations(List<Document> docs) {
+        List<Map<String, Object>> citations = new ArrayList<>();
+        for (int i = 0; i < docs.size(); i++) {
+            Document doc = docs.get(i);
+            String source = Objects.toString(doc.getMetadata().get("source"), "unknown");
+            citations.add(Map.of(
+                "index", i + 1,
+                "source", extractReadableFileName(source),
+                "snippet", trimSnippet(doc.getText())
+            ));
         }
+        return citations;
+    }
 
-        if (isImageType(extension)) {
-            throw new IllegalArgumentException("图片文件需要 OCR 才能用于文本问答。请先转为可复制文本的 PDF/TXT，或接入 OCR 引擎（Tesseract/PaddleOCR）");
-        }
+    private List<String> collectSources(List<Map<String, Object>> citations) {
+        Set<String> sources = new LinkedHashSet<>();
+        citations.forEach(c -> sources.add(Objects.toString(c.get("source"), "unknown")));
+        return new ArrayList<>(sources);
+    }
 
-        TikaDocumentReader reader = new TikaDocumentReader(new FileSystemResource(filepath.toFile()));
-        List<Document> docs = reader.read();
-        if (docs == null || docs.isEmpty()) {
-            throw new IllegalArgumentException("该文件无法提取文本，请确认文档未损坏且包含文本层");
+    /**
+     * 检索 + 打包上下文 + 生成草稿答案并校验；未检索到文档时 answer 为 null
+     */
+    private GeneratedAnswer generateAnswer(String question, RAGService.RetrievalOptions options, String sessionId,
+                                           AnswerCacheService.Probe cacheProbe) {
+        RAGService.RetrievalResult retrieval = ragService.retrieve(question, options);
+        if (retrieval.documents().isEmpty()) {
+            return new GeneratedAnswer(retrieval, null, null, null, Collections.emptyList());
         }
-        return docs;
-    }
 
-    private boolean isTextLike(String extension) {
-        return Set.of("txt", "md", "csv", "json", "xml", "html").contains(extension);
-    }
+        List<Document> contextDocs = ragService.packContext(retrieval.documents());
+        String historyContext = historyManager.buildHistoryContext(sessionId);
+        String prompt = ragService.buildPrompt(question, contextDocs) + "\n\n### 对话历史:\n" + historyContext;
+        String draftAnswer = chatClient.prompt().user(prompt).call().content();
+
+        String verifyPrompt = ragService.buildVerificationPrompt(question, draftAnswer, contextDocs);
+        String verifyResult = chatClient.prompt().user(verifyPrompt).call().content();
+        String finalAnswer = mergeVerification(draftAnswer, verifyResult);
 
-    private boolean isImageType(String extension) {
-        return Set.of("jpg", "jpeg", "png", "gif", "webp", "bmp", "tiff").contains(extension);
+        List<Map<String, Object>> citations = buildCitations(contextDocs);
+        storeAnswer(cacheProbe, retrieval, question, finalAnswer, citations, contextDocs);
+        return new GeneratedAnswer(retrieval, draftAnswer, verifyResult, finalAnswer, citations);
     }
 
-    private String buildHistoryContext(String sessionId) {
-        List<Map<String, String>> hist = sessionStoreService.getHistory(sessionId);
-        if (hist == null || hist.isEmpty()) {
-            return "无";
+    /**
+     * 检索并启动流式生成；token 流可被多个订阅者共享（后订阅者先重放已生成的部分），全部订阅者中途离开时取消生成
+     * onFinish 在生成结束或被放弃时执行（共享时释放合并键）；未检索到文档时 tokens 为 null
+     */
+    private StreamGeneration startGeneration(String question, RAGService.RetrievalOptions options, String sessionId,
+                                             Runnable onFinish) {
+        RAGService.RetrievalResult retrieval = ragService.retrieve(question, options);
+        if (retrieval.documents().isEmpty()) {
+            return new StreamGeneration(retrieval, Collections.emptyList(), null, () -> {});
         }
-        StringBuilder sb = new StringBuilder();
-        for (Map<String, String> turn : hist) {
-            sb.append(turn.getOrDefault("role", "unknown"))
-                .append(": ")
-                .append(turn.getOrDefault("content", ""))
-                .append("\n");
+
+        List<Document> contextDocs = ragService.packContext(retrieval.documents());
+        String historyContext = historyManager.buildHistoryContext(sessionId);
+        String prompt = ragService.buildPrompt(question, contextDocs) + "\n\n### 对话历史:\n" + historyContext;
+        // 只执行一次：放弃后断开上游还会触发 doFinally，此时合并键可能已属于重新发起的生成
+        AtomicBoolean finished = new AtomicBoolean(false);
+        Runnable finish = () -> {
+            if (finished.compareAndSet(false, true)) {
+                onFinish.run();
+            }
+        };
+        AtomicReference<Disposable> connection = new AtomicReference<>();
+        Flux<String> tokens = chatClient.prompt()
+            .user(prompt)
+            .stream()
+            .content()
+            .doFinally(signal -> finish.run())
+            .replay()
+            .autoConnect(1, connection::set);
+        // 放弃时先释放合并键再断开上游：断开后不会再有请求拿到这个已取消的流
+        return new StreamGeneration(retrieval, contextDocs, tokens, () -> {
+            finish.run();
+            Disposable upstream = connection.get();
+            if (upstream != null) {
+                upstream.dispose();
+            }
+        });
+    }
+
+    /**
+     * 检索因时间预算降级时告知客户端被放弃的步骤
+     */
+    private void putDegradation(Map<String, Object> response, RAGService.RetrievalResult retrieval) {
+        if (!retrieval.skippedSteps().isEmpty()) {
+            response.put("degraded", true);
+            response.put("skippedSteps", retrieval.skippedSteps());
         }
-        return sb.toString();
     }
 
-    private TextSplitter createAdaptiveSplitter(String extension) {
-        return switch (extension) {
-            case "ppt", "pptx", "pdf" -> new TokenTextSplitter(700, 180, 5, 12000, true);
-            case "doc", "docx", "md", "txt" -> new TokenTextSplitter(600, 150, 5, 10000, true);
-            case "csv", "xls", "xlsx", "json", "xml", "html" -> new TokenTextSplitter(450, 120, 5, 8000, true);
-            default -> new TokenTextSplitter(600, 150, 5, 10000, true);
-        };
+    /**
+     * 降级检索得到的答案不写入缓存，避免后续相同问题一直命中不完整的结果
+     */
+    private void storeAnswer(AnswerCacheService.Probe cacheProbe, RAGService.RetrievalResult retrieval, String question,
+                             String answer, List<Map<String, Object>> citations, List<Document> contextDocs) {
+        if (retrieval.skippedSteps().isEmpty()) {
+            answerCache.store(cacheProbe, question, answer, citations, evidenceChunkIds(contextDocs));
+        }
     }
 
-    private List<Map<String, Object>> buildCitations(List<Document> docs) {
-        List<Map<String, Object>> citations = new ArrayList<>();
-        for (int i = 0; i < docs.size(); i++) {
-            Document doc = docs.get(i);
-            String source = Objects.toString(doc.getMetadata().get("source"), "unknown");
-            citations.add(Map.of(
-                "index", i + 1,
-                "source", extractReadableFileName(source),
-                "snippet", trimSnippet(doc.getText())
-            ));
+    private List<String> evidenceChunkIds(List<Document> contextDocs) {
+        List<String> ids = new ArrayList<>();
+        for (Document doc : contextDocs) {
+            Object merged = doc.getMetadata().get("chunkIds");
+            if (merged instanceof List<?> list && !list.isEmpty()) {
+                list.forEach(id -> ids.add(id.toString()));
+            } else if (doc.getId() != null) {
+                ids.add(doc.getId());
+            }
         }
-        return citations;
+        return ids;
     }
 
     private String trimSnippet(String text) {
@@ -537,6 +664,10 @@ public class DocumentController {
         return draftAnswer;
     }
 
+    private boolean toBoolean(Object value) {
+        return value != null && Boolean.parseBoolean(value.toString().trim());
+    }
+
     @SuppressWarnings("unchecked")
     private Set<String> toStringSet(Object value) {
         if (value == null) {
@@ -575,4 +706,50 @@ public class DocumentController {
         }
         return filename;
     }
+
+    private record GeneratedAnswer(RAGService.RetrievalResult retrieval, String draftAnswer, String verification,
+                                   String answer, List<Map<String, Object>> citations) {}
+
+    private record StreamGeneration(RAGService.RetrievalResult retrieval, List<Document> contextDocs,
+                                    Flux<String> tokens, Runnable onAbandon, AtomicInteger subscribers,
+                                    AtomicBoolean cacheStored) {
+
+        StreamGeneration(RAGService.RetrievalResult retrieval, List<Document> contextDocs, Flux<String> tokens,
+                         Runnable onAbandon) {
+            this(retrieval, contextDocs, tokens, onAbandon, new AtomicInteger(), new AtomicBoolean(false));
+        }
+
+        /**
+         * 订阅前登记；生成已被放弃（订阅者数记为 -1）时返回 false
+         */
+        boolean join() {
+            while (true) {
+                int count = subscribers.get();
+                if (count < 0) {
+                    return false;
+                }
+                if (subscribers.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * 订阅结束时调用；最后一个订阅者未等到完成就离开（客户端断开或出错）时放弃生成
+         * 正常完成后不放弃：回放缓存完整，后到的订阅者仍可直接重放
+         */
+        void leave(SignalType signal) {
+            if (subscribers.decrementAndGet() == 0 && signal != SignalType.ON_COMPLETE
+                && subscribers.compareAndSet(0, -1)) {
+                onAbandon.run();
+            }
+        }
+
+        /**
+         * 共享同一生成的订阅者中只由第一个完成的写入答案缓存
+         */
+        boolean claimCacheStore() {
+            return cacheStored.compareAndSet(false, true);
+        }
+    }
 }
@@ -0,0 +1,117 @@
+package com.techie.springai.rag.controller;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SSE token 合并 - 模型逐 token 输出时先缓冲，按时间窗口或字节阈值合并为一个 token 事件发送
+ * 客户端按原协议拼接 token 事件的 data 即可，合并只减少写入与刷新次数
+ */
+@Component
+public class SseTokenCoalescer {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "sse-coalescer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @Value("${rag.stream.coalesce.enabled:true}")
+    private boolean enabled;
+
+    @Value("${rag.stream.coalesce.window-ms:40}")
+    private long windowMs;
+
+    @Value("${rag.stream.coalesce.max-bytes:512}")
+    private int maxBytes;
+
+    public TokenStream open(SseEmitter emitter) {
+        return new TokenStream(emitter);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private static int utf8Length(String text) {
+        int bytes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            bytes += c < 0x80 ? 1 : c < 0x800 ? 2 : Character.isSurrogate(c) ? 2 : 3;
+        }
+        return bytes;
+    }
+
+    /**
+     * 单个 SSE 流的 token 缓冲；发送 meta/done 等其他事件前必须先 flush
+     */
+    public final class TokenStream {
+
+        private final SseEmitter emitter;
+        private final StringBuilder buffer = new StringBuilder();
+        private int bufferedBytes;
+        private ScheduledFuture<?> pending;
+        private IOException failure;
+
+        private TokenStream(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        public synchronized void send(String token) throws IOException {
+            if (failure != null) {
+                throw failure;
+            }
+            if (!enabled || windowMs <= 0) {
+                emit(token);
+                return;
+            }
+            buffer.append(token);
+            bufferedBytes += utf8Length(token);
+            if (bufferedBytes >= maxBytes) {
+                flush();
+            } else if (pending == null) {
+                pending = scheduler.schedule(this::timedFlush, windowMs, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        public synchronized void flush() throws IOException {
+            if (pending != null) {
+                pending.cancel(false);
+                pending = null;
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            if (buffer.isEmpty()) {
+                return;
+            }
+            String data = buffer.toString();
+            buffer.setLength(0);
+            bufferedBytes = 0;
+            emit(data);
+        }
+
+        private synchronized void timedFlush() {
+            pending = null;
+            try {
+                flush();
+            } catch (IOException e) {
+                // 客户端已断开：记录下来，下一个 token 到达时抛给模型流终止生成
+                failure = e;
+            }
+        }
+
+        private void emit(String data) throws IOException {
+            emitter.send(SseEmitter.event().name("token").data(data));
+        }
+    }
+}
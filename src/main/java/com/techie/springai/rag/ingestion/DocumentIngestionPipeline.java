@@ -0,0 +1,416 @@
+package com.techie.springai.rag.ingestion;
+
+import com.techie.springai.rag.config.RequestPriority;
+import com.techie.springai.rag.service.AnswerCacheService;
+import com.techie.springai.rag.service.CollectionNames;
+import com.techie.springai.rag.service.DocumentCatalogService;
+import com.techie.springai.rag.service.EmbeddingMigrationService;
+import com.techie.springai.rag.service.HotTierService;
+import com.techie.springai.rag.service.NearDuplicateService;
+import com.techie.springai.rag.service.VectorIndexService;
+import com.techie.springai.rag.service.VectorSnapshotService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.transformer.splitter.TextSplitter;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * 文档导入流水线 - 解析 → 切分 → 向量化写入 → 登记文档目录
+ * Office/PDF 走流式解析，每个片段切分后攒够一批即向量化写入，不等整篇解析结束
+ * 解析与向量化不在数据库事务内：分块按批提交，全部写完后再用短事务登记目录，失败时补偿删除已写入的分块
+ * 进程在补偿前退出留下的无目录分块由定期清扫回收
+ * 解析出的片段同时写入 ParsedTextCache，重新切分时直接回放缓存
+ */
+@Service
+public class DocumentIngestionPipeline {
+
+    private static final Logger log = LoggerFactory.getLogger(DocumentIngestionPipeline.class);
+    private static final Set<String> TEXT_TYPES = Set.of("txt", "md", "csv", "json", "xml", "html");
+    private static final String UPLOAD_DIR = "uploads/";
+    private static final String VECTOR_TABLE = "vector_store";
+    private static final Set<String> TIKA_TYPES = Set.of("pdf", "doc", "docx", "ppt", "pptx", "xls", "xlsx");
+    private static final Set<String> IMAGE_TYPES = Set.of("jpg", "jpeg", "png", "gif", "webp", "bmp", "tiff");
+
+    private final VectorStore vectorStore;
+    private final EmbeddingModel embeddingModel;
+    private final StreamingDocumentReader streamingReader;
+    private final DocumentCatalogService catalogService;
+    private final EmbeddingMigrationService migrationService;
+    private final AnswerCacheService answerCache;
+    private final ParsedTextCache parsedTextCache;
+    private final NearDuplicateService nearDuplicateService;
+    private final VectorIndexService vectorIndexService;
+    private final HotTierService hotTierService;
+    private final VectorSnapshotService snapshotService;
+    /** 正在导入（分块已开始写入、目录尚未登记）的文档，清扫时跳过 */
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    @Value("${rag.ingestion.embed-batch-size:32}")
+    private int embedBatchSize;
+
+    @Value("${rag.chunking.paged.chunk-size:700}")
+    private int pagedChunkSize;
+
+    @Value("${rag.chunking.paged.min-chunk-chars:180}")
+    private int pagedMinChunkChars;
+
+    @Value("${rag.chunking.paged.max-chunks:12000}")
+    private int pagedMaxChunks;
+
+    @Value("${rag.chunking.prose.chunk-size:600}")
+    private int proseChunkSize;
+
+    @Value("${rag.chunking.prose.min-chunk-chars:150}")
+    private int proseMinChunkChars;
+
+    @Value("${rag.chunking.prose.max-chunks:10000}")
+    private int proseMaxChunks;
+
+    @Value("${rag.chunking.structured.chunk-size:450}")
+    private int structuredChunkSize;
+
+    @Value("${rag.chunking.structured.min-chunk-chars:120}")
+    private int structuredMinChunkChars;
+
+    @Value("${rag.chunking.structured.max-chunks:8000}")
+    private int structuredMaxChunks;
+
+    public DocumentIngestionPipeline(VectorStore vectorStore, EmbeddingModel embeddingModel,
+                                     StreamingDocumentReader streamingReader,
+                                     DocumentCatalogService catalogService, EmbeddingMigrationService migrationService,
+                                     AnswerCacheService answerCache, ParsedTextCache parsedTextCache,
+                                     NearDuplicateService nearDuplicateService, VectorIndexService vectorIndexService,
+                                     HotTierService hotTierService, VectorSnapshotService snapshotService) {
+        this.vectorStore = vectorStore;
+        this.embeddingModel = embeddingModel;
+        this.streamingReader = streamingReader;
+        this.catalogService = catalogService;
+        this.migrationService = migrationService;
+        this.answerCache = answerCache;
+        this.parsedTextCache = parsedTextCache;
+        this.nearDuplicateService = nearDuplicateService;
+        this.vectorIndexService = vectorIndexService;
+        this.hotTierService = hotTierService;
+        this.snapshotService = snapshotService;
+    }
+
+    /**
+     * 导入已保存到磁盘的文件；任一步失败时回收已写入的分块，目录不会残留
+     */
+    public DocumentCatalogService.CatalogEntry ingest(Path filepath, String storedFilename, String originalFilename,
+                                                      String extension, String collection) throws IOException {
+        return ingest(filepath, storedFilename, originalFilename, extension, contentHash(filepath), collection);
+    }
+
+    public DocumentCatalogService.CatalogEntry ingest(Path filepath, String storedFilename, String originalFilename,
+                                                      String extension, String contentHash, String collection)
+        throws IOException {
+        if (IMAGE_TYPES.contains(extension)) {
+            throw new IllegalArgumentException("图片文件需要 OCR 才能用于文本问答。请先转为可复制文本的 PDF/TXT，或接入 OCR 引擎（Tesseract/PaddleOCR）");
+        }
+
+        String documentId = UUID.randomUUID().toString();
+        DocumentCatalogService.CatalogEntry entry = new DocumentCatalogService.CatalogEntry(documentId,
+            originalFilename, storedFilename, extension, 0, Files.size(filepath), contentHash, Instant.now(),
+            CollectionNames.normalize(collection));
+
+        log.info("开始解析并导入: {}, extension={}", storedFilename, extension);
+        DocumentCatalogService.CatalogEntry registered;
+        inFlight.add(documentId);
+        try (ParsedTextCache.Sink cacheSink = parsedTextCache.open(documentId)) {
+            try {
+                ChunkWriter writer = new ChunkWriter(createAdaptiveSplitter(entry.fileType()), documentId, this::write, null);
+                int chunkCount = parseInto(entry, filepath, cacheSink, writer);
+                // 缓存先落盘再登记目录：登记成功的文档一定有解析缓存，任一步失败都整体回收
+                cacheSink.commit();
+                registered = catalogService.register(entry.withChunkCount(chunkCount));
+            } catch (RuntimeException | IOException e) {
+                catalogService.discard(documentId, migrationService::deleteByDocumentId);
+                parsedTextCache.delete(documentId);
+                throw e;
+            }
+        } finally {
+            inFlight.remove(documentId);
+        }
+        answerCache.onCorpusChanged();
+        vectorIndexService.ensureCollectionIndex(registered.collection());
+        hotTierService.syncDocument(registered);
+        snapshotService.onDocumentChanged(registered);
+        log.info("导入完成: {}, collection={}, chunks={}", storedFilename, registered.collection(), registered.chunkCount());
+        return registered;
+    }
+
+    /**
+     * 按当前切分参数重建一个文档的分块：优先回放解析缓存，没有缓存时从上传文件重新解析并补建缓存
+     * 先在事务外切分并向量化全部新分块（期间旧分块照常可检索），再用短事务删除旧分块、写入新分块
+     * 新分块在交换前暂存在内存中，单个文档的分块数受 rag.chunking.*.max-chunks 约束
+     */
+    public RechunkResult rechunk(DocumentCatalogService.CatalogEntry entry) throws IOException {
+        boolean fromCache = parsedTextCache.exists(entry.id());
+        EmbeddingMigrationService.QueryTarget target = migrationService.isActive()
+            ? migrationService.queryTarget() : new EmbeddingMigrationService.QueryTarget(VECTOR_TABLE, embeddingModel);
+        EmbeddedBatches embedded = new EmbeddedBatches(target.model());
+        List<Runnable> nearDuplicates = new ArrayList<>();
+        ChunkWriter writer = new ChunkWriter(createAdaptiveSplitter(entry.fileType()), entry.id(), embedded, nearDuplicates);
+        int chunkCount;
+        if (fromCache) {
+            parsedTextCache.replay(entry.id(), baseMetadata(entry), writer);
+            chunkCount = writer.finish();
+        } else {
+            Path filepath = Paths.get(UPLOAD_DIR, entry.storedFilename());
+            if (!Files.exists(filepath)) {
+                throw new IllegalArgumentException("没有解析缓存，原文件也不存在: " + entry.storedFilename());
+            }
+            try (ParsedTextCache.Sink cacheSink = parsedTextCache.open(entry.id())) {
+                chunkCount = parseInto(entry, filepath, cacheSink, writer);
+                cacheSink.commit();
+            }
+        }
+        DocumentCatalogService.CatalogEntry updated = catalogService.replaceChunks(entry,
+            migrationService::deleteByDocumentId, new DocumentCatalogService.ReplacementChunks(target.table(),
+                embedded.chunks, embedded.embeddings, chunkCount, nearDuplicates));
+        hotTierService.syncDocument(updated);
+        snapshotService.onDocumentChanged(updated);
+        return new RechunkResult(updated, fromCache);
+    }
+
+    /**
+     * 回收没有目录行的分块（导入中途进程退出、分片上的补偿删除失败），包括其他向量分片上的；正在导入的文档跳过
+     * 先看导入中集合再查目录：导入在登记目录提交后才移出集合，两者之间不会漏判
+     */
+    @Scheduled(initialDelayString = "${rag.ingestion.orphan-sweep.initial-delay-ms:60000}",
+        fixedDelayString = "${rag.ingestion.orphan-sweep.interval-ms:3600000}")
+    public void sweepOrphans() {
+        try {
+            int swept = 0;
+            for (String documentId : catalogService.orphanDocumentIds()) {
+                if (inFlight.contains(documentId) || catalogService.findById(documentId).isPresent()) {
+                    continue;
+                }
+                catalogService.discard(documentId, migrationService::deleteByDocumentId);
+                swept++;
+            }
+            if (swept > 0) {
+                log.warn("已回收导入中断遗留的分块: {} 个文档", swept);
+            }
+        } catch (Exception e) {
+            log.warn("清扫无目录分块失败: {}", e.getMessage());
+        }
+    }
+
+    private int parseInto(DocumentCatalogService.CatalogEntry entry, Path filepath, Consumer<Document> cacheSink,
+                          ChunkWriter writer) {
+        Consumer<Document> segmentConsumer = cacheSink.andThen(writer);
+        Map<String, Object> baseMetadata = baseMetadata(entry);
+        try {
+            if (TEXT_TYPES.contains(entry.fileType())) {
+                segmentConsumer.accept(readTextDocument(filepath, entry.fileType(), baseMetadata));
+            } else {
+                int segments = streamingReader.read(filepath, baseMetadata, segmentConsumer);
+                if (segments == 0) {
+                    throw new IllegalArgumentException("该文件无法提取文本，请确认文档未损坏且包含文本层");
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return writer.finish();
+    }
+
+    private Map<String, Object> baseMetadata(DocumentCatalogService.CatalogEntry entry) {
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put("source", entry.storedFilename());
+        metadata.put("fileType", entry.fileType());
+        metadata.put("documentId", entry.id());
+        metadata.put(CollectionNames.METADATA_KEY, entry.collection());
+        return metadata;
+    }
+
+    private Document readTextDocument(Path filepath, String extension, Map<String, Object> baseMetadata) throws IOException {
+        String content = Files.readString(filepath, StandardCharsets.UTF_8);
+        if (content.trim().isBlank()) {
+            throw new IllegalArgumentException("文本文件内容为空");
+        }
+        Map<String, Object> metadata = new HashMap<>(baseMetadata);
+        metadata.put("parser", "plain-text");
+        metadata.put("extension", extension);
+        return new Document(content, metadata);
+    }
+
+    /**
+     * 导入/重新切分的向量化以 BULK 优先级执行，不与用户查询抢 Ollama 连接
+     */
+    private void write(List<Document> chunks) {
+        RequestPriority.run(RequestPriority.BULK, () -> {
+            if (migrationService.isActive()) {
+                migrationService.write(chunks);
+            } else {
+                vectorStore.accept(chunks);
+            }
+        });
+    }
+
+    private TextSplitter createAdaptiveSplitter(String extension) {
+        return switch (Objects.toString(extension, "")) {
+            case "ppt", "pptx", "pdf" -> new TokenTextSplitter(pagedChunkSize, pagedMinChunkChars, 5, pagedMaxChunks, true);
+            case "csv", "xls", "xlsx", "json", "xml", "html" ->
+                new TokenTextSplitter(structuredChunkSize, structuredMinChunkChars, 5, structuredMaxChunks, true);
+            default -> new TokenTextSplitter(proseChunkSize, proseMinChunkChars, 5, proseMaxChunks, true);
+        };
+    }
+
+    public static boolean isIngestible(String extension) {
+        return extension != null && !extension.isBlank() && !IMAGE_TYPES.contains(extension)
+            && (TEXT_TYPES.contains(extension) || TIKA_TYPES.contains(extension));
+    }
+
+    static String contentHash(Path filepath) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream in = new DigestInputStream(Files.newInputStream(filepath), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * 重新切分用：逐批向量化但不写库，交换事务内一次写入
+     */
+    private static final class EmbeddedBatches implements Consumer<List<Document>> {
+
+        private final EmbeddingModel model;
+        private final List<Document> chunks = new ArrayList<>();
+        private final List<float[]> embeddings = new ArrayList<>();
+
+        EmbeddedBatches(EmbeddingModel model) {
+            this.model = model;
+        }
+
+        @Override
+        public void accept(List<Document> batch) {
+            List<float[]> vectors = RequestPriority.call(RequestPriority.BULK,
+                () -> model.embed(batch.stream().map(Document::getText).toList()));
+            chunks.addAll(batch);
+            embeddings.addAll(vectors);
+        }
+    }
+
+    /**
+     * 逐片段切分，攒够 embed-batch-size 个分块后交给 batchSink；chunkIndex 跨片段连续编号
+     * 与已入库分块近重复的分块不再向量化，只记录为规范分块的额外来源；文档内部的重复段落在内存中判重后丢弃
+     * 本文档新的规范分块在所在批次写出后才登记指纹
+     * deferred 不为空时近重复登记与引用不立即执行，收集起来由调用方在交换事务内回放
+     */
+    private final class ChunkWriter implements Consumer<Document> {
+
+        private final TextSplitter splitter;
+        private final String documentId;
+        private final Consumer<List<Document>> batchSink;
+        private final List<Runnable> deferred;
+        private final NearDuplicateService.LocalIndex ownChunks = nearDuplicateService.localIndex();
+        private final List<Document> pending = new ArrayList<>();
+        private final List<NearDuplicateService.Fingerprint> registrations = new ArrayList<>();
+        private int chunkIndex = 0;
+        private int collapsed = 0;
+
+        ChunkWriter(TextSplitter splitter, String documentId, Consumer<List<Document>> batchSink, List<Runnable> deferred) {
+            this.splitter = splitter;
+            this.documentId = documentId;
+            this.batchSink = batchSink;
+            this.deferred = deferred;
+        }
+
+        @Override
+        public void accept(Document segment) {
+            for (Document chunk : splitter.split(List.of(segment))) {
+                if (chunk.getText() == null || chunk.getText().trim().isBlank()) {
+                    continue;
+                }
+                NearDuplicateService.Fingerprint fingerprint = nearDuplicateService.fingerprint(chunk);
+                if (fingerprint != null && ownChunks.find(fingerprint).isPresent()) {
+                    collapsed++;
+                    continue;
+                }
+                // 记录分块顺序，供上下文打包时合并相邻分块；文档内丢弃的重复段落不占编号
+                chunk.getMetadata().put("chunkIndex", chunkIndex++);
+                if (fingerprint != null) {
+                    Optional<String> canonical = nearDuplicateService.findCanonical(fingerprint, documentId);
+                    if (canonical.isPresent()) {
+                        run(() -> nearDuplicateService.addReference(canonical.get(), chunk));
+                        collapsed++;
+                        continue;
+                    }
+                    ownChunks.add(fingerprint);
+                    registrations.add(fingerprint);
+                }
+                pending.add(chunk);
+            }
+            if (pending.size() >= Math.max(1, embedBatchSize)) {
+                flush();
+            }
+        }
+
+        /**
+         * 写出剩余分块并返回总分块数；没有任何有效分块时视为失败
+         */
+        int finish() {
+            flush();
+            if (chunkIndex == 0) {
+                throw new IllegalArgumentException("文档内容为空或无法切分为有效文本");
+            }
+            if (collapsed > 0) {
+                log.info("近重复分块已合并: documentChunks={}, collapsed={}", chunkIndex, collapsed);
+            }
+            return chunkIndex;
+        }
+
+        void flush() {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batchSink.accept(List.copyOf(pending));
+            pending.clear();
+            // 分块写入后才登记为规范分块，其他文档不会引用尚未入库的分块
+            for (NearDuplicateService.Fingerprint fingerprint : registrations) {
+                run(() -> nearDuplicateService.register(fingerprint, documentId));
+            }
+            registrations.clear();
+        }
+
+        private void run(Runnable action) {
+            if (deferred != null) {
+                deferred.add(action);
+            } else {
+                action.run();
+            }
+        }
+    }
+
+    public record RechunkResult(DocumentCatalogService.CatalogEntry entry, boolean fromCache) {}
+}
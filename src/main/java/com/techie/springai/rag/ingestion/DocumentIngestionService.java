@@ -1,34 +1,438 @@
 package com.techie.springai.rag.ingestion;
 
+import com.techie.springai.rag.service.CollectionNames;
+import com.techie.springai.rag.service.DocumentCatalogService;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.ai.reader.tika.TikaDocumentReader;
-import org.springframework.ai.transformer.splitter.TextSplitter;
-import org.springframework.ai.transformer.splitter.TokenTextSplitter;
-import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.boot.CommandLineRunner;
-import org.springframework.core.io.Resource;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Service;
 
-//@Service
-public class DocumentIngestionService implements CommandLineRunner {
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * 批量导入 - 遍历目录或 ZIP 包，多线程并行解析/向量化
+ * 1. 已完成的条目追加写入断点文件，中断后重新执行同一路径会跳过
+ * 2. 内容哈希已在文档目录中的文件直接跳过
+ * 3. 结束时输出吞吐统计
+ * 启动参数 --rag.import.path=... 时作为命令行模式在启动后执行一次；也可通过 POST /api/admin/import 触发
+ * 4. 并发数低于解析池容量与连接池大小，为交互式上传预留解析槽位和数据库连接
+ */
+@Service
+public class DocumentIngestionService {
 
     private static final Logger log = LoggerFactory.getLogger(DocumentIngestionService.class);
-    @Value("classpath:/pdf/spring-boot-reference.pdf")
-    private Resource resource;
-    private final VectorStore vectorStore;
+    private static final String UPLOAD_DIR = "uploads/";
+
+    private final DocumentIngestionPipeline pipeline;
+    private final DocumentCatalogService catalogService;
+    private final ParserPool parserPool;
+    private final ExecutorService coordinator = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "bulk-import-coordinator");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private volatile ImportJob currentJob;
+
+    @Value("${rag.import.path:}")
+    private String startupPath;
+
+    @Value("${rag.import.collection:default}")
+    private String startupCollection;
+
+    @Value("${rag.import.root:imports}")
+    private String importRoot;
+
+    @Value("${rag.import.parallelism:0}")
+    private int parallelism;
+
+    @Value("${rag.import.checkpoint-dir:uploads/import-checkpoints}")
+    private String checkpointDir;
+
+    @Value("${rag.import.reserved-parser-slots:2}")
+    private int reservedParserSlots;
+
+    @Value("${rag.import.reserved-connections:4}")
+    private int reservedConnections;
+
+    @Value("${spring.datasource.hikari.maximum-pool-size:10}")
+    private int connectionPoolSize;
+
+    public DocumentIngestionService(DocumentIngestionPipeline pipeline, DocumentCatalogService catalogService,
+                                    ParserPool parserPool) {
+        this.pipeline = pipeline;
+        this.catalogService = catalogService;
+        this.parserPool = parserPool;
+    }
+
+    /**
+     * 命令行导入在所有建表/建索引的就绪监听之后执行，避免写入时目录表、指纹表尚未创建
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    public void runStartupImport() {
+        if (startupPath == null || startupPath.isBlank()) {
+            return;
+        }
+        Path source = Paths.get(startupPath).toAbsolutePath().normalize();
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        log.info("命令行批量导入: {}", source);
+        try {
+            runImport(new ImportJob(source, CollectionNames.normalize(startupCollection)));
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * 后台导入 rag.import.root 下的目录或 ZIP 到指定集合；已有任务运行时返回 false
+     */
+    public boolean startAsync(String path, String collection) {
+        String targetCollection = CollectionNames.normalize(collection);
+        Path root = Paths.get(importRoot).toAbsolutePath().normalize();
+        Path source = root.resolve(path).toAbsolutePath().normalize();
+        if (!source.startsWith(root)) {
+            throw new IllegalArgumentException("导入路径必须位于 " + root + " 下");
+        }
+        if (!Files.exists(source)) {
+            throw new IllegalArgumentException("导入路径不存在: " + source);
+        }
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        ImportJob job = new ImportJob(source, targetCollection);
+        currentJob = job;
+        coordinator.execute(() -> {
+            try {
+                runImport(job);
+            } finally {
+                running.set(false);
+            }
+        });
+        return true;
+    }
+
+    public Map<String, Object> status() {
+        ImportJob job = currentJob;
+        return job == null ? Map.of("state", "IDLE") : job.report();
+    }
+
+    private void runImport(ImportJob job) {
+        currentJob = job;
+        int workers = workerCount();
+        ExecutorService pool = Executors.newFixedThreadPool(workers, r -> {
+            Thread t = new Thread(r, "bulk-import-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        Semaphore inFlight = new Semaphore(workers * 2);
+        log.info("开始批量导入: source={}, workers={}, 断点已完成={}", job.source, workers, job.checkpointed.size());
+
+        try (Checkpoint checkpoint = new Checkpoint(job)) {
+            if (Files.isDirectory(job.source)) {
+                importDirectory(job, pool, inFlight, checkpoint);
+            } else if (job.source.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".zip")) {
+                importZip(job, pool, inFlight, checkpoint);
+            } else {
+                throw new IllegalArgumentException("仅支持目录或 .zip 文件: " + job.source);
+            }
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            job.state = job.failed.get() == 0 ? "DONE" : "DONE_WITH_ERRORS";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.state = "CANCELLED";
+        } catch (Exception e) {
+            log.error("批量导入失败: {}", job.source, e);
+            job.state = "FAILED";
+            job.error = e.getMessage();
+        } finally {
+            pool.shutdownNow();
+            job.finishedAt = Instant.now();
+            log.info("批量导入结束: {}", job.report());
+        }
+    }
+
+    /**
+     * 解析池满时会直接拒绝、连接池耗尽时请求会排队等待，批量导入两者都只用一部分，其余留给交互式上传
+     */
+    private int workerCount() {
+        int workers = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        int parserBudget = parserPool.capacity() - Math.max(0, reservedParserSlots);
+        int connectionBudget = connectionPoolSize - Math.max(0, reservedConnections);
+        return Math.max(1, Math.min(workers, Math.min(parserBudget, connectionBudget)));
+    }
+
+    private void importDirectory(ImportJob job, ExecutorService pool, Semaphore inFlight, Checkpoint checkpoint)
+        throws IOException, InterruptedException {
+        try (Stream<Path> files = Files.walk(job.source)) {
+            Iterator<Path> it = files.filter(Files::isRegularFile).iterator();
+            while (it.hasNext()) {
+                Path file = it.next();
+                String key = job.source.relativize(file).toString().replace('\\', '/');
+                if (!accept(job, key, file.getFileName().toString())) {
+                    continue;
+                }
+                inFlight.acquire();
+                pool.execute(() -> {
+                    try {
+                        String hash = DocumentIngestionPipeline.contentHash(file);
+                        if (!job.seenHashes.add(hash) || catalogService.existsByContentHash(hash, job.collection)) {
+                            job.skippedDuplicate.incrementAndGet();
+                            checkpoint.markDone(key);
+                            return;
+                        }
+                        String name = file.getFileName().toString();
+                        String storedFilename = System.nanoTime() + "_" + name;
+                        Path target = Paths.get(UPLOAD_DIR, storedFilename);
+                        Files.copy(file, target);
+                        ingest(job, key, target, storedFilename, name, hash, checkpoint);
+                    } catch (Exception e) {
+                        recordFailure(job, key, e);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        }
+    }
+
+    private void importZip(ImportJob job, ExecutorService pool, Semaphore inFlight, Checkpoint checkpoint)
+        throws IOException, InterruptedException {
+        try (ZipFile zip = new ZipFile(job.source.toFile(), StandardCharsets.UTF_8)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                String key = entry.getName();
+                // 只取文件名，防止条目名中的 ../ 逃逸出上传目录
+                String name = Paths.get(key).getFileName().toString();
+                if (!accept(job, key, name)) {
+                    continue;
+                }
+                inFlight.acquire();
+                pool.execute(() -> {
+                    Path target = null;
+                    try {
+                        String storedFilename = System.nanoTime() + "_" + name;
+                        target = Paths.get(UPLOAD_DIR, storedFilename);
+                        String hash = extract(zip, entry, target);
+                        if (!job.seenHashes.add(hash) || catalogService.existsByContentHash(hash, job.collection)) {
+                            Files.deleteIfExists(target);
+                            job.skippedDuplicate.incrementAndGet();
+                            checkpoint.markDone(key);
+                            return;
+                        }
+                        ingest(job, key, target, storedFilename, name, hash, checkpoint);
+                    } catch (Exception e) {
+                        deleteQuietly(target);
+                        recordFailure(job, key, e);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+            // ZipFile 关闭前等待所有解压任务结束
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        }
+    }
+
+    private boolean accept(ImportJob job, String key, String name) {
+        job.discovered.incrementAndGet();
+        if (job.checkpointed.contains(key)) {
+            job.skippedCheckpoint.incrementAndGet();
+            return false;
+        }
+        if (!DocumentIngestionPipeline.isIngestible(extension(name))) {
+            job.unsupported.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private void ingest(ImportJob job, String key, Path target, String storedFilename, String name, String hash,
+                        Checkpoint checkpoint) throws IOException {
+        try {
+            DocumentCatalogService.CatalogEntry entry = pipeline.ingest(target, storedFilename, name, extension(name), hash,
+                job.collection);
+            job.imported.incrementAndGet();
+            job.chunks.addAndGet(entry.chunkCount());
+            job.bytes.addAndGet(entry.byteSize());
+            checkpoint.markDone(key);
+        } catch (Exception e) {
+            deleteQuietly(target);
+            throw e;
+        }
+    }
+
+    private void recordFailure(ImportJob job, String key, Exception e) {
+        job.failed.incrementAndGet();
+        log.warn("批量导入失败: {}, {}", key, e.getMessage());
+        synchronized (job.failures) {
+            if (job.failures.size() < 100) {
+                job.failures.add(Map.of("file", key, "error", Objects.toString(e.getMessage(), "unknown")));
+            }
+        }
+    }
+
+    private static String extract(ZipFile zip, ZipEntry entry, Path target) throws IOException {
+        MessageDigest digest = sha256();
+        try (InputStream in = zip.getInputStream(entry);
+             OutputStream out = new DigestOutputStream(Files.newOutputStream(target), digest)) {
+            in.transferTo(out);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static void deleteQuietly(Path path) {
+        if (path == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static String extension(String filename) {
+        int lastDot = filename.lastIndexOf('.');
+        if (lastDot < 0 || lastDot == filename.length() - 1) {
+            return "";
+        }
+        return filename.substring(lastDot + 1).toLowerCase(Locale.ROOT);
+    }
 
-    public DocumentIngestionService(VectorStore vectorStore) {
-        this.vectorStore = vectorStore;
+    private Path checkpointFile(Path source) {
+        MessageDigest digest = sha256();
+        String key = HexFormat.of().formatHex(digest.digest(source.toString().getBytes(StandardCharsets.UTF_8)));
+        return Paths.get(checkpointDir, "import-" + key.substring(0, 16) + ".done");
     }
 
-    @Override
-    public void run(String... args) {
-        TikaDocumentReader reader = new TikaDocumentReader(resource);
-        TextSplitter textSplitter = new TokenTextSplitter();
-        log.info("Ingesting PDF file");
-        vectorStore.accept(textSplitter.split(reader.read()));
-        log.info("Completed Ingesting PDF file");
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        coordinator.shutdownNow();
+    }
+
+    /**
+     * 断点文件：每行一个已完成条目（目录内相对路径或 ZIP 条目名）
+     */
+    private final class Checkpoint implements Closeable {
+
+        private final BufferedWriter writer;
+
+        Checkpoint(ImportJob job) throws IOException {
+            Path file = checkpointFile(job.source);
+            Files.createDirectories(file.getParent());
+            writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+
+        synchronized void markDone(String key) {
+            try {
+                writer.write(key);
+                writer.newLine();
+                writer.flush();
+            } catch (IOException e) {
+                log.warn("写入导入断点失败: {}", key, e);
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    private final class ImportJob {
+
+        private final Path source;
+        private final String collection;
+        private final Set<String> checkpointed;
+        private final Instant startedAt = Instant.now();
+        private final AtomicLong discovered = new AtomicLong();
+        private final AtomicLong imported = new AtomicLong();
+        private final AtomicLong skippedDuplicate = new AtomicLong();
+        private final AtomicLong skippedCheckpoint = new AtomicLong();
+        private final AtomicLong unsupported = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong chunks = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final List<Map<String, String>> failures = new ArrayList<>();
+        private final Set<String> seenHashes = ConcurrentHashMap.newKeySet();
+        private volatile String state = "RUNNING";
+        private volatile String error;
+        private volatile Instant finishedAt;
+
+        ImportJob(Path source, String collection) {
+            this.source = source;
+            this.collection = collection;
+            Set<String> done = new HashSet<>();
+            Path file = checkpointFile(source);
+            if (Files.exists(file)) {
+                try {
+                    done.addAll(Files.readAllLines(file, StandardCharsets.UTF_8));
+                } catch (IOException e) {
+                    log.warn("读取导入断点失败: {}", file, e);
+                }
+            }
+            this.checkpointed = done;
+        }
+
+        Map<String, Object> report() {
+            Instant end = finishedAt == null ? Instant.now() : finishedAt;
+            double seconds = Math.max(0.001, Duration.between(startedAt, end).toMillis() / 1000.0);
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("state", state);
+            report.put("source", source.toString());
+            report.put("collection", collection);
+            report.put("discovered", discovered.get());
+            report.put("imported", imported.get());
+            report.put("skippedDuplicate", skippedDuplicate.get());
+            report.put("skippedCheckpoint", skippedCheckpoint.get());
+            report.put("unsupported", unsupported.get());
+            report.put("failed", failed.get());
+            report.put("chunks", chunks.get());
+            report.put("elapsedSeconds", Math.round(seconds * 10) / 10.0);
+            report.put("filesPerSecond", Math.round(imported.get() / seconds * 100) / 100.0);
+            report.put("chunksPerSecond", Math.round(chunks.get() / seconds * 100) / 100.0);
+            report.put("mbPerSecond", Math.round(bytes.get() / 1048576.0 / seconds * 100) / 100.0);
+            report.put("error", error);
+            synchronized (failures) {
+                report.put("failures", List.copyOf(failures));
+            }
+            return report;
+        }
     }
 }
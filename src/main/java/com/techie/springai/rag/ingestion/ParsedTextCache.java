@@ -0,0 +1,144 @@
+package com.techie.springai.rag.ingestion;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 解析文本缓存 - 每个文档的提取文本按片段（含页码）存为 gzip 压缩的 JSON Lines
+ * 调整切分参数后可直接从缓存重新切分/向量化，不再经过 Tika
+ */
+@Component
+public class ParsedTextCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ParsedTextCache.class);
+    private static final String SUFFIX = ".jsonl.gz";
+
+    private final ObjectMapper objectMapper;
+
+    @Value("${rag.ingestion.parsed-cache-dir:uploads/parsed}")
+    private String cacheDir;
+
+    public ParsedTextCache(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    public boolean exists(String documentId) {
+        return Files.exists(file(documentId));
+    }
+
+    /**
+     * 打开写入端；commit 前写入临时文件，失败时 abort 删除，不会留下半截缓存
+     */
+    public Sink open(String documentId) throws IOException {
+        Path target = file(documentId);
+        Files.createDirectories(target.getParent());
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+            new GZIPOutputStream(Files.newOutputStream(tmp)), StandardCharsets.UTF_8));
+        return new Sink(target, tmp, writer);
+    }
+
+    /**
+     * 按原顺序回放缓存片段；返回片段数
+     */
+    public int replay(String documentId, Map<String, Object> baseMetadata, Consumer<Document> consumer) throws IOException {
+        int segments = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+            new GZIPInputStream(Files.newInputStream(file(documentId))), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                Map<?, ?> record = objectMapper.readValue(line, Map.class);
+                Map<String, Object> metadata = new HashMap<>(baseMetadata);
+                metadata.put("parser", "parsed-cache");
+                if (record.get("page") != null) {
+                    metadata.put("page", record.get("page"));
+                }
+                consumer.accept(new Document(String.valueOf(record.get("text")), metadata));
+                segments++;
+            }
+        }
+        return segments;
+    }
+
+    public void delete(String documentId) {
+        try {
+            Files.deleteIfExists(file(documentId));
+        } catch (IOException e) {
+            log.warn("删除解析缓存失败: {}", documentId, e);
+        }
+    }
+
+    private Path file(String documentId) {
+        return Paths.get(cacheDir, documentId + SUFFIX);
+    }
+
+    public final class Sink implements Consumer<Document>, Closeable {
+
+        private final Path target;
+        private final Path tmp;
+        private final Writer writer;
+        private boolean closed = false;
+
+        private Sink(Path target, Path tmp, Writer writer) {
+            this.target = target;
+            this.tmp = tmp;
+            this.writer = writer;
+        }
+
+        @Override
+        public void accept(Document segment) {
+            Map<String, Object> record = new LinkedHashMap<>();
+            record.put("page", segment.getMetadata().get("page"));
+            record.put("text", segment.getText());
+            try {
+                writer.write(objectMapper.writeValueAsString(record));
+                writer.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        public void commit() throws IOException {
+            writer.close();
+            closed = true;
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                writer.close();
+            } catch (IOException ignored) {
+            }
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException e) {
+                log.warn("清理解析缓存临时文件失败: {}", tmp, e);
+            }
+        }
+    }
+}
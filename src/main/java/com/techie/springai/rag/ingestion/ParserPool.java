@@ -0,0 +1,246 @@
+package com.techie.springai.rag.ingestion;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.tika.fork.ForkParser;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.Parser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 文档解析隔离池 - 解析只在这里的专用线程上运行，与请求线程、向量化和查询互不抢占
+ * 1. 并发上限 pool-size，排队超过 queue-capacity 直接拒绝
+ * 2. 每次解析有墙钟超时和提取字符上限
+ * 3. fork.enabled=true 时用 Tika ForkParser 在独立 JVM（-Xmx 限制堆）中解析，子进程超时由 Tika 自行终止
+ * 进程内模式下超时线程无法强制停止，只能中断并计入 stuck；stuck 达到上限后拒绝新的解析，避免拖垮节点
+ */
+@Component
+public class ParserPool {
+
+    private static final Logger log = LoggerFactory.getLogger(ParserPool.class);
+
+    private final ExecutorService parserThreads = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger seq = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "tika-parser-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(Thread.NORM_PRIORITY - 1);
+            return t;
+        }
+    });
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger stuck = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder truncated = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    private Semaphore permits;
+    private volatile Parser parser;
+
+    @Value("${rag.ingestion.parser.pool-size:2}")
+    private int poolSize;
+
+    @Value("${rag.ingestion.parser.queue-capacity:8}")
+    private int queueCapacity;
+
+    @Value("${rag.ingestion.parser.timeout-seconds:120}")
+    private long timeoutSeconds;
+
+    @Value("${rag.ingestion.parser.max-chars:5000000}")
+    private long maxChars;
+
+    @Value("${rag.ingestion.parser.max-stuck:2}")
+    private int maxStuck;
+
+    @Value("${rag.ingestion.parser.fork.enabled:false}")
+    private boolean forkEnabled;
+
+    @Value("${rag.ingestion.parser.fork.heap:512m}")
+    private String forkHeap;
+
+    @Value("${rag.ingestion.parser.fork.java:}")
+    private String forkJava;
+
+    @PostConstruct
+    public void init() {
+        permits = new Semaphore(Math.max(1, poolSize), true);
+        parser = forkEnabled ? createForkParser() : new AutoDetectParser();
+        log.info("文档解析池: mode={}, poolSize={}, timeout={}s, maxChars={}",
+            forkEnabled ? "fork" : "in-process", poolSize, timeoutSeconds, maxChars);
+    }
+
+    public Parser parser() {
+        return parser;
+    }
+
+    /**
+     * 同时运行加排队的解析任务上限，超出即拒绝
+     */
+    public int capacity() {
+        return Math.max(1, poolSize) + Math.max(0, queueCapacity);
+    }
+
+    public Duration timeout() {
+        return Duration.ofSeconds(Math.max(1, timeoutSeconds));
+    }
+
+    public long maxChars() {
+        return maxChars;
+    }
+
+    /**
+     * 在解析线程上运行任务；返回的 Lease 在解析结束或放弃时必须 release
+     */
+    public Lease submit(Callable<Void> task) throws InterruptedException {
+        if (stuck.get() >= Math.max(1, maxStuck)) {
+            rejected.increment();
+            throw new IllegalStateException("有 " + stuck.get() + " 个解析线程超时未退出，暂停接收新的解析任务");
+        }
+        if (queued.incrementAndGet() > Math.max(1, poolSize) + Math.max(0, queueCapacity)) {
+            queued.decrementAndGet();
+            rejected.increment();
+            throw new IllegalStateException("文档解析队列已满，请稍后重试");
+        }
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            queued.decrementAndGet();
+            throw e;
+        }
+        Lease lease = new Lease();
+        try {
+            lease.future = parserThreads.submit(() -> {
+                lease.started = true;
+                try {
+                    return task.call();
+                } finally {
+                    lease.finished();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            lease.release(false);
+            throw new IllegalStateException("文档解析池已关闭");
+        }
+        return lease;
+    }
+
+    public void recordTruncated() {
+        truncated.increment();
+    }
+
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("mode", forkEnabled ? "fork" : "in-process");
+        status.put("poolSize", poolSize);
+        status.put("running", Math.max(1, poolSize) - permits.availablePermits());
+        status.put("queued", Math.max(0, queued.get() - (Math.max(1, poolSize) - permits.availablePermits())));
+        status.put("completed", completed.sum());
+        status.put("failed", failed.sum());
+        status.put("timedOut", timedOut.sum());
+        status.put("truncated", truncated.sum());
+        status.put("rejected", rejected.sum());
+        status.put("stuck", stuck.get());
+        return status;
+    }
+
+    private Parser createForkParser() {
+        ForkParser forkParser = new ForkParser(ParserPool.class.getClassLoader(), new AutoDetectParser());
+        String java = forkJava.isBlank()
+            ? Paths.get(System.getProperty("java.home"), "bin", "java").toString()
+            : forkJava;
+        forkParser.setJavaCommand(List.of(java, "-Xmx" + forkHeap, "-Djava.awt.headless=true"));
+        forkParser.setPoolSize(Math.max(1, poolSize));
+        forkParser.setServerParseTimeoutMillis(timeout().toMillis());
+        // 子进程定期重启，避免解析器内存泄漏累积
+        forkParser.setMaxFilesProcessedPerServer(100);
+        return forkParser;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        parserThreads.shutdownNow();
+        if (parser instanceof ForkParser forkParser) {
+            forkParser.close();
+        }
+    }
+
+    /**
+     * 一次解析的占用凭证：正常结束、失败或超时放弃时归还并发名额
+     */
+    public final class Lease {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Future<Void> future;
+        private volatile boolean started = false;
+        private volatile boolean released = false;
+
+        private void finished() {
+            done.countDown();
+        }
+
+        /**
+         * 归还名额；success=false 时计入失败
+         */
+        public synchronized void release(boolean success) {
+            if (released) {
+                return;
+            }
+            released = true;
+            queued.decrementAndGet();
+            permits.release();
+            if (success) {
+                completed.increment();
+            } else {
+                failed.increment();
+            }
+        }
+
+        /**
+         * 超时放弃：中断解析线程，宽限期内未退出则计入 stuck，直到它最终退出
+         */
+        public void abandonOnTimeout(Path file) {
+            timedOut.increment();
+            cancel();
+            release(false);
+            try {
+                if (!done.await(5, TimeUnit.SECONDS)) {
+                    int current = stuck.incrementAndGet();
+                    log.error("解析线程超时后未响应中断: file={}, stuck={}", file.getFileName(), current);
+                    CompletableFuture.runAsync(() -> {
+                        try {
+                            done.await();
+                        } catch (InterruptedException ignored) {
+                            Thread.currentThread().interrupt();
+                        }
+                        stuck.decrementAndGet();
+                    }, parserThreads);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public void cancel() {
+            Future<Void> f = future;
+            if (f != null && f.cancel(true) && !started) {
+                // 任务尚未开始就被取消，不会再执行 finally
+                done.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.techie.springai.rag.ingestion;
+
+import com.techie.springai.rag.service.AnswerCacheService;
+import com.techie.springai.rag.service.DocumentCatalogService;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 全库重新切分/向量化 - 修改 rag.chunking.* 后由运维接口触发，按文档并行执行
+ * 有解析缓存的文档跳过 Tika，直接回放缓存文本
+ */
+@Service
+public class RechunkService {
+
+    private static final Logger log = LoggerFactory.getLogger(RechunkService.class);
+
+    private final DocumentIngestionPipeline pipeline;
+    private final DocumentCatalogService catalogService;
+    private final AnswerCacheService answerCache;
+    private final ExecutorService coordinator = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "rechunk-coordinator");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger fromCache = new AtomicInteger();
+    private final AtomicInteger reparsed = new AtomicInteger();
+    private final List<Map<String, String>> failures = Collections.synchronizedList(new ArrayList<>());
+
+    private volatile String state = "IDLE";
+    private volatile int total;
+    private volatile long chunks;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+
+    @Value("${rag.ingestion.rechunk.parallelism:2}")
+    private int parallelism;
+
+    public RechunkService(DocumentIngestionPipeline pipeline, DocumentCatalogService catalogService,
+                          AnswerCacheService answerCache) {
+        this.pipeline = pipeline;
+        this.catalogService = catalogService;
+        this.answerCache = answerCache;
+    }
+
+    /**
+     * 启动后台重新切分；已有任务在运行时返回 false
+     */
+    public boolean startAsync() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        completed.set(0);
+        fromCache.set(0);
+        reparsed.set(0);
+        failures.clear();
+        chunks = 0;
+        startedAt = Instant.now();
+        finishedAt = null;
+        state = "RUNNING";
+        coordinator.execute(this::runAll);
+        return true;
+    }
+
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("state", state);
+        status.put("total", total);
+        status.put("completed", completed.get());
+        status.put("fromCache", fromCache.get());
+        status.put("reparsed", reparsed.get());
+        status.put("chunks", chunks);
+        status.put("failed", failures.size());
+        synchronized (failures) {
+            status.put("failures", failures.stream().limit(50).toList());
+        }
+        status.put("startedAt", startedAt);
+        status.put("finishedAt", finishedAt);
+        return status;
+    }
+
+    private void runAll() {
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, parallelism), r -> {
+            Thread t = new Thread(r, "rechunk-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<DocumentCatalogService.CatalogEntry> entries = catalogService.list();
+            total = entries.size();
+            log.info("开始重新切分: documents={}, parallelism={}", total, parallelism);
+
+            List<Future<?>> futures = new ArrayList<>();
+            for (DocumentCatalogService.CatalogEntry entry : entries) {
+                futures.add(workers.submit(() -> rechunkOne(entry)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            state = failures.isEmpty() ? "DONE" : "DONE_WITH_ERRORS";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            state = "CANCELLED";
+        } catch (Exception e) {
+            log.error("重新切分失败", e);
+            state = "FAILED";
+        } finally {
+            workers.shutdownNow();
+            answerCache.onCorpusChanged();
+            finishedAt = Instant.now();
+            running.set(false);
+            log.info("重新切分结束: state={}, completed={}, fromCache={}, reparsed={}, failed={}",
+                state, completed.get(), fromCache.get(), reparsed.get(), failures.size());
+        }
+    }
+
+    private void rechunkOne(DocumentCatalogService.CatalogEntry entry) {
+        try {
+            DocumentIngestionPipeline.RechunkResult result = pipeline.rechunk(entry);
+            (result.fromCache() ? fromCache : reparsed).incrementAndGet();
+            synchronized (this) {
+                chunks += result.entry().chunkCount();
+            }
+        } catch (Exception e) {
+            log.warn("重新切分文档失败: {}, {}", entry.storedFilename(), e.getMessage());
+            failures.add(Map.of("document", entry.originalName(), "error", Objects.toString(e.getMessage(), "unknown")));
+        } finally {
+            completed.incrementAndGet();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        coordinator.shutdownNow();
+    }
+}
@@ -0,0 +1,240 @@
+package com.techie.springai.rag.ingestion;
+
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.ParseContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.reader.ExtractedTextFormatter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * 流式文档解析 - Tika SAX 回调按页/幻灯片/段落块产出片段，解析线程与调用线程（切分 + 向量化）并行
+ * 两者之间是容量为 window-segments 的有界队列，内存峰值取决于窗口大小而不是文档大小
+ * 解析在 ParserPool 的隔离线程（或子进程）中执行，受超时与字符上限约束
+ */
+@Component
+public class StreamingDocumentReader {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamingDocumentReader.class);
+    private static final Set<String> PAGE_CLASSES = Set.of("page", "slide-content");
+    private static final Set<String> BLOCK_ELEMENTS = Set.of(
+        "p", "div", "tr", "li", "br", "h1", "h2", "h3", "h4", "h5", "h6", "table", "pre", "blockquote");
+    private static final Object END = new Object();
+
+    private final ExtractedTextFormatter formatter = ExtractedTextFormatter.defaults();
+    private final ParserPool parserPool;
+
+    @Value("${rag.ingestion.segment-chars:8000}")
+    private int segmentChars;
+
+    @Value("${rag.ingestion.window-segments:4}")
+    private int windowSegments;
+
+    public StreamingDocumentReader(ParserPool parserPool) {
+        this.parserPool = parserPool;
+    }
+
+    /**
+     * 解析文件并把每个片段交给 consumer（在调用线程执行）；返回产出的片段数
+     * 片段 metadata 含 baseMetadata，PDF/PPT 另含页码 page
+     * 超时只统计等待解析产出的时间，向量化造成的反压不计入
+     */
+    public int read(Path file, Map<String, Object> baseMetadata, Consumer<Document> consumer) throws IOException {
+        BlockingQueue<Object> queue = new ArrayBlockingQueue<>(Math.max(1, windowSegments));
+        SegmentHandler handler = new SegmentHandler(queue, baseMetadata, parserPool.maxChars());
+        ParserPool.Lease lease;
+        try {
+            lease = parserPool.submit(() -> {
+                try (InputStream in = Files.newInputStream(file)) {
+                    parserPool.parser().parse(in, handler, new Metadata(), new ParseContext());
+                    queue.put(END);
+                } catch (Throwable e) {
+                    if (handler.truncated) {
+                        putQuietly(queue, END);
+                    } else if (!Thread.currentThread().isInterrupted()) {
+                        putQuietly(queue, e);
+                    }
+                }
+                return null;
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("等待解析资源时被中断", e);
+        }
+
+        long budgetNanos = parserPool.timeout().toNanos();
+        int segments = 0;
+        boolean success = false;
+        try {
+            while (true) {
+                long waitStart = System.nanoTime();
+                Object item = queue.poll(Math.max(0, budgetNanos), TimeUnit.NANOSECONDS);
+                budgetNanos -= System.nanoTime() - waitStart;
+                if (item == null) {
+                    lease.abandonOnTimeout(file);
+                    throw new IOException("文档解析超时（超过 " + parserPool.timeout().toSeconds() + " 秒），已终止");
+                }
+                if (item == END) {
+                    break;
+                }
+                if (item instanceof Throwable error) {
+                    throw new IOException("文档解析失败: " + error.getMessage(), error);
+                }
+                consumer.accept((Document) item);
+                segments++;
+            }
+            success = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("文档解析被中断", e);
+        } finally {
+            // 消费端异常时中止解析线程（阻塞在队列上的 put 会被中断）
+            if (!success) {
+                lease.cancel();
+            }
+            lease.release(success);
+        }
+        if (handler.truncated) {
+            parserPool.recordTruncated();
+            log.warn("文档提取字符数超过上限 {}，已截断: {}", parserPool.maxChars(), file.getFileName());
+        }
+        log.debug("流式解析完成: {}, segments={}", file.getFileName(), segments);
+        return segments;
+    }
+
+    private static void putQuietly(BlockingQueue<Object> queue, Object item) {
+        try {
+            queue.put(item);
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 只收集 body 内文本；页/幻灯片结束时输出一个片段，无分页的文档在块结束且累计超过 segment-chars 时输出
+     * 单页超过 2 倍 segment-chars 时在空白处强制切开，保证缓冲区有上界
+     */
+    private final class SegmentHandler extends DefaultHandler {
+
+        private final BlockingQueue<Object> queue;
+        private final Map<String, Object> baseMetadata;
+        private final Deque<Boolean> divStack = new ArrayDeque<>();
+        private final StringBuilder buffer = new StringBuilder();
+        private boolean inBody = false;
+        private int pageDepth = 0;
+        private int page = 0;
+        private boolean paged = false;
+        private final long maxChars;
+        private long totalChars = 0;
+        private volatile boolean truncated = false;
+
+        SegmentHandler(BlockingQueue<Object> queue, Map<String, Object> baseMetadata, long maxChars) {
+            this.queue = queue;
+            this.baseMetadata = baseMetadata;
+            this.maxChars = maxChars;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes atts) {
+            String name = localName.isEmpty() ? qName : localName;
+            if ("body".equals(name)) {
+                inBody = true;
+            }
+            if ("div".equals(name)) {
+                boolean pageDiv = PAGE_CLASSES.contains(Objects.toString(atts.getValue("class"), ""));
+                divStack.push(pageDiv);
+                if (pageDiv) {
+                    pageDepth++;
+                    page++;
+                    paged = true;
+                }
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            String name = localName.isEmpty() ? qName : localName;
+            if ("body".equals(name)) {
+                inBody = false;
+                return;
+            }
+            if (BLOCK_ELEMENTS.contains(name) && inBody) {
+                buffer.append('\n');
+            }
+            if ("div".equals(name) && !divStack.isEmpty() && divStack.pop()) {
+                pageDepth--;
+                flush(buffer.length());
+            } else if (pageDepth == 0 && BLOCK_ELEMENTS.contains(name) && buffer.length() >= segmentChars) {
+                flush(buffer.length());
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException {
+            if (!inBody) {
+                return;
+            }
+            // 超过提取字符上限：输出已有内容后中止解析，文档按截断处理
+            if (maxChars > 0 && totalChars + length > maxChars) {
+                buffer.append(ch, start, (int) Math.max(0, maxChars - totalChars));
+                flush(buffer.length());
+                truncated = true;
+                throw new SAXException("提取字符数超过上限 " + maxChars);
+            }
+            totalChars += length;
+            buffer.append(ch, start, length);
+            int hardLimit = Math.max(1000, segmentChars * 2);
+            if (buffer.length() >= hardLimit) {
+                int cut = lastWhitespace(buffer, segmentChars);
+                flush(cut);
+            }
+        }
+
+        @Override
+        public void endDocument() throws SAXException {
+            flush(buffer.length());
+        }
+
+        private int lastWhitespace(CharSequence text, int from) {
+            for (int i = Math.min(from, text.length() - 1); i > from / 2; i--) {
+                if (Character.isWhitespace(text.charAt(i))) {
+                    return i + 1;
+                }
+            }
+            return Math.min(from, text.length());
+        }
+
+        private void flush(int length) throws SAXException {
+            String text = buffer.substring(0, length);
+            buffer.delete(0, length);
+            String formatted = formatter.format(text);
+            if (formatted == null || formatted.isBlank()) {
+                return;
+            }
+            Map<String, Object> metadata = new HashMap<>(baseMetadata);
+            metadata.put("parser", "tika-stream");
+            if (paged) {
+                metadata.put("page", page);
+            }
+            try {
+                queue.put(new Document(formatted, metadata));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SAXException("解析已取消", e);
+            }
+        }
+    }
+}
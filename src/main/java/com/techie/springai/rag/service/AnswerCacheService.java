@@ -0,0 +1,255 @@
+package com.techie.springai.rag.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 语义答案缓存 - 按问题向量相似度命中，作用域为过滤条件 + 语料版本
+ * 仅当答案引用的分块仍然存在时才返回缓存结果
+ * 条目按作用域分桶，查找只扫描同作用域的桶且不加锁；未命中时问题向量随 Probe 交给检索复用
+ */
+@Service
+public class AnswerCacheService {
+
+    private static final Logger log = LoggerFactory.getLogger(AnswerCacheService.class);
+    private static final String TABLE = "vector_store";
+
+    private final EmbeddingModel embeddingModel;
+    private final VectorShards vectorShards;
+    private final AtomicLong corpusVersion = new AtomicLong(1);
+    /** 插入顺序，用于容量与 TTL 淘汰 */
+    private final ConcurrentLinkedDeque<Entry> order = new ConcurrentLinkedDeque<>();
+    private final Map<String, Queue<Entry>> byScope = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder staleRejected = new LongAdder();
+    private final LongAdder bypassed = new LongAdder();
+    private final LongAdder stored = new LongAdder();
+
+    @Value("${rag.answer-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${rag.answer-cache.similarity-threshold:0.95}")
+    private double similarityThreshold;
+
+    @Value("${rag.answer-cache.max-entries:1000}")
+    private int maxEntries;
+
+    @Value("${rag.answer-cache.ttl-minutes:1440}")
+    private long ttlMinutes;
+
+    @Value("${rag.answer-cache.first-turn-only:true}")
+    private boolean firstTurnOnly;
+
+    public AnswerCacheService(EmbeddingModel embeddingModel, VectorShards vectorShards) {
+        this.embeddingModel = embeddingModel;
+        this.vectorShards = vectorShards;
+    }
+
+    /**
+     * 查询缓存；返回的 Probe 在未命中时用于回写答案
+     * followUp 表示会话已有历史，追问依赖上下文，默认不走缓存
+     */
+    public Probe probe(String question, RAGService.RetrievalOptions options, boolean bypass, boolean followUp) {
+        if (!enabled || bypass || (followUp && firstTurnOnly)) {
+            bypassed.increment();
+            return Probe.skipped();
+        }
+
+        float[] raw;
+        float[] embedding;
+        try {
+            raw = embeddingModel.embed(question);
+            embedding = normalize(raw);
+        } catch (Exception e) {
+            log.warn("答案缓存计算问题向量失败: {}", e.getMessage());
+            bypassed.increment();
+            return Probe.skipped();
+        }
+
+        String scope = scopeKey(options);
+        long version = corpusVersion.get();
+        Entry best = findBest(embedding, scope, version);
+        if (best != null) {
+            if (chunksExist(best.answer().chunkIds())) {
+                hits.increment();
+                log.debug("答案缓存命中: question={}, cachedQuestion={}", question, best.question());
+                return new Probe(embedding, raw, scope, version, best.answer());
+            }
+            staleRejected.increment();
+            remove(best);
+        }
+        misses.increment();
+        return new Probe(embedding, raw, scope, version, null);
+    }
+
+    public void store(Probe probe, String question, String answer, List<Map<String, Object>> citations,
+                      Collection<String> chunkIds) {
+        if (probe == null || probe.embedding() == null || answer == null || answer.isBlank()) {
+            return;
+        }
+        // 回答期间语料发生变化，答案可能基于旧数据，不回写
+        if (probe.corpusVersion() != corpusVersion.get()) {
+            return;
+        }
+        CachedAnswer cached = new CachedAnswer(answer, List.copyOf(citations), List.copyOf(new LinkedHashSet<>(chunkIds)));
+        Entry entry = new Entry(question, probe.embedding(), probe.scope(), probe.corpusVersion(),
+            System.currentTimeMillis(), cached);
+        byScope.computeIfAbsent(entry.scope(), k -> new ConcurrentLinkedQueue<>()).add(entry);
+        order.addLast(entry);
+        stored.increment();
+        evictExpired();
+        Entry oldest;
+        while (order.size() > Math.max(1, maxEntries) && (oldest = order.peekFirst()) != null) {
+            remove(oldest);
+        }
+    }
+
+    /**
+     * 语料变更（上传/删除）后调用，旧版本的缓存条目全部失效
+     */
+    public void onCorpusChanged() {
+        long version = corpusVersion.incrementAndGet();
+        order.stream().filter(e -> e.corpusVersion() < version).toList().forEach(this::remove);
+    }
+
+    public void clear() {
+        order.clear();
+        byScope.clear();
+    }
+
+    public Map<String, Object> stats() {
+        long hitCount = hits.sum();
+        long lookups = hitCount + misses.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("entries", order.size());
+        stats.put("corpusVersion", corpusVersion.get());
+        stats.put("hits", hitCount);
+        stats.put("misses", misses.sum());
+        stats.put("staleRejected", staleRejected.sum());
+        stats.put("bypassed", bypassed.sum());
+        stats.put("stored", stored.sum());
+        stats.put("hitRate", lookups == 0 ? 0.0 : (double) hitCount / lookups);
+        return stats;
+    }
+
+    private Entry findBest(float[] embedding, String scope, long version) {
+        Queue<Entry> bucket = byScope.get(scope);
+        if (bucket == null) {
+            return null;
+        }
+        long expireBefore = expireBefore();
+        Entry best = null;
+        double bestScore = similarityThreshold;
+        for (Entry e : bucket) {
+            if (e.corpusVersion() != version || e.createdAt() < expireBefore) {
+                continue;
+            }
+            double score = dot(embedding, e.embedding());
+            if (score >= bestScore) {
+                bestScore = score;
+                best = e;
+            }
+        }
+        return best;
+    }
+
+    private void evictExpired() {
+        long expireBefore = expireBefore();
+        Entry oldest;
+        while ((oldest = order.peekFirst()) != null && oldest.createdAt() < expireBefore) {
+            remove(oldest);
+        }
+    }
+
+    private long expireBefore() {
+        return ttlMinutes > 0 ? System.currentTimeMillis() - Duration.ofMinutes(ttlMinutes).toMillis() : 0;
+    }
+
+    private void remove(Entry entry) {
+        order.remove(entry);
+        Queue<Entry> bucket = byScope.get(entry.scope());
+        if (bucket != null) {
+            bucket.remove(entry);
+            if (bucket.isEmpty()) {
+                byScope.remove(entry.scope(), bucket);
+            }
+        }
+    }
+
+    private boolean chunksExist(List<String> chunkIds) {
+        if (chunkIds.isEmpty()) {
+            return false;
+        }
+        try {
+            String placeholders = String.join(",", Collections.nCopies(chunkIds.size(), "CAST(? AS uuid)"));
+            // 引用的分块可能分布在不同向量分片上
+            int count = vectorShards.scatter(jdbc -> jdbc.queryForList(
+                    "SELECT COUNT(*)::int FROM " + TABLE + " WHERE id IN (" + placeholders + ")",
+                    Integer.class, chunkIds.toArray()))
+                .stream().mapToInt(Integer::intValue).sum();
+            return count == chunkIds.size();
+        } catch (Exception e) {
+            log.warn("校验缓存引用分块失败: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private String scopeKey(RAGService.RetrievalOptions options) {
+        return options == null ? "" : options.scopeKey();
+    }
+
+    private static float[] normalize(float[] v) {
+        double norm = 0;
+        for (float x : v) {
+            norm += x * x;
+        }
+        norm = Math.sqrt(norm);
+        if (norm == 0) {
+            return v;
+        }
+        float[] out = new float[v.length];
+        for (int i = 0; i < v.length; i++) {
+            out[i] = (float) (v[i] / norm);
+        }
+        return out;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        if (a.length != b.length) {
+            return -1;
+        }
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    public record CachedAnswer(String answer, List<Map<String, Object>> citations, List<String> chunkIds) {}
+
+    /**
+     * embedding 为归一化后的缓存键向量；queryEmbedding 为模型原始输出，供未命中后的检索复用
+     */
+    public record Probe(float[] embedding, float[] queryEmbedding, String scope, long corpusVersion, CachedAnswer hit) {
+        static Probe skipped() {
+            return new Probe(null, null, "", 0, null);
+        }
+    }
+
+    private record Entry(String question, float[] embedding, String scope, long corpusVersion,
+                         long createdAt, CachedAnswer answer) {}
+}
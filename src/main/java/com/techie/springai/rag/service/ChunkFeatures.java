@@ -0,0 +1,123 @@
+package com.techie.springai.rag.service;
+
+import org.springframework.ai.document.Document;
+
+import java.sql.Array;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * 分块文本特征 - 重排序与词法打分使用
+ * 两阶段检索的候选分块不带正文，特征由检索 SQL 在库内算好放进 metadata；完整分块直接从正文计算
+ * 两条路径必须给出相同结果：SQL_COLUMNS 与下面的 Java 实现逐项对应（长度按码点、句子按 regexp_split_to_array 保留末尾空段、正则按子串匹配）
+ */
+final class ChunkFeatures {
+
+    /**
+     * 库内计算特征的列；唯一的参数是以 TERM_SEPARATOR 拼接的小写检索词
+     */
+    static final String SQL_COLUMNS = """
+        char_length(content) AS content_length,
+        array_length(regexp_split_to_array(content, '[。！？]'), 1) AS sentences,
+        content ~ '[0-9]' AS has_digits,
+        content ~ '[1-9]\\.|[•·×√☆★]' AS has_list,
+        content ~ '[:：→-]' AS has_structure,
+        ARRAY(SELECT t FROM unnest(string_to_array(?, chr(31))) t WHERE strpos(lower(content), t) > 0) AS matched_terms
+        """;
+
+    static final String TERM_SEPARATOR = "\u001F";
+
+    private static final Pattern SENTENCE_END = Pattern.compile("[。！？]");
+    private static final Pattern DIGIT = Pattern.compile("[0-9]");
+    private static final Pattern LIST = Pattern.compile("[1-9]\\.|[•·×√☆★]");
+    private static final Pattern STRUCTURE = Pattern.compile("[:：→-]");
+
+    static final String LAZY = "_lazy";
+    static final String CONTENT_LENGTH = "_contentLength";
+    static final String SENTENCES = "_sentences";
+    static final String HAS_DIGITS = "_hasDigits";
+    static final String HAS_LIST = "_hasList";
+    static final String HAS_STRUCTURE = "_hasStructure";
+    static final String MATCHED_TERMS = "_matchedTerms";
+
+    private ChunkFeatures() {
+    }
+
+    static String joinTerms(Collection<String> terms) {
+        return String.join(TERM_SEPARATOR, terms);
+    }
+
+    /**
+     * 把 SQL_COLUMNS 的结果读入候选分块的 metadata
+     */
+    static void read(ResultSet rs, Map<String, Object> metadata) throws SQLException {
+        metadata.put(LAZY, true);
+        metadata.put(CONTENT_LENGTH, rs.getInt("content_length"));
+        metadata.put(SENTENCES, rs.getInt("sentences"));
+        metadata.put(HAS_DIGITS, rs.getBoolean("has_digits"));
+        metadata.put(HAS_LIST, rs.getBoolean("has_list"));
+        metadata.put(HAS_STRUCTURE, rs.getBoolean("has_structure"));
+        Array matched = rs.getArray("matched_terms");
+        metadata.put(MATCHED_TERMS, matched == null ? List.of() : List.of((String[]) matched.getArray()));
+    }
+
+    static boolean isLazy(Document doc) {
+        return Boolean.TRUE.equals(doc.getMetadata().get(LAZY));
+    }
+
+    /**
+     * term 须为小写；候选分块只能判断检索时传入的词
+     */
+    static boolean contains(Document doc, String term) {
+        if (isLazy(doc)) {
+            return doc.getMetadata().get(MATCHED_TERMS) instanceof Collection<?> matched && matched.contains(term);
+        }
+        return text(doc).toLowerCase(Locale.ROOT).contains(term);
+    }
+
+    static int length(Document doc) {
+        if (isLazy(doc)) {
+            return ((Number) doc.getMetadata().getOrDefault(CONTENT_LENGTH, 0)).intValue();
+        }
+        String text = text(doc);
+        return text.codePointCount(0, text.length());
+    }
+
+    static int sentences(Document doc) {
+        if (isLazy(doc)) {
+            return ((Number) doc.getMetadata().getOrDefault(SENTENCES, 0)).intValue();
+        }
+        return SENTENCE_END.split(text(doc), -1).length;
+    }
+
+    static boolean hasDigits(Document doc) {
+        if (isLazy(doc)) {
+            return Boolean.TRUE.equals(doc.getMetadata().get(HAS_DIGITS));
+        }
+        return DIGIT.matcher(text(doc)).find();
+    }
+
+    static boolean hasList(Document doc) {
+        if (isLazy(doc)) {
+            return Boolean.TRUE.equals(doc.getMetadata().get(HAS_LIST));
+        }
+        return LIST.matcher(text(doc)).find();
+    }
+
+    static boolean hasStructure(Document doc) {
+        if (isLazy(doc)) {
+            return Boolean.TRUE.equals(doc.getMetadata().get(HAS_STRUCTURE));
+        }
+        return STRUCTURE.matcher(text(doc)).find();
+    }
+
+    private static String text(Document doc) {
+        return Objects.toString(doc.getText(), "");
+    }
+}
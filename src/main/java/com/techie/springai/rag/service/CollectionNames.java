@@ -0,0 +1,52 @@
+package com.techie.springai.rag.service;
+
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * 知识库集合（collection）命名 - 分块以 metadata.collection 归属集合，未设置的历史分块属于 default
+ * 集合名会拼进索引名和部分索引谓词（必须是字面量，规划器才能选中该集合的索引），只允许小写字母、数字和下划线
+ */
+public final class CollectionNames {
+
+    public static final String DEFAULT = "default";
+    public static final String METADATA_KEY = "collection";
+
+    /**
+     * 分块所属集合的 SQL 表达式，检索谓词与部分索引谓词必须完全一致
+     */
+    public static final String SQL_EXPRESSION = "COALESCE(metadata->>'" + METADATA_KEY + "', '" + DEFAULT + "')";
+
+    private static final Pattern VALID = Pattern.compile("[a-z0-9_]{1,32}");
+
+    private CollectionNames() {
+    }
+
+    /**
+     * 规范化集合名；为空时返回 default，不合法时抛出 IllegalArgumentException
+     */
+    public static String normalize(String raw) {
+        if (raw == null || raw.isBlank()) {
+            return DEFAULT;
+        }
+        String name = raw.trim().toLowerCase(Locale.ROOT);
+        if (!VALID.matcher(name).matches()) {
+            throw new IllegalArgumentException("集合名只能包含小写字母、数字和下划线，长度 1-32: " + raw);
+        }
+        return name;
+    }
+
+    /**
+     * 可选的集合参数：为空表示不限定集合（全库检索）
+     */
+    public static String normalizeOptional(String raw) {
+        return raw == null || raw.isBlank() ? null : normalize(raw);
+    }
+
+    /**
+     * 限定集合的 SQL 谓词，集合名以字面量内联（已校验，不含引号）
+     */
+    public static String predicate(String collection) {
+        return SQL_EXPRESSION + " = '" + normalize(collection) + "'";
+    }
+}
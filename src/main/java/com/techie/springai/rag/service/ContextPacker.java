@@ -0,0 +1,211 @@
+package com.techie.springai.rag.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.function.BinaryOperator;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * 上下文打包器 - 在 token 预算内组装 prompt 的参考文档
+ * 1. 同一来源的相邻/重叠分块合并为一个片段
+ * 2. 去掉已在前面片段中出现过的重复句子/行
+ * 3. 按检索排名依次填充 token 预算
+ * 输出列表的顺序即引用编号顺序
+ */
+@Component
+public class ContextPacker {
+
+    private static final Logger log = LoggerFactory.getLogger(ContextPacker.class);
+    private static final Pattern SEGMENT_SPLIT = Pattern.compile("(?<=[\\n。！？!?；;])");
+    private static final int MIN_OVERLAP_CHARS = 30;
+    private static final int MAX_OVERLAP_CHARS = 4000;
+
+    private final TokenCountEstimator tokenEstimator = new JTokkitTokenCountEstimator();
+
+    @Value("${rag.context.enabled:true}")
+    private boolean enabled;
+
+    @Value("${rag.context.token-budget:3000}")
+    private int tokenBudget;
+
+    @Value("${rag.context.min-block-tokens:64}")
+    private int minBlockTokens;
+
+    @Value("${rag.context.dedupe-min-chars:20}")
+    private int dedupeMinChars;
+
+    public List<Document> pack(List<Document> rankedDocs) {
+        if (!enabled || rankedDocs == null || rankedDocs.isEmpty()) {
+            return rankedDocs == null ? Collections.emptyList() : rankedDocs;
+        }
+
+        List<Block> blocks = mergeAdjacent(rankedDocs);
+        Set<String> seenSegments = new HashSet<>();
+        List<Document> packed = new ArrayList<>();
+        int remaining = tokenBudget;
+        int inputTokens = 0;
+
+        for (Block block : blocks) {
+            String text = dedupeSegments(block.text(), seenSegments);
+            if (text.isBlank()) {
+                continue;
+            }
+            int tokens = tokenEstimator.estimate(text);
+            inputTokens += tokens;
+            if (tokens > remaining) {
+                if (remaining < minBlockTokens) {
+                    continue;
+                }
+                text = truncateToTokens(text, remaining, tokens);
+                tokens = tokenEstimator.estimate(text);
+            }
+            remaining -= tokens;
+            packed.add(block.toDocument(text));
+        }
+
+        log.debug("上下文打包: chunks={} -> blocks={}, tokens≈{} -> {}",
+            rankedDocs.size(), packed.size(), inputTokens, tokenBudget - remaining);
+        return packed;
+    }
+
+    /**
+     * 同来源分块按 chunkIndex 聚成连续段；片段排名取段内最高排名
+     */
+    private List<Block> mergeAdjacent(List<Document> rankedDocs) {
+        Map<String, List<Ranked>> bySource = new LinkedHashMap<>();
+        for (int rank = 0; rank < rankedDocs.size(); rank++) {
+            Document doc = rankedDocs.get(rank);
+            bySource.computeIfAbsent(resolveSource(doc), k -> new ArrayList<>()).add(new Ranked(doc, rank));
+        }
+
+        List<Block> blocks = new ArrayList<>();
+        for (List<Ranked> group : bySource.values()) {
+            List<Ranked> indexed = group.stream()
+                .filter(r -> chunkIndex(r.doc()) != null)
+                .sorted(Comparator.comparing(r -> chunkIndex(r.doc())))
+                .collect(Collectors.toList());
+            group.stream().filter(r -> chunkIndex(r.doc()) == null).forEach(r -> blocks.add(Block.of(r)));
+
+            Block current = null;
+            Integer lastIndex = null;
+            for (Ranked r : indexed) {
+                int idx = chunkIndex(r.doc());
+                if (current != null && lastIndex != null && idx <= lastIndex + 1) {
+                    current.append(r, this::stripOverlap);
+                } else {
+                    current = Block.of(r);
+                    blocks.add(current);
+                }
+                lastIndex = idx;
+            }
+        }
+
+        blocks.sort(Comparator.comparingInt(Block::rank));
+        return blocks;
+    }
+
+    /**
+     * 去掉 next 开头与 previous 结尾重叠的部分
+     */
+    private String stripOverlap(String previous, String next) {
+        int max = Math.min(MAX_OVERLAP_CHARS, Math.min(previous.length(), next.length()));
+        for (int k = max; k >= MIN_OVERLAP_CHARS; k--) {
+            if (previous.regionMatches(previous.length() - k, next, 0, k)) {
+                return next.substring(k);
+            }
+        }
+        return next;
+    }
+
+    private String dedupeSegments(String text, Set<String> seen) {
+        StringBuilder sb = new StringBuilder(text.length());
+        for (String segment : SEGMENT_SPLIT.split(text)) {
+            String normalized = segment.replaceAll("\\s+", "");
+            if (normalized.length() >= dedupeMinChars && !seen.add(normalized)) {
+                continue;
+            }
+            sb.append(segment);
+        }
+        return sb.toString().trim();
+    }
+
+    private String truncateToTokens(String text, int maxTokens, int tokens) {
+        int keepChars = (int) ((long) text.length() * maxTokens / Math.max(1, tokens));
+        return text.substring(0, Math.max(0, Math.min(keepChars, text.length()) - 1)) + "…";
+    }
+
+    private Integer chunkIndex(Document doc) {
+        Object value = doc.getMetadata().get("chunkIndex");
+        if (value instanceof Number n) {
+            return n.intValue();
+        }
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.toString());
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return null;
+    }
+
+    private static String resolveSource(Document doc) {
+        Object source = doc.getMetadata().get("source");
+        return source == null ? "unknown" : source.toString();
+    }
+
+    private record Ranked(Document doc, int rank) {}
+
+    private static final class Block {
+        private final Document head;
+        private final List<String> chunkIds = new ArrayList<>();
+        private final StringBuilder text = new StringBuilder();
+        private int rank;
+
+        private Block(Document head, int rank) {
+            this.head = head;
+            this.rank = rank;
+        }
+
+        static Block of(Ranked r) {
+            Block block = new Block(r.doc(), r.rank());
+            block.chunkIds.add(r.doc().getId());
+            block.text.append(Objects.toString(r.doc().getText(), ""));
+            return block;
+        }
+
+        void append(Ranked r, BinaryOperator<String> overlapStripper) {
+            String next = overlapStripper.apply(text.toString(), Objects.toString(r.doc().getText(), ""));
+            text.append("\n").append(next);
+            chunkIds.add(r.doc().getId());
+            rank = Math.min(rank, r.rank());
+        }
+
+        int rank() {
+            return rank;
+        }
+
+        String text() {
+            return text.toString();
+        }
+
+        Document toDocument(String packedText) {
+            Map<String, Object> metadata = new HashMap<>(head.getMetadata());
+            metadata.put("chunkIds", chunkIds.stream().filter(Objects::nonNull).toList());
+            metadata.put("mergedChunks", chunkIds.size());
+            return Document.builder()
+                .id(head.getId())
+                .text(packedText)
+                .metadata(metadata)
+                .score(head.getScore())
+                .build();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.techie.springai.rag.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对话历史管理器 - 按 token 预算组装历史上下文
+ * 最近几轮原文保留，更早的轮次在 appendTurn 之后由后台折叠进滚动摘要
+ * 会话存储只裁剪已折叠的轮次，摘要队列有界，队列满时跳过本次调度（下一次问答会再触发）
+ */
+@Service
+public class ConversationHistoryManager {
+
+    private static final Logger log = LoggerFactory.getLogger(ConversationHistoryManager.class);
+
+    private final SessionStoreService sessionStoreService;
+    private final ChatClient chatClient;
+    private final TokenCountEstimator tokenEstimator = new JTokkitTokenCountEstimator();
+    private final Set<String> summarizing = ConcurrentHashMap.newKeySet();
+    private final ThreadPoolExecutor summarizer;
+
+    @Value("${rag.history.token-budget:1200}")
+    private int tokenBudget;
+
+    @Value("${rag.history.recent-turns:4}")
+    private int recentTurns;
+
+    @Value("${rag.history.turn-max-tokens:400}")
+    private int turnMaxTokens;
+
+    @Value("${rag.history.summary-max-tokens:300}")
+    private int summaryMaxTokens;
+
+    @Value("${rag.history.summarize:true}")
+    private boolean summarizeEnabled;
+
+    public ConversationHistoryManager(SessionStoreService sessionStoreService, ChatClient.Builder chatClientBuilder,
+                                      @Value("${rag.history.summarize-queue-capacity:256}") int queueCapacity) {
+        this.sessionStoreService = sessionStoreService;
+        this.chatClient = chatClientBuilder.build();
+        this.summarizer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), r -> {
+                Thread t = new Thread(r, "history-summarizer");
+                t.setDaemon(true);
+                return t;
+            });
+    }
+
+    /**
+     * 记录一问一答，并在后台触发摘要折叠
+     */
+    public void recordExchange(String sessionId, String question, String answer) {
+        sessionStoreService.appendTurn(sessionId, "user", question);
+        sessionStoreService.appendTurn(sessionId, "assistant", answer);
+        scheduleSummarization(sessionId);
+    }
+
+    /**
+     * 组装不超过 token 预算的历史上下文：滚动摘要 + 未折叠轮次 + 最近轮次原文
+     */
+    public String buildHistoryContext(String sessionId) {
+        SessionStoreService.ConversationSnapshot snapshot = sessionStoreService.getConversation(sessionId);
+        List<Map<String, String>> turns = snapshot.turns();
+        if (turns.isEmpty() && snapshot.summary().isBlank()) {
+            return "无";
+        }
+
+        int remaining = tokenBudget;
+        String summaryBlock = "";
+        if (!snapshot.summary().isBlank()) {
+            summaryBlock = "summary: " + truncateToTokens(snapshot.summary(), Math.min(summaryMaxTokens, remaining)) + "\n";
+            remaining -= tokenEstimator.estimate(summaryBlock);
+        }
+
+        int recentStart = Math.max(0, turns.size() - recentTurns);
+        Deque<String> recentLines = new ArrayDeque<>();
+        for (int i = turns.size() - 1; i >= recentStart; i--) {
+            int allowance = Math.min(turnMaxTokens, remaining);
+            // 最新一轮至少保留截断后的内容
+            if (allowance <= 0 && !recentLines.isEmpty()) {
+                break;
+            }
+            String line = formatTurn(turns.get(i), Math.max(allowance, 32));
+            recentLines.addFirst(line);
+            remaining -= tokenEstimator.estimate(line);
+        }
+
+        // 后台摘要尚未追上的旧轮次，预算有余时按新到旧补充
+        Deque<String> pendingLines = new ArrayDeque<>();
+        long firstIndex = snapshot.firstTurnIndex();
+        for (int i = recentStart - 1; i >= 0 && remaining > 0; i--) {
+            if (firstIndex + i < snapshot.summarizedTurns()) {
+                break;
+            }
+            String line = formatTurn(turns.get(i), Math.min(turnMaxTokens, remaining));
+            int cost = tokenEstimator.estimate(line);
+            if (cost > remaining) {
+                break;
+            }
+            pendingLines.addFirst(line);
+            remaining -= cost;
+        }
+
+        StringBuilder sb = new StringBuilder(summaryBlock);
+        pendingLines.forEach(sb::append);
+        recentLines.forEach(sb::append);
+        return sb.isEmpty() ? "无" : sb.toString();
+    }
+
+    /**
+     * summarizing.add 是唯一的调度判断：任务开始执行时先移除标记，
+     * 之后到达的问答会再排一个任务，不会因为与 finally 的移除交错而漏掉；单线程执行器保证同一会话不会并发折叠
+     */
+    private void scheduleSummarization(String sessionId) {
+        if (!summarizeEnabled || !summarizing.add(sessionId)) {
+            return;
+        }
+        try {
+            summarizer.execute(() -> {
+                summarizing.remove(sessionId);
+                try {
+                    while (foldOnce(sessionId)) {
+                        // 摘要期间可能又有新的轮次滑出窗口，继续折叠
+                    }
+                } catch (Exception e) {
+                    log.warn("会话摘要失败: session={}, {}", sessionId, e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            summarizing.remove(sessionId);
+            log.debug("摘要队列已满，跳过本次调度: session={}", sessionId);
+        }
+    }
+
+    private boolean foldOnce(String sessionId) {
+        SessionStoreService.ConversationSnapshot snapshot = sessionStoreService.getConversation(sessionId);
+        List<Map<String, String>> turns = snapshot.turns();
+        int foldEnd = turns.size() - recentTurns;
+        long firstIndex = snapshot.firstTurnIndex();
+        int foldStart = (int) Math.max(0, snapshot.summarizedTurns() - firstIndex);
+        if (foldEnd <= foldStart) {
+            return false;
+        }
+
+        StringBuilder newTurns = new StringBuilder();
+        for (int i = foldStart; i < foldEnd; i++) {
+            newTurns.append(formatTurn(turns.get(i), turnMaxTokens));
+        }
+
+        String prompt = "你是对话摘要器。请把【已有摘要】和【新增对话】合并为一段简洁的摘要，"
+            + "保留用户关注的主题、关键事实、已给出的结论和未解决的问题，不要编造。"
+            + "不超过" + summaryMaxTokens + "个token，只输出摘要正文。\n\n"
+            + "【已有摘要】\n" + (snapshot.summary().isBlank() ? "无" : snapshot.summary()) + "\n\n"
+            + "【新增对话】\n" + newTurns;
+        String summary = chatClient.prompt().user(prompt).call().content();
+        if (summary == null || summary.isBlank()) {
+            return false;
+        }
+
+        long summarizedTurns = firstIndex + foldEnd;
+        sessionStoreService.updateSummary(sessionId, truncateToTokens(summary.trim(), summaryMaxTokens), summarizedTurns);
+        log.debug("会话摘要已更新: session={}, summarizedTurns={}", sessionId, summarizedTurns);
+        return true;
+    }
+
+    private String formatTurn(Map<String, String> turn, int maxTokens) {
+        return turn.getOrDefault("role", "unknown") + ": "
+            + truncateToTokens(turn.getOrDefault("content", ""), maxTokens) + "\n";
+    }
+
+    private String truncateToTokens(String text, int maxTokens) {
+        if (text == null || text.isEmpty()) {
+            return "";
+        }
+        int tokens = tokenEstimator.estimate(text);
+        if (tokens <= maxTokens) {
+            return text;
+        }
+        int keepChars = Math.max(1, (int) ((long) text.length() * Math.max(1, maxTokens) / tokens));
+        return text.substring(0, Math.min(keepChars, text.length())) + "…";
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        summarizer.shutdownNow();
+    }
+}
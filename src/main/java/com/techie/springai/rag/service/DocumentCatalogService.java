@@ -0,0 +1,370 @@
+package com.techie.springai.rag.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * 文档目录 - 每个上传文件一行，分块通过 metadata.documentId 关联
+ * 文档列表、过滤选项和删除都走该表与 documentId 表达式索引，不再对 vector_store 做 GROUP BY / LIKE 全表扫描
+ * 每个文档属于一个集合（collection），历史文档归入 default
+ */
+@Service
+public class DocumentCatalogService {
+
+    private static final Logger log = LoggerFactory.getLogger(DocumentCatalogService.class);
+    private static final String TABLE = "document_catalog";
+    private static final String VECTOR_TABLE = "vector_store";
+    private static final String SHADOW_TABLE = "vector_store_shadow";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final NearDuplicateService nearDuplicateService;
+    private final VectorShards vectorShards;
+    private final ObjectMapper objectMapper;
+
+    public DocumentCatalogService(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                                  NearDuplicateService nearDuplicateService, VectorShards vectorShards,
+                                  ObjectMapper objectMapper) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.nearDuplicateService = nearDuplicateService;
+        this.vectorShards = vectorShards;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * 先于向量迁移执行，保证回填的 documentId 会被复制到影子表
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void init() {
+        try {
+            jdbcTemplate.execute("""
+                CREATE TABLE IF NOT EXISTS document_catalog (
+                    id uuid PRIMARY KEY,
+                    original_name text NOT NULL,
+                    stored_filename text NOT NULL UNIQUE,
+                    file_type text,
+                    chunk_count int NOT NULL DEFAULT 0,
+                    byte_size bigint NOT NULL DEFAULT 0,
+                    content_hash text,
+                    created_at timestamp NOT NULL DEFAULT now()
+                )
+                """);
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS document_catalog_original_name_idx ON " + TABLE + " (original_name)");
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS document_catalog_content_hash_idx ON " + TABLE + " (content_hash)");
+            jdbcTemplate.execute("ALTER TABLE " + TABLE + " ADD COLUMN IF NOT EXISTS collection text NOT NULL DEFAULT '"
+                + CollectionNames.DEFAULT + "'");
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS document_catalog_collection_idx ON " + TABLE + " (collection)");
+            ensureDocumentIdIndex(VECTOR_TABLE);
+            backfill();
+        } catch (Exception e) {
+            log.error("初始化文档目录失败: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 登记目录行：分块已在事务外向量化并按批写入，这里只是一个短事务，不在持有连接期间调用 embedding 模型
+     * 登记失败时由调用方 discard 回收已写入的分块
+     */
+    public CatalogEntry register(CatalogEntry entry) {
+        transactionTemplate.executeWithoutResult(tx -> jdbcTemplate.update("INSERT INTO " + TABLE
+                + " (id, original_name, stored_filename, file_type, chunk_count, byte_size, content_hash, created_at, "
+                + "collection) VALUES (CAST(? AS uuid), ?, ?, ?, ?, ?, ?, ?, ?)",
+            entry.id(), entry.originalName(), entry.storedFilename(), entry.fileType(), entry.chunkCount(),
+            entry.byteSize(), entry.contentHash(), Timestamp.from(entry.createdAt()), entry.collection()));
+        return entry;
+    }
+
+    /**
+     * 导入失败时的补偿：撤销该文档的近重复登记与引用，删除已按批写入的分块（含迁移影子表与其他分片）
+     * 失败只记录日志，不掩盖原始异常
+     */
+    public void discard(String documentId, Consumer<String> extraDelete) {
+        try {
+            transactionTemplate.executeWithoutResult(tx -> {
+                nearDuplicateService.releaseDocument(documentId);
+                jdbcTemplate.update("DELETE FROM " + VECTOR_TABLE + " WHERE metadata->>'documentId' = ?", documentId);
+                extraDelete.accept(documentId);
+            });
+        } catch (Exception e) {
+            log.warn("回收导入失败文档的分块失败: documentId={}, error={}", documentId, e.getMessage());
+        }
+        discardRemoteChunks(documentId, List.of());
+    }
+
+    /**
+     * 重新切分：新分块已在事务外向量化（replacement 中带向量），这里在一个短事务内交换
+     * 事务内撤销旧的近重复登记、删除旧分块、写入新分块、回放新分块的近重复登记并更新分块数
+     * 被其他文档引用的近重复规范分块先转交出去，不随旧分块删除
+     * 新分块落在其他分片时，主库提交后在该分片的本地事务内写入，再删除各分片上的旧分块
+     */
+    public CatalogEntry replaceChunks(CatalogEntry entry, Consumer<String> extraDelete, ReplacementChunks replacement) {
+        List<String> previousRemote = vectorShards.remoteChunkIds(entry.id());
+        int shard = vectorShards.shardOf(entry.id());
+        CatalogEntry replaced = transactionTemplate.execute(tx -> {
+            nearDuplicateService.releaseDocument(entry.id());
+            jdbcTemplate.update("DELETE FROM " + VECTOR_TABLE + " WHERE metadata->>'documentId' = ?", entry.id());
+            extraDelete.accept(entry.id());
+            if (shard == 0) {
+                insertChunks(jdbcTemplate, replacement);
+            }
+            replacement.nearDuplicates().forEach(Runnable::run);
+            CatalogEntry written = entry.withChunkCount(replacement.chunkCount());
+            jdbcTemplate.update("UPDATE " + TABLE + " SET chunk_count = ? WHERE id = CAST(? AS uuid)",
+                written.chunkCount(), written.id());
+            return written;
+        });
+        if (shard > 0) {
+            vectorShards.inRemoteTransaction(shard, jdbc -> {
+                vectorShards.deleteChunks(jdbc, entry.id(), previousRemote);
+                insertChunks(jdbc, replacement);
+            });
+        }
+        vectorShards.deleteRemoteChunks(entry.id(), previousRemote);
+        return replaced;
+    }
+
+    private void insertChunks(JdbcTemplate jdbc, ReplacementChunks replacement) {
+        List<Document> chunks = replacement.chunks();
+        List<Object[]> rows = new ArrayList<>(chunks.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            Document chunk = chunks.get(i);
+            rows.add(new Object[] {chunk.getId(), chunk.getText(), toJson(chunk.getMetadata()),
+                PgVectors.toVectorLiteral(replacement.embeddings().get(i))});
+        }
+        jdbc.batchUpdate("INSERT INTO " + replacement.table() + " (id, content, metadata, embedding) "
+            + "VALUES (CAST(? AS uuid), ?, CAST(? AS json), CAST(? AS vector)) ON CONFLICT (id) DO NOTHING", rows);
+    }
+
+    private String toJson(Map<String, Object> metadata) {
+        try {
+            return objectMapper.writeValueAsString(metadata);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("分块 metadata 序列化失败", e);
+        }
+    }
+
+    public List<CatalogEntry> list() {
+        return jdbcTemplate.query("SELECT * FROM " + TABLE + " ORDER BY created_at DESC", entryMapper());
+    }
+
+    /**
+     * collection 为空时返回全部文档
+     */
+    public List<CatalogEntry> list(String collection) {
+        if (collection == null) {
+            return list();
+        }
+        return jdbcTemplate.query("SELECT * FROM " + TABLE + " WHERE collection = ? ORDER BY created_at DESC",
+            entryMapper(), collection);
+    }
+
+    /**
+     * 各集合的文档数与分块数
+     */
+    public List<Map<String, Object>> collections() {
+        return jdbcTemplate.queryForList("SELECT collection AS name, COUNT(*) AS documents, "
+            + "COALESCE(SUM(chunk_count), 0) AS chunks FROM " + TABLE + " GROUP BY collection ORDER BY collection");
+    }
+
+    public Optional<CatalogEntry> findById(String documentId) {
+        try {
+            return jdbcTemplate.query("SELECT * FROM " + TABLE + " WHERE id = CAST(? AS uuid)", entryMapper(), documentId)
+                .stream().findFirst();
+        } catch (Exception e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * 按原始文件名或存储文件名精确匹配
+     */
+    public List<CatalogEntry> findByName(String name) {
+        return jdbcTemplate.query("SELECT * FROM " + TABLE + " WHERE original_name = ? OR stored_filename = ?",
+            entryMapper(), name, name);
+    }
+
+    /**
+     * 同一文件可以导入不同集合，重复判断限定在集合内
+     */
+    public boolean existsByContentHash(String contentHash, String collection) {
+        Boolean exists = jdbcTemplate.queryForObject(
+            "SELECT EXISTS (SELECT 1 FROM " + TABLE + " WHERE content_hash = ? AND collection = ?)",
+            Boolean.class, contentHash, collection);
+        return Boolean.TRUE.equals(exists);
+    }
+
+    public List<String> distinctFileTypes(String collection) {
+        if (collection == null) {
+            return jdbcTemplate.queryForList("SELECT DISTINCT file_type FROM " + TABLE
+                + " WHERE file_type IS NOT NULL AND file_type <> '' ORDER BY file_type", String.class);
+        }
+        return jdbcTemplate.queryForList("SELECT DISTINCT file_type FROM " + TABLE
+            + " WHERE collection = ? AND file_type IS NOT NULL AND file_type <> '' ORDER BY file_type",
+            String.class, collection);
+    }
+
+    /**
+     * 同一事务内删除分块与目录行，返回删除的分块数；extraDelete 用于同步清理迁移影子表等附属数据
+     * 其他分片上的分块在事务提交后删除
+     */
+    public int delete(CatalogEntry entry, Consumer<String> extraDelete) {
+        Integer deleted = transactionTemplate.execute(tx -> {
+            nearDuplicateService.releaseDocument(entry.id());
+            int rows = jdbcTemplate.update("DELETE FROM " + VECTOR_TABLE + " WHERE metadata->>'documentId' = ?", entry.id());
+            extraDelete.accept(entry.id());
+            jdbcTemplate.update("DELETE FROM " + TABLE + " WHERE id = CAST(? AS uuid)", entry.id());
+            return rows;
+        });
+        int remoteRows = vectorShards.deleteRemoteDocument(entry.id(), List.of());
+        return (deleted == null ? 0 : deleted) + remoteRows;
+    }
+
+    /**
+     * 有分块但没有目录行的 documentId：导入按批提交分块，进程在登记目录或补偿删除之前退出时会留下这类分块
+     * 其他分片上没有目录表，取出各分片的 documentId 后回主库目录比对；分片写入或补偿删除失败留下的分块也由此发现
+     * 调用方需排除仍在导入中的文档
+     */
+    public List<String> orphanDocumentIds() {
+        Set<String> orphans = new LinkedHashSet<>(jdbcTemplate.queryForList(
+            "SELECT DISTINCT v.metadata->>'documentId' FROM " + VECTOR_TABLE + " v "
+                + "WHERE v.metadata->>'documentId' IS NOT NULL AND NOT EXISTS (SELECT 1 FROM " + TABLE + " c "
+                + "WHERE c.id::text = v.metadata->>'documentId')", String.class));
+        for (JdbcTemplate remote : vectorShards.remotes()) {
+            List<String> documentIds = remote.queryForList("SELECT DISTINCT metadata->>'documentId' FROM "
+                + VECTOR_TABLE + " WHERE metadata->>'documentId' IS NOT NULL", String.class);
+            if (documentIds.isEmpty()) {
+                continue;
+            }
+            Set<String> known = new HashSet<>(jdbcTemplate.queryForList("SELECT id::text FROM " + TABLE
+                + " WHERE id::text = ANY(string_to_array(?, ','))", String.class, String.join(",", documentIds)));
+            documentIds.stream().filter(id -> !known.contains(id)).forEach(orphans::add);
+        }
+        return new ArrayList<>(orphans);
+    }
+
+    /**
+     * 补偿删除其他分片上该文档的分块（keep 中的保留），失败只记录日志，不掩盖原始异常
+     */
+    private void discardRemoteChunks(String documentId, List<String> keep) {
+        try {
+            vectorShards.deleteRemoteDocument(documentId, keep);
+        } catch (Exception e) {
+            log.warn("回收分片上的分块失败: documentId={}, error={}", documentId, e.getMessage());
+        }
+    }
+
+    public void ensureDocumentIdIndex(String table) {
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS " + table + "_document_id_idx ON " + table
+            + " ((metadata->>'documentId'))");
+    }
+
+    /**
+     * 升级前导入的分块没有 documentId：按 source 分组登记到目录并回写 documentId（只执行一次）
+     */
+    private void backfill() {
+        List<Map<String, Object>> legacy = jdbcTemplate.queryForList(
+            "SELECT metadata->>'source' AS source, MAX(metadata->>'fileType') AS file_type, COUNT(*) AS chunk_count "
+                + "FROM " + VECTOR_TABLE + " WHERE metadata->>'documentId' IS NULL AND metadata->>'source' IS NOT NULL "
+                + "GROUP BY metadata->>'source'");
+        if (legacy.isEmpty()) {
+            return;
+        }
+        boolean shadowExists = Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+            "SELECT to_regclass(?) IS NOT NULL", Boolean.class, "public." + SHADOW_TABLE));
+
+        for (Map<String, Object> row : legacy) {
+            String source = Objects.toString(row.get("source"));
+            String documentId = findByName(source).stream().map(CatalogEntry::id).findFirst()
+                .orElse(UUID.randomUUID().toString());
+            String setDocumentId = " SET metadata = (metadata::jsonb || jsonb_build_object('documentId', ?::text))::json "
+                + "WHERE metadata->>'source' = ? AND metadata->>'documentId' IS NULL";
+            transactionTemplate.executeWithoutResult(tx -> {
+                jdbcTemplate.update("UPDATE " + VECTOR_TABLE + setDocumentId, documentId, source);
+                if (shadowExists) {
+                    jdbcTemplate.update("UPDATE " + SHADOW_TABLE + setDocumentId, documentId, source);
+                }
+                jdbcTemplate.update("INSERT INTO " + TABLE + " (id, original_name, stored_filename, file_type, chunk_count) "
+                        + "VALUES (CAST(? AS uuid), ?, ?, ?, ?) ON CONFLICT (stored_filename) DO NOTHING",
+                    documentId, originalName(source), source, row.get("file_type"),
+                    ((Number) row.get("chunk_count")).intValue());
+            });
+        }
+        log.info("文档目录回填完成: {} 个历史文档", legacy.size());
+    }
+
+    private static String originalName(String storedFilename) {
+        String name = storedFilename;
+        int slash = Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\'));
+        if (slash >= 0) {
+            name = name.substring(slash + 1);
+        }
+        if (name.matches("\\d+_.*")) {
+            name = name.substring(name.indexOf('_') + 1);
+        }
+        return name;
+    }
+
+    private RowMapper<CatalogEntry> entryMapper() {
+        return (rs, rowNum) -> new CatalogEntry(
+            rs.getString("id"),
+            rs.getString("original_name"),
+            rs.getString("stored_filename"),
+            rs.getString("file_type"),
+            rs.getInt("chunk_count"),
+            rs.getLong("byte_size"),
+            rs.getString("content_hash"),
+            rs.getTimestamp("created_at").toInstant(),
+            rs.getString("collection")
+        );
+    }
+
+    /**
+     * 重新切分得到的新分块与向量；table 为写入的向量表（迁移期间可能是影子表）
+     * nearDuplicates 为延后到交换事务内执行的近重复登记与引用
+     */
+    public record ReplacementChunks(String table, List<Document> chunks, List<float[]> embeddings, int chunkCount,
+                                    List<Runnable> nearDuplicates) {}
+
+    public record CatalogEntry(String id, String originalName, String storedFilename, String fileType,
+                               int chunkCount, long byteSize, String contentHash, Instant createdAt,
+                               String collection) {
+
+        public CatalogEntry withChunkCount(int count) {
+            return new CatalogEntry(id, originalName, storedFilename, fileType, count, byteSize, contentHash, createdAt,
+                collection);
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("id", id);
+            map.put("filename", originalName);
+            map.put("fullPath", storedFilename);
+            map.put("fileType", fileType);
+            map.put("chunkCount", chunkCount);
+            map.put("byteSize", byteSize);
+            map.put("contentHash", contentHash);
+            map.put("createdAt", createdAt.toString());
+            map.put("collection", collection);
+            return map;
+        }
+    }
+}
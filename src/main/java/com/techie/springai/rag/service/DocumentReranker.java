@@ -77,13 +77,12 @@ public class DocumentReranker {
      * 计算相关性分数
      */
     private double calculateRelevanceScore(Document doc, String query) {
-        String content = doc.getText().toLowerCase();
-        String queryLower = query.toLowerCase();
+        String queryLower = query.toLowerCase(Locale.ROOT);
         
         double score = 0.0;
         
         // 1. 查询词完全匹配
-        if (content.contains(queryLower)) {
+        if (ChunkFeatures.contains(doc, queryLower)) {
             score += 0.5;
         }
         
@@ -91,14 +90,14 @@ public class DocumentReranker {
         String[] queryWords = queryLower.split("\\s+");
         int matchedWords = 0;
         for (String word : queryWords) {
-            if (!word.isEmpty() && content.contains(word)) {
+            if (!word.isEmpty() && ChunkFeatures.contains(doc, word)) {
                 matchedWords++;
             }
         }
         score += (double) matchedWords / queryWords.length * 0.3;
         
         // 3. 文档长度合理性（太长或太短都不好）
-        int contentLength = content.length();
+        int contentLength = ChunkFeatures.length(doc);
         if (contentLength > 100 && contentLength < 2000) {
             score += 0.2;
         }
@@ -106,6 +105,21 @@ public class DocumentReranker {
         return Math.min(score, 1.0);
     }
     
+    /**
+     * 相关性打分用到的查询词（小写）；两阶段检索时交给检索 SQL 预先判断命中
+     */
+    public Set<String> relevanceTerms(String query) {
+        String queryLower = query.toLowerCase(Locale.ROOT);
+        Set<String> terms = new LinkedHashSet<>();
+        terms.add(queryLower);
+        for (String word : queryLower.split("\\s+")) {
+            if (!word.isEmpty()) {
+                terms.add(word);
+            }
+        }
+        return terms;
+    }
+    
     /**
      * 位置偏差分数 - 原始排名靠前的文档得分更高
      */
@@ -118,12 +132,12 @@ public class DocumentReranker {
      * 多样性分数 - 鼓励返回内容多样化的文档
      */
     private double calculateDiversityScore(Document doc) {
-        String content = doc.getText();
+        int length = ChunkFeatures.length(doc);
         
         // 1. 检查文档长度多样性
-        if (content.length() < 200) {
+        if (length < 200) {
             return 0.3; // 太短
-        } else if (content.length() > 1500) {
+        } else if (length > 1500) {
             return 0.8; // 较长，通常更全面
         } else {
             return 0.6; // 中等长度
@@ -134,29 +148,27 @@ public class DocumentReranker {
      * 信息覆盖度分数 - 基于信息丰富度
      */
     private double calculateCoverageScore(Document doc) {
-        String content = doc.getText();
-        
         // 计算内容的多样性指标
         double score = 0.0;
         
         // 1. 句子数量
-        int sentences = content.split("[。！？]").length;
+        int sentences = ChunkFeatures.sentences(doc);
         if (sentences > 5) {
             score += 0.3;
         }
         
         // 2. 数字和具体数据的存在
-        if (content.matches(".*\\d+.*")) {
+        if (ChunkFeatures.hasDigits(doc)) {
             score += 0.2;
         }
         
         // 3. 列表项（使用常见符号）
-        if (content.matches(".*[1-9]\\.|•|·|×|√|☆|★.*")) {
+        if (ChunkFeatures.hasList(doc)) {
             score += 0.2;
         }
         
         // 4. 结构化信息（使用冒号、箭头等）
-        if (content.matches(".*[:：→→-].*")) {
+        if (ChunkFeatures.hasStructure(doc)) {
             score += 0.2;
         }
         
@@ -0,0 +1,478 @@
+package com.techie.springai.rag.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.techie.springai.rag.config.RequestPriority;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.ollama.OllamaEmbeddingModel;
+import org.springframework.ai.ollama.api.OllamaApi;
+import org.springframework.ai.ollama.api.OllamaOptions;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 向量维度迁移 - 更换 embedding 模型（维度变化或同维度换模型）后在线重新向量化，替代清空向量表
+ * 1. 新建影子表 vector_store_shadow（新维度），后台按 id 游标分批读取旧表文本并用新模型重新向量化
+ * 2. 迁移期间检索仍走旧表（用旧模型向量化查询），新上传的文档写入旧表，由迁移追平
+ * 3. 旧表上的触发器把迁移开始后插入、修改、删除的行 id 记入变更表：游标之后的行由游标自然覆盖，
+ *    游标之前的行（随机 id 的新分块、近重复转交等 metadata 修改）按变更记录重新同步，正文未变时只同步 metadata
+ * 4. 不持锁追平到没有剩余行后，才在一个短事务内锁表补齐最后的少量增量并交换表名；
+ *    锁内剩余行仍超过一批时放弃本次交换、释放锁继续追平
+ * 游标（已迁移到的最大 id）记录在状态表中，进程重启后从游标继续
+ */
+@Service
+public class EmbeddingMigrationService {
+
+    private static final Logger log = LoggerFactory.getLogger(EmbeddingMigrationService.class);
+    private static final String TABLE = "vector_store";
+    private static final String SHADOW_TABLE = "vector_store_shadow";
+    private static final String RETIRED_TABLE = "vector_store_retired";
+    private static final String STATE_TABLE = "vector_store_migration";
+    private static final String CHANGES_TABLE = "vector_store_migration_changes";
+    private static final String CHANGES_SEQUENCE = "vector_store_migration_change_seq";
+    private static final String CHANGES_TRIGGER = "vector_store_migration_mark";
+    private static final String CURSOR_START = "00000000-0000-0000-0000-000000000000";
+    /** 锁内增量过大时放弃交换的最多次数，之后即使增量较大也在锁内补齐 */
+    private static final int MAX_SWAP_ATTEMPTS = 5;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final EmbeddingModel embeddingModel;
+    private final OllamaApi ollamaApi;
+    private final VectorStoreSchemaService schemaService;
+    private final VectorIndexService vectorIndexService;
+    private final DocumentCatalogService catalogService;
+    private final TransactionTemplate swapTransaction;
+    private final ObjectMapper objectMapper;
+    private final VectorShards vectorShards;
+    private final ExecutorService migrationExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "embedding-migration");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private volatile boolean active = false;
+    private volatile EmbeddingModel legacyModel;
+    private volatile VectorStoreSchemaService.DimensionMismatch mismatch;
+    private volatile String status = "IDLE";
+    private volatile String lastError;
+    private volatile long total;
+    private volatile long migrated;
+    private volatile String cursor = CURSOR_START;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+
+    @Value("${rag.embedding.migration.batch-size:32}")
+    private int batchSize;
+
+    @Value("${rag.embedding.migration.throttle-ms:200}")
+    private long throttleMs;
+
+    public EmbeddingMigrationService(JdbcTemplate jdbcTemplate, EmbeddingModel embeddingModel, OllamaApi ollamaApi,
+                                     VectorStoreSchemaService schemaService, VectorIndexService vectorIndexService,
+                                     PlatformTransactionManager transactionManager, ObjectMapper objectMapper,
+                                     DocumentCatalogService catalogService, VectorShards vectorShards) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.embeddingModel = embeddingModel;
+        this.ollamaApi = ollamaApi;
+        this.schemaService = schemaService;
+        this.vectorIndexService = vectorIndexService;
+        this.swapTransaction = new TransactionTemplate(transactionManager);
+        this.objectMapper = objectMapper;
+        this.catalogService = catalogService;
+        this.vectorShards = vectorShards;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE + 1)
+    public void onReady() {
+        // 上次交换表后未来得及删除的旧表
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + RETIRED_TABLE);
+
+        Optional<VectorStoreSchemaService.DimensionMismatch> pending = schemaService.getPendingMigration();
+        if (pending.isEmpty()) {
+            // 交换后未来得及清理，或迁移中途改回了原模型：不再需要记录变更
+            dropChangeTracking();
+            schemaService.recordActiveModel();
+            return;
+        }
+        if (vectorShards.sharded()) {
+            // 影子表迁移只覆盖主库，分片上的向量表需按新模型重新导入
+            status = "UNSUPPORTED_WITH_SHARDS";
+            lastError = "向量分片模式下不支持在线维度迁移，请在各分片上重建 vector_store 后重新导入";
+            log.warn(lastError);
+            return;
+        }
+        mismatch = pending.get();
+        legacyModel = createLegacyModel(mismatch);
+        active = true;
+        migrationExecutor.execute(this::migrate);
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * 迁移期间的查询目标：旧模型可用时查旧表，否则查已迁移到影子表的部分
+     */
+    public QueryTarget queryTarget() {
+        EmbeddingModel legacy = legacyModel;
+        return legacy != null ? new QueryTarget(TABLE, legacy) : new QueryTarget(SHADOW_TABLE, embeddingModel);
+    }
+
+    /**
+     * 迁移期间的写入：旧模型可用时写旧表（随后由迁移追平到影子表），否则直接用新模型写影子表
+     */
+    public void write(List<Document> chunks) {
+        QueryTarget target = queryTarget();
+        List<float[]> embeddings = target.model().embed(chunks.stream().map(Document::getText).toList());
+        for (int i = 0; i < chunks.size(); i++) {
+            Document chunk = chunks.get(i);
+            jdbcTemplate.update("INSERT INTO " + target.table() + " (id, content, metadata, embedding) "
+                    + "VALUES (CAST(? AS uuid), ?, CAST(? AS json), CAST(? AS vector)) ON CONFLICT (id) DO NOTHING",
+                chunk.getId(), chunk.getText(), toJson(chunk.getMetadata()), PgVectors.toVectorLiteral(embeddings.get(i)));
+        }
+        if (target.table().equals(TABLE)) {
+            total += chunks.size();
+        }
+    }
+
+    /**
+     * 迁移期间删除文档时同步删除影子表中已迁移的行
+     */
+    public int deleteByDocumentId(String documentId) {
+        if (!active) {
+            return 0;
+        }
+        return jdbcTemplate.update("DELETE FROM " + SHADOW_TABLE + " WHERE metadata->>'documentId' = ?", documentId);
+    }
+
+    public Map<String, Object> status() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("active", active);
+        result.put("status", status);
+        if (mismatch != null) {
+            result.put("sourceDimensions", mismatch.sourceDimensions());
+            result.put("targetDimensions", mismatch.targetDimensions());
+            result.put("sourceModel", mismatch.sourceModel());
+            result.put("legacyQueries", legacyModel != null);
+        }
+        result.put("total", total);
+        result.put("migrated", migrated);
+        result.put("progress", total == 0 ? 0.0 : Math.round(migrated * 10000.0 / total) / 100.0);
+        result.put("startedAt", startedAt);
+        result.put("finishedAt", finishedAt);
+        result.put("lastError", lastError);
+        return result;
+    }
+
+    private void migrate() {
+        try {
+            prepareTables();
+            status = "COPYING";
+            total = count(TABLE);
+            migrated = count(SHADOW_TABLE);
+            log.info("开始向量重新向量化迁移: {}({} 维) -> {} 维, total={}, 已迁移={}", mismatch.sourceModel(),
+                mismatch.sourceDimensions(), mismatch.targetDimensions(), total, migrated);
+
+            while (copyBatch(RequestPriority.BULK) > 0) {
+                persistState(null);
+                if (throttleMs > 0) {
+                    Thread.sleep(throttleMs);
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+            }
+
+            status = "INDEXING";
+            persistState(null);
+            vectorIndexService.prepareIndexForTable(SHADOW_TABLE);
+
+            status = "SWAPPING";
+            swapTables();
+            jdbcTemplate.execute("DROP TABLE IF EXISTS " + RETIRED_TABLE);
+            dropChangeTracking();
+            jdbcTemplate.execute("ALTER TABLE " + TABLE + " RENAME CONSTRAINT " + SHADOW_TABLE + "_pkey TO " + TABLE + "_pkey");
+            catalogService.ensureDocumentIdIndex(TABLE);
+            vectorIndexService.promotePreparedIndex();
+            schemaService.recordActiveModel();
+            schemaService.clearPendingMigration();
+
+            status = "DONE";
+            finishedAt = Instant.now();
+            active = false;
+            cursor = CURSOR_START;
+            persistState(null);
+            log.info("向量迁移完成，已切换到 {} 维向量表, rows={}", mismatch.targetDimensions(), migrated);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            status = "FAILED";
+            lastError = e.getMessage();
+            persistState(e.getMessage());
+            log.error("向量迁移失败，检索继续使用旧表，重启后将从断点继续: {}", e.getMessage(), e);
+        }
+    }
+
+    private void prepareTables() {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + SHADOW_TABLE
+            + " (id uuid PRIMARY KEY, content text, metadata json, embedding vector(" + mismatch.targetDimensions() + "))");
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + STATE_TABLE + " (id int PRIMARY KEY, status text, "
+            + "source_model text, source_dimensions int, target_dimensions int, total bigint, migrated bigint, "
+            + "error text, started_at timestamp, updated_at timestamp)");
+        jdbcTemplate.execute("ALTER TABLE " + STATE_TABLE + " ADD COLUMN IF NOT EXISTS last_id uuid");
+
+        // 上次中断时影子表维度不同（又换了模型），重新开始
+        Integer shadowDims = jdbcTemplate.query("""
+            SELECT a.atttypmod FROM pg_attribute a
+            JOIN pg_class c ON a.attrelid = c.oid
+            JOIN pg_namespace n ON c.relnamespace = n.oid
+            WHERE n.nspname = 'public' AND c.relname = ? AND a.attname = 'embedding' AND a.attnum > 0
+            """, rs -> rs.next() ? rs.getInt(1) : null, SHADOW_TABLE);
+        if (shadowDims != null && shadowDims != mismatch.targetDimensions()) {
+            log.warn("影子表维度 {} 与目标维度 {} 不一致，重新开始迁移", shadowDims, mismatch.targetDimensions());
+            jdbcTemplate.execute("TRUNCATE TABLE " + SHADOW_TABLE);
+            jdbcTemplate.execute("ALTER TABLE " + SHADOW_TABLE + " ALTER COLUMN embedding TYPE vector("
+                + mismatch.targetDimensions() + ")");
+            jdbcTemplate.update("UPDATE " + STATE_TABLE + " SET last_id = NULL WHERE id = 1");
+        }
+
+        // 触发器先于游标生效：此后旧表的任何写入要么在游标之后被批量复制，要么留有变更记录
+        jdbcTemplate.execute("CREATE SEQUENCE IF NOT EXISTS " + CHANGES_SEQUENCE);
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + CHANGES_TABLE + " (id uuid PRIMARY KEY, "
+            + "seq bigint NOT NULL DEFAULT nextval('" + CHANGES_SEQUENCE + "'))");
+        jdbcTemplate.execute("""
+            CREATE OR REPLACE FUNCTION %s() RETURNS trigger AS $$
+            BEGIN
+                INSERT INTO %s (id) VALUES (CASE WHEN TG_OP = 'DELETE' THEN OLD.id ELSE NEW.id END)
+                ON CONFLICT (id) DO UPDATE SET seq = nextval('%s');
+                RETURN NULL;
+            END $$ LANGUAGE plpgsql
+            """.formatted(CHANGES_TRIGGER, CHANGES_TABLE, CHANGES_SEQUENCE));
+        jdbcTemplate.execute("CREATE OR REPLACE TRIGGER " + CHANGES_TRIGGER + " AFTER INSERT OR UPDATE OR DELETE ON "
+            + TABLE + " FOR EACH ROW EXECUTE FUNCTION " + CHANGES_TRIGGER + "()");
+
+        Timestamp previousStart = jdbcTemplate.query("SELECT started_at FROM " + STATE_TABLE + " WHERE id = 1",
+            rs -> rs.next() ? rs.getTimestamp(1) : null);
+        startedAt = previousStart != null ? previousStart.toInstant() : Instant.now();
+        String previousCursor = jdbcTemplate.query("SELECT last_id::text FROM " + STATE_TABLE + " WHERE id = 1",
+            rs -> rs.next() ? rs.getString(1) : null);
+        cursor = previousCursor != null ? previousCursor : CURSOR_START;
+    }
+
+    /**
+     * 从游标之后按 id 顺序取一批行，用新模型向量化后写入影子表并推进游标；返回本批处理的行数
+     */
+    private int copyBatch(RequestPriority priority) {
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+            "SELECT v.id::text AS id, v.content FROM " + TABLE + " v WHERE v.id > CAST(? AS uuid) ORDER BY v.id LIMIT ?",
+            cursor, Math.max(1, batchSize));
+        if (rows.isEmpty()) {
+            return 0;
+        }
+        List<String> texts = rows.stream().map(r -> Objects.toString(r.get("content"), "")).toList();
+        List<float[]> embeddings = RequestPriority.call(priority, () -> embeddingModel.embed(texts));
+        for (int i = 0; i < rows.size(); i++) {
+            upsertShadow(rows.get(i).get("id").toString(), texts.get(i), embeddings.get(i));
+        }
+        cursor = rows.get(rows.size() - 1).get("id").toString();
+        migrated += rows.size();
+        return rows.size();
+    }
+
+    /**
+     * 按变更记录同步游标之前被插入、修改或删除的一批行；正文未变的只同步 metadata，不重新向量化
+     * 同步后按 seq 删除变更记录，期间又被修改的行 seq 已变，记录保留到下一批
+     */
+    private int syncChanges(RequestPriority priority) {
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList("""
+            SELECT c.id::text AS id, c.seq, v.id IS NOT NULL AS present, v.content,
+                   s.id IS NOT NULL AND s.content IS NOT DISTINCT FROM v.content AS same_content
+            FROM %s c
+            LEFT JOIN %s v ON v.id = c.id
+            LEFT JOIN %s s ON s.id = c.id
+            WHERE c.id <= CAST(? AS uuid)
+            ORDER BY c.seq
+            LIMIT ?
+            """.formatted(CHANGES_TABLE, TABLE, SHADOW_TABLE), cursor, Math.max(1, batchSize));
+        if (rows.isEmpty()) {
+            return 0;
+        }
+        List<Map<String, Object>> changed = rows.stream()
+            .filter(r -> Boolean.TRUE.equals(r.get("present")) && !Boolean.TRUE.equals(r.get("same_content")))
+            .toList();
+        List<String> texts = changed.stream().map(r -> Objects.toString(r.get("content"), "")).toList();
+        List<float[]> embeddings = texts.isEmpty() ? List.of()
+            : RequestPriority.call(priority, () -> embeddingModel.embed(texts));
+        for (int i = 0; i < changed.size(); i++) {
+            upsertShadow(changed.get(i).get("id").toString(), texts.get(i), embeddings.get(i));
+        }
+        for (Map<String, Object> row : rows) {
+            String id = row.get("id").toString();
+            if (!Boolean.TRUE.equals(row.get("present"))) {
+                jdbcTemplate.update("DELETE FROM " + SHADOW_TABLE + " WHERE id = CAST(? AS uuid)", id);
+            } else if (Boolean.TRUE.equals(row.get("same_content"))) {
+                jdbcTemplate.update("UPDATE " + SHADOW_TABLE + " s SET metadata = v.metadata FROM " + TABLE + " v "
+                    + "WHERE s.id = v.id AND s.id = CAST(? AS uuid)", id);
+            }
+            jdbcTemplate.update("DELETE FROM " + CHANGES_TABLE + " WHERE id = CAST(? AS uuid) AND seq = ?",
+                id, row.get("seq"));
+        }
+        return rows.size();
+    }
+
+    /**
+     * 按 id 写入影子表（已存在则覆盖），metadata 取旧表当前值，期间已被删除的行自然跳过
+     * 正文写入的是实际向量化的文本：向量化期间正文又被修改时，变更同步会发现正文不一致并重新向量化
+     */
+    private void upsertShadow(String id, String content, float[] embedding) {
+        jdbcTemplate.update("INSERT INTO " + SHADOW_TABLE + " (id, content, metadata, embedding) "
+                + "SELECT v.id, ?, v.metadata, CAST(? AS vector) FROM " + TABLE + " v "
+                + "WHERE v.id = CAST(? AS uuid) ON CONFLICT (id) DO UPDATE SET content = EXCLUDED.content, "
+                + "metadata = EXCLUDED.metadata, embedding = EXCLUDED.embedding",
+            content, PgVectors.toVectorLiteral(embedding), id);
+    }
+
+    private void catchUp(RequestPriority priority) {
+        while (copyBatch(priority) > 0) {
+            // 游标之后的新行
+        }
+        while (syncChanges(priority) > 0) {
+            // 游标之前变更过的行
+        }
+    }
+
+    /**
+     * 先不持锁追平增量（建索引期间可能又有新文档写入），再锁住旧表阻止写入，
+     * 补齐最后的少量增量并删除影子表中已不存在于旧表的行，随后交换表名
+     * 锁内的向量化按交互优先级执行，不在批量队列里排队
+     */
+    private void swapTables() {
+        for (int attempt = 1; ; attempt++) {
+            // 不持锁追平
+            catchUp(RequestPriority.BULK);
+            persistState(null);
+            boolean lastAttempt = attempt >= MAX_SWAP_ATTEMPTS;
+            Boolean swapped = swapTransaction.execute(tx -> {
+                jdbcTemplate.execute("LOCK TABLE " + TABLE + " IN EXCLUSIVE MODE");
+                long remaining = pendingRows();
+                if (remaining > Math.max(1, batchSize) && !lastAttempt) {
+                    log.info("锁表时仍有 {} 行未迁移，释放锁继续追平", remaining);
+                    return false;
+                }
+                // 锁表期间补齐剩余行
+                catchUp(RequestPriority.INTERACTIVE);
+                // 旧模型不可用时新文档直接写入了影子表，不能按旧表清理
+                if (legacyModel != null) {
+                    jdbcTemplate.update("DELETE FROM " + SHADOW_TABLE + " s WHERE NOT EXISTS "
+                        + "(SELECT 1 FROM " + TABLE + " v WHERE v.id = s.id)");
+                }
+                jdbcTemplate.execute("ALTER TABLE " + TABLE + " RENAME TO " + RETIRED_TABLE);
+                jdbcTemplate.execute("ALTER TABLE " + SHADOW_TABLE + " RENAME TO " + TABLE);
+                jdbcTemplate.update("UPDATE " + STATE_TABLE + " SET status = 'SWAPPED', updated_at = now() WHERE id = 1");
+                return true;
+            });
+            if (Boolean.TRUE.equals(swapped)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 游标之后未复制的行数 + 游标之前待同步的变更数，都走主键索引
+     */
+    private long pendingRows() {
+        long ahead = Optional.ofNullable(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + TABLE
+            + " WHERE id > CAST(? AS uuid)", Long.class, cursor)).orElse(0L);
+        long changed = Optional.ofNullable(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + CHANGES_TABLE
+            + " WHERE id <= CAST(? AS uuid)", Long.class, cursor)).orElse(0L);
+        return ahead + changed;
+    }
+
+    /**
+     * 旧表连同其上的触发器已随交换改名后删除，这里清理触发器函数与变更表
+     */
+    private void dropChangeTracking() {
+        jdbcTemplate.execute("DROP FUNCTION IF EXISTS " + CHANGES_TRIGGER + "() CASCADE");
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + CHANGES_TABLE);
+        jdbcTemplate.execute("DROP SEQUENCE IF EXISTS " + CHANGES_SEQUENCE);
+    }
+
+    private void persistState(String error) {
+        try {
+            jdbcTemplate.update("INSERT INTO " + STATE_TABLE + " (id, status, source_model, source_dimensions, "
+                    + "target_dimensions, total, migrated, error, started_at, last_id, updated_at) "
+                    + "VALUES (1, ?, ?, ?, ?, ?, ?, ?, ?, CAST(? AS uuid), now()) ON CONFLICT (id) DO UPDATE SET "
+                    + "status = EXCLUDED.status, source_model = EXCLUDED.source_model, "
+                    + "source_dimensions = EXCLUDED.source_dimensions, target_dimensions = EXCLUDED.target_dimensions, "
+                    + "total = EXCLUDED.total, migrated = EXCLUDED.migrated, error = EXCLUDED.error, "
+                    + "last_id = EXCLUDED.last_id, updated_at = now()",
+                status, mismatch.sourceModel(), mismatch.sourceDimensions(), mismatch.targetDimensions(),
+                total, migrated, error, Timestamp.from(startedAt == null ? Instant.now() : startedAt), cursor);
+        } catch (Exception e) {
+            log.debug("记录迁移进度失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 用旧模型名构造查询向量化模型；模型不可用或维度不符时返回 null，迁移期间改查影子表
+     */
+    private EmbeddingModel createLegacyModel(VectorStoreSchemaService.DimensionMismatch mismatch) {
+        if (mismatch.sourceModel() == null || mismatch.sourceModel().isBlank()) {
+            log.warn("未知旧 embedding 模型，迁移期间检索仅覆盖已迁移的数据");
+            return null;
+        }
+        try {
+            EmbeddingModel model = OllamaEmbeddingModel.builder()
+                .ollamaApi(ollamaApi)
+                .defaultOptions(OllamaOptions.builder().model(mismatch.sourceModel()).build())
+                .build();
+            int dims = model.embed("dimension probe").length;
+            if (dims != mismatch.sourceDimensions()) {
+                log.warn("旧模型 {} 输出维度 {} 与旧表维度 {} 不一致，迁移期间检索仅覆盖已迁移的数据",
+                    mismatch.sourceModel(), dims, mismatch.sourceDimensions());
+                return null;
+            }
+            return model;
+        } catch (Exception e) {
+            log.warn("旧模型 {} 不可用，迁移期间检索仅覆盖已迁移的数据: {}", mismatch.sourceModel(), e.getMessage());
+            return null;
+        }
+    }
+
+    private long count(String table) {
+        return Optional.ofNullable(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table, Long.class)).orElse(0L);
+    }
+
+    private String toJson(Map<String, Object> metadata) {
+        try {
+            return objectMapper.writeValueAsString(metadata);
+        } catch (Exception e) {
+            return "{}";
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        migrationExecutor.shutdownNow();
+    }
+
+    public record QueryTarget(String table, EmbeddingModel model) {}
+}
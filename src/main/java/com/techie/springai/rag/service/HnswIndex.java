@@ -0,0 +1,454 @@
+package com.techie.springai.rag.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 进程内 HNSW 图索引 - 向量按行连续存放在一个 float[] 中，邻接表为 int[]（首元素为邻居数）
+ * 向量写入时归一化，相似度即点积（与 pgvector 的 1 - 余弦距离一致）
+ * 删除只打墓碑：节点仍参与图遍历，但不出现在结果中；墓碑过多时由调用方重建
+ * 检索持读锁可并发执行，写入持写锁
+ */
+final class HnswIndex {
+
+    private final int dims;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private float[] vectors;
+    private int[][][] links;
+    private int size;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+    private final BitSet deleted = new BitSet();
+    private int deletedCount;
+
+    HnswIndex(int dims, int m, int efConstruction, int initialCapacity) {
+        this.dims = dims;
+        this.m = Math.max(2, m);
+        this.maxM0 = this.m * 2;
+        this.efConstruction = Math.max(this.m, efConstruction);
+        this.levelMultiplier = 1.0 / Math.log(this.m);
+        int capacity = Math.max(16, initialCapacity);
+        this.vectors = new float[capacity * dims];
+        this.links = new int[capacity][][];
+    }
+
+    int dims() {
+        return dims;
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return size - deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int deletedCount() {
+        lock.readLock().lock();
+        try {
+            return deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    long memoryBytes() {
+        lock.readLock().lock();
+        try {
+            long linkBytes = 0;
+            for (int i = 0; i < size; i++) {
+                for (int[] level : links[i]) {
+                    linkBytes += 16L + level.length * 4L;
+                }
+            }
+            return (long) vectors.length * 4 + linkBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 插入向量，返回节点编号
+     */
+    int add(float[] vector) {
+        if (vector.length != dims) {
+            throw new IllegalArgumentException("向量维度不一致: expected=" + dims + ", actual=" + vector.length);
+        }
+        float[] normalized = normalize(vector);
+        lock.writeLock().lock();
+        try {
+            int node = size;
+            ensureCapacity(node + 1);
+            System.arraycopy(normalized, 0, vectors, node * dims, dims);
+            int level = randomLevel();
+            links[node] = new int[level + 1][];
+            for (int l = 0; l <= level; l++) {
+                links[node][l] = new int[(l == 0 ? maxM0 : m) + 1];
+            }
+            size++;
+
+            if (entryPoint < 0) {
+                entryPoint = node;
+                maxLevel = level;
+                return node;
+            }
+
+            int current = entryPoint;
+            float currentScore = dot(normalized, current);
+            for (int l = maxLevel; l > level; l--) {
+                boolean changed = true;
+                while (changed) {
+                    changed = false;
+                    int[] neighbors = links[current][l];
+                    for (int i = 1; i <= neighbors[0]; i++) {
+                        float score = dot(normalized, neighbors[i]);
+                        if (score > currentScore) {
+                            currentScore = score;
+                            current = neighbors[i];
+                            changed = true;
+                        }
+                    }
+                }
+            }
+
+            for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+                ScoredHeap found = searchLayer(normalized, current, efConstruction, l, null);
+                int[] candidates = found.drainDescending();
+                int[] selected = selectNeighbors(node, candidates, m);
+                int[] own = links[node][l];
+                own[0] = selected.length;
+                System.arraycopy(selected, 0, own, 1, selected.length);
+                for (int neighbor : selected) {
+                    connect(neighbor, node, l);
+                }
+                current = candidates[0];
+            }
+
+            if (level > maxLevel) {
+                maxLevel = level;
+                entryPoint = node;
+            }
+            return node;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void delete(int node) {
+        lock.writeLock().lock();
+        try {
+            if (node >= 0 && node < size && !deleted.get(node)) {
+                deleted.set(node);
+                deletedCount++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 返回与查询最相似的至多 k 个未删除节点，按相似度降序
+     */
+    List<Hit> search(float[] query, int k, int ef) {
+        if (query.length != dims) {
+            throw new IllegalArgumentException("查询向量维度不一致: expected=" + dims + ", actual=" + query.length);
+        }
+        float[] normalized = normalize(query);
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0 || k <= 0) {
+                return List.of();
+            }
+            int current = entryPoint;
+            float currentScore = dot(normalized, current);
+            for (int l = maxLevel; l > 0; l--) {
+                boolean changed = true;
+                while (changed) {
+                    changed = false;
+                    int[] neighbors = links[current][l];
+                    for (int i = 1; i <= neighbors[0]; i++) {
+                        float score = dot(normalized, neighbors[i]);
+                        if (score > currentScore) {
+                            currentScore = score;
+                            current = neighbors[i];
+                            changed = true;
+                        }
+                    }
+                }
+            }
+            ScoredHeap found = searchLayer(normalized, current, Math.max(ef, k), 0, deleted);
+            float[] scores = new float[found.size()];
+            int[] nodes = new int[found.size()];
+            for (int i = found.size() - 1; i >= 0; i--) {
+                scores[i] = found.peekScore();
+                nodes[i] = found.pop();
+            }
+            List<Hit> hits = new ArrayList<>(Math.min(k, nodes.length));
+            for (int i = 0; i < nodes.length && hits.size() < k; i++) {
+                hits.add(new Hit(nodes[i], scores[i]));
+            }
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 在某一层做 best-first 搜索，返回最相似的 ef 个节点（最小堆，堆顶最差）
+     * skip 不为 null 时被标记的节点不计入结果，但仍用于扩展
+     */
+    private ScoredHeap searchLayer(float[] query, int entry, int ef, int level, BitSet skip) {
+        BitSet visited = new BitSet(size);
+        ScoredHeap candidates = new ScoredHeap(true, ef * 2);
+        ScoredHeap results = new ScoredHeap(false, ef + 1);
+        float entryScore = dot(query, entry);
+        visited.set(entry);
+        candidates.push(entry, entryScore);
+        if (skip == null || !skip.get(entry)) {
+            results.push(entry, entryScore);
+        }
+        while (candidates.size() > 0) {
+            float candidateScore = candidates.peekScore();
+            if (results.size() >= ef && candidateScore < results.peekScore()) {
+                break;
+            }
+            int candidate = candidates.pop();
+            if (links[candidate].length <= level) {
+                continue;
+            }
+            int[] neighbors = links[candidate][level];
+            for (int i = 1; i <= neighbors[0]; i++) {
+                int neighbor = neighbors[i];
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                float score = dot(query, neighbor);
+                if (results.size() < ef || score > results.peekScore()) {
+                    candidates.push(neighbor, score);
+                    if (skip == null || !skip.get(neighbor)) {
+                        results.push(neighbor, score);
+                        if (results.size() > ef) {
+                            results.pop();
+                        }
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 启发式选邻居：候选按与 target 的相似度降序，只保留比已选邻居更接近 target 的节点，保持图的连通与分散
+     * 不足 max 个时用被跳过的候选补齐
+     */
+    private int[] selectNeighbors(int target, int[] candidatesDescending, int max) {
+        int[] selected = new int[Math.min(max, candidatesDescending.length)];
+        int count = 0;
+        int[] skipped = new int[candidatesDescending.length];
+        int skippedCount = 0;
+        for (int candidate : candidatesDescending) {
+            if (count >= selected.length) {
+                break;
+            }
+            float toTarget = similarity(candidate, target);
+            boolean keep = true;
+            for (int i = 0; i < count && keep; i++) {
+                keep = similarity(candidate, selected[i]) <= toTarget;
+            }
+            if (keep) {
+                selected[count++] = candidate;
+            } else {
+                skipped[skippedCount++] = candidate;
+            }
+        }
+        for (int i = 0; i < skippedCount && count < selected.length; i++) {
+            selected[count++] = skipped[i];
+        }
+        return count == selected.length ? selected : Arrays.copyOf(selected, count);
+    }
+
+    private void connect(int from, int to, int level) {
+        int[] neighbors = links[from][level];
+        int capacity = neighbors.length - 1;
+        if (neighbors[0] < capacity) {
+            neighbors[++neighbors[0]] = to;
+            return;
+        }
+        // 邻居已满：在原邻居与新节点中按相似度重新挑选
+        int[] pool = new int[capacity + 1];
+        System.arraycopy(neighbors, 1, pool, 0, capacity);
+        pool[capacity] = to;
+        float[] scores = new float[pool.length];
+        for (int i = 0; i < pool.length; i++) {
+            scores[i] = similarity(from, pool[i]);
+        }
+        Integer[] order = new Integer[pool.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Float.compare(scores[b], scores[a]));
+        int[] sorted = new int[pool.length];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = pool[order[i]];
+        }
+        int[] kept = selectNeighbors(from, sorted, capacity);
+        neighbors[0] = kept.length;
+        System.arraycopy(kept, 0, neighbors, 1, kept.length);
+    }
+
+    private int randomLevel() {
+        double r = ThreadLocalRandom.current().nextDouble();
+        return (int) Math.floor(-Math.log(Math.max(r, 1e-12)) * levelMultiplier);
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= links.length) {
+            return;
+        }
+        int capacity = Math.max(required, links.length * 2);
+        vectors = Arrays.copyOf(vectors, capacity * dims);
+        links = Arrays.copyOf(links, capacity);
+    }
+
+    private float dot(float[] query, int node) {
+        int offset = node * dims;
+        float sum = 0;
+        for (int i = 0; i < dims; i++) {
+            sum += query[i] * vectors[offset + i];
+        }
+        return sum;
+    }
+
+    private float similarity(int a, int b) {
+        int offsetA = a * dims;
+        int offsetB = b * dims;
+        float sum = 0;
+        for (int i = 0; i < dims; i++) {
+            sum += vectors[offsetA + i] * vectors[offsetB + i];
+        }
+        return sum;
+    }
+
+    static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        norm = Math.sqrt(norm);
+        float[] out = new float[vector.length];
+        if (norm == 0) {
+            return out;
+        }
+        for (int i = 0; i < vector.length; i++) {
+            out[i] = (float) (vector[i] / norm);
+        }
+        return out;
+    }
+
+    record Hit(int node, float score) {}
+
+    /**
+     * 节点 + 分数的二叉堆，max=true 时堆顶为最相似，否则堆顶为最不相似
+     */
+    private static final class ScoredHeap {
+
+        private final boolean max;
+        private float[] scores;
+        private int[] nodes;
+        private int size;
+
+        ScoredHeap(boolean max, int capacity) {
+            this.max = max;
+            this.scores = new float[Math.max(4, capacity)];
+            this.nodes = new int[Math.max(4, capacity)];
+        }
+
+        int size() {
+            return size;
+        }
+
+        float peekScore() {
+            return scores[0];
+        }
+
+        void push(int node, float score) {
+            if (size == nodes.length) {
+                scores = Arrays.copyOf(scores, size * 2);
+                nodes = Arrays.copyOf(nodes, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!before(score, scores[parent])) {
+                    break;
+                }
+                scores[i] = scores[parent];
+                nodes[i] = nodes[parent];
+                i = parent;
+            }
+            scores[i] = score;
+            nodes[i] = node;
+        }
+
+        int pop() {
+            int top = nodes[0];
+            size--;
+            if (size > 0) {
+                float score = scores[size];
+                int node = nodes[size];
+                int i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= size) {
+                        break;
+                    }
+                    if (child + 1 < size && before(scores[child + 1], scores[child])) {
+                        child++;
+                    }
+                    if (!before(scores[child], score)) {
+                        break;
+                    }
+                    scores[i] = scores[child];
+                    nodes[i] = nodes[child];
+                    i = child;
+                }
+                scores[i] = score;
+                nodes[i] = node;
+            }
+            return top;
+        }
+
+        /**
+         * 取出全部节点，按相似度降序
+         */
+        int[] drainDescending() {
+            int[] out = new int[size];
+            if (max) {
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = pop();
+                }
+            } else {
+                for (int i = out.length - 1; i >= 0; i--) {
+                    out[i] = pop();
+                }
+            }
+            return out;
+        }
+
+        private boolean before(float a, float b) {
+            return max ? a > b : a < b;
+        }
+    }
+}
@@ -0,0 +1,410 @@
+package com.techie.springai.rag.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 热集合内存层 - 选定集合的分块向量在 JVM 内建 HNSW 图，限定这些集合的检索在进程内完成，不经过网络与 SQL
+ * pgvector 仍是唯一的数据源：启动时从库中加载，导入/重新切分/删除后按文档回库对账；未就绪、维度不符时回退 pgvector
+ * 内存中只保留向量、图与 metadata，正文不驻留：每次检索命中的 topK 分块按 id 回库取一次正文
+ */
+@Service
+public class HotTierService {
+
+    private static final Logger log = LoggerFactory.getLogger(HotTierService.class);
+    private static final String TABLE = "vector_store";
+    private static final String COLUMNS = "id::text AS id, metadata::text AS metadata, embedding::text AS embedding";
+
+    private final VectorStoreSchemaService schemaService;
+    private final ObjectMapper objectMapper;
+    private final VectorShards vectorShards;
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "hot-tier-loader");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Map<String, Tier> tiers = new ConcurrentHashMap<>();
+    private final Map<String, List<DocumentCatalogService.CatalogEntry>> deferred = new ConcurrentHashMap<>();
+    private final Map<String, String> failures = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+    private final LongAdder searchNanos = new LongAdder();
+
+    @Value("${rag.hot-tier.enabled:false}")
+    private boolean enabled;
+
+    @Value("${rag.hot-tier.collections:}")
+    private String collections;
+
+    @Value("${rag.hot-tier.hnsw.m:16}")
+    private int m;
+
+    @Value("${rag.hot-tier.hnsw.ef-construction:100}")
+    private int efConstruction;
+
+    @Value("${rag.hot-tier.hnsw.ef-search:64}")
+    private int efSearch;
+
+    @Value("${rag.hot-tier.max-vectors:100000}")
+    private int maxVectors;
+
+    @Value("${rag.hot-tier.rebuild-deleted-ratio:0.2}")
+    private double rebuildDeletedRatio;
+
+    public HotTierService(VectorStoreSchemaService schemaService, ObjectMapper objectMapper, VectorShards vectorShards) {
+        this.schemaService = schemaService;
+        this.objectMapper = objectMapper;
+        this.vectorShards = vectorShards;
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        if (!enabled) {
+            return;
+        }
+        if (schemaService.getPendingMigration().isPresent()) {
+            // 维度迁移期间检索不走内存层，迁移切换后首次检索时再加载
+            log.info("存在待执行的维度迁移，热集合内存层暂不加载");
+            return;
+        }
+        hotCollections().forEach(this::reload);
+    }
+
+    /**
+     * 后台（重新）加载一个集合；已在加载中时返回 false。加载期间旧的内存图继续服务，加载完成后整体替换
+     */
+    public boolean reload(String collection) {
+        String name = CollectionNames.normalize(collection);
+        if (!enabled || deferred.putIfAbsent(name, Collections.synchronizedList(new ArrayList<>())) != null) {
+            return false;
+        }
+        failures.remove(name);
+        loader.execute(() -> {
+            try {
+                Tier tier = load(name);
+                tiers.put(name, tier);
+                // 加载期间发生的文档变更可能不在加载快照中，替换后重放一次（对账是幂等的）
+                List<DocumentCatalogService.CatalogEntry> pending = deferred.remove(name);
+                if (pending != null) {
+                    List.copyOf(pending).forEach(entry -> refresh(tier, entry));
+                }
+                log.info("热集合已加载: collection={}, vectors={}, 耗时 {}ms, 内存 {}MB", name, tier.index.size(),
+                    tier.loadMillis, tier.index.memoryBytes() / (1024 * 1024));
+            } catch (Exception e) {
+                deferred.remove(name);
+                failures.put(name, e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage());
+                log.warn("热集合加载失败，检索回退 pgvector: collection={}, error={}", name, e.getMessage());
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 在内存图中检索；集合未加载或向量维度不符时返回 empty，由调用方回退 pgvector
+     * 返回的分块带完整正文与 metadata，分数与 pgvector 路径一致（1 - 余弦距离）；取正文时已被删除的分块直接丢弃
+     */
+    public Optional<List<Document>> search(String collection, float[] embedding, int topK, double threshold) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        Tier tier = tiers.get(collection);
+        if (tier == null || tier.index.dims() != embedding.length) {
+            fallbacks.increment();
+            boolean stale = tier != null && embedding.length == schemaService.getDimensions();
+            if (stale || (tier == null && hotCollections().contains(collection) && !failures.containsKey(collection))) {
+                // 维度迁移切换后内存图已过期，或启动时因迁移未加载：后台重新加载，期间继续回退
+                reload(collection);
+            }
+            return Optional.empty();
+        }
+
+        long start = System.nanoTime();
+        List<HnswIndex.Hit> found = tier.index.search(embedding, topK, Math.max(efSearch, topK * 2));
+        List<HnswIndex.Hit> accepted = new ArrayList<>(found.size());
+        List<Chunk> chunks = new ArrayList<>(found.size());
+        for (HnswIndex.Hit hit : found) {
+            if (hit.score() < threshold) {
+                break;
+            }
+            Chunk chunk = tier.chunks.get(hit.node());
+            if (chunk != null) {
+                accepted.add(hit);
+                chunks.add(chunk);
+            }
+        }
+        Map<String, String> texts = loadTexts(chunks.stream().map(Chunk::id).toList());
+        List<Document> results = new ArrayList<>(chunks.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            Chunk chunk = chunks.get(i);
+            String text = texts.get(chunk.id());
+            if (text == null) {
+                continue;
+            }
+            double score = accepted.get(i).score();
+            Map<String, Object> metadata = new HashMap<>(chunk.metadata());
+            metadata.put("distance", 1.0 - score);
+            results.add(Document.builder()
+                .id(chunk.id())
+                .text(text)
+                .metadata(metadata)
+                .score(score)
+                .build());
+        }
+        searchNanos.add(System.nanoTime() - start);
+        hits.increment();
+        return Optional.of(results);
+    }
+
+    /**
+     * 文档导入、重新切分或删除后调用：按文档回库对账该集合的内存图
+     * 集合不在内存层时立即返回，不访问数据库
+     */
+    public void syncDocument(DocumentCatalogService.CatalogEntry entry) {
+        if (!enabled) {
+            return;
+        }
+        String collection = CollectionNames.normalize(entry.collection());
+        List<DocumentCatalogService.CatalogEntry> pending = deferred.get(collection);
+        if (pending != null) {
+            pending.add(entry);
+        }
+        Tier tier = tiers.get(collection);
+        if (tier == null) {
+            return;
+        }
+        try {
+            refresh(tier, entry);
+        } catch (Exception e) {
+            // 对账失败时内存图可能与库不一致，丢弃并重新加载，期间回退 pgvector
+            log.warn("热集合对账失败，重新加载: collection={}, documentId={}, error={}", collection, entry.id(),
+                e.getMessage());
+            tiers.remove(collection, tier);
+            reload(collection);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long searches = hits.sum();
+        stats.put("enabled", enabled);
+        stats.put("configured", hotCollections());
+        stats.put("hits", searches);
+        stats.put("fallbacks", fallbacks.sum());
+        stats.put("avgSearchMicros", searches == 0 ? 0.0 : Math.round(searchNanos.sum() / 10.0 / searches) / 100.0);
+
+        Set<String> names = new TreeSet<>(tiers.keySet());
+        names.addAll(deferred.keySet());
+        names.addAll(failures.keySet());
+        Map<String, Object> perCollection = new LinkedHashMap<>();
+        for (String name : names) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            Tier tier = tiers.get(name);
+            entry.put("state", deferred.containsKey(name) ? "LOADING" : tier != null ? "READY" : "FAILED");
+            if (tier != null) {
+                entry.put("vectors", tier.index.size());
+                entry.put("deleted", tier.index.deletedCount());
+                entry.put("dimensions", tier.index.dims());
+                entry.put("memoryMb", Math.round(tier.index.memoryBytes() / 1024.0 / 1024.0 * 10) / 10.0);
+                entry.put("loadedAt", tier.loadedAt.toString());
+                entry.put("loadMs", tier.loadMillis);
+            }
+            if (failures.containsKey(name)) {
+                entry.put("error", failures.get(name));
+            }
+            perCollection.put(name, entry);
+        }
+        stats.put("collections", perCollection);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        loader.shutdownNow();
+    }
+
+    private Tier load(String collection) {
+        long start = System.nanoTime();
+        String predicate = CollectionNames.predicate(collection);
+        int total = vectorShards.scatter(jdbc -> jdbc.queryForList(
+                "SELECT COUNT(*)::int FROM " + TABLE + " WHERE " + predicate, Integer.class))
+            .stream().mapToInt(Integer::intValue).sum();
+        if (total > maxVectors) {
+            throw new IllegalStateException("集合向量数 " + total + " 超过 rag.hot-tier.max-vectors=" + maxVectors);
+        }
+        Tier tier = new Tier(new HnswIndex(schemaService.getDimensions(), m, efConstruction, total));
+        vectorShards.queryAll("SELECT " + COLUMNS + " FROM " + TABLE + " WHERE " + predicate,
+            rs -> {
+                upsert(tier, rs);
+            });
+        tier.loadMillis = (System.nanoTime() - start) / 1_000_000;
+        return tier;
+    }
+
+    /**
+     * 对账一个文档涉及的分块：该文档的分块、内存中记为该文档的分块、以及 duplicateSources 引用该文档的规范分块
+     * 库中仍存在的更新 metadata（近重复转交会改写 documentId），已不存在的打墓碑
+     */
+    private void refresh(Tier tier, DocumentCatalogService.CatalogEntry entry) {
+        Set<String> tracked;
+        synchronized (tier) {
+            tracked = new HashSet<>(tier.idsByDocument.getOrDefault(entry.id(), Set.of()));
+            tracked.addAll(tier.idsByDuplicateSource.getOrDefault(entry.storedFilename(), Set.of()));
+        }
+        Set<String> present = new HashSet<>();
+        vectorShards.queryAll("SELECT " + COLUMNS + " FROM " + TABLE + " WHERE " + CollectionNames.predicate(entry.collection())
+                + " AND (metadata->>'documentId' = ? OR id = ANY(CAST(string_to_array(?, ',') AS uuid[]))"
+                + " OR metadata::jsonb->'duplicateSources' @> jsonb_build_array(?::text))",
+            rs -> {
+                present.add(upsert(tier, rs));
+            },
+            entry.id(), String.join(",", tracked), entry.storedFilename());
+
+        tracked.removeAll(present);
+        synchronized (tier) {
+            tracked.forEach(tier::remove);
+        }
+        int deleted = tier.index.deletedCount();
+        if (deleted >= 64 && deleted > rebuildDeletedRatio * (tier.index.size() + deleted)) {
+            log.info("热集合墓碑过多，后台重建: collection={}, deleted={}", entry.collection(), deleted);
+            reload(entry.collection());
+        }
+    }
+
+    /**
+     * 按 id 一次取回命中分块的正文（各分片并行）
+     */
+    private Map<String, String> loadTexts(List<String> ids) {
+        if (ids.isEmpty()) {
+            return Map.of();
+        }
+        String joinedIds = String.join(",", ids);
+        Map<String, String> texts = new HashMap<>();
+        vectorShards.scatter(jdbc -> jdbc.query(
+                "SELECT id::text AS id, content FROM " + TABLE + " WHERE id = ANY(CAST(string_to_array(?, ',') AS uuid[]))",
+                (rs, rowNum) -> Map.entry(rs.getString("id"), Objects.toString(rs.getString("content"), "")), joinedIds))
+            .forEach(e -> texts.put(e.getKey(), e.getValue()));
+        return texts;
+    }
+
+    private String upsert(Tier tier, ResultSet rs) throws SQLException {
+        String id = rs.getString("id");
+        Map<String, Object> metadata = PgVectors.parseMetadata(objectMapper, rs.getString("metadata"));
+        Chunk chunk = new Chunk(id, Collections.unmodifiableMap(metadata));
+        synchronized (tier) {
+            Integer node = tier.nodeById.get(id);
+            if (node == null) {
+                // 分块 id 对应的向量不会变化（重新切分会生成新 id），已存在时只更新 metadata
+                node = tier.index.add(PgVectors.parseVector(rs.getString("embedding")));
+                tier.nodeById.put(id, node);
+            } else {
+                tier.unlink(tier.chunks.get(node));
+            }
+            tier.chunks.put(node, chunk);
+            tier.link(chunk);
+        }
+        return id;
+    }
+
+    private List<String> hotCollections() {
+        if (collections == null || collections.isBlank()) {
+            return List.of();
+        }
+        return Arrays.stream(collections.split(","))
+            .map(String::trim)
+            .filter(s -> !s.isEmpty())
+            .map(CollectionNames::normalize)
+            .distinct()
+            .toList();
+    }
+
+    private record Chunk(String id, Map<String, Object> metadata) {
+
+        String documentId() {
+            Object value = metadata.get("documentId");
+            return value == null ? null : value.toString();
+        }
+
+        List<String> duplicateSources() {
+            return metadata.get("duplicateSources") instanceof List<?> list
+                ? list.stream().map(String::valueOf).toList()
+                : List.of();
+        }
+    }
+
+    /**
+     * 一个集合的内存图：节点编号 → 分块，另按 documentId 与 duplicateSources 建反查表供对账使用
+     * 反查表只在持有 Tier 监视器时读写；chunks 供检索线程无锁读取
+     */
+    private static final class Tier {
+
+        final HnswIndex index;
+        final Instant loadedAt = Instant.now();
+        final Map<Integer, Chunk> chunks = new ConcurrentHashMap<>();
+        final Map<String, Integer> nodeById = new HashMap<>();
+        final Map<String, Set<String>> idsByDocument = new HashMap<>();
+        final Map<String, Set<String>> idsByDuplicateSource = new HashMap<>();
+        long loadMillis;
+
+        Tier(HnswIndex index) {
+            this.index = index;
+        }
+
+        void link(Chunk chunk) {
+            if (chunk.documentId() != null) {
+                idsByDocument.computeIfAbsent(chunk.documentId(), k -> new HashSet<>()).add(chunk.id());
+            }
+            for (String source : chunk.duplicateSources()) {
+                idsByDuplicateSource.computeIfAbsent(source, k -> new HashSet<>()).add(chunk.id());
+            }
+        }
+
+        void unlink(Chunk chunk) {
+            if (chunk == null) {
+                return;
+            }
+            if (chunk.documentId() != null) {
+                removeFrom(idsByDocument, chunk.documentId(), chunk.id());
+            }
+            for (String source : chunk.duplicateSources()) {
+                removeFrom(idsByDuplicateSource, source, chunk.id());
+            }
+        }
+
+        void remove(String id) {
+            Integer node = nodeById.remove(id);
+            if (node == null) {
+                return;
+            }
+            unlink(chunks.remove(node));
+            index.delete(node);
+        }
+
+        private static void removeFrom(Map<String, Set<String>> map, String key, String id) {
+            Set<String> ids = map.get(key);
+            if (ids != null && ids.remove(id) && ids.isEmpty()) {
+                map.remove(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package com.techie.springai.rag.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 近重复分块检测 - 导入时对分块文本的字符 shingle 计算 64 位 SimHash
+ * 用 4 段 x 16 位的 LSH 分桶查找候选，海明距离不超过 max-distance 的分块视为近重复：
+ * 新分块不再向量化入库，只在规范分块（canonical）上记录额外来源 duplicateSources
+ * 规范分块所属文档被删除或重新切分时，引用它的其他文档接管该分块
+ * 只在同一集合内判重，限定集合的检索不会因为规范分块在其他集合而漏掉内容
+ */
+@Service
+public class NearDuplicateService {
+
+    private static final Logger log = LoggerFactory.getLogger(NearDuplicateService.class);
+    private static final int BANDS = 4;
+    private static final int BAND_BITS = 64 / BANDS;
+    private static final String VECTOR_TABLE = "vector_store";
+
+    private static final String ADD_SOURCE_SQL = "UPDATE " + VECTOR_TABLE + " SET metadata = jsonb_set(metadata::jsonb, "
+        + "'{duplicateSources}', COALESCE(metadata::jsonb->'duplicateSources', '[]'::jsonb) || to_jsonb(?::text))::json "
+        + "WHERE id = CAST(? AS uuid) AND metadata->>'source' <> ? "
+        + "AND NOT COALESCE(metadata::jsonb->'duplicateSources', '[]'::jsonb) @> jsonb_build_array(?::text)";
+    private static final String REMOVE_SOURCE_SQL = "UPDATE " + VECTOR_TABLE + " SET metadata = jsonb_set(metadata::jsonb, "
+        + "'{duplicateSources}', COALESCE((SELECT jsonb_agg(e) FROM jsonb_array_elements("
+        + "COALESCE(metadata::jsonb->'duplicateSources', '[]'::jsonb)) e WHERE e <> to_jsonb(?::text)), '[]'::jsonb))::json "
+        + "WHERE id = CAST(? AS uuid)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final VectorShards vectorShards;
+    private final LongAdder checked = new LongAdder();
+    private final LongAdder collapsed = new LongAdder();
+
+    @Value("${rag.dedup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${rag.dedup.max-distance:3}")
+    private int maxDistance;
+
+    @Value("${rag.dedup.shingle-size:4}")
+    private int shingleSize;
+
+    @Value("${rag.dedup.min-chars:80}")
+    private int minChars;
+
+    public NearDuplicateService(JdbcTemplate jdbcTemplate, VectorShards vectorShards) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.vectorShards = vectorShards;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE + 1)
+    public void init() {
+        try {
+            jdbcTemplate.execute("""
+                CREATE TABLE IF NOT EXISTS chunk_simhash (
+                    chunk_id uuid PRIMARY KEY,
+                    document_id text NOT NULL,
+                    simhash bigint NOT NULL,
+                    band0 int NOT NULL,
+                    band1 int NOT NULL,
+                    band2 int NOT NULL,
+                    band3 int NOT NULL
+                )
+                """);
+            for (int i = 0; i < BANDS; i++) {
+                jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS chunk_simhash_band" + i + "_idx ON chunk_simhash (band" + i + ")");
+            }
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS chunk_simhash_document_idx ON chunk_simhash (document_id)");
+            jdbcTemplate.execute("ALTER TABLE chunk_simhash ADD COLUMN IF NOT EXISTS collection text NOT NULL DEFAULT '"
+                + CollectionNames.DEFAULT + "'");
+            jdbcTemplate.execute("""
+                CREATE TABLE IF NOT EXISTS chunk_reference (
+                    chunk_id uuid NOT NULL,
+                    document_id text NOT NULL,
+                    source text NOT NULL,
+                    file_type text,
+                    chunk_index int NOT NULL,
+                    PRIMARY KEY (chunk_id, document_id, chunk_index)
+                )
+                """);
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS chunk_reference_document_idx ON chunk_reference (document_id)");
+        } catch (Exception e) {
+            log.error("初始化近重复检测表失败: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 计算分块指纹；未启用或文本过短（不参与判重）时返回 null
+     */
+    public Fingerprint fingerprint(Document chunk) {
+        if (!enabled) {
+            return null;
+        }
+        String normalized = normalize(chunk.getText());
+        if (normalized.length() < Math.max(minChars, shingleSize)) {
+            return null;
+        }
+        checked.increment();
+        long hash = simhash(normalized);
+        String collection = CollectionNames.normalize(
+            Objects.toString(chunk.getMetadata().get(CollectionNames.METADATA_KEY), null));
+        return new Fingerprint(chunk.getId(), hash, bands(hash), collection);
+    }
+
+    /**
+     * 在已登记的规范分块中查找近重复；excludeDocumentId 的分块不参与（重新切分时旧分块即将被替换）
+     * 候选按汉明距离、chunk_id 排序后取第一个，同一输入总是得到同一个规范分块
+     */
+    public Optional<String> findCanonical(Fingerprint fingerprint, String excludeDocumentId) {
+        int[] bands = fingerprint.bands();
+        List<String> best = jdbcTemplate.queryForList("""
+                SELECT chunk_id::text FROM (
+                    SELECT chunk_id, bit_count((simhash # ?)::bit(64)) AS distance FROM chunk_simhash
+                    WHERE (band0 = ? OR band1 = ? OR band2 = ? OR band3 = ?) AND collection = ? AND document_id <> ?
+                ) c
+                WHERE distance <= ?
+                ORDER BY distance, chunk_id
+                LIMIT 1
+                """, String.class,
+            fingerprint.hash(), bands[0], bands[1], bands[2], bands[3], fingerprint.collection(), excludeDocumentId,
+            maxDistance);
+        if (best.isEmpty()) {
+            return Optional.empty();
+        }
+        collapsed.increment();
+        return Optional.of(best.get(0));
+    }
+
+    /**
+     * 把分块登记为规范分块；导入失败时由 DocumentCatalogService.discard 按文档撤销登记
+     */
+    public void register(Fingerprint fingerprint, String documentId) {
+        int[] bands = fingerprint.bands();
+        jdbcTemplate.update("INSERT INTO chunk_simhash (chunk_id, document_id, simhash, band0, band1, band2, band3, "
+                + "collection) VALUES (CAST(? AS uuid), ?, ?, ?, ?, ?, ?, ?) ON CONFLICT (chunk_id) DO NOTHING",
+            fingerprint.chunkId(), documentId, fingerprint.hash(), bands[0], bands[1], bands[2], bands[3],
+            fingerprint.collection());
+    }
+
+    /**
+     * 同一文档内的判重在内存中进行：按 LSH 分段建索引，不依赖已提交的登记
+     */
+    public LocalIndex localIndex() {
+        return new LocalIndex();
+    }
+
+    /**
+     * 记录 chunk 所属文档引用了已入库的规范分块，并把来源追加到规范分块的 duplicateSources
+     */
+    public void addReference(String canonicalId, Document chunk) {
+        Map<String, Object> metadata = chunk.getMetadata();
+        String source = Objects.toString(metadata.get("source"), "");
+        jdbcTemplate.update("INSERT INTO chunk_reference (chunk_id, document_id, source, file_type, chunk_index) "
+                + "VALUES (CAST(? AS uuid), ?, ?, ?, ?) ON CONFLICT DO NOTHING",
+            canonicalId, metadata.get("documentId"), source, metadata.get("fileType"),
+            ((Number) metadata.getOrDefault("chunkIndex", 0)).intValue());
+        updateChunk(ADD_SOURCE_SQL, source, canonicalId, source, source);
+    }
+
+    /**
+     * 文档删除或重新切分前调用（同一事务内）：
+     * 1. 撤销该文档对其他规范分块的引用
+     * 2. 该文档拥有、且被其他文档引用的规范分块转交给其中一个引用方，避免随文档一起被删除
+     */
+    public void releaseDocument(String documentId) {
+        List<Map<String, Object>> references = jdbcTemplate.queryForList(
+            "SELECT chunk_id::text AS chunk_id, source FROM chunk_reference WHERE document_id = ?", documentId);
+        for (Map<String, Object> ref : references) {
+            updateChunk(REMOVE_SOURCE_SQL, ref.get("source"), ref.get("chunk_id"));
+        }
+        jdbcTemplate.update("DELETE FROM chunk_reference WHERE document_id = ?", documentId);
+
+        List<Map<String, Object>> handovers = jdbcTemplate.queryForList("""
+            SELECT DISTINCT ON (r.chunk_id) r.chunk_id::text AS chunk_id, r.document_id, r.source, r.file_type, r.chunk_index
+            FROM chunk_reference r JOIN chunk_simhash s ON s.chunk_id = r.chunk_id
+            WHERE s.document_id = ?
+            ORDER BY r.chunk_id, r.document_id, r.chunk_index
+            """, documentId);
+        for (Map<String, Object> h : handovers) {
+            String chunkId = h.get("chunk_id").toString();
+            String newDocumentId = h.get("document_id").toString();
+            updateChunk("UPDATE " + VECTOR_TABLE + " SET metadata = (metadata::jsonb || jsonb_build_object("
+                    + "'documentId', ?::text, 'source', ?::text, 'fileType', ?::text, 'chunkIndex', ?::int))::json "
+                    + "WHERE id = CAST(? AS uuid)",
+                newDocumentId, h.get("source"), h.get("file_type"), h.get("chunk_index"), chunkId);
+            updateChunk(REMOVE_SOURCE_SQL, h.get("source"), chunkId);
+            jdbcTemplate.update("UPDATE chunk_simhash SET document_id = ? WHERE chunk_id = CAST(? AS uuid)",
+                newDocumentId, chunkId);
+            jdbcTemplate.update("DELETE FROM chunk_reference WHERE chunk_id = CAST(? AS uuid) AND document_id = ? "
+                + "AND chunk_index = ?", chunkId, newDocumentId, h.get("chunk_index"));
+        }
+        if (!handovers.isEmpty()) {
+            log.info("文档 {} 的 {} 个规范分块已转交给引用文档", documentId, handovers.size());
+        }
+        jdbcTemplate.update("DELETE FROM chunk_simhash WHERE document_id = ?", documentId);
+    }
+
+    /**
+     * 规范分块可能在任一向量分片上：主库部分沿用调用方事务，其他分片在该事务提交后按 id 广播更新
+     */
+    private void updateChunk(String sql, Object... args) {
+        jdbcTemplate.update(sql, args);
+        vectorShards.updateRemotesAfterCommit(sql, args);
+    }
+
+    public record Fingerprint(String chunkId, long hash, int[] bands, String collection) {}
+
+    /**
+     * 单个文档内已接受分块的指纹索引
+     */
+    public final class LocalIndex {
+
+        private final Map<Long, List<Fingerprint>> buckets = new HashMap<>();
+
+        public Optional<String> find(Fingerprint fingerprint) {
+            Set<Fingerprint> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+            String best = null;
+            int bestDistance = maxDistance + 1;
+            for (int i = 0; i < BANDS; i++) {
+                for (Fingerprint candidate : buckets.getOrDefault(bucketKey(i, fingerprint.bands()[i]), List.of())) {
+                    if (!seen.add(candidate)) {
+                        continue;
+                    }
+                    int distance = Long.bitCount(fingerprint.hash() ^ candidate.hash());
+                    if (distance < bestDistance) {
+                        bestDistance = distance;
+                        best = candidate.chunkId();
+                    }
+                }
+            }
+            return Optional.ofNullable(best);
+        }
+
+        public void add(Fingerprint fingerprint) {
+            for (int i = 0; i < BANDS; i++) {
+                buckets.computeIfAbsent(bucketKey(i, fingerprint.bands()[i]), k -> new ArrayList<>()).add(fingerprint);
+            }
+        }
+
+        private static long bucketKey(int band, int value) {
+            return ((long) band << BAND_BITS) | value;
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("maxDistance", maxDistance);
+        stats.put("checked", checked.sum());
+        stats.put("collapsed", collapsed.sum());
+        return stats;
+    }
+
+    private String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        return text.toLowerCase(Locale.ROOT).replaceAll("[\\s\\p{Punct}\\p{IsPunctuation}]+", "");
+    }
+
+    /**
+     * 字符 shingle 的 64 位 SimHash：每个 shingle 哈希后按位投票
+     */
+    private long simhash(String text) {
+        int k = Math.max(1, shingleSize);
+        int[] votes = new int[64];
+        for (int i = 0; i + k <= text.length(); i++) {
+            long h = hash64(text, i, i + k);
+            for (int bit = 0; bit < 64; bit++) {
+                votes[bit] += ((h >>> bit) & 1L) == 1L ? 1 : -1;
+            }
+        }
+        long result = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (votes[bit] > 0) {
+                result |= 1L << bit;
+            }
+        }
+        return result;
+    }
+
+    private static int[] bands(long hash) {
+        int[] bands = new int[BANDS];
+        for (int i = 0; i < BANDS; i++) {
+            bands[i] = (int) ((hash >>> (i * BAND_BITS)) & ((1L << BAND_BITS) - 1));
+        }
+        return bands;
+    }
+
+    /**
+     * FNV-1a 后接 splitmix64 混淆，保证各位分布均匀
+     */
+    private static long hash64(String text, int start, int end) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = start; i < end; i++) {
+            h ^= text.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 30;
+        h *= 0xbf58476d1ce4e5b9L;
+        h ^= h >>> 27;
+        h *= 0x94d049bb133111ebL;
+        h ^= h >>> 31;
+        return h;
+    }
+}
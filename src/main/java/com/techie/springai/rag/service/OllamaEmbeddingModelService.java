@@ -2,6 +2,8 @@ package com.techie.springai.rag.service;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.techie.springai.rag.config.OllamaEndpointRouter;
+import com.techie.springai.rag.config.OllamaHttpClients;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -9,17 +11,23 @@ import org.springframework.http.*;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
-import java.time.Duration;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 @Service
 public class OllamaEmbeddingModelService {
 
     private static final Logger log = LoggerFactory.getLogger(OllamaEmbeddingModelService.class);
 
-    private final RestTemplate restTemplate = new RestTemplate();
+    private final RestTemplate restTemplate;
     private final ObjectMapper objectMapper;
+    private final OllamaEndpointRouter router;
+    private volatile Map<String, Set<String>> cachedModels;
+    private volatile long cachedAt;
 
     @Value("${spring.ai.ollama.base-url:http://localhost:11434}")
     private String ollamaBaseUrl;
@@ -30,59 +38,104 @@ public class OllamaEmbeddingModelService {
     @Value("${rag.embedding.auto-pull:true}")
     private boolean autoPull;
 
-    @Value("${rag.embedding.pull-timeout-seconds:300}")
-    private int pullTimeoutSeconds;
+    @Value("${rag.ollama.model-cache-ttl-seconds:60}")
+    private long modelCacheTtlSeconds;
 
-    public OllamaEmbeddingModelService(ObjectMapper objectMapper) {
+    public OllamaEmbeddingModelService(ObjectMapper objectMapper, OllamaHttpClients httpClients,
+                                       OllamaEndpointRouter router) {
         this.objectMapper = objectMapper;
+        this.router = router;
+        this.restTemplate = httpClients.restTemplate();
     }
 
+    /**
+     * 配置了多个 Ollama 端点时逐个端点检查并拉取：路由可能把向量化请求发到任一端点
+     * 不可达的端点跳过（由路由摘除）；至少一个端点可用即视为就绪，缺模型的端点由路由按 404 对该模型摘除
+     */
     public void ensureEmbeddingModelReady() {
-        if (isModelAvailable()) {
+        Map<String, Set<String>> installed = installedModels();
+        if (installed.isEmpty()) {
+            throw new IllegalStateException("无法连接任何 Ollama 端点检查 embedding 模型: " + embeddingModel);
+        }
+        List<String> missing = missingEndpoints(installed);
+        if (missing.isEmpty()) {
             return;
         }
         if (!autoPull) {
+            if (missing.size() < installed.size()) {
+                log.warn("部分 Ollama 端点未安装 embedding 模型 {}: {}", embeddingModel, missing);
+                return;
+            }
             throw new IllegalStateException("Embedding 模型未安装: " + embeddingModel + "。请先执行: ollama pull " + embeddingModel);
         }
 
-        pullModel();
+        for (String endpoint : missing) {
+            try {
+                pullModel(endpoint);
+            } catch (IllegalStateException e) {
+                log.warn("{}: {}", e.getMessage(), endpoint);
+            }
+        }
+        cachedModels = null;
 
-        if (!isModelAvailable()) {
+        installed = installedModels();
+        missing = missingEndpoints(installed);
+        if (missing.size() == installed.size()) {
             throw new IllegalStateException("Embedding 模型拉取后仍不可用: " + embeddingModel + "。请检查 Ollama 服务日志。");
         }
+        if (!missing.isEmpty()) {
+            log.warn("部分 Ollama 端点拉取 embedding 模型后仍不可用 {}: {}", embeddingModel, missing);
+        }
     }
 
-    private boolean isModelAvailable() {
-        try {
-            String url = ollamaBaseUrl + "/api/tags";
-            ResponseEntity<String> response = restTemplate.getForEntity(url, String.class);
-            if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
-                return false;
-            }
+    private List<String> missingEndpoints(Map<String, Set<String>> installed) {
+        return installed.entrySet().stream()
+            .filter(e -> e.getValue().stream().noneMatch(name -> name.equals(embeddingModel) || name.startsWith(embeddingModel + ":")))
+            .map(Map.Entry::getKey)
+            .toList();
+    }
 
-            JsonNode root = objectMapper.readTree(response.getBody());
-            JsonNode models = root.path("models");
-            if (!models.isArray()) {
-                return false;
-            }
+    /**
+     * 各端点已安装的模型列表按 TTL 缓存；不可达的端点不在结果中，有端点请求失败时不缓存，下次检查重新请求
+     */
+    private Map<String, Set<String>> installedModels() {
+        Map<String, Set<String>> models = cachedModels;
+        if (models != null && System.currentTimeMillis() - cachedAt < modelCacheTtlSeconds * 1000) {
+            return models;
+        }
+        Map<String, Set<String>> byEndpoint = new LinkedHashMap<>();
+        boolean complete = true;
+        for (String endpoint : router.endpointsFor(embeddingModel)) {
+            try {
+                ResponseEntity<String> response = restTemplate.exchange(ollamaBaseUrl + "/api/tags", HttpMethod.GET,
+                    new HttpEntity<>(pinnedHeaders(endpoint)), String.class);
+                if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
+                    complete = false;
+                    continue;
+                }
 
-            for (JsonNode model : models) {
-                String name = model.path("name").asText("");
-                if (name.equals(embeddingModel) || name.startsWith(embeddingModel + ":")) {
-                    return true;
+                JsonNode root = objectMapper.readTree(response.getBody());
+                Set<String> names = new HashSet<>();
+                for (JsonNode model : root.path("models")) {
+                    names.add(model.path("name").asText(""));
                 }
+                byEndpoint.put(endpoint, Set.copyOf(names));
+            } catch (Exception e) {
+                complete = false;
+                log.warn("检查 Ollama 模型失败: {}, {}", endpoint, e.getMessage());
             }
-            return false;
-        } catch (Exception e) {
-            log.warn("检查 Ollama 模型失败: {}", e.getMessage());
-            return false;
         }
+        if (complete) {
+            cachedModels = Map.copyOf(byEndpoint);
+            cachedAt = System.currentTimeMillis();
+        }
+        return byEndpoint;
     }
 
-    private void pullModel() {
+    private void pullModel(String endpoint) {
         String url = ollamaBaseUrl + "/api/pull";
 
-        HttpHeaders headers = new HttpHeaders();
+        HttpHeaders headers = pinnedHeaders(endpoint);
         headers.setContentType(MediaType.APPLICATION_JSON);
 
         Map<String, Object> body = new HashMap<>();
@@ -92,22 +145,19 @@ public class OllamaEmbeddingModelService {
         HttpEntity<Map<String, Object>> entity = new HttpEntity<>(body, headers);
 
         try {
-            restTemplate.setRequestFactory(clientHttpRequestFactory());
             ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.POST, entity, String.class);
             if (!response.getStatusCode().is2xxSuccessful()) {
                 throw new IllegalStateException("拉取 embedding 模型失败，HTTP " + response.getStatusCode().value());
             }
-            log.info("已触发 Ollama 模型拉取: {}", embeddingModel);
+            log.info("已触发 Ollama 模型拉取: {}, {}", embeddingModel, endpoint);
         } catch (Exception e) {
             throw new IllegalStateException("自动拉取 embedding 模型失败: " + e.getMessage(), e);
         }
     }
 
-    private org.springframework.http.client.SimpleClientHttpRequestFactory clientHttpRequestFactory() {
-        var factory = new org.springframework.http.client.SimpleClientHttpRequestFactory();
-        int timeoutMs = (int) Duration.ofSeconds(Math.max(30, pullTimeoutSeconds)).toMillis();
-        factory.setConnectTimeout(10_000);
-        factory.setReadTimeout(timeoutMs);
-        return factory;
+    private static HttpHeaders pinnedHeaders(String endpoint) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(OllamaEndpointRouter.ENDPOINT_HEADER, endpoint);
+        return headers;
     }
 }
@@ -0,0 +1,59 @@
+package com.techie.springai.rag.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * pgvector 文本格式与 metadata JSON 的转换 - 直接写 SQL 读写 vector_store 的服务共用
+ */
+final class PgVectors {
+
+    private static final TypeReference<HashMap<String, Object>> METADATA_TYPE = new TypeReference<>() {};
+
+    private PgVectors() {
+    }
+
+    /**
+     * 向量文本形式 [x,y,...]，SQL 中配合 ?::vector 使用
+     */
+    static String toVectorLiteral(float[] embedding) {
+        StringBuilder sb = new StringBuilder(embedding.length * 10).append('[');
+        for (int i = 0; i < embedding.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(embedding[i]);
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * 解析 embedding::text 的结果
+     */
+    static float[] parseVector(String literal) {
+        String body = literal.substring(literal.indexOf('[') + 1, literal.lastIndexOf(']'));
+        String[] parts = body.split(",");
+        float[] vector = new float[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            vector[i] = Float.parseFloat(parts[i]);
+        }
+        return vector;
+    }
+
+    /**
+     * 返回可修改的 Map（调用方会继续放入 distance 等字段）；为空或解析失败时返回空 Map
+     */
+    static Map<String, Object> parseMetadata(ObjectMapper objectMapper, String json) {
+        if (json == null || json.isBlank()) {
+            return new HashMap<>();
+        }
+        try {
+            return objectMapper.readValue(json, METADATA_TYPE);
+        } catch (Exception e) {
+            return new HashMap<>();
+        }
+    }
+}
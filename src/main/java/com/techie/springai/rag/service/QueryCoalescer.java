@@ -0,0 +1,55 @@
+package com.techie.springai.rag.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 相同问题的并发请求合并 - 按规范化问题 + 过滤条件分组，进行中的检索与回答生成只执行一次
+ * 只有与会话无关的部分可以共享：检索总是可合并，回答生成仅在会话无历史（prompt 与会话无关）时合并
+ */
+@Service
+public class QueryCoalescer {
+
+    private final Map<String, SingleFlight<?>> flights = new ConcurrentHashMap<>();
+
+    @Value("${rag.coalesce.enabled:true}")
+    private boolean enabled;
+
+    @Value("${rag.coalesce.generation:true}")
+    private boolean coalesceGeneration;
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * 回答生成能否合并：prompt 中的对话历史必须为空
+     */
+    public boolean canShareGeneration(boolean firstTurn) {
+        return enabled && coalesceGeneration && firstTurn;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> SingleFlight<T> flight(String name) {
+        return (SingleFlight<T>) flights.computeIfAbsent(name, k -> new SingleFlight<>());
+    }
+
+    public String key(String question, RAGService.RetrievalOptions options) {
+        String normalized = question.trim().toLowerCase(Locale.ROOT).replaceAll("\\s+", " ")
+            .replaceAll("[?？。.!！\\s]+$", "");
+        return normalized + "|" + (options == null ? "" : options.scopeKey());
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("generation", coalesceGeneration);
+        flights.forEach((name, flight) -> stats.put(name, flight.stats()));
+        return stats;
+    }
+}
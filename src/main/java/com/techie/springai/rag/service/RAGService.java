@@ -1,14 +1,14 @@
 package com.techie.springai.rag.service;
 
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.document.Document;
-import org.springframework.ai.vectorstore.SearchRequest;
-import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.stream.Collectors;
 
 @Service
@@ -16,9 +16,11 @@ public class RAGService {
 
     private static final Logger log = LoggerFactory.getLogger(RAGService.class);
 
-    private final VectorStore vectorStore;
+    private final VectorSearchService vectorSearchService;
     private final QueryExpander queryExpander;
     private final DocumentReranker documentReranker;
+    private final ContextPacker contextPacker;
+    private final QueryCoalescer queryCoalescer;
 
     @Value("${rag.search.topk:20}")
     private int defaultTopK;
@@ -44,46 +46,99 @@ public class RAGService {
     @Value("${rag.hybrid.lexical-weight:0.35}")
     private double lexicalWeight;
 
-    public RAGService(VectorStore vectorStore, QueryExpander queryExpander,
-                      DocumentReranker documentReranker) {
-        this.vectorStore = vectorStore;
+    @Value("${rag.search.lazy-hydration:true}")
+    private boolean lazyHydration;
+
+    @Value("${rag.search.expansion-mode:adaptive}")
+    private String expansionMode;
+
+    @Value("${rag.search.adaptive.min-results:8}")
+    private int adaptiveMinResults;
+
+    @Value("${rag.search.adaptive.min-top-score:0.6}")
+    private double adaptiveMinTopScore;
+
+    @Value("${rag.search.adaptive.min-mean-score:0.5}")
+    private double adaptiveMinMeanScore;
+
+    @Value("${rag.search.adaptive.min-sources:2}")
+    private int adaptiveMinSources;
+
+    @Value("${rag.search.deadline-ms:2500}")
+    private long deadlineMs;
+
+    @Value("${rag.search.deadline.reserve-ms:150}")
+    private long deadlineReserveMs;
+
+    private final ExecutorService retrievalExecutor;
+
+    public RAGService(VectorSearchService vectorSearchService, QueryExpander queryExpander,
+                      DocumentReranker documentReranker, ContextPacker contextPacker,
+                      QueryCoalescer queryCoalescer, @Value("${rag.search.deadline.worker-threads:16}") int workerThreads) {
+        this.vectorSearchService = vectorSearchService;
         this.queryExpander = queryExpander;
         this.documentReranker = documentReranker;
+        this.contextPacker = contextPacker;
+        this.queryCoalescer = queryCoalescer;
+        this.retrievalExecutor = Executors.newFixedThreadPool(Math.max(1, workerThreads), r -> {
+            Thread t = new Thread(r, "retrieval-worker");
+            t.setDaemon(true);
+            return t;
+        });
     }
 
     public List<Document> hybridSearch(String question) {
         return hybridSearch(question, RetrievalOptions.defaultOptions());
     }
 
+    public List<Document> hybridSearch(String question, RetrievalOptions options) {
+        return retrieve(question, options).documents();
+    }
+
     /**
      * 进阶混合检索：
-     * - 多查询扩展 + RRF 融合
+     * - 多查询扩展 + RRF 融合（adaptive 模式下仅在原始查询召回偏弱时扩展）
      * - Dense + Lexical late-fusion
      * - Metadata 过滤（文件名/文件类型）
      * - 跨来源覆盖控制
+     * - 延迟加载正文：候选只带特征参与排序，最终入选的分块再取正文
+     * - 时间预算：原始查询必做，预算不足时依次放弃扩展查询、列举补充、低阈值重试、重排序，返回已有结果
+     * - 相同问题 + 过滤条件的并发检索合并为一次执行
      */
-    public List<Document> hybridSearch(String question, RetrievalOptions options) {
+    public RetrievalResult retrieve(String question, RetrievalOptions options) {
+        if (!queryCoalescer.enabled()) {
+            return doRetrieve(question, options);
+        }
+        return queryCoalescer.<RetrievalResult>flight("retrieval")
+            .execute(queryCoalescer.key(question, options), () -> doRetrieve(question, options));
+    }
+
+    private RetrievalResult doRetrieve(String question, RetrievalOptions options) {
         long startTime = System.currentTimeMillis();
+        RetrievalDeadline deadline = new RetrievalDeadline(deadlineMs, deadlineReserveMs);
 
         SearchConfig config = determineSearchConfig(question);
-
-        List<String> expandedQueries = new ArrayList<>();
-        expandedQueries.add(question);
-        if (expandQueryEnabled) {
-            List<String> expansions = queryExpander.expandQuery(question);
-            expandedQueries.addAll(expansions.stream()
-                .filter(q -> !q.equals(question))
-                .limit(4)
-                .toList());
-        }
+        Set<String> featureTerms = lazyHydration ? featureTerms(question) : Set.of();
 
         Set<String> uniqueIds = new HashSet<>();
         List<Document> allDocs = new ArrayList<>();
         Map<String, List<Document>> queryResults = new HashMap<>();
         Map<String, Double> queryWeights = new HashMap<>();
 
-        for (String query : expandedQueries) {
-            List<Document> results = searchWithConfig(query, config);
+        long searchStart = System.currentTimeMillis();
+        List<Document> primary = searchWithConfig(question, options.questionEmbedding(), config, featureTerms,
+            options.collection());
+        deadline.recordSearch(System.currentTimeMillis() - searchStart);
+        queryResults.put(question, primary);
+        queryWeights.put(question, queryExpander.getQueryImportance(question, question));
+        addUniqueDocs(allDocs, uniqueIds, primary);
+
+        for (String query : expansionQueries(question, primary, options)) {
+            List<Document> results = optionalSearch(query, null, config, featureTerms, options.collection(), deadline,
+                RetrievalDeadline.EXPANSION);
+            if (results == null) {
+                continue;
+            }
             queryResults.put(query, results);
             queryWeights.put(query, queryExpander.getQueryImportance(query, question));
             addUniqueDocs(allDocs, uniqueIds, results);
@@ -96,14 +151,20 @@ public class RAGService {
         if (isListingQuestion(question) && allDocs.size() < 10) {
             String broadQuery = question.replaceAll("有哪些|包括|所有|？", "").trim();
             SearchConfig relaxedConfig = new SearchConfig(10, Math.max(0.15, config.threshold - 0.1));
-            List<Document> supplementary = applyMetadataFilter(searchWithConfig(broadQuery, relaxedConfig), options);
-            addUniqueDocs(allDocs, uniqueIds, supplementary);
+            List<Document> supplementary = optionalSearch(broadQuery, null, relaxedConfig, featureTerms, options.collection(),
+                deadline, RetrievalDeadline.LISTING_SUPPLEMENT);
+            if (supplementary != null) {
+                addUniqueDocs(allDocs, uniqueIds, applyMetadataFilter(supplementary, options));
+            }
         }
 
         if (allDocs.size() < 5) {
             SearchConfig retryConfig = new SearchConfig(config.topK + 10, 0.15);
-            List<Document> retryResults = applyMetadataFilter(searchWithConfig(question, retryConfig), options);
-            addUniqueDocs(allDocs, uniqueIds, retryResults);
+            List<Document> retryResults = optionalSearch(question, options.questionEmbedding(), retryConfig, featureTerms,
+                options.collection(), deadline, RetrievalDeadline.RETRY_SEARCH);
+            if (retryResults != null) {
+                addUniqueDocs(allDocs, uniqueIds, applyMetadataFilter(retryResults, options));
+            }
         }
 
         List<Document> finalResults = allDocs;
@@ -111,15 +172,121 @@ public class RAGService {
             if (queryResults.size() > 1) {
                 finalResults = documentReranker.fuseResults(queryResults, queryWeights);
             }
-            finalResults = documentReranker.rerank(finalResults, question);
-            finalResults = hybridDenseLexicalRescore(finalResults, question);
+            if (deadline.expired()) {
+                deadline.skip(RetrievalDeadline.RERANK);
+            } else {
+                finalResults = documentReranker.rerank(finalResults, question);
+                finalResults = hybridDenseLexicalRescore(finalResults, question);
+            }
         }
 
         finalResults = ensureSourceCoverage(finalResults, maxDocuments, maxPerSource, minSourceCoverage);
+        if (lazyHydration) {
+            finalResults = vectorSearchService.hydrate(finalResults);
+        }
 
         long duration = System.currentTimeMillis() - startTime;
-        log.info("检索完成: cost={}ms, docs={}, queries={}", duration, finalResults.size(), expandedQueries.size());
-        return finalResults;
+        List<String> skipped = deadline.skipped();
+        if (skipped.isEmpty()) {
+            log.info("检索完成: cost={}ms, docs={}, queries={}", duration, finalResults.size(), queryResults.size());
+        } else {
+            log.warn("检索超出时间预算，已降级: cost={}ms, docs={}, queries={}, skipped={}",
+                duration, finalResults.size(), queryResults.size(), skipped);
+        }
+        return new RetrievalResult(List.copyOf(finalResults), skipped);
+    }
+
+    /**
+     * 扩展查询：adaptive 模式下先看原始查询的召回信号（结果数、分数分布、来源多样性），
+     * 信号足够强时不再扩展，只有召回偏弱的问题才多做几次检索
+     */
+    private List<String> expansionQueries(String question, List<Document> primary, RetrievalOptions options) {
+        if (!expandQueryEnabled) {
+            return List.of();
+        }
+        if ("adaptive".equalsIgnoreCase(expansionMode)) {
+            String weakSignal = weakRecallSignal(question, applyMetadataFilter(primary, options), options);
+            if (weakSignal == null) {
+                log.debug("原始查询召回充分，跳过查询扩展: question={}, docs={}", question, primary.size());
+                return List.of();
+            }
+            log.debug("原始查询召回偏弱({})，执行查询扩展: question={}", weakSignal, question);
+        }
+        return queryExpander.expandQuery(question).stream()
+            .filter(q -> !q.equals(question))
+            .limit(4)
+            .toList();
+    }
+
+    /**
+     * 返回第一个不达标的召回信号，全部达标时返回 null
+     */
+    private String weakRecallSignal(String question, List<Document> primary, RetrievalOptions options) {
+        // 列举类问题需要覆盖面，原始查询分数再高也可能只命中其中几项
+        if (isListingQuestion(question)) {
+            return "listing";
+        }
+        if (primary.size() < adaptiveMinResults) {
+            return "count";
+        }
+        List<Double> scores = primary.stream()
+            .map(Document::getScore)
+            .filter(Objects::nonNull)
+            .sorted(Comparator.reverseOrder())
+            .toList();
+        if (scores.isEmpty() || scores.get(0) < adaptiveMinTopScore) {
+            return "top-score";
+        }
+        double headMean = scores.stream().limit(5).mapToDouble(Double::doubleValue).average().orElse(0);
+        if (headMean < adaptiveMinMeanScore) {
+            return "mean-score";
+        }
+        // 限定单个来源文件时不要求来源多样性
+        boolean singleSource = options != null && options.sourceFiles() != null && options.sourceFiles().size() == 1;
+        long sources = primary.stream().map(this::resolveSource).distinct().count();
+        if (!singleSource && sources < adaptiveMinSources) {
+            return "source-diversity";
+        }
+        return null;
+    }
+
+    /**
+     * 可选检索步骤：预算不足以再做一次检索时直接跳过；执行中超过剩余预算则放弃等待
+     * 返回 null 表示该步骤被跳过
+     */
+    private List<Document> optionalSearch(String query, float[] embedding, SearchConfig config, Set<String> featureTerms,
+                                          String collection, RetrievalDeadline deadline, String step) {
+        if (!deadline.canAffordSearch()) {
+            deadline.skip(step);
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        long budgetMs = Math.max(1, deadline.searchBudgetMs());
+        // 放弃等待后 cancel 中断不了阻塞中的 JDBC 查询，由库内语句超时在同一预算内取消
+        Future<List<Document>> future = retrievalExecutor.submit(() -> budgetMs == Long.MAX_VALUE
+            ? searchWithConfig(query, embedding, config, featureTerms, collection)
+            : VectorIndexService.withStatementTimeout(budgetMs,
+                () -> searchWithConfig(query, embedding, config, featureTerms, collection)));
+        try {
+            List<Document> results = future.get(budgetMs, TimeUnit.MILLISECONDS);
+            deadline.recordSearch(System.currentTimeMillis() - start);
+            return results;
+        } catch (TimeoutException e) {
+            future.cancel(true);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+        } catch (ExecutionException e) {
+            log.error("检索失败: {}", e.getMessage());
+            return Collections.emptyList();
+        }
+        deadline.skip(step);
+        return null;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        retrievalExecutor.shutdownNow();
     }
 
     private List<Document> hybridDenseLexicalRescore(List<Document> docs, String question) {
@@ -134,7 +301,7 @@ public class RAGService {
         Map<String, Integer> lexicalScores = new HashMap<>();
         int maxLex = 1;
         for (Document doc : docs) {
-            int score = lexicalScore(doc.getText(), terms);
+            int score = lexicalScore(doc, terms);
             lexicalScores.put(resolveUniqueId(doc), score);
             maxLex = Math.max(maxLex, score);
         }
@@ -154,11 +321,10 @@ public class RAGService {
             .collect(Collectors.toList());
     }
 
-    private int lexicalScore(String text, List<String> terms) {
-        String content = text == null ? "" : text.toLowerCase(Locale.ROOT);
+    private int lexicalScore(Document doc, List<String> terms) {
         int score = 0;
         for (String term : terms) {
-            if (term.length() >= 2 && content.contains(term)) {
+            if (term.length() >= 2 && ChunkFeatures.contains(doc, term)) {
                 score++;
             }
         }
@@ -185,8 +351,9 @@ public class RAGService {
             return docs;
         }
 
-        return docs.stream().filter(doc -> {
-            String source = resolveSource(doc).toLowerCase(Locale.ROOT);
+        // 近重复合并后的分块同时属于多个文档，任一来源满足条件即保留
+        return docs.stream().filter(doc -> resolveAllSources(doc).stream().anyMatch(candidate -> {
+            String source = candidate.toLowerCase(Locale.ROOT);
             boolean sourceMatch = options.sourceFiles().isEmpty() || options.sourceFiles().stream()
                 .map(s -> s.toLowerCase(Locale.ROOT))
                 .anyMatch(source::contains);
@@ -196,7 +363,7 @@ public class RAGService {
                 .anyMatch(ext -> source.endsWith("." + ext));
 
             return sourceMatch && typeMatch;
-        }).collect(Collectors.toList());
+        })).collect(Collectors.toList());
     }
 
     private SearchConfig determineSearchConfig(String question) {
@@ -219,14 +386,23 @@ public class RAGService {
         return new SearchConfig(topK, threshold);
     }
 
-    private List<Document> searchWithConfig(String query, SearchConfig config) {
+    /**
+     * 重排序与词法打分要判断命中的全部查询词，延迟加载模式下由检索 SQL 预先计算
+     */
+    private Set<String> featureTerms(String question) {
+        Set<String> terms = new LinkedHashSet<>(documentReranker.relevanceTerms(question));
+        terms.addAll(extractTerms(question));
+        return terms;
+    }
+
+    private List<Document> searchWithConfig(String query, float[] embedding, SearchConfig config,
+                                            Set<String> featureTerms, String collection) {
         try {
-            SearchRequest request = SearchRequest.builder()
-                .query(query)
-                .topK(config.topK)
-                .similarityThreshold(config.threshold)
-                .build();
-            return vectorStore.similaritySearch(request);
+            if (lazyHydration) {
+                return vectorSearchService.searchCandidates(query, embedding, config.topK, config.threshold,
+                    featureTerms, collection);
+            }
+            return vectorSearchService.search(query, embedding, config.topK, config.threshold, collection);
         } catch (Exception e) {
             log.error("检索失败: {}", e.getMessage());
             return Collections.emptyList();
@@ -288,6 +464,15 @@ public class RAGService {
         return source == null ? "unknown" : source.toString();
     }
 
+    private List<String> resolveAllSources(Document doc) {
+        List<String> sources = new ArrayList<>();
+        sources.add(resolveSource(doc));
+        if (doc.getMetadata().get("duplicateSources") instanceof Collection<?> duplicates) {
+            duplicates.forEach(d -> sources.add(String.valueOf(d)));
+        }
+        return sources;
+    }
+
     private String resolveUniqueId(Document doc) {
         if (doc.getId() != null && !doc.getId().isBlank()) {
             return doc.getId();
@@ -315,6 +500,14 @@ public class RAGService {
         return false;
     }
 
+    /**
+     * 上下文打包：合并同来源相邻分块、去重并按 token 预算截取
+     * 返回列表的下标即 prompt 与引用中的片段编号
+     */
+    public List<Document> packContext(List<Document> rankedDocs) {
+        return contextPacker.pack(rankedDocs);
+    }
+
     public String buildPrompt(String question, List<Document> docs) {
         StringBuilder prompt = new StringBuilder();
         prompt.append("你是一个精确的文档问答助手。\\n\\n");
@@ -355,7 +548,24 @@ public class RAGService {
         return p.toString();
     }
 
-    public record RetrievalOptions(Set<String> sourceFiles, Set<String> fileTypes) {
+    /**
+     * collection 为空表示全库检索；指定时检索只走该集合的部分索引
+     * questionEmbedding 为调用方已算好的原始问题向量（如答案缓存探测时计算的），为空时检索自行向量化；不参与 scopeKey
+     */
+    public record RetrievalOptions(Set<String> sourceFiles, Set<String> fileTypes, String collection,
+                                   float[] questionEmbedding) {
+        public RetrievalOptions(Set<String> sourceFiles, Set<String> fileTypes, String collection) {
+            this(sourceFiles, fileTypes, collection, null);
+        }
+
+        public RetrievalOptions(Set<String> sourceFiles, Set<String> fileTypes) {
+            this(sourceFiles, fileTypes, null);
+        }
+
+        public RetrievalOptions withQuestionEmbedding(float[] embedding) {
+            return new RetrievalOptions(sourceFiles, fileTypes, collection, embedding);
+        }
+
         public static RetrievalOptions defaultOptions() {
             return new RetrievalOptions(Collections.emptySet(), Collections.emptySet());
         }
@@ -363,8 +573,31 @@ public class RAGService {
         public boolean hasAnyFilter() {
             return (sourceFiles != null && !sourceFiles.isEmpty()) || (fileTypes != null && !fileTypes.isEmpty());
         }
+
+        /**
+         * 过滤条件的规范化表示，用于缓存与并发合并的分组
+         */
+        public String scopeKey() {
+            return "src=" + normalizeSet(sourceFiles) + "|type=" + normalizeSet(fileTypes)
+                + "|col=" + (collection == null ? "*" : collection);
+        }
+
+        private static String normalizeSet(Set<String> values) {
+            if (values == null || values.isEmpty()) {
+                return "";
+            }
+            return values.stream()
+                .map(v -> v.trim().toLowerCase(Locale.ROOT))
+                .sorted()
+                .collect(Collectors.joining(","));
+        }
     }
 
+    /**
+     * skippedSteps 为因时间预算被放弃的检索步骤，按放弃顺序排列
+     */
+    public record RetrievalResult(List<Document> documents, List<String> skippedSteps) {}
+
     private record SearchConfig(int topK, double threshold) {}
 
     private record ScoredDoc(Document doc, double score) {}
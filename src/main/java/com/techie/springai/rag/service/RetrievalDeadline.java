@@ -0,0 +1,64 @@
+package com.techie.springai.rag.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 单次检索的时间预算 - 贯穿各检索阶段，预算不足时按固定顺序放弃可选步骤并记录
+ * budgetMs <= 0 表示不限时
+ */
+final class RetrievalDeadline {
+
+    static final String EXPANSION = "expansion";
+    static final String LISTING_SUPPLEMENT = "listing-supplement";
+    static final String RETRY_SEARCH = "retry-search";
+    static final String RERANK = "rerank";
+
+    private final long deadlineNanos;
+    private final boolean unlimited;
+    private final long reserveMs;
+    private final List<String> skipped = new ArrayList<>();
+    private long searchCostMs;
+
+    RetrievalDeadline(long budgetMs, long reserveMs) {
+        this.unlimited = budgetMs <= 0;
+        this.deadlineNanos = System.nanoTime() + budgetMs * 1_000_000L;
+        this.reserveMs = Math.max(0, reserveMs);
+    }
+
+    long remainingMs() {
+        return unlimited ? Long.MAX_VALUE : (deadlineNanos - System.nanoTime()) / 1_000_000L;
+    }
+
+    /**
+     * 可选检索步骤可用的等待时间（扣除留给正文加载等收尾工作的预留）
+     */
+    long searchBudgetMs() {
+        return unlimited ? Long.MAX_VALUE : remainingMs() - reserveMs;
+    }
+
+    /**
+     * 按本次请求已观测到的单次检索耗时估算，剩余预算是否够再做一次检索
+     */
+    boolean canAffordSearch() {
+        return searchBudgetMs() >= searchCostMs;
+    }
+
+    boolean expired() {
+        return remainingMs() <= 0;
+    }
+
+    void recordSearch(long elapsedMs) {
+        searchCostMs = Math.max(searchCostMs, elapsedMs);
+    }
+
+    void skip(String step) {
+        if (!skipped.contains(step)) {
+            skipped.add(step);
+        }
+    }
+
+    List<String> skipped() {
+        return List.copyOf(skipped);
+    }
+}
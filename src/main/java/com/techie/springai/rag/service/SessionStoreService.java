@@ -2,28 +2,73 @@ package com.techie.springai.rag.service;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+/**
+ * 会话存储 - 每个会话一个文件，内存中只保留有界的热点会话
+ * 空闲会话从缓存淘汰（已写穿到磁盘），访问时再懒加载；过期会话归档
+ * 启动时不扫描会话文件；会话列表按文件修改时间取最近的若干个，只读取入选的会话文件，内存中不常驻全量索引
+ */
 @Service
 public class SessionStoreService {
 
-    private static final String STORAGE_FILE = "uploads/sessions.json";
+    private static final Logger log = LoggerFactory.getLogger(SessionStoreService.class);
+    private static final String LEGACY_STORAGE_FILE = "uploads/sessions.json";
     private static final int MAX_TURNS = 30;
+    /** 摘要积压时窗口的硬上限，摘要器长时间失败也不会无限增长 */
+    private static final int MAX_RETAINED_TURNS = MAX_TURNS * 4;
 
-    private final Map<String, SessionData> sessions = new ConcurrentHashMap<>();
+    private final Map<String, CachedSession> cache = new ConcurrentHashMap<>();
     private final ObjectMapper objectMapper;
 
+    @Value("${rag.session.storage-dir:uploads/sessions}")
+    private String storageDir;
+
+    @Value("${rag.session.archive-dir:uploads/sessions/archive}")
+    private String archiveDir;
+
+    @Value("${rag.session.cache.max-size:500}")
+    private int maxCachedSessions;
+
+    @Value("${rag.session.cache.idle-minutes:30}")
+    private long idleMinutes;
+
+    @Value("${rag.session.list-limit:100}")
+    private int listLimit;
+
+    @Value("${rag.session.expire-days:30}")
+    private long expireDays;
+
+    @Value("${rag.history.summarize:true}")
+    private boolean summarizeEnabled;
+
     public SessionStoreService(ObjectMapper objectMapper) {
         this.objectMapper = objectMapper;
-        ensureParentDir();
-        loadFromDisk();
+    }
+
+    @PostConstruct
+    public void init() {
+        new File(storageDir).mkdirs();
+        new File(archiveDir).mkdirs();
+        // 迁移必须在任何请求之前完成，否则先到的 appendTurn 建出新文件后，该会话的旧历史会被迁移跳过
+        migrateLegacyStore();
     }
 
     public String createSession(String name) {
@@ -32,56 +77,285 @@ public class SessionStoreService {
         data.setSessionId(sessionId);
         data.setName(name == null || name.isBlank() ? "会话-" + sessionId.substring(0, 8) : name.trim());
         data.setUpdatedAt(Instant.now().toString());
-        sessions.put(sessionId, data);
-        saveToDisk();
+        cache.put(sessionId, new CachedSession(data));
+        saveToDisk(data);
+        evictOverflow();
         return sessionId;
     }
 
     public void appendTurn(String sessionId, String role, String content) {
-        SessionData data = sessions.computeIfAbsent(sessionId, this::newDefaultSession);
-        data.getTurns().add(Map.of("role", role, "content", content));
-        if (data.getTurns().size() > MAX_TURNS) {
-            data.setTurns(new ArrayList<>(data.getTurns().subList(data.getTurns().size() - MAX_TURNS, data.getTurns().size())));
+        while (true) {
+            CachedSession cached = cache.computeIfAbsent(sessionId, id -> {
+                SessionData loaded = readFromDisk(id);
+                return new CachedSession(loaded != null ? loaded : newDefaultSession(id));
+            });
+            cached.touch();
+            SessionData data = cached.data;
+            synchronized (data) {
+                // 拿到锁前已被淘汰：淘汰前的写入都已落盘，重新加载后再写，避免两个实例互相覆盖
+                if (cache.get(sessionId) != cached) {
+                    continue;
+                }
+                data.setTotalTurns(Math.max(data.getTotalTurns(), data.getTurns().size()) + 1);
+                data.getTurns().add(Map.of("role", role, "content", content));
+                trimTurns(data);
+                data.setUpdatedAt(Instant.now().toString());
+                saveToDisk(data);
+            }
+            break;
         }
-        data.setUpdatedAt(Instant.now().toString());
-        saveToDisk();
+        evictOverflow();
     }
 
     public List<Map<String, String>> getHistory(String sessionId) {
-        return sessions.getOrDefault(sessionId, newDefaultSession(sessionId)).getTurns();
+        SessionData data = load(sessionId);
+        if (data == null) {
+            return Collections.emptyList();
+        }
+        synchronized (data) {
+            return List.copyOf(data.getTurns());
+        }
+    }
+
+    /**
+     * 获取会话快照（摘要 + 近期轮次），供历史管理器计算 token 预算
+     */
+    public ConversationSnapshot getConversation(String sessionId) {
+        SessionData data = load(sessionId);
+        if (data == null) {
+            return ConversationSnapshot.empty();
+        }
+        synchronized (data) {
+            long total = Math.max(data.getTotalTurns(), data.getTurns().size());
+            return new ConversationSnapshot(Objects.toString(data.getSummary(), ""), data.getSummarizedTurns(),
+                total, List.copyOf(data.getTurns()));
+        }
+    }
+
+    /**
+     * 更新滚动摘要；summarizedTurns 为已折叠进摘要的累计轮次数，只允许前进
+     */
+    public void updateSummary(String sessionId, String summary, long summarizedTurns) {
+        while (true) {
+            SessionData data = load(sessionId);
+            if (data == null) {
+                return;
+            }
+            synchronized (data) {
+                CachedSession current = cache.get(sessionId);
+                if (current == null || current.data != data) {
+                    continue;
+                }
+                if (summarizedTurns <= data.getSummarizedTurns()) {
+                    return;
+                }
+                data.setSummary(summary);
+                data.setSummarizedTurns(summarizedTurns);
+                trimTurns(data);
+                saveToDisk(data);
+                return;
+            }
+        }
     }
 
     public boolean clearSession(String sessionId) {
-        SessionData removed = sessions.remove(sessionId);
-        saveToDisk();
-        return removed != null;
+        CachedSession removed = cache.remove(sessionId);
+        boolean deleted = false;
+        try {
+            deleted = Files.deleteIfExists(sessionFile(sessionId));
+        } catch (IOException e) {
+            log.warn("删除会话文件失败: {}", sessionId, e);
+        }
+        return removed != null || deleted;
     }
 
+    /**
+     * 最近更新的 listLimit 个会话：只按文件名和修改时间排序，入选的会话才读文件
+     */
     public List<Map<String, Object>> listSessions() {
-        return sessions.values().stream()
-            .sorted(Comparator.comparing(SessionData::getUpdatedAt, Comparator.nullsLast(String::compareTo)).reversed())
-            .map(s -> {
-                Map<String, Object> item = new LinkedHashMap<>();
-                item.put("sessionId", s.getSessionId());
-                item.put("name", s.getName());
-                item.put("turns", s.getTurns().size());
-                item.put("updatedAt", Objects.toString(s.getUpdatedAt(), ""));
-                return item;
-            })
-            .collect(Collectors.toList());
+        List<Map<String, Object>> sessions = new ArrayList<>();
+        for (SessionFile file : sessionFiles().stream()
+            .sorted(Comparator.comparingLong(SessionFile::modified).reversed())
+            .limit(Math.max(1, listLimit))
+            .toList()) {
+            SessionData data = readFile(file.path());
+            if (data == null || data.getSessionId() == null) {
+                continue;
+            }
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("sessionId", data.getSessionId());
+            item.put("name", data.getName());
+            item.put("turns", data.getTurns() == null ? 0 : data.getTurns().size());
+            item.put("updatedAt", Objects.toString(data.getUpdatedAt(), ""));
+            sessions.add(item);
+        }
+        return sessions;
     }
 
     public Map<String, Object> getSession(String sessionId) {
-        SessionData data = sessions.get(sessionId);
+        SessionData data = load(sessionId);
         if (data == null) {
             return Map.of();
         }
-        return Map.of(
-            "sessionId", data.getSessionId(),
-            "name", data.getName(),
-            "updatedAt", data.getUpdatedAt(),
-            "history", data.getTurns()
-        );
+        synchronized (data) {
+            return Map.of(
+                "sessionId", data.getSessionId(),
+                "name", data.getName(),
+                "updatedAt", data.getUpdatedAt(),
+                "history", List.copyOf(data.getTurns())
+            );
+        }
+    }
+
+    /**
+     * 定期维护：淘汰空闲会话、归档过期会话
+     */
+    @Scheduled(initialDelayString = "${rag.session.maintenance-initial-delay-ms:5000}",
+        fixedDelayString = "${rag.session.maintenance-interval-ms:60000}")
+    public void maintain() {
+        evictIdle();
+        evictOverflow();
+        archiveExpired();
+    }
+
+    /**
+     * 窗口超过 MAX_TURNS 时只裁掉已折叠进摘要的旧轮次，未摘要的轮次留给摘要器处理
+     * 摘要关闭或积压超过 MAX_RETAINED_TURNS 时才直接丢弃
+     */
+    private void trimTurns(SessionData data) {
+        List<Map<String, String>> turns = data.getTurns();
+        int excess = turns.size() - MAX_TURNS;
+        if (excess <= 0) {
+            return;
+        }
+        long firstIndex = Math.max(data.getTotalTurns(), turns.size()) - turns.size();
+        int summarizedInWindow = (int) Math.min(turns.size(), Math.max(0, data.getSummarizedTurns() - firstIndex));
+        int drop = summarizeEnabled ? Math.min(excess, summarizedInWindow) : excess;
+        drop = Math.max(drop, turns.size() - MAX_RETAINED_TURNS);
+        if (drop > 0) {
+            data.setTurns(new ArrayList<>(turns.subList(drop, turns.size())));
+        }
+    }
+
+    private SessionData load(String sessionId) {
+        CachedSession cached = cache.get(sessionId);
+        if (cached == null) {
+            SessionData loaded = readFromDisk(sessionId);
+            if (loaded == null) {
+                return null;
+            }
+            cached = cache.computeIfAbsent(sessionId, id -> new CachedSession(loaded));
+            evictOverflow();
+        }
+        cached.touch();
+        return cached.data;
+    }
+
+    private void evictIdle() {
+        if (idleMinutes <= 0) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - Duration.ofMinutes(idleMinutes).toMillis();
+        int evicted = 0;
+        for (Map.Entry<String, CachedSession> e : cache.entrySet()) {
+            if (e.getValue().lastAccess < cutoff && evict(e.getKey(), e.getValue())) {
+                evicted++;
+            }
+        }
+        if (evicted > 0) {
+            log.debug("淘汰空闲会话: {} 个, 缓存剩余 {}", evicted, cache.size());
+        }
+    }
+
+    private void evictOverflow() {
+        int overflow = cache.size() - Math.max(1, maxCachedSessions);
+        if (overflow <= 0) {
+            return;
+        }
+        // 会话写穿到磁盘，淘汰只需移出内存
+        cache.entrySet().stream()
+            .sorted(Comparator.comparingLong(e -> e.getValue().lastAccess))
+            .limit(overflow)
+            .toList()
+            .forEach(e -> evict(e.getKey(), e.getValue()));
+    }
+
+    /**
+     * 持有会话锁移出缓存：进行中的写入先落盘；只移除仍是同一实例的条目
+     */
+    private boolean evict(String sessionId, CachedSession cached) {
+        synchronized (cached.data) {
+            return cache.remove(sessionId, cached);
+        }
+    }
+
+    private void archiveExpired() {
+        if (expireDays <= 0) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - Duration.ofDays(expireDays).toMillis();
+        int archived = 0;
+        try {
+            for (SessionFile file : sessionFiles()) {
+                if (file.modified() >= cutoff) {
+                    continue;
+                }
+                // 按文件名找到对应的缓存会话（缓存有界），不读取会话文件
+                cache.entrySet().stream()
+                    .filter(e -> sessionFile(e.getKey()).getFileName().equals(file.path().getFileName()))
+                    .toList()
+                    .forEach(e -> evict(e.getKey(), e.getValue()));
+                Files.move(file.path(), Paths.get(archiveDir).resolve(file.path().getFileName()),
+                    StandardCopyOption.REPLACE_EXISTING);
+                archived++;
+            }
+        } catch (IOException e) {
+            log.warn("归档过期会话失败: {}", e.getMessage());
+        }
+        if (archived > 0) {
+            log.info("已归档过期会话: {} 个（超过 {} 天未更新）", archived, expireDays);
+        }
+    }
+
+    private void migrateLegacyStore() {
+        File legacy = new File(LEGACY_STORAGE_FILE);
+        if (!legacy.exists()) {
+            return;
+        }
+        try {
+            Map<String, SessionData> loaded = objectMapper.readValue(legacy, new TypeReference<>() {});
+            for (SessionData data : loaded.values()) {
+                if (data.getSessionId() != null && !Files.exists(sessionFile(data.getSessionId()))) {
+                    saveToDisk(data);
+                }
+            }
+            Files.move(legacy.toPath(), Paths.get(LEGACY_STORAGE_FILE + ".migrated"), StandardCopyOption.REPLACE_EXISTING);
+            log.info("旧版会话存储已迁移: {} 个会话", loaded.size());
+        } catch (IOException e) {
+            log.warn("迁移旧版会话存储失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 会话目录中的会话文件及其修改时间，只读目录项与文件属性
+     */
+    private List<SessionFile> sessionFiles() {
+        try (Stream<Path> files = Files.list(Paths.get(storageDir))) {
+            return files.filter(p -> p.getFileName().toString().endsWith(".json"))
+                .map(p -> {
+                    try {
+                        return new SessionFile(p, Files.getLastModifiedTime(p).toMillis());
+                    } catch (IOException e) {
+                        // 列目录后文件被归档或删除
+                        return null;
+                    }
+                })
+                .filter(Objects::nonNull)
+                .toList();
+        } catch (IOException e) {
+            log.warn("读取会话目录失败: {}", e.getMessage());
+            return List.of();
+        }
     }
 
     private SessionData newDefaultSession(String sessionId) {
@@ -93,31 +367,69 @@ public class SessionStoreService {
         return data;
     }
 
-    private void ensureParentDir() {
-        File f = new File(STORAGE_FILE);
-        File parent = f.getParentFile();
-        if (parent != null && !parent.exists()) {
-            parent.mkdirs();
-        }
+    private Path sessionFile(String sessionId) {
+        String name = sessionId.matches("[A-Za-z0-9_-]{1,64}") ? sessionId : "h_" + sha256(sessionId);
+        return Paths.get(storageDir, name + ".json");
     }
 
-    private synchronized void saveToDisk() {
+    private SessionData readFromDisk(String sessionId) {
+        Path file = sessionFile(sessionId);
+        return Files.exists(file) ? readFile(file) : null;
+    }
+
+    private SessionData readFile(Path file) {
         try {
-            objectMapper.writerWithDefaultPrettyPrinter().writeValue(new File(STORAGE_FILE), sessions);
-        } catch (IOException ignored) {
+            return objectMapper.readValue(file.toFile(), SessionData.class);
+        } catch (IOException e) {
+            log.warn("读取会话文件失败: {}", file, e);
+            return null;
         }
     }
 
-    private synchronized void loadFromDisk() {
-        File f = new File(STORAGE_FILE);
-        if (!f.exists()) {
-            return;
+    private void saveToDisk(SessionData data) {
+        Path target = sessionFile(data.getSessionId());
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            objectMapper.writeValue(tmp.toFile(), data);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("保存会话失败: {}", data.getSessionId(), e);
         }
+    }
+
+    private static String sha256(String value) {
         try {
-            Map<String, SessionData> loaded = objectMapper.readValue(f, new TypeReference<>() {});
-            sessions.clear();
-            sessions.putAll(loaded);
-        } catch (IOException ignored) {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public record ConversationSnapshot(String summary, long summarizedTurns, long totalTurns,
+                                       List<Map<String, String>> turns) {
+        public static ConversationSnapshot empty() {
+            return new ConversationSnapshot("", 0, 0, List.of());
+        }
+
+        /** turns 中第一条对应的累计轮次序号 */
+        public long firstTurnIndex() {
+            return totalTurns - turns.size();
+        }
+    }
+
+    private record SessionFile(Path path, long modified) {}
+
+    private static class CachedSession {
+        private final SessionData data;
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        CachedSession(SessionData data) {
+            this.data = data;
+        }
+
+        void touch() {
+            lastAccess = System.currentTimeMillis();
         }
     }
 
@@ -126,6 +438,9 @@ public class SessionStoreService {
         private String name;
         private String updatedAt;
         private List<Map<String, String>> turns = new ArrayList<>();
+        private String summary;
+        private long summarizedTurns;
+        private long totalTurns;
 
         public String getSessionId() { return sessionId; }
         public void setSessionId(String sessionId) { this.sessionId = sessionId; }
@@ -135,5 +450,11 @@ public class SessionStoreService {
         public void setUpdatedAt(String updatedAt) { this.updatedAt = updatedAt; }
         public List<Map<String, String>> getTurns() { return turns; }
         public void setTurns(List<Map<String, String>> turns) { this.turns = turns; }
+        public String getSummary() { return summary; }
+        public void setSummary(String summary) { this.summary = summary; }
+        public long getSummarizedTurns() { return summarizedTurns; }
+        public void setSummarizedTurns(long summarizedTurns) { this.summarizedTurns = summarizedTurns; }
+        public long getTotalTurns() { return totalTurns; }
+        public void setTotalTurns(long totalTurns) { this.totalTurns = totalTurns; }
     }
 }
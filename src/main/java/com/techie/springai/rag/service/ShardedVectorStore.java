@@ -0,0 +1,123 @@
+package com.techie.springai.rag.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.*;
+
+/**
+ * 分片 VectorStore - 每个分片一个 PgVectorStore（分片 0 为自动配置的主库实例）
+ * 写入按 documentId 路由到单个分片；删除广播；检索只向量化一次查询，所有分片并行取各自 topK，合并后全局排序截断
+ * 相似度阈值是逐条判断的，各分片先按阈值过滤再合并与全局过滤结果一致
+ */
+public class ShardedVectorStore implements VectorStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardedVectorStore.class);
+
+    private final VectorShards shards;
+    private final EmbeddingModel embeddingModel;
+    private final ObjectMapper objectMapper;
+    private final List<PgVectorStore> stores = new ArrayList<>();
+    private final Map<JdbcTemplate, PgVectorStore> storeByJdbc = new IdentityHashMap<>();
+
+    public ShardedVectorStore(VectorShards shards, PgVectorStore primaryStore, EmbeddingModel embeddingModel,
+                              ObjectMapper objectMapper, int dimensions) {
+        this.shards = shards;
+        this.embeddingModel = embeddingModel;
+        this.objectMapper = objectMapper;
+        stores.add(primaryStore);
+        storeByJdbc.put(shards.jdbc(0), primaryStore);
+        for (JdbcTemplate remote : shards.remotes()) {
+            PgVectorStore store = PgVectorStore.builder(remote, embeddingModel)
+                .dimensions(dimensions)
+                .distanceType(PgVectorStore.PgDistanceType.COSINE_DISTANCE)
+                // 与主库一致：向量索引（含量化与集合部分索引）由 VectorIndexService 在每个分片上管理
+                .indexType(PgVectorStore.PgIndexType.NONE)
+                .initializeSchema(true)
+                .build();
+            store.afterPropertiesSet();
+            remote.execute("CREATE INDEX IF NOT EXISTS vector_store_document_id_idx ON vector_store ((metadata->>'documentId'))");
+            stores.add(store);
+            storeByJdbc.put(remote, store);
+        }
+        log.info("分片 VectorStore 已就绪: {} 个分片", stores.size());
+    }
+
+    @Override
+    public String getName() {
+        return "ShardedVectorStore";
+    }
+
+    /**
+     * 按 documentId 分组写入各自分片；没有 documentId 的分块按自身 id 路由
+     */
+    @Override
+    public void add(List<Document> documents) {
+        Map<Integer, List<Document>> byShard = new TreeMap<>();
+        for (Document document : documents) {
+            Object documentId = document.getMetadata().get("documentId");
+            int shard = shards.shardOf(documentId != null ? documentId.toString() : document.getId());
+            byShard.computeIfAbsent(shard, k -> new ArrayList<>()).add(document);
+        }
+        byShard.forEach((shard, group) -> stores.get(shard).add(group));
+    }
+
+    @Override
+    public void delete(List<String> idList) {
+        stores.forEach(store -> store.delete(idList));
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        stores.forEach(store -> store.delete(filterExpression));
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        List<Document> merged;
+        if (request.hasFilterExpression()) {
+            // 过滤表达式交给各分片的 PgVectorStore 转换为 SQL（每个分片各自向量化一次查询）
+            merged = shards.scatter(jdbc -> storeByJdbc.get(jdbc).similaritySearch(request));
+        } else {
+            String vector = PgVectors.toVectorLiteral(embeddingModel.embed(request.getQuery()));
+            String sql = """
+                SELECT id, content, metadata, distance FROM (
+                    SELECT id, content, metadata, embedding <=> ?::vector AS distance
+                    FROM vector_store
+                    ORDER BY embedding <=> ?::vector
+                    LIMIT ?
+                ) nearest
+                WHERE distance <= ?
+                """;
+            merged = shards.scatter(jdbc -> jdbc.query(sql, (rs, rowNum) -> {
+                Map<String, Object> metadata = PgVectors.parseMetadata(objectMapper, rs.getString("metadata"));
+                double distance = rs.getDouble("distance");
+                metadata.put("distance", distance);
+                return Document.builder()
+                    .id(rs.getString("id"))
+                    .text(rs.getString("content"))
+                    .metadata(metadata)
+                    .score(1.0 - distance)
+                    .build();
+            }, vector, vector, request.getTopK(), 1.0 - request.getSimilarityThreshold()));
+        }
+        return merged.stream()
+            .sorted(Comparator.comparing((Document doc) -> doc.getScore() == null ? 0.0 : doc.getScore()).reversed())
+            .limit(request.getTopK())
+            .toList();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> Optional<T> getNativeClient() {
+        return Optional.of((T) shards);
+    }
+}
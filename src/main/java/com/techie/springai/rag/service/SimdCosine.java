@@ -0,0 +1,39 @@
+package com.techie.springai.rag.service;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * JDK Vector API 点积 - 按平台首选宽度（AVX2 为 8 路、AVX-512 为 16 路）做融合乘加，尾部标量补齐
+ * 依赖 jdk.incubator.vector 模块（启动参数 --add-modules jdk.incubator.vector），调用方须先确认模块可用
+ */
+final class SimdCosine {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    private SimdCosine() {
+    }
+
+    /**
+     * query 与 block 中从 offset 起长度为 query.length 的向量的点积
+     */
+    static float dot(float[] query, float[] block, int offset) {
+        int length = query.length;
+        int bound = SPECIES.loopBound(length);
+        FloatVector acc = FloatVector.zero(SPECIES);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            acc = FloatVector.fromArray(SPECIES, query, i).fma(FloatVector.fromArray(SPECIES, block, offset + i), acc);
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += query[i] * block[offset + i];
+        }
+        return sum;
+    }
+
+    static int lanes() {
+        return SPECIES.length();
+    }
+}
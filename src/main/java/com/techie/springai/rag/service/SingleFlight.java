@@ -0,0 +1,90 @@
+package com.techie.springai.rag.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 同键并发请求合并 - 同一时刻相同 key 只执行一次，后到的调用等待并共享首个调用的结果（或异常）
+ * 只合并进行中的请求，执行结束即移除，不做结果缓存
+ */
+public final class SingleFlight<T> {
+
+    private final ConcurrentHashMap<String, CompletableFuture<T>> inflight = new ConcurrentHashMap<>();
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder shared = new LongAdder();
+
+    /**
+     * 执行或加入同键的进行中请求；work 在首个调用者线程上执行
+     */
+    public T execute(String key, Supplier<T> work) {
+        return run(key, work, true);
+    }
+
+    /**
+     * 同 execute，但结果返回后仍保留在进行中，后到的调用继续共享同一结果，直到 release
+     * 用于结果本身是仍在产出的流（如流式回答）的场景
+     */
+    public T executeHeld(String key, Supplier<T> work) {
+        return run(key, work, false);
+    }
+
+    public void release(String key) {
+        inflight.computeIfPresent(key, (k, future) -> future.isDone() ? null : future);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long executed = executions.sum();
+        long joined = shared.sum();
+        stats.put("inflight", inflight.size());
+        stats.put("executions", executed);
+        stats.put("shared", joined);
+        stats.put("shareRate", executed + joined == 0 ? 0.0 : (double) joined / (executed + joined));
+        return stats;
+    }
+
+    private T run(String key, Supplier<T> work, boolean releaseOnComplete) {
+        CompletableFuture<T> own = new CompletableFuture<>();
+        CompletableFuture<T> existing = inflight.putIfAbsent(key, own);
+        if (existing != null) {
+            shared.increment();
+            return await(existing);
+        }
+        executions.increment();
+        try {
+            T value = work.get();
+            own.complete(value);
+            if (releaseOnComplete) {
+                inflight.remove(key, own);
+            }
+            return value;
+        } catch (RuntimeException | Error e) {
+            own.completeExceptionally(e);
+            inflight.remove(key, own);
+            throw e;
+        }
+    }
+
+    private T await(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException("等待合并请求时被中断", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw new CompletionException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,616 @@
+package com.techie.springai.rag.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/**
+ * 向量索引管理 - 按配置创建/重建 HNSW 或 IVFFlat 索引（CONCURRENTLY，不停服）
+ * 并在每次检索时按 topK 设置 hnsw.ef_search / ivfflat.probes
+ * 可选量化索引：halfvec（半精度）或 binary（二值化），全精度向量仍保留在表中用于精排
+ * 每个集合另建一个同参数的部分索引（WHERE 集合谓词），限定集合的检索只遍历该集合的图/聚类
+ * 配置了向量分片时整表索引、量化索引与集合部分索引在每个分片上各自构建，可用状态按分片记录
+ */
+@Service
+public class VectorIndexService {
+
+    private static final Logger log = LoggerFactory.getLogger(VectorIndexService.class);
+    private static final String TABLE = "vector_store";
+    private static final String INDEX_NAME = "vector_store_embedding_idx";
+    private static final String BUILD_INDEX_NAME = INDEX_NAME + "_build";
+    private static final String COLLECTION_INDEX_PREFIX = "vector_store_col_";
+    private static final String CATALOG_TABLE = "document_catalog";
+    private static final ThreadLocal<Long> STATEMENT_TIMEOUT_MS = new ThreadLocal<>();
+
+    private final JdbcTemplate jdbcTemplate;
+    private final VectorStoreSchemaService schemaService;
+    private final VectorShards vectorShards;
+    private final TransactionTemplate searchTransaction;
+    private final ExecutorService buildExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "vector-index-builder");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean building = new AtomicBoolean(false);
+    private final Map<Integer, Set<String>> indexedCollections = new ConcurrentHashMap<>();
+    private final Map<Integer, String> shardQuantization = new ConcurrentHashMap<>();
+    private final Map<Integer, Integer> shardLists = new ConcurrentHashMap<>();
+
+    private volatile String state = "UNKNOWN";
+    private volatile String lastError;
+    private volatile Instant buildStartedAt;
+    private volatile Instant buildFinishedAt;
+
+    @Value("${rag.index.managed:true}")
+    private boolean managed;
+
+    @Value("${rag.index.type:hnsw}")
+    private String indexType;
+
+    @Value("${rag.index.hnsw.m:16}")
+    private int hnswM;
+
+    @Value("${rag.index.hnsw.ef-construction:64}")
+    private int hnswEfConstruction;
+
+    @Value("${rag.index.hnsw.ef-search-min:40}")
+    private int efSearchMin;
+
+    @Value("${rag.index.hnsw.ef-search-max:1000}")
+    private int efSearchMax;
+
+    @Value("${rag.index.search-factor:2.0}")
+    private double searchFactor;
+
+    @Value("${rag.index.ivfflat.lists:0}")
+    private int ivfflatLists;
+
+    @Value("${rag.index.maintenance-work-mem:512MB}")
+    private String maintenanceWorkMem;
+
+    @Value("${rag.index.parallel-workers:2}")
+    private int parallelWorkers;
+
+    @Value("${rag.index.quantization:none}")
+    private String quantization;
+
+    @Value("${rag.index.collection-indexes:true}")
+    private boolean collectionIndexes;
+
+    public VectorIndexService(JdbcTemplate jdbcTemplate, VectorStoreSchemaService schemaService,
+                              PlatformTransactionManager transactionManager, VectorShards vectorShards) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.schemaService = schemaService;
+        this.vectorShards = vectorShards;
+        this.searchTransaction = new TransactionTemplate(transactionManager);
+        this.searchTransaction.setReadOnly(true);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE + 1)
+    public void onReady() {
+        if (!managed) {
+            return;
+        }
+        if (schemaService.getPendingMigration().isPresent()) {
+            // 维度迁移期间旧表维度与配置不符，索引在迁移切换前于影子表上构建
+            state = "WAITING_FOR_MIGRATION";
+            return;
+        }
+        buildExecutor.execute(() -> ensureIndex(false));
+        buildExecutor.execute(() -> ensureCollectionIndexes(false));
+    }
+
+    /**
+     * 在语句超时作用域内执行：作用域内经 withSearchTuning / scatterWithSearchTuning 的检索在各自的检索事务里
+     * 追加 SET LOCAL statement_timeout，超时由 Postgres 取消查询（中断线程打断不了阻塞中的 JDBC 调用）
+     */
+    public static <T> T withStatementTimeout(long timeoutMs, Supplier<T> work) {
+        Long previous = STATEMENT_TIMEOUT_MS.get();
+        STATEMENT_TIMEOUT_MS.set(Math.max(1, Math.min(Integer.MAX_VALUE, timeoutMs)));
+        try {
+            return work.get();
+        } finally {
+            if (previous == null) {
+                STATEMENT_TIMEOUT_MS.remove();
+            } else {
+                STATEMENT_TIMEOUT_MS.set(previous);
+            }
+        }
+    }
+
+    /**
+     * 在同一事务内设置 ANN 查询参数后执行检索，参数只对本次检索生效（SET LOCAL）；只作用于主库
+     */
+    public <T> T withSearchTuning(int topK, Supplier<T> search) {
+        List<String> settings = searchSettings(0, topK);
+        if (settings.isEmpty()) {
+            return search.get();
+        }
+        return searchTransaction.execute(status -> {
+            settings.forEach(jdbcTemplate::execute);
+            return search.get();
+        });
+    }
+
+    /**
+     * 在所有分片上并行检索，每个分片在自己的事务内按该分片的索引状态设置 ANN 查询参数（SET LOCAL）
+     */
+    public <T> List<T> scatterWithSearchTuning(int topK, BiFunction<Integer, JdbcTemplate, List<T>> search) {
+        // 参数在调用线程上算好，分片 worker 线程只负责执行
+        List<List<String>> settings = new ArrayList<>();
+        for (int shard = 0; shard < vectorShards.count(); shard++) {
+            settings.add(searchSettings(shard, topK));
+        }
+        return withSearchTuning(topK, () -> vectorShards.scatterShards((shard, jdbc) -> shard == 0
+            ? search.apply(shard, jdbc)
+            : vectorShards.searchRemote(shard, settings.get(shard), remote -> search.apply(shard, remote))));
+    }
+
+    /**
+     * 主库当前生效索引的量化方式（none / halfvec / binary），检索据此选择是否两阶段精排
+     */
+    public String activeQuantization() {
+        return activeQuantization(0);
+    }
+
+    /**
+     * 指定分片当前生效索引的量化方式；该分片的量化索引尚未建好时为 none，检索在该分片上改走全精度
+     */
+    public String activeQuantization(int shard) {
+        return shardQuantization.getOrDefault(shard, "none");
+    }
+
+    /**
+     * 触发后台重建；已有构建在进行时返回 false
+     */
+    public boolean rebuildAsync() {
+        if (building.get()) {
+            return false;
+        }
+        buildExecutor.execute(() -> ensureIndex(true));
+        buildExecutor.execute(() -> ensureCollectionIndexes(true));
+        return true;
+    }
+
+    /**
+     * 该集合的部分索引在指定分片上是否已可用；不可用时该分片上按集合过滤后精确扫描
+     */
+    public boolean isCollectionIndexed(int shard, String collection) {
+        return managed && collectionIndexes && collectionsOn(shard).contains(CollectionNames.normalize(collection));
+    }
+
+    /**
+     * 导入到集合后调用：在还没有该集合部分索引的分片上后台创建
+     */
+    public void ensureCollectionIndex(String collection) {
+        if (!managed || !collectionIndexes) {
+            return;
+        }
+        for (int shard = 0; shard < vectorShards.count(); shard++) {
+            if (collectionsOn(shard).contains(CollectionNames.normalize(collection))) {
+                continue;
+            }
+            int target = shard;
+            buildExecutor.execute(() -> buildCollectionIndex(target, collection,
+                findExistingIndexes(vectorShards.jdbc(target)), false));
+        }
+    }
+
+    /**
+     * 在指定表（如迁移影子表）上同步构建待用索引，切换表后调用 promotePreparedIndex 生效
+     */
+    public void prepareIndexForTable(String table) {
+        if (!managed) {
+            return;
+        }
+        long rows = Optional.ofNullable(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table, Long.class)).orElse(0L);
+        IndexSpec spec = desiredSpec().withRowCount(Math.max(rows, 1));
+        log.info("为 {} 预构建向量索引: {}, rows={}", table, spec.describe(), rows);
+        jdbcTemplate.execute("DROP INDEX IF EXISTS " + BUILD_INDEX_NAME);
+        createIndex(jdbcTemplate, spec, table, BUILD_INDEX_NAME, null);
+        shardLists.put(0, spec.lists());
+    }
+
+    public void promotePreparedIndex() {
+        if (!managed) {
+            return;
+        }
+        jdbcTemplate.execute("DROP INDEX IF EXISTS " + INDEX_NAME);
+        jdbcTemplate.execute("ALTER INDEX IF EXISTS " + BUILD_INDEX_NAME + " RENAME TO " + INDEX_NAME);
+        shardQuantization.put(0, desiredSpec().quantization());
+        state = "READY";
+        // 切换后的新表上还没有集合部分索引
+        indexedCollections.clear();
+        buildExecutor.execute(() -> ensureCollectionIndexes(false));
+    }
+
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("managed", managed);
+        status.put("state", state);
+        status.put("activeQuantization", activeQuantization());
+        status.put("desired", desiredSpec().describe());
+        status.put("buildStartedAt", Objects.toString(buildStartedAt, ""));
+        status.put("buildFinishedAt", Objects.toString(buildFinishedAt, ""));
+        status.put("lastError", Objects.toString(lastError, ""));
+        status.put("collectionIndexes", collectionIndexes ? new TreeSet<>(collectionsOn(0)) : List.of());
+        if (vectorShards.sharded()) {
+            List<Map<String, Object>> shards = new ArrayList<>();
+            for (int shard = 1; shard < vectorShards.count(); shard++) {
+                Map<String, Object> detail = new LinkedHashMap<>();
+                detail.put("shard", shard);
+                detail.put("activeQuantization", activeQuantization(shard));
+                detail.put("collectionIndexes", collectionIndexes ? new TreeSet<>(collectionsOn(shard)) : List.of());
+                shards.add(detail);
+            }
+            status.put("shards", shards);
+        }
+        try {
+            status.put("indexes", jdbcTemplate.queryForList(
+                """
+                SELECT i.relname AS name, am.amname AS method, ix.indisvalid AS valid,
+                       pg_size_pretty(pg_relation_size(i.oid)) AS size, pg_get_indexdef(i.oid) AS definition
+                FROM pg_index ix
+                JOIN pg_class i ON i.oid = ix.indexrelid
+                JOIN pg_class t ON t.oid = ix.indrelid
+                JOIN pg_am am ON am.oid = i.relam
+                WHERE t.relname = ? AND am.amname IN ('hnsw', 'ivfflat')
+                """, TABLE));
+            if (building.get()) {
+                status.put("progress", buildProgress());
+            }
+        } catch (Exception e) {
+            status.put("error", e.getMessage());
+        }
+        return status;
+    }
+
+    private void ensureIndex(boolean force) {
+        if (!building.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            List<String> failures = new ArrayList<>();
+            boolean waiting = false;
+            for (int shard = 0; shard < vectorShards.count(); shard++) {
+                try {
+                    waiting |= !ensureShardIndex(shard, force);
+                } catch (Exception e) {
+                    failures.add("shard " + shard + ": " + e.getMessage());
+                    log.error("向量索引构建失败: shard={}, {}", shard, e.getMessage(), e);
+                }
+            }
+            if (!failures.isEmpty()) {
+                state = "FAILED";
+                lastError = String.join("; ", failures);
+            } else {
+                state = waiting ? "WAITING_FOR_DATA" : "READY";
+            }
+        } finally {
+            building.set(false);
+        }
+    }
+
+    /**
+     * 在单个分片上确保整表索引符合配置；IVFFlat 且该分片为空时返回 false（等待数据）
+     */
+    private boolean ensureShardIndex(int shard, boolean force) {
+        JdbcTemplate jdbc = vectorShards.jdbc(shard);
+        IndexSpec desired = desiredSpec();
+        List<ExistingIndex> existing = findExistingIndexes(jdbc).stream()
+            .filter(e -> !e.name().startsWith(COLLECTION_INDEX_PREFIX))
+            .toList();
+        Optional<ExistingIndex> match = existing.stream().filter(e -> e.valid() && desired.matches(e)).findFirst();
+        if (match.isPresent() && !force) {
+            shardLists.put(shard, parseLists(match.get()));
+            shardQuantization.put(shard, desired.quantization());
+            log.info("向量索引已符合配置: shard={}, {} ({})", shard, match.get().name(), desired.describe());
+            return true;
+        }
+
+        long rows = Optional.ofNullable(jdbc.queryForObject("SELECT COUNT(*) FROM " + TABLE, Long.class)).orElse(0L);
+        if ("ivfflat".equals(desired.method()) && rows == 0) {
+            log.warn("IVFFlat 需要基于已有数据训练聚类中心，分片 {} 的表为空，暂不建索引；导入数据后调用重建接口", shard);
+            return false;
+        }
+        IndexSpec spec = desired.withRowCount(rows);
+
+        state = "BUILDING";
+        buildStartedAt = Instant.now();
+        lastError = null;
+        log.info("开始构建向量索引: shard={}, {}, rows={}", shard, spec.describe(), rows);
+
+        jdbc.execute("DROP INDEX CONCURRENTLY IF EXISTS " + BUILD_INDEX_NAME);
+        createIndex(jdbc, spec, TABLE, BUILD_INDEX_NAME, null);
+
+        // 新索引就绪后再下线旧索引，检索全程可用
+        for (ExistingIndex old : existing) {
+            if (!old.name().equals(BUILD_INDEX_NAME)) {
+                jdbc.execute("DROP INDEX CONCURRENTLY IF EXISTS " + old.name());
+            }
+        }
+        jdbc.execute("ALTER INDEX " + BUILD_INDEX_NAME + " RENAME TO " + INDEX_NAME);
+
+        shardLists.put(shard, spec.lists());
+        shardQuantization.put(shard, spec.quantization());
+        buildFinishedAt = Instant.now();
+        log.info("向量索引构建完成: shard={}, {}, 耗时 {}s", shard, spec.describe(),
+            buildFinishedAt.getEpochSecond() - buildStartedAt.getEpochSecond());
+        return true;
+    }
+
+    /**
+     * 在每个分片上为目录中登记的所有集合建立部分索引；force 时按当前配置全部重建
+     */
+    private void ensureCollectionIndexes(boolean force) {
+        if (!collectionIndexes || "WAITING_FOR_MIGRATION".equals(state)) {
+            return;
+        }
+        List<String> collections;
+        try {
+            collections = jdbcTemplate.queryForList("SELECT DISTINCT collection FROM " + CATALOG_TABLE, String.class);
+        } catch (Exception e) {
+            log.error("集合向量索引检查失败: {}", e.getMessage(), e);
+            return;
+        }
+        for (int shard = 0; shard < vectorShards.count(); shard++) {
+            try {
+                List<ExistingIndex> existing = findExistingIndexes(vectorShards.jdbc(shard));
+                for (String collection : collections) {
+                    buildCollectionIndex(shard, collection, existing, force);
+                }
+            } catch (Exception e) {
+                log.error("集合向量索引检查失败: shard={}, {}", shard, e.getMessage(), e);
+            }
+        }
+    }
+
+    private void buildCollectionIndex(int shard, String collection, List<ExistingIndex> existing, boolean force) {
+        JdbcTemplate jdbc = vectorShards.jdbc(shard);
+        String normalized = CollectionNames.normalize(collection);
+        String indexName = COLLECTION_INDEX_PREFIX + normalized + "_idx";
+        String buildName = indexName + "_build";
+        String predicate = CollectionNames.predicate(collection);
+        try {
+            IndexSpec desired = desiredSpec();
+            boolean current = existing.stream()
+                .anyMatch(e -> e.name().equals(indexName) && e.valid() && desired.matches(e));
+            if (current && !force) {
+                collectionsOn(shard).add(normalized);
+                return;
+            }
+            long rows = Optional.ofNullable(jdbc.queryForObject(
+                "SELECT COUNT(*) FROM " + TABLE + " WHERE " + predicate, Long.class)).orElse(0L);
+            if ("ivfflat".equals(desired.method()) && rows == 0) {
+                return;
+            }
+            IndexSpec spec = desired.withRowCount(rows);
+            log.info("构建集合向量索引: shard={}, collection={}, {}, rows={}", shard, collection, spec.describe(), rows);
+            jdbc.execute("DROP INDEX CONCURRENTLY IF EXISTS " + buildName);
+            createIndex(jdbc, spec, TABLE, buildName, predicate);
+            jdbc.execute("DROP INDEX CONCURRENTLY IF EXISTS " + indexName);
+            jdbc.execute("ALTER INDEX " + buildName + " RENAME TO " + indexName);
+            collectionsOn(shard).add(normalized);
+        } catch (Exception e) {
+            log.error("集合向量索引构建失败: shard={}, collection={}, {}", shard, collection, e.getMessage(), e);
+        }
+    }
+
+    private Set<String> collectionsOn(int shard) {
+        return indexedCollections.computeIfAbsent(shard, k -> ConcurrentHashMap.newKeySet());
+    }
+
+    private void createIndex(JdbcTemplate jdbc, IndexSpec spec, String table, String indexName, String predicate) {
+        jdbc.execute((ConnectionCallback<Void>) con -> {
+            try (Statement st = con.createStatement()) {
+                st.execute("SET maintenance_work_mem = '" + maintenanceWorkMem.replace("'", "") + "'");
+                st.execute("SET max_parallel_maintenance_workers = " + Math.max(0, parallelWorkers));
+                st.execute(spec.createSql(indexName, table, predicate));
+                st.execute("RESET maintenance_work_mem");
+                st.execute("RESET max_parallel_maintenance_workers");
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 指定分片本次检索的 SET LOCAL 语句；IVFFlat 的 probes 按该分片索引自己的 lists 计算
+     * 须在调用线程上计算：语句超时取自调用线程的 withStatementTimeout 作用域
+     */
+    private List<String> searchSettings(int shard, int topK) {
+        List<String> settings = new ArrayList<>(2);
+        Long timeoutMs = STATEMENT_TIMEOUT_MS.get();
+        if (timeoutMs != null) {
+            settings.add("SET LOCAL statement_timeout = " + timeoutMs);
+        }
+        if (!managed) {
+            return settings;
+        }
+        if ("hnsw".equals(indexType)) {
+            int efSearch = (int) Math.ceil(topK * searchFactor);
+            efSearch = Math.max(efSearchMin, Math.min(efSearchMax, efSearch));
+            settings.add("SET LOCAL hnsw.ef_search = " + efSearch);
+        }
+        int lists = shardLists.getOrDefault(shard, 0);
+        if ("ivfflat".equals(indexType) && lists > 0) {
+            // 基线 sqrt(lists)，topK 越大探测的聚类越多
+            double base = Math.sqrt(lists) * Math.max(1.0, topK * searchFactor / 20.0);
+            int probes = Math.max(1, Math.min(lists, (int) Math.ceil(base)));
+            settings.add("SET LOCAL ivfflat.probes = " + probes);
+        }
+        return settings;
+    }
+
+    private Map<String, Object> buildProgress() {
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+            """
+            SELECT phase, blocks_done, blocks_total, tuples_done, tuples_total
+            FROM pg_stat_progress_create_index
+            WHERE relid = ?::regclass
+            """, TABLE);
+        if (rows.isEmpty()) {
+            return Map.of();
+        }
+        Map<String, Object> progress = new LinkedHashMap<>(rows.get(0));
+        long blocksTotal = ((Number) progress.getOrDefault("blocks_total", 0)).longValue();
+        long blocksDone = ((Number) progress.getOrDefault("blocks_done", 0)).longValue();
+        long tuplesTotal = ((Number) progress.getOrDefault("tuples_total", 0)).longValue();
+        long tuplesDone = ((Number) progress.getOrDefault("tuples_done", 0)).longValue();
+        double percent = tuplesTotal > 0 ? 100.0 * tuplesDone / tuplesTotal
+            : blocksTotal > 0 ? 100.0 * blocksDone / blocksTotal : 0.0;
+        progress.put("percent", Math.round(percent * 10) / 10.0);
+        return progress;
+    }
+
+    private List<ExistingIndex> findExistingIndexes(JdbcTemplate jdbc) {
+        return jdbc.query(
+            """
+            SELECT i.relname AS name, am.amname AS method, ix.indisvalid AS valid,
+                   pg_get_indexdef(i.oid) AS definition, array_to_string(i.reloptions, ',') AS options
+            FROM pg_index ix
+            JOIN pg_class i ON i.oid = ix.indexrelid
+            JOIN pg_class t ON t.oid = ix.indrelid
+            JOIN pg_am am ON am.oid = i.relam
+            WHERE t.relname = ? AND am.amname IN ('hnsw', 'ivfflat')
+            """,
+            (rs, rowNum) -> new ExistingIndex(rs.getString("name"), rs.getString("method"), rs.getBoolean("valid"),
+                rs.getString("definition"), parseOptions(rs.getString("options"))),
+            TABLE);
+    }
+
+    private IndexSpec desiredSpec() {
+        String quant = effectiveQuantization();
+        int dims = schemaService.getDimensions();
+        String expression = switch (quant) {
+            case "halfvec" -> "(embedding::halfvec(" + dims + "))";
+            case "binary" -> "(binary_quantize(embedding)::bit(" + dims + "))";
+            default -> "embedding";
+        };
+        String opclass = switch (quant) {
+            case "halfvec" -> "halfvec_cosine_ops";
+            case "binary" -> "bit_hamming_ops";
+            default -> "vector_cosine_ops";
+        };
+        if ("ivfflat".equals(indexType)) {
+            return new IndexSpec("ivfflat", quant, expression, opclass,
+                ivfflatLists > 0 ? Map.of("lists", String.valueOf(ivfflatLists)) : Map.of());
+        }
+        return new IndexSpec("hnsw", quant, expression, opclass,
+            Map.of("m", String.valueOf(hnswM), "ef_construction", String.valueOf(hnswEfConstruction)));
+    }
+
+    private String effectiveQuantization() {
+        String quant = quantization == null ? "none" : quantization.trim().toLowerCase(Locale.ROOT);
+        if (!Set.of("halfvec", "binary").contains(quant) || !schemaService.isQuantizationSupported()) {
+            return "none";
+        }
+        return quant;
+    }
+
+    private int parseLists(ExistingIndex index) {
+        try {
+            return Integer.parseInt(index.options().getOrDefault("lists", "100"));
+        } catch (NumberFormatException e) {
+            return 100;
+        }
+    }
+
+    private static Map<String, String> parseOptions(String raw) {
+        Map<String, String> options = new HashMap<>();
+        if (raw == null || raw.isBlank()) {
+            return options;
+        }
+        for (String kv : raw.split(",")) {
+            int eq = kv.indexOf('=');
+            if (eq > 0) {
+                options.put(kv.substring(0, eq).trim(), kv.substring(eq + 1).trim());
+            }
+        }
+        return options;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        buildExecutor.shutdownNow();
+    }
+
+    private record ExistingIndex(String name, String method, boolean valid, String definition,
+                                 Map<String, String> options) {}
+
+    private record IndexSpec(String method, String quantization, String expression, String opclass,
+                             Map<String, String> options) {
+
+        private static final Map<String, String> DEFAULTS = Map.of("m", "16", "ef_construction", "64", "lists", "100");
+
+        boolean matches(ExistingIndex existing) {
+            if (!method.equals(existing.method()) || !existing.definition().contains(opclass)) {
+                return false;
+            }
+            boolean halfvec = existing.definition().contains("halfvec");
+            boolean binary = existing.definition().contains("binary_quantize");
+            if (halfvec != "halfvec".equals(quantization) || binary != "binary".equals(quantization)) {
+                return false;
+            }
+            for (Map.Entry<String, String> e : options.entrySet()) {
+                String actual = existing.options().getOrDefault(e.getKey(), DEFAULTS.get(e.getKey()));
+                if (!e.getValue().equals(actual)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** IVFFlat 未显式配置 lists 时按数据量推算：≤1M 行取 rows/1000，更大取 sqrt(rows) */
+        IndexSpec withRowCount(long rows) {
+            if (!"ivfflat".equals(method) || options.containsKey("lists")) {
+                return this;
+            }
+            long lists = rows <= 1_000_000 ? Math.max(10, rows / 1000) : (long) Math.sqrt(rows);
+            return new IndexSpec(method, quantization, expression, opclass, Map.of("lists", String.valueOf(lists)));
+        }
+
+        int lists() {
+            return Integer.parseInt(options.getOrDefault("lists", "0"));
+        }
+
+        String createSql(String indexName, String table, String predicate) {
+            StringBuilder sql = new StringBuilder("CREATE INDEX CONCURRENTLY ")
+                .append(indexName).append(" ON ").append(table)
+                .append(" USING ").append(method).append(" (").append(expression).append(" ").append(opclass).append(")");
+            if (!options.isEmpty()) {
+                StringJoiner with = new StringJoiner(", ", " WITH (", ")");
+                options.forEach((k, v) -> with.add(k + " = " + Integer.parseInt(v)));
+                sql.append(with);
+            }
+            if (predicate != null) {
+                sql.append(" WHERE ").append(predicate);
+            }
+            return sql.toString();
+        }
+
+        String describe() {
+            return method + ("none".equals(quantization) ? "" : "/" + quantization) + " " + options;
+        }
+    }
+}
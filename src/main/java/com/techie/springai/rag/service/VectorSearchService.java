@@ -0,0 +1,382 @@
+package com.techie.springai.rag.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+
+/**
+ * 向量检索执行器 - RAGService 的底层检索入口
+ * 全精度索引走 VectorStore；量化索引走两阶段：量化索引超额召回候选，再用全精度向量精确重排
+ * 延迟加载正文模式下先只取 id、分数、metadata 与库内算好的文本特征，最终入选的分块再一次性取正文
+ * 配置了向量分片时 SQL 检索在所有分片上并行执行，合并后按分数全局截断 topK
+ * 指定集合时检索带上与该集合部分索引一致的谓词，只扫描该集合的 ANN 索引；部分索引建好之前按集合过滤后精确扫描
+ * 索引状态按分片判断：某分片的集合部分索引或量化索引尚未建好时，只在该分片上改走精确扫描 / 全精度检索
+ * 该集合有可用快照或已载入内存层时直接在进程内检索
+ */
+@Service
+public class VectorSearchService {
+
+    private static final Logger log = LoggerFactory.getLogger(VectorSearchService.class);
+    private static final String TABLE = "vector_store";
+    private static final String FULL_COLUMNS = "id, content, metadata, distance";
+    private static final String LAZY_COLUMNS = "id, metadata, distance,\n" + ChunkFeatures.SQL_COLUMNS;
+
+    private final VectorStore vectorStore;
+    private final EmbeddingModel embeddingModel;
+    private final JdbcTemplate jdbcTemplate;
+    private final VectorIndexService vectorIndexService;
+    private final VectorStoreSchemaService schemaService;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate exactTransaction;
+    private final EmbeddingMigrationService migrationService;
+    private final HotTierService hotTierService;
+    private final VectorSnapshotService snapshotService;
+    private final VectorShards vectorShards;
+
+    @Value("${rag.index.quantization.oversample:4}")
+    private int oversample;
+
+    @Value("${rag.index.quantization.min-candidates:40}")
+    private int minCandidates;
+
+    public VectorSearchService(VectorStore vectorStore, EmbeddingModel embeddingModel, JdbcTemplate jdbcTemplate,
+                               VectorIndexService vectorIndexService, VectorStoreSchemaService schemaService,
+                               ObjectMapper objectMapper, PlatformTransactionManager transactionManager,
+                               EmbeddingMigrationService migrationService, HotTierService hotTierService,
+                               VectorSnapshotService snapshotService, VectorShards vectorShards) {
+        this.vectorStore = vectorStore;
+        this.embeddingModel = embeddingModel;
+        this.jdbcTemplate = jdbcTemplate;
+        this.vectorIndexService = vectorIndexService;
+        this.schemaService = schemaService;
+        this.objectMapper = objectMapper;
+        this.exactTransaction = new TransactionTemplate(transactionManager);
+        this.exactTransaction.setReadOnly(true);
+        this.migrationService = migrationService;
+        this.hotTierService = hotTierService;
+        this.snapshotService = snapshotService;
+        this.vectorShards = vectorShards;
+    }
+
+    /**
+     * embedding 为调用方已算好的查询向量，为空时在此向量化；迁移期间按目标模型重新向量化
+     */
+    public List<Document> search(String query, float[] embedding, int topK, double threshold, String collection) {
+        if (migrationService.isActive()) {
+            return migrationSearch(query, topK, threshold, null, collection);
+        }
+        String quantization = vectorIndexService.activeQuantization();
+        if (collection != null) {
+            if (embedding == null) {
+                embedding = embeddingModel.embed(query);
+            }
+            Optional<List<Document>> hot = inProcessSearch(collection, embedding, topK, threshold);
+            if (hot.isPresent()) {
+                return hot.get();
+            }
+            return "none".equals(quantization)
+                ? nearestSearch(PgVectors.toVectorLiteral(embedding), topK, threshold, null, collection)
+                : quantizedSearch(PgVectors.toVectorLiteral(embedding), quantization, topK, threshold, null, collection);
+        }
+        if ("none".equals(quantization) && (embedding != null || vectorShards.sharded())) {
+            // 分片时不走 VectorStore：各分片的检索参数只能在 nearestSearch 的分片事务里设置
+            if (embedding == null) {
+                embedding = embeddingModel.embed(query);
+            }
+            return nearestSearch(PgVectors.toVectorLiteral(embedding), topK, threshold, null, null);
+        }
+        if ("none".equals(quantization)) {
+            SearchRequest request = SearchRequest.builder()
+                .query(query)
+                .topK(topK)
+                .similarityThreshold(threshold)
+                .build();
+            return vectorIndexService.withSearchTuning(topK, () -> vectorStore.similaritySearch(request));
+        }
+        if (embedding == null) {
+            embedding = embeddingModel.embed(query);
+        }
+        return quantizedSearch(PgVectors.toVectorLiteral(embedding), quantization, topK, threshold, null, collection);
+    }
+
+    /**
+     * 第一阶段：只返回候选分块的 id、分数、metadata 与文本特征，正文为空
+     * terms 为重排/词法打分要判断的小写查询词，命中情况在库内计算
+     */
+    public List<Document> searchCandidates(String query, float[] precomputed, int topK, double threshold,
+                                           Collection<String> terms, String collection) {
+        String joinedTerms = ChunkFeatures.joinTerms(terms);
+        if (migrationService.isActive()) {
+            return migrationSearch(query, topK, threshold, joinedTerms, collection);
+        }
+        float[] embedding = precomputed != null ? precomputed : embeddingModel.embed(query);
+        if (collection != null) {
+            // 快照与内存层返回完整分块（带正文），后续重排/词法打分直接从正文计算特征，hydrate 会原样保留
+            Optional<List<Document>> hot = inProcessSearch(collection, embedding, topK, threshold);
+            if (hot.isPresent()) {
+                return hot.get();
+            }
+        }
+        String vector = PgVectors.toVectorLiteral(embedding);
+        String quantization = vectorIndexService.activeQuantization();
+        if (!"none".equals(quantization)) {
+            return quantizedSearch(vector, quantization, topK, threshold, joinedTerms, collection);
+        }
+        return nearestSearch(vector, topK, threshold, joinedTerms, collection);
+    }
+
+    /**
+     * 进程内检索：优先快照精确扫描，其次 HNSW 内存层；都不可用时返回 empty，由调用方走 pgvector
+     */
+    private Optional<List<Document>> inProcessSearch(String collection, float[] embedding, int topK, double threshold) {
+        Optional<List<Document>> exact = snapshotService.search(collection, embedding, topK, threshold);
+        return exact.isPresent() ? exact : hotTierService.search(collection, embedding, topK, threshold);
+    }
+
+    /**
+     * 全精度索引上的近邻检索；lazyTerms 为 null 时取完整正文
+     */
+    private List<Document> nearestSearch(String vector, int topK, double threshold, String lazyTerms,
+                                         String collection) {
+        return gather(vectorIndexService.scatterWithSearchTuning(topK, (shard, jdbc) ->
+            nearestOnShard(jdbc, shard, vector, topK, threshold, lazyTerms, collection)), topK);
+    }
+
+    private List<Document> nearestOnShard(JdbcTemplate jdbc, int shard, String vector, int topK, double threshold,
+                                          String lazyTerms, String collection) {
+        String sql = nearestSql(lazyTerms, source(TABLE, collection, shard));
+        return lazyTerms == null
+            ? jdbc.query(sql, documentRowMapper(), vector, vector, topK, 1.0 - threshold)
+            : jdbc.query(sql, lazyRowMapper(), lazyTerms, vector, vector, topK, 1.0 - threshold);
+    }
+
+    private static String nearestSql(String lazyTerms, String source) {
+        return """
+            SELECT %s FROM (
+                SELECT id, content, metadata, embedding <=> ?::vector AS distance
+                FROM %s
+                ORDER BY embedding <=> ?::vector
+                LIMIT ?
+            ) nearest
+            WHERE distance <= ?
+            ORDER BY distance
+            """.formatted(lazyTerms == null ? FULL_COLUMNS : LAZY_COLUMNS, source);
+    }
+
+    /**
+     * 第二阶段：一次查询取回入选候选的正文与完整 metadata，保持原有顺序与分数；期间被删除的分块直接丢弃
+     */
+    public List<Document> hydrate(List<Document> candidates) {
+        List<String> ids = candidates.stream().filter(ChunkFeatures::isLazy).map(Document::getId).toList();
+        if (ids.isEmpty()) {
+            return candidates;
+        }
+        boolean migrating = migrationService.isActive();
+        String sql = "SELECT id::text AS id, content, metadata FROM "
+            + (migrating ? migrationService.queryTarget().table() : TABLE)
+            + " WHERE id = ANY(CAST(string_to_array(?, ',') AS uuid[]))";
+        RowMapper<Document> mapper = (rs, rowNum) -> Document.builder()
+            .id(rs.getString("id"))
+            .text(rs.getString("content"))
+            .metadata(PgVectors.parseMetadata(objectMapper, rs.getString("metadata")))
+            .build();
+        String joinedIds = String.join(",", ids);
+        // 迁移影子表只在主库
+        List<Document> rows = migrating
+            ? jdbcTemplate.query(sql, mapper, joinedIds)
+            : vectorShards.scatter(jdbc -> jdbc.query(sql, mapper, joinedIds));
+        Map<String, Document> loaded = new HashMap<>();
+        rows.forEach(doc -> loaded.put(doc.getId(), doc));
+
+        List<Document> hydrated = new ArrayList<>(candidates.size());
+        for (Document candidate : candidates) {
+            if (!ChunkFeatures.isLazy(candidate)) {
+                hydrated.add(candidate);
+                continue;
+            }
+            Document full = loaded.get(candidate.getId());
+            if (full == null) {
+                log.debug("候选分块已不存在，跳过: {}", candidate.getId());
+                continue;
+            }
+            Map<String, Object> metadata = new HashMap<>(full.getMetadata());
+            metadata.put("distance", candidate.getMetadata().get("distance"));
+            hydrated.add(Document.builder()
+                .id(full.getId())
+                .text(full.getText())
+                .metadata(metadata)
+                .score(candidate.getScore())
+                .build());
+        }
+        return hydrated;
+    }
+
+    /**
+     * 两阶段检索：量化索引取 topK * oversample 个候选，再按全精度余弦距离精排并应用阈值
+     * 某分片上量化索引（限定集合时为该集合的量化部分索引）还没建好时，该分片改走全精度检索
+     */
+    private List<Document> quantizedSearch(String vector, String quantization, int topK, double threshold,
+                                           String lazyTerms, String collection) {
+        int candidates = Math.max(minCandidates, topK * Math.max(1, oversample));
+        int dims = schemaService.getDimensions();
+        String candidateOrder = "binary".equals(quantization)
+            ? "binary_quantize(embedding)::bit(" + dims + ") <~> binary_quantize(?::vector)"
+            : "embedding::halfvec(" + dims + ") <=> ?::halfvec(" + dims + ")";
+        String sql = """
+            SELECT %s FROM (
+                SELECT id, content, metadata, embedding <=> ?::vector AS distance
+                FROM (
+                    SELECT id, content, metadata, embedding FROM %s
+                    ORDER BY %s
+                    LIMIT ?
+                ) candidates
+            ) rescored
+            WHERE distance <= ?
+            ORDER BY distance
+            LIMIT ?
+            """;
+        return gather(vectorIndexService.scatterWithSearchTuning(candidates, (shard, jdbc) -> {
+            if (!quantization.equals(vectorIndexService.activeQuantization(shard))
+                || (collection != null && !vectorIndexService.isCollectionIndexed(shard, collection))) {
+                return nearestOnShard(jdbc, shard, vector, topK, threshold, lazyTerms, collection);
+            }
+            String shardSql = sql.formatted(lazyTerms == null ? FULL_COLUMNS : LAZY_COLUMNS,
+                source(TABLE, collection, shard), candidateOrder);
+            return lazyTerms == null
+                ? jdbc.query(shardSql, documentRowMapper(), vector, vector, candidates, 1.0 - threshold, topK)
+                : jdbc.query(shardSql, lazyRowMapper(), lazyTerms, vector, vector, candidates, 1.0 - threshold, topK);
+        }), topK);
+    }
+
+    /**
+     * 维度迁移期间的检索：按迁移服务给出的表和模型向量化查询，表维度与当前配置不同，不能走 VectorStore
+     */
+    private List<Document> migrationSearch(String query, int topK, double threshold, String lazyTerms,
+                                           String collection) {
+        EmbeddingMigrationService.QueryTarget target = migrationService.queryTarget();
+        String vector = PgVectors.toVectorLiteral(target.model().embed(query));
+        // 迁移只在未分片时进行，影子表在主库
+        String sql = nearestSql(lazyTerms, source(target.table(), collection, 0));
+        return vectorIndexService.withSearchTuning(topK, () -> lazyTerms == null
+            ? jdbcTemplate.query(sql, documentRowMapper(), vector, vector, topK, 1.0 - threshold)
+            : jdbcTemplate.query(sql, lazyRowMapper(), lazyTerms, vector, vector, topK, 1.0 - threshold));
+    }
+
+    /**
+     * 召回率评估：随机抽取库内向量作为查询，对比精确检索（禁用索引）与当前检索路径的 topK 重合率
+     */
+    public Map<String, Object> measureRecall(int samples, int topK) {
+        String quantization = vectorIndexService.activeQuantization();
+        List<String> queries = jdbcTemplate.queryForList(
+            "SELECT embedding::text FROM " + TABLE + " ORDER BY random() LIMIT ?", String.class, samples);
+
+        double recallSum = 0;
+        long exactNanos = 0;
+        long approxNanos = 0;
+        for (String vector : queries) {
+            long t0 = System.nanoTime();
+            Set<String> exact = new HashSet<>(exactTopK(vector, topK));
+            long t1 = System.nanoTime();
+            List<String> approx = "none".equals(quantization)
+                ? vectorIndexService.withSearchTuning(topK, () -> jdbcTemplate.queryForList(
+                    "SELECT id::text FROM " + TABLE + " ORDER BY embedding <=> ?::vector LIMIT ?", String.class, vector, topK))
+                : quantizedSearch(vector, quantization, topK, -1.0, null, null).stream().map(Document::getId).toList();
+            long t2 = System.nanoTime();
+            exactNanos += t1 - t0;
+            approxNanos += t2 - t1;
+            if (!exact.isEmpty()) {
+                recallSum += (double) approx.stream().filter(exact::contains).count() / exact.size();
+            }
+        }
+
+        int n = Math.max(1, queries.size());
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("quantization", quantization);
+        result.put("samples", queries.size());
+        result.put("topK", topK);
+        result.put("recall", queries.isEmpty() ? 0.0 : Math.round(recallSum / n * 10000) / 10000.0);
+        result.put("avgExactMs", Math.round(exactNanos / 1e4 / n) / 100.0);
+        result.put("avgIndexedMs", Math.round(approxNanos / 1e4 / n) / 100.0);
+        log.info("召回率评估: {}", result);
+        return result;
+    }
+
+    private List<String> exactTopK(String vector, int topK) {
+        return exactTransaction.execute(status -> {
+            jdbcTemplate.execute("SET LOCAL enable_indexscan = off");
+            jdbcTemplate.execute("SET LOCAL enable_bitmapscan = off");
+            return jdbcTemplate.queryForList(
+                "SELECT id::text FROM " + TABLE + " ORDER BY embedding <=> ?::vector LIMIT ?", String.class, vector, topK);
+        });
+    }
+
+    private RowMapper<Document> documentRowMapper() {
+        return (rs, rowNum) -> {
+            Map<String, Object> metadata = PgVectors.parseMetadata(objectMapper, rs.getString("metadata"));
+            double distance = rs.getDouble("distance");
+            metadata.put("distance", distance);
+            return Document.builder()
+                .id(rs.getString("id"))
+                .text(rs.getString("content"))
+                .metadata(metadata)
+                .score(1.0 - distance)
+                .build();
+        };
+    }
+
+    private RowMapper<Document> lazyRowMapper() {
+        return (rs, rowNum) -> {
+            Map<String, Object> metadata = PgVectors.parseMetadata(objectMapper, rs.getString("metadata"));
+            double distance = rs.getDouble("distance");
+            metadata.put("distance", distance);
+            ChunkFeatures.read(rs, metadata);
+            return Document.builder()
+                .id(rs.getString("id"))
+                .text("")
+                .metadata(metadata)
+                .score(1.0 - distance)
+                .build();
+        };
+    }
+
+    /**
+     * 合并各分片的结果：按分数全局排序后截断 topK（未分片时结果已有序）
+     */
+    private List<Document> gather(List<Document> results, int topK) {
+        if (!vectorShards.sharded()) {
+            return results;
+        }
+        return results.stream()
+            .sorted(Comparator.comparing((Document doc) -> doc.getScore() == null ? 0.0 : doc.getScore()).reversed())
+            .limit(topK)
+            .toList();
+    }
+
+    /**
+     * 分片上检索的 FROM 来源：该分片上集合的部分索引已建好时直接带集合谓词走该索引
+     * 部分索引尚未建好（或查的是迁移影子表）时，整表 ANN 索引先取近邻再过滤会漏掉小集合的结果，
+     * 改为先按集合过滤再精确排序；OFFSET 0 阻止子查询被展开，规划器不会再选整表向量索引
+     */
+    private String source(String table, String collection, int shard) {
+        if (collection == null) {
+            return table;
+        }
+        String predicate = CollectionNames.predicate(collection);
+        if (TABLE.equals(table) && vectorIndexService.isCollectionIndexed(shard, collection)) {
+            return table + " WHERE " + predicate;
+        }
+        return "(SELECT * FROM " + table + " WHERE " + predicate + " OFFSET 0) scoped";
+    }
+}
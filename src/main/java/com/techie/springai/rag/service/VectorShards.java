@@ -0,0 +1,347 @@
+package com.techie.springai.rag.service;
+
+import com.zaxxer.hikari.HikariDataSource;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 向量分片 - vector_store 的分块按 documentId 哈希分布到主库（分片 0）与 rag.shards.urls 配置的额外 Postgres 实例
+ * 写入按文档路由到单个分片；检索并行扫所有分片后合并；按 id / documentId 的删除与更新广播到所有分片
+ * 读和删都不依赖分片归属，调整分片数后旧分块仍可检索与删除，只是新写入按新的分片数分布
+ * 文档目录、会话、近重复指纹等其余表只在主库
+ */
+@Service
+public class VectorShards {
+
+    private static final Logger log = LoggerFactory.getLogger(VectorShards.class);
+    private static final String TABLE = "vector_store";
+
+    private final JdbcTemplate primary;
+    private final List<JdbcTemplate> remotes = new ArrayList<>();
+    private final List<TransactionTemplate> remoteTransactions = new ArrayList<>();
+    private final List<TransactionTemplate> remoteSearchTransactions = new ArrayList<>();
+    private final List<HikariDataSource> dataSources = new ArrayList<>();
+    private final List<String> remoteUrls = new ArrayList<>();
+    private ExecutorService scatterPool;
+
+    @Value("${rag.shards.urls:}")
+    private String urls;
+
+    @Value("${rag.shards.username:${spring.datasource.username:}}")
+    private String username;
+
+    @Value("${rag.shards.password:${spring.datasource.password:}}")
+    private String password;
+
+    @Value("${rag.shards.pool-size:8}")
+    private int poolSize;
+
+    public VectorShards(JdbcTemplate jdbcTemplate) {
+        this.primary = jdbcTemplate;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (urls == null || urls.isBlank()) {
+            return;
+        }
+        for (String url : urls.split(",")) {
+            if (url.isBlank()) {
+                continue;
+            }
+            int shard = remotes.size() + 1;
+            HikariDataSource dataSource = DataSourceBuilder.create()
+                .type(HikariDataSource.class)
+                .url(url.trim())
+                .username(username)
+                .password(password)
+                .build();
+            dataSource.setPoolName("vector-shard-" + shard);
+            dataSource.setMaximumPoolSize(poolSize);
+            dataSources.add(dataSource);
+            remotes.add(new JdbcTemplate(dataSource));
+            DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+            remoteTransactions.add(new TransactionTemplate(transactionManager));
+            TransactionTemplate searchTransaction = new TransactionTemplate(transactionManager);
+            searchTransaction.setReadOnly(true);
+            remoteSearchTransactions.add(searchTransaction);
+            remoteUrls.add(url.trim());
+        }
+        AtomicInteger seq = new AtomicInteger();
+        scatterPool = Executors.newFixedThreadPool(Math.max(2, remotes.size() * 4), r -> {
+            Thread t = new Thread(r, "vector-shard-scatter-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        log.info("向量分片已启用: 主库 + {} 个分片 {}", remotes.size(), remoteUrls);
+    }
+
+    public boolean sharded() {
+        return !remotes.isEmpty();
+    }
+
+    public int count() {
+        return remotes.size() + 1;
+    }
+
+    /**
+     * 文档所在分片：documentId 的 String.hashCode 取模（算法固定，跨进程稳定）
+     */
+    public int shardOf(String documentId) {
+        return Math.floorMod(Objects.toString(documentId, "").hashCode(), count());
+    }
+
+    public JdbcTemplate jdbc(int shard) {
+        return shard == 0 ? primary : remotes.get(shard - 1);
+    }
+
+    List<JdbcTemplate> remotes() {
+        return remotes;
+    }
+
+    /**
+     * 在额外分片自己的本地事务内执行（主库由调用方的事务管理）
+     */
+    public void inRemoteTransaction(int shard, Consumer<JdbcTemplate> work) {
+        if (shard <= 0) {
+            throw new IllegalArgumentException("主库分片由调用方事务管理: shard=" + shard);
+        }
+        JdbcTemplate jdbc = remotes.get(shard - 1);
+        remoteTransactions.get(shard - 1).executeWithoutResult(tx -> work.accept(jdbc));
+    }
+
+    /**
+     * 在额外分片的只读事务内先执行 settings（SET LOCAL 检索参数）再检索，参数只对本次检索生效
+     */
+    public <T> T searchRemote(int shard, List<String> settings, Function<JdbcTemplate, T> search) {
+        JdbcTemplate jdbc = remotes.get(shard - 1);
+        if (settings.isEmpty()) {
+            return search.apply(jdbc);
+        }
+        return remoteSearchTransactions.get(shard - 1).execute(tx -> {
+            settings.forEach(jdbc::execute);
+            return search.apply(jdbc);
+        });
+    }
+
+    /**
+     * 在所有分片上并行执行并拼接结果；主库部分在调用线程执行，以便沿用调用方事务（如 SET LOCAL 检索参数）
+     */
+    public <T> List<T> scatter(Function<JdbcTemplate, List<T>> work) {
+        return scatterShards((shard, jdbc) -> work.apply(jdbc));
+    }
+
+    /**
+     * 与 scatter 相同，work 额外拿到分片序号（0 为主库），用于按各分片自己的索引状态生成 SQL
+     */
+    public <T> List<T> scatterShards(BiFunction<Integer, JdbcTemplate, List<T>> work) {
+        if (!sharded()) {
+            return work.apply(0, primary);
+        }
+        List<Future<List<T>>> futures = new ArrayList<>(remotes.size());
+        for (int i = 0; i < remotes.size(); i++) {
+            int shard = i + 1;
+            JdbcTemplate remote = remotes.get(i);
+            futures.add(scatterPool.submit(() -> work.apply(shard, remote)));
+        }
+        List<T> results = new ArrayList<>(work.apply(0, primary));
+        try {
+            for (Future<List<T>> future : futures) {
+                results.addAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("分片检索被中断", e);
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IllegalStateException("分片检索失败", e.getCause());
+        }
+        return results;
+    }
+
+    /**
+     * 依次在所有分片上执行查询，行回调按分片顺序调用
+     */
+    public void queryAll(String sql, RowCallbackHandler handler, Object... args) {
+        primary.query(sql, handler, args);
+        for (JdbcTemplate remote : remotes) {
+            remote.query(sql, handler, args);
+        }
+    }
+
+    /**
+     * 与 queryAll 相同，但按 fetchSize 分批从游标读取，不把整个结果集读进内存（用于导出等大查询）
+     * pgjdbc 只有在事务内才使用游标：在只读事务中执行，结束后恢复连接原来的 autocommit / readOnly
+     */
+    public void streamAll(String sql, int fetchSize, RowCallbackHandler handler, Object... args) {
+        stream(primary, sql, fetchSize, handler, args);
+        for (JdbcTemplate remote : remotes) {
+            stream(remote, sql, fetchSize, handler, args);
+        }
+    }
+
+    private static void stream(JdbcTemplate jdbc, String sql, int fetchSize, RowCallbackHandler handler, Object... args) {
+        jdbc.execute((ConnectionCallback<Void>) con -> {
+            boolean autoCommit = con.getAutoCommit();
+            boolean readOnly = con.isReadOnly();
+            con.setReadOnly(true);
+            con.setAutoCommit(false);
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                ps.setFetchSize(Math.max(1, fetchSize));
+                for (int i = 0; i < args.length; i++) {
+                    ps.setObject(i + 1, args[i]);
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        handler.processRow(rs);
+                    }
+                }
+                con.commit();
+            } catch (SQLException | RuntimeException e) {
+                con.rollback();
+                throw e;
+            } finally {
+                con.setAutoCommit(autoCommit);
+                con.setReadOnly(readOnly);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 在额外分片上执行更新（主库部分由调用方在自己的事务内执行），返回影响行数之和
+     */
+    public int updateRemotes(String sql, Object... args) {
+        int rows = 0;
+        for (JdbcTemplate remote : remotes) {
+            rows += remote.update(sql, args);
+        }
+        return rows;
+    }
+
+    /**
+     * 调用方主库事务提交后再在额外分片上执行更新，主库回滚时分片上不会留下已生效的改动；没有活动事务时立即执行
+     * 提交后执行失败只记录日志：主库已提交无法回滚，分片上的 metadata 以下次更新为准
+     */
+    public void updateRemotesAfterCommit(String sql, Object... args) {
+        if (!sharded()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            updateRemotes(sql, args);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                try {
+                    updateRemotes(sql, args);
+                } catch (RuntimeException e) {
+                    log.error("主库提交后更新分片失败: sql={}, error={}", sql, e.getMessage(), e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 额外分片上属于该文档的分块 id
+     */
+    public List<String> remoteChunkIds(String documentId) {
+        List<String> ids = new ArrayList<>();
+        for (JdbcTemplate remote : remotes) {
+            ids.addAll(remote.queryForList("SELECT id::text FROM " + TABLE + " WHERE metadata->>'documentId' = ?",
+                String.class, documentId));
+        }
+        return ids;
+    }
+
+    /**
+     * 删除额外分片上该文档的分块；keep 中的 id 保留（用于重新切分失败时只回收新写入的分块）
+     */
+    public int deleteRemoteDocument(String documentId, Collection<String> keep) {
+        if (keep.isEmpty()) {
+            return updateRemotes("DELETE FROM " + TABLE + " WHERE metadata->>'documentId' = ?", documentId);
+        }
+        return updateRemotes("DELETE FROM " + TABLE + " WHERE metadata->>'documentId' = ? "
+            + "AND id <> ALL(CAST(string_to_array(?, ',') AS uuid[]))", documentId, String.join(",", keep));
+    }
+
+    /**
+     * 删除额外分片上仍属于该文档的指定分块（近重复转交给其他文档的分块 documentId 已改写，不会被删除）
+     */
+    public int deleteRemoteChunks(String documentId, Collection<String> ids) {
+        int rows = 0;
+        for (JdbcTemplate remote : remotes) {
+            rows += deleteChunks(remote, documentId, ids);
+        }
+        return rows;
+    }
+
+    /**
+     * 在指定分片上删除仍属于该文档的指定分块，供调用方放进该分片的本地事务
+     */
+    public int deleteChunks(JdbcTemplate jdbc, String documentId, Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        return jdbc.update("DELETE FROM " + TABLE + " WHERE metadata->>'documentId' = ? "
+            + "AND id = ANY(CAST(string_to_array(?, ',') AS uuid[]))", documentId, String.join(",", ids));
+    }
+
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("sharded", sharded());
+        status.put("shards", count());
+        List<Map<String, Object>> shards = new ArrayList<>();
+        for (int i = 0; i < count(); i++) {
+            Map<String, Object> shard = new LinkedHashMap<>();
+            shard.put("shard", i);
+            shard.put("url", i == 0 ? "primary" : remoteUrls.get(i - 1));
+            try {
+                shard.put("chunks", jdbc(i).queryForObject("SELECT COUNT(*) FROM " + TABLE, Long.class));
+            } catch (Exception e) {
+                shard.put("error", e.getMessage());
+            }
+            shards.add(shard);
+        }
+        status.put("details", shards);
+        return status;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scatterPool != null) {
+            scatterPool.shutdownNow();
+        }
+        dataSources.forEach(HikariDataSource::close);
+    }
+}
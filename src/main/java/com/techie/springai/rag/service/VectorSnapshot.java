@@ -0,0 +1,478 @@
+package com.techie.springai.rag.service;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * 向量快照文件 - 分块 id、归一化向量与正文/metadata 存在一个只读文件中，打开时只做内存映射，不加载到堆
+ * 检索为精确暴力扫描：按块从映射区取向量，用 Vector API 计算点积（模块不可用时退化为标量循环），大集合按核数分段并行
+ * 不依赖 Spring 与数据库，可直接用 Writer 生成快照后离线检索
+ *
+ * 文件布局（小端）：
+ * 128 字节头（含导出时的语料水位）| 分块 id（每个 16 字节 UUID）| 正文偏移表（count + 1 个 long）| 填充到 64 字节对齐 | 向量（count × dims 个 float）| 正文区
+ * 正文区每个分块为 [int 正文字节数][正文 UTF-8][int metadata 字节数][metadata JSON UTF-8]
+ */
+final class VectorSnapshot implements Closeable {
+
+    static final boolean SIMD = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    private static final long MAGIC = 0x52414753_4E415031L;
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 128;
+    private static final int BLOCK = 64;
+    static final long SEGMENT_BYTES = 1L << 30;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final int dims;
+    private final int count;
+    private final Instant createdAt;
+    private final Watermark watermark;
+    private final ByteBuffer ids;
+    private final ByteBuffer payloadIndex;
+    private final FloatBuffer[] segments;
+    private final int vectorsPerSegment;
+    private final long payloadOffset;
+
+    private VectorSnapshot(Path path, FileChannel channel, long segmentBytes) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getLong(0) != MAGIC || header.getInt(8) != VERSION) {
+            throw new IOException("不是有效的向量快照文件: " + path);
+        }
+        this.dims = header.getInt(12);
+        this.count = header.getInt(16);
+        this.createdAt = Instant.ofEpochMilli(header.getLong(24));
+        long idsOffset = header.getLong(32);
+        long indexOffset = header.getLong(40);
+        long vectorsOffset = header.getLong(48);
+        this.payloadOffset = header.getLong(56);
+        this.watermark = new Watermark(header.getLong(64), header.getLong(72));
+
+        this.ids = channel.map(FileChannel.MapMode.READ_ONLY, idsOffset, (long) count * 16);
+        this.payloadIndex = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, (long) (count + 1) * 8)
+            .order(ByteOrder.LITTLE_ENDIAN);
+
+        // 单个映射不能超过 2GB：向量区按段映射，段边界对齐到整向量
+        this.vectorsPerSegment = vectorsPerSegment(dims, segmentBytes);
+        int segmentCount = count == 0 ? 0 : (count + vectorsPerSegment - 1) / vectorsPerSegment;
+        this.segments = new FloatBuffer[segmentCount];
+        for (int s = 0; s < segmentCount; s++) {
+            int vectors = Math.min(vectorsPerSegment, count - s * vectorsPerSegment);
+            segments[s] = channel.map(FileChannel.MapMode.READ_ONLY,
+                    segmentOffset(vectorsOffset, s, vectorsPerSegment, dims), (long) vectors * dims * 4)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .asFloatBuffer();
+        }
+    }
+
+    static VectorSnapshot open(Path path) throws IOException {
+        return open(path, SEGMENT_BYTES);
+    }
+
+    /**
+     * segmentBytes 只影响向量区的分段映射（测试用小分段覆盖跨段扫描），文件格式不变
+     */
+    static VectorSnapshot open(Path path, long segmentBytes) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new VectorSnapshot(path, channel, segmentBytes);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 创建写入端；commit 前写入同目录的临时文件，失败时 close 删除，不会留下半截快照
+     */
+    static Writer create(Path target, int dims, Watermark watermark) throws IOException {
+        return new Writer(target, dims, watermark);
+    }
+
+    /**
+     * 每段容纳的整向量数，单段字节数不超过 segmentBytes（至少 1 个向量）
+     */
+    static int vectorsPerSegment(int dims, long segmentBytes) {
+        return (int) Math.max(1, segmentBytes / ((long) dims * 4));
+    }
+
+    /**
+     * 第 segment 段在文件中的起始偏移；全程 long 运算，超过 2GB 的文件不会溢出
+     */
+    static long segmentOffset(long vectorsOffset, int segment, int vectorsPerSegment, int dims) {
+        return vectorsOffset + (long) segment * vectorsPerSegment * dims * 4;
+    }
+
+    Path path() {
+        return path;
+    }
+
+    int dims() {
+        return dims;
+    }
+
+    int count() {
+        return count;
+    }
+
+    Instant createdAt() {
+        return createdAt;
+    }
+
+    Watermark watermark() {
+        return watermark;
+    }
+
+    long sizeBytes() {
+        try {
+            return channel.size();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 精确 topK：分数 = 余弦相似度，低于 threshold 的不返回；向量数达到 parallelThreshold 且给出线程池时分段并行扫描
+     */
+    List<Hit> search(float[] query, int topK, double threshold, ExecutorService pool, int parallelism,
+                     int parallelThreshold) {
+        if (query.length != dims) {
+            throw new IllegalArgumentException("查询向量维度不一致: expected=" + dims + ", actual=" + query.length);
+        }
+        if (topK <= 0 || count == 0) {
+            return List.of();
+        }
+        float[] normalized = HnswIndex.normalize(query);
+        float floor = (float) threshold;
+        if (pool == null || parallelism <= 1 || count < parallelThreshold) {
+            return scan(normalized, 0, count, topK, floor).sorted();
+        }
+
+        int ranges = Math.min(parallelism, (count + BLOCK - 1) / BLOCK);
+        int step = (count + ranges - 1) / ranges;
+        List<Future<TopK>> futures = new ArrayList<>(ranges);
+        for (int from = 0; from < count; from += step) {
+            int start = from;
+            int end = Math.min(count, from + step);
+            futures.add(pool.submit(() -> scan(normalized, start, end, topK, floor)));
+        }
+        TopK merged = new TopK(topK);
+        try {
+            for (Future<TopK> future : futures) {
+                future.get().drainInto(merged);
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("快照检索被中断", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("快照检索失败", e.getCause());
+        }
+        return merged.sorted();
+    }
+
+    String id(int index) {
+        return new UUID(ids.getLong(index * 16), ids.getLong(index * 16 + 8)).toString();
+    }
+
+    /**
+     * 读取单个分块的正文与 metadata JSON；只对最终命中的分块调用，走定位读取，不映射正文区
+     */
+    Payload payload(int index) {
+        long start = payloadIndex.getLong(index * 8);
+        long end = payloadIndex.getLong((index + 1) * 8);
+        ByteBuffer buffer = ByteBuffer.allocate((int) (end - start)).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            long position = payloadOffset + start;
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position + buffer.position());
+                if (read < 0) {
+                    throw new IOException("快照文件被截断: " + path);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("读取快照正文失败: " + path, e);
+        }
+        buffer.flip();
+        String content = readString(buffer);
+        String metadata = readString(buffer);
+        return new Payload(content, metadata);
+    }
+
+    @Override
+    public void close() throws IOException {
+        // 映射区在不再被引用后由 GC 释放；关闭通道不影响进行中的检索
+        channel.close();
+    }
+
+    private TopK scan(float[] query, int from, int to, int topK, float floor) {
+        TopK top = new TopK(topK);
+        float[] block = new float[BLOCK * dims];
+        int i = from;
+        while (i < to) {
+            int segment = i / vectorsPerSegment;
+            int local = i - segment * vectorsPerSegment;
+            int n = Math.min(BLOCK, Math.min(to - i, vectorsPerSegment - local));
+            segments[segment].get(local * dims, block, 0, n * dims);
+            for (int v = 0; v < n; v++) {
+                float score = SIMD ? SimdCosine.dot(query, block, v * dims) : scalarDot(query, block, v * dims);
+                if (score >= floor) {
+                    top.offer(i + v, score);
+                }
+            }
+            i += n;
+        }
+        return top;
+    }
+
+    private static float scalarDot(float[] query, float[] block, int offset) {
+        float sum = 0;
+        for (int i = 0; i < query.length; i++) {
+            sum += query[i] * block[offset + i];
+        }
+        return sum;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    record Hit(int index, float score) {}
+
+    record Payload(String content, String metadata) {}
+
+    /**
+     * 导出时的语料水位：集合内文档最新登记时间（epoch 毫秒）与分块总数，启动时与目录比对判断快照是否过期
+     */
+    record Watermark(long latestCreatedAt, long chunks) {}
+
+    /**
+     * 固定容量的最小堆，堆顶为当前第 k 名
+     */
+    private static final class TopK {
+
+        private final int capacity;
+        private final int[] nodes;
+        private final float[] scores;
+        private int size;
+
+        TopK(int capacity) {
+            this.capacity = capacity;
+            this.nodes = new int[capacity];
+            this.scores = new float[capacity];
+        }
+
+        void offer(int node, float score) {
+            if (size < capacity) {
+                int i = size++;
+                while (i > 0) {
+                    int parent = (i - 1) >>> 1;
+                    if (scores[parent] <= score) {
+                        break;
+                    }
+                    nodes[i] = nodes[parent];
+                    scores[i] = scores[parent];
+                    i = parent;
+                }
+                nodes[i] = node;
+                scores[i] = score;
+                return;
+            }
+            if (score <= scores[0]) {
+                return;
+            }
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && scores[child + 1] < scores[child]) {
+                    child++;
+                }
+                if (scores[child] >= score) {
+                    break;
+                }
+                nodes[i] = nodes[child];
+                scores[i] = scores[child];
+                i = child;
+            }
+            nodes[i] = node;
+            scores[i] = score;
+        }
+
+        void drainInto(TopK other) {
+            for (int i = 0; i < size; i++) {
+                other.offer(nodes[i], scores[i]);
+            }
+        }
+
+        List<Hit> sorted() {
+            List<Hit> hits = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                hits.add(new Hit(nodes[i], scores[i]));
+            }
+            hits.sort((a, b) -> Float.compare(b.score(), a.score()));
+            return hits;
+        }
+    }
+
+    /**
+     * 快照写入端：向量与正文先顺序写入临时文件，commit 时拼装成最终文件并原子替换
+     */
+    static final class Writer implements Closeable {
+
+        private final Path target;
+        private final int dims;
+        private final Watermark watermark;
+        private final Path vectorsTmp;
+        private final Path payloadTmp;
+        private final Path assembledTmp;
+        private final OutputStream vectors;
+        private final OutputStream payload;
+        private final ByteBuffer vectorBuffer;
+        private ByteBuffer idBuffer = ByteBuffer.allocate(16 * 1024);
+        private long[] offsets = new long[1024];
+        private int count;
+        private long payloadBytes;
+        private boolean closed;
+
+        private Writer(Path target, int dims, Watermark watermark) throws IOException {
+            this.target = target;
+            this.dims = dims;
+            this.watermark = watermark;
+            Files.createDirectories(target.toAbsolutePath().getParent());
+            this.vectorsTmp = target.resolveSibling(target.getFileName() + ".vectors.tmp");
+            this.payloadTmp = target.resolveSibling(target.getFileName() + ".payload.tmp");
+            this.assembledTmp = target.resolveSibling(target.getFileName() + ".tmp");
+            this.vectors = new BufferedOutputStream(Files.newOutputStream(vectorsTmp), 1 << 16);
+            this.payload = new BufferedOutputStream(Files.newOutputStream(payloadTmp), 1 << 16);
+            this.vectorBuffer = ByteBuffer.allocate(dims * 4).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        /**
+         * id 须为 UUID；向量写入前归一化
+         */
+        void add(String id, float[] embedding, String content, String metadataJson) throws IOException {
+            if (embedding.length != dims) {
+                throw new IllegalArgumentException("向量维度不一致: expected=" + dims + ", actual=" + embedding.length);
+            }
+            UUID uuid = UUID.fromString(id);
+            if (idBuffer.remaining() < 16) {
+                idBuffer = ByteBuffer.allocate(idBuffer.capacity() * 2).put(idBuffer.flip());
+            }
+            idBuffer.putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits());
+
+            vectorBuffer.clear();
+            for (float v : HnswIndex.normalize(embedding)) {
+                vectorBuffer.putFloat(v);
+            }
+            vectors.write(vectorBuffer.array());
+
+            byte[] text = (content == null ? "" : content).getBytes(StandardCharsets.UTF_8);
+            byte[] metadata = (metadataJson == null ? "{}" : metadataJson).getBytes(StandardCharsets.UTF_8);
+            ByteBuffer record = ByteBuffer.allocate(8 + text.length + metadata.length).order(ByteOrder.LITTLE_ENDIAN);
+            record.putInt(text.length).put(text).putInt(metadata.length).put(metadata);
+            payload.write(record.array());
+
+            if (count + 2 > offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            offsets[count] = payloadBytes;
+            payloadBytes += record.capacity();
+            count++;
+            offsets[count] = payloadBytes;
+        }
+
+        int count() {
+            return count;
+        }
+
+        void commit() throws IOException {
+            vectors.close();
+            payload.close();
+            long idsOffset = HEADER_BYTES;
+            long indexOffset = idsOffset + (long) count * 16;
+            long vectorsOffset = align(indexOffset + (long) (count + 1) * 8);
+            long payloadOffset = vectorsOffset + (long) count * dims * 4;
+
+            try (FileChannel out = FileChannel.open(assembledTmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                header.putLong(MAGIC).putInt(VERSION).putInt(dims).putInt(count).putInt(0)
+                    .putLong(System.currentTimeMillis())
+                    .putLong(idsOffset).putLong(indexOffset).putLong(vectorsOffset).putLong(payloadOffset)
+                    .putLong(watermark.latestCreatedAt()).putLong(watermark.chunks());
+                header.clear();
+                writeFully(out, header, 0);
+                writeFully(out, idBuffer.flip(), idsOffset);
+                ByteBuffer index = ByteBuffer.allocate((count + 1) * 8).order(ByteOrder.LITTLE_ENDIAN);
+                for (int i = 0; i <= count; i++) {
+                    index.putLong(offsets[i]);
+                }
+                writeFully(out, index.flip(), indexOffset);
+                transfer(vectorsTmp, out, vectorsOffset);
+                transfer(payloadTmp, out, payloadOffset);
+                out.force(true);
+            }
+            Files.move(assembledTmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            closed = true;
+            Files.deleteIfExists(vectorsTmp);
+            Files.deleteIfExists(payloadTmp);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            vectors.close();
+            payload.close();
+            Files.deleteIfExists(vectorsTmp);
+            Files.deleteIfExists(payloadTmp);
+            Files.deleteIfExists(assembledTmp);
+        }
+
+        private static long align(long offset) {
+            return (offset + 63) & ~63L;
+        }
+
+        private static void writeFully(FileChannel out, ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                position += out.write(buffer, position);
+            }
+        }
+
+        private static void transfer(Path source, FileChannel out, long position) throws IOException {
+            try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+                long size = in.size();
+                long done = 0;
+                while (done < size) {
+                    done += in.transferTo(done, size - done, out.position(position + done));
+                }
+            }
+        }
+    }
+}
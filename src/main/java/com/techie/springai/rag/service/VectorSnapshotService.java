@@ -0,0 +1,367 @@
+package com.techie.springai.rag.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 集合向量快照 - 选定集合导出为内存映射快照文件，限定这些集合的检索在本地做精确暴力扫描（无近似误差）
+ * 启动时只映射已有快照文件，毫秒级即可服务；集合内容变更后快照标记过期并在后台重新导出，过期期间回退 pgvector
+ * 快照文件名带导出时间戳，新快照写完再切换，旧文件在切换后删除（仍被映射时删除失败则留待下次启动清理）
+ * 快照头记录导出时的语料水位（目录最新登记时间 + 分块总数），启动时与目录不一致说明停机期间有变更，重新导出
+ * 导出在只读事务内按 fetch-size 分批读取游标，不把整个集合读进内存
+ */
+@Service
+public class VectorSnapshotService {
+
+    private static final Logger log = LoggerFactory.getLogger(VectorSnapshotService.class);
+    private static final String TABLE = "vector_store";
+    private static final String CATALOG_TABLE = "document_catalog";
+    private static final String SUFFIX = ".snap";
+
+    private final VectorStoreSchemaService schemaService;
+    private final ObjectMapper objectMapper;
+    private final VectorShards vectorShards;
+    private final ExecutorService exporter = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "vector-snapshot-export");
+        t.setDaemon(true);
+        return t;
+    });
+    private ExecutorService scanPool;
+    private int parallelism;
+
+    private final Map<String, VectorSnapshot> snapshots = new ConcurrentHashMap<>();
+    private final Set<String> stale = ConcurrentHashMap.newKeySet();
+    private final Set<String> exporting = new HashSet<>();
+    private final Set<String> rerun = new HashSet<>();
+    private final Map<String, String> failures = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+    private final LongAdder searchNanos = new LongAdder();
+
+    @Value("${rag.snapshot.enabled:false}")
+    private boolean enabled;
+
+    @Value("${rag.snapshot.collections:}")
+    private String collections;
+
+    @Value("${rag.snapshot.dir:uploads/snapshots}")
+    private String snapshotDir;
+
+    @Value("${rag.snapshot.parallel-threshold:20000}")
+    private int parallelThreshold;
+
+    @Value("${rag.snapshot.threads:0}")
+    private int threads;
+
+    @Value("${rag.snapshot.refresh-on-change:true}")
+    private boolean refreshOnChange;
+
+    @Value("${rag.snapshot.fetch-size:1000}")
+    private int fetchSize;
+
+    public VectorSnapshotService(VectorStoreSchemaService schemaService, ObjectMapper objectMapper,
+                                 VectorShards vectorShards) {
+        this.schemaService = schemaService;
+        this.objectMapper = objectMapper;
+        this.vectorShards = vectorShards;
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        if (!enabled) {
+            return;
+        }
+        parallelism = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger seq = new AtomicInteger();
+        scanPool = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "vector-snapshot-scan-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        log.info("向量快照检索: SIMD={}, 并行线程={}", VectorSnapshot.SIMD ? SimdCosine.lanes() + " 路" : "不可用（标量）",
+            parallelism);
+
+        boolean migrationPending = schemaService.getPendingMigration().isPresent();
+        for (String collection : snapshotCollections()) {
+            Optional<Path> latest = latestFile(collection);
+            if (latest.isPresent()) {
+                try {
+                    long start = System.nanoTime();
+                    VectorSnapshot snapshot = VectorSnapshot.open(latest.get());
+                    VectorSnapshot.Watermark current = watermark(collection);
+                    if (snapshot.watermark().equals(current)) {
+                        install(collection, snapshot);
+                        log.info("已映射向量快照: collection={}, vectors={}, 耗时 {}ms", collection,
+                            snapshot.count(), (System.nanoTime() - start) / 1_000_000);
+                        continue;
+                    }
+                    snapshot.close();
+                    log.info("向量快照已过期，重新导出: collection={}, snapshot={}, catalog={}", collection,
+                        snapshot.watermark(), current);
+                } catch (IOException | RuntimeException e) {
+                    log.warn("向量快照无法打开，重新导出: {}, error={}", latest.get(), e.getMessage());
+                }
+            }
+            if (!migrationPending) {
+                export(collection);
+            }
+        }
+    }
+
+    /**
+     * 在快照上精确检索；集合没有可用快照、快照已过期或维度不符时返回 empty，由调用方回退
+     */
+    public Optional<List<Document>> search(String collection, float[] embedding, int topK, double threshold) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        VectorSnapshot snapshot = snapshots.get(collection);
+        if (snapshot == null || stale.contains(collection) || snapshot.dims() != embedding.length) {
+            fallbacks.increment();
+            if (snapshot != null && snapshot.dims() != embedding.length
+                && embedding.length == schemaService.getDimensions() && stale.add(collection)) {
+                // 维度迁移切换后快照已过期
+                export(collection);
+            }
+            return Optional.empty();
+        }
+
+        long start = System.nanoTime();
+        try {
+            List<VectorSnapshot.Hit> found = snapshot.search(embedding, topK, threshold, scanPool, parallelism,
+                parallelThreshold);
+            List<Document> results = new ArrayList<>(found.size());
+            for (VectorSnapshot.Hit hit : found) {
+                VectorSnapshot.Payload payload = snapshot.payload(hit.index());
+                Map<String, Object> metadata = PgVectors.parseMetadata(objectMapper, payload.metadata());
+                metadata.put("distance", 1.0 - hit.score());
+                results.add(Document.builder()
+                    .id(snapshot.id(hit.index()))
+                    .text(payload.content())
+                    .metadata(metadata)
+                    .score((double) hit.score())
+                    .build());
+            }
+            searchNanos.add(System.nanoTime() - start);
+            hits.increment();
+            return Optional.of(results);
+        } catch (IllegalStateException e) {
+            // 检索期间快照被替换并关闭
+            log.debug("快照检索失败，回退: collection={}, error={}", collection, e.getMessage());
+            fallbacks.increment();
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * 文档导入、重新切分或删除后调用：该集合的快照标记过期，按配置后台重新导出
+     */
+    public void onDocumentChanged(DocumentCatalogService.CatalogEntry entry) {
+        if (!enabled) {
+            return;
+        }
+        String collection = CollectionNames.normalize(entry.collection());
+        if (!snapshots.containsKey(collection) && !snapshotCollections().contains(collection)) {
+            return;
+        }
+        stale.add(collection);
+        if (refreshOnChange) {
+            export(collection);
+        }
+    }
+
+    /**
+     * 后台导出集合快照；已在导出中时记下重跑，当前导出完成后再导出一次，返回是否新开始了导出
+     */
+    public boolean export(String collection) {
+        String name = CollectionNames.normalize(collection);
+        if (!enabled) {
+            return false;
+        }
+        synchronized (exporting) {
+            if (!exporting.add(name)) {
+                rerun.add(name);
+                return false;
+            }
+        }
+        failures.remove(name);
+        exporter.execute(() -> runExport(name));
+        return true;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long searches = hits.sum();
+        stats.put("enabled", enabled);
+        stats.put("configured", snapshotCollections());
+        stats.put("simd", VectorSnapshot.SIMD);
+        stats.put("parallelism", parallelism);
+        stats.put("hits", searches);
+        stats.put("fallbacks", fallbacks.sum());
+        stats.put("avgSearchMicros", searches == 0 ? 0.0 : Math.round(searchNanos.sum() / 10.0 / searches) / 100.0);
+
+        Set<String> names = new TreeSet<>(snapshots.keySet());
+        synchronized (exporting) {
+            names.addAll(exporting);
+        }
+        names.addAll(failures.keySet());
+        Map<String, Object> perCollection = new LinkedHashMap<>();
+        for (String name : names) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            VectorSnapshot snapshot = snapshots.get(name);
+            boolean running;
+            synchronized (exporting) {
+                running = exporting.contains(name);
+            }
+            entry.put("state", stale.contains(name) || snapshot == null
+                ? (running ? "EXPORTING" : failures.containsKey(name) ? "FAILED" : "STALE")
+                : "READY");
+            if (snapshot != null) {
+                entry.put("vectors", snapshot.count());
+                entry.put("dimensions", snapshot.dims());
+                entry.put("sizeMb", Math.round(snapshot.sizeBytes() / 1024.0 / 1024.0 * 10) / 10.0);
+                entry.put("createdAt", snapshot.createdAt().toString());
+                entry.put("file", snapshot.path().toString());
+            }
+            if (failures.containsKey(name)) {
+                entry.put("error", failures.get(name));
+            }
+            perCollection.put(name, entry);
+        }
+        stats.put("collections", perCollection);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        exporter.shutdownNow();
+        if (scanPool != null) {
+            scanPool.shutdownNow();
+        }
+    }
+
+    private void runExport(String collection) {
+        while (true) {
+            try {
+                long start = System.nanoTime();
+                VectorSnapshot snapshot = writeSnapshot(collection);
+                install(collection, snapshot);
+                log.info("向量快照已导出: collection={}, vectors={}, 大小 {}MB, 耗时 {}ms", collection, snapshot.count(),
+                    snapshot.sizeBytes() / (1024 * 1024), (System.nanoTime() - start) / 1_000_000);
+            } catch (Exception e) {
+                failures.put(collection, e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage());
+                log.warn("向量快照导出失败，检索回退 pgvector: collection={}, error={}", collection, e.getMessage());
+            }
+            synchronized (exporting) {
+                if (!rerun.remove(collection)) {
+                    exporting.remove(collection);
+                    if (!failures.containsKey(collection)) {
+                        stale.remove(collection);
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 水位在导出查询之前读取：导出期间的新变更只会让水位落后，下次启动时判为过期重新导出，不会漏判
+     */
+    private VectorSnapshot writeSnapshot(String collection) throws IOException {
+        Path target = Paths.get(snapshotDir, collection + "-" + System.currentTimeMillis() + SUFFIX);
+        VectorSnapshot.Watermark watermark = watermark(collection);
+        try (VectorSnapshot.Writer writer = VectorSnapshot.create(target, schemaService.getDimensions(), watermark)) {
+            vectorShards.streamAll("SELECT id::text AS id, content, metadata::text AS metadata, embedding::text AS embedding FROM "
+                    + TABLE + " WHERE " + CollectionNames.predicate(collection), fetchSize,
+                rs -> {
+                    try {
+                        writer.add(rs.getString("id"), PgVectors.parseVector(rs.getString("embedding")), rs.getString("content"),
+                            rs.getString("metadata"));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            writer.commit();
+        }
+        return VectorSnapshot.open(target);
+    }
+
+    private VectorSnapshot.Watermark watermark(String collection) {
+        return vectorShards.jdbc(0).queryForObject(
+            "SELECT COALESCE((EXTRACT(EPOCH FROM MAX(created_at)) * 1000)::bigint, 0) AS latest, "
+                + "COALESCE(SUM(chunk_count), 0)::bigint AS chunks FROM " + CATALOG_TABLE + " WHERE collection = ?",
+            (rs, rowNum) -> new VectorSnapshot.Watermark(rs.getLong("latest"), rs.getLong("chunks")), collection);
+    }
+
+    private void install(String collection, VectorSnapshot snapshot) {
+        VectorSnapshot previous = snapshots.put(collection, snapshot);
+        if (previous != null) {
+            try {
+                previous.close();
+            } catch (IOException e) {
+                log.debug("关闭旧快照失败: {}", previous.path(), e);
+            }
+        }
+        // 清理同集合的旧快照文件
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(snapshotDir), collection + "-*" + SUFFIX)) {
+            for (Path file : files) {
+                if (!file.equals(snapshot.path())) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            log.debug("清理旧快照文件失败: collection={}", collection, e);
+        }
+    }
+
+    private Optional<Path> latestFile(String collection) {
+        Path dir = Paths.get(snapshotDir);
+        if (!Files.isDirectory(dir)) {
+            return Optional.empty();
+        }
+        List<Path> candidates = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, collection + "-*" + SUFFIX)) {
+            files.forEach(candidates::add);
+        } catch (IOException e) {
+            log.warn("读取快照目录失败: {}", dir, e);
+        }
+        // 文件名中的时间戳等长，按名称排序即按导出时间排序
+        return candidates.stream().max(Comparator.comparing(p -> p.getFileName().toString()));
+    }
+
+    private List<String> snapshotCollections() {
+        if (collections == null || collections.isBlank()) {
+            return List.of();
+        }
+        return Arrays.stream(collections.split(","))
+            .map(String::trim)
+            .filter(s -> !s.isEmpty())
+            .map(CollectionNames::normalize)
+            .distinct()
+            .toList();
+    }
+}
@@ -7,6 +7,8 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 
+import java.util.Optional;
+
 @Service
 public class VectorStoreSchemaService {
 
@@ -17,12 +19,116 @@ public class VectorStoreSchemaService {
     @Value("${rag.embedding.dimensions:768}")
     private int expectedDimensions;
 
+    @Value("${rag.index.quantization:none}")
+    private String quantization;
+
+    @Value("${spring.ai.ollama.embedding.options.model:nomic-embed-text}")
+    private String embeddingModel;
+
+    @Value("${rag.embedding.migration.enabled:true}")
+    private boolean migrationEnabled;
+
+    @Value("${rag.embedding.migration.source-model:}")
+    private String configuredSourceModel;
+
+    private volatile boolean quantizationSupported = false;
+    private volatile DimensionMismatch pendingMigration;
+
     public VectorStoreSchemaService(JdbcTemplate jdbcTemplate) {
         this.jdbcTemplate = jdbcTemplate;
     }
 
     @PostConstruct
-    public void alignVectorDimensions() {
+    public void init() {
+        alignVectorDimensions();
+        ensureQuantizationSupport();
+    }
+
+    /**
+     * halfvec / binary_quantize 需要 pgvector >= 0.7.0
+     */
+    public boolean isQuantizationSupported() {
+        return quantizationSupported;
+    }
+
+    public int getDimensions() {
+        return expectedDimensions;
+    }
+
+    /**
+     * 检测到维度不一致且启用在线迁移时返回待迁移信息，由 EmbeddingMigrationService 处理
+     */
+    public Optional<DimensionMismatch> getPendingMigration() {
+        return Optional.ofNullable(pendingMigration);
+    }
+
+    public void clearPendingMigration() {
+        pendingMigration = null;
+    }
+
+    /**
+     * 记录当前向量表对应的 embedding 模型，下次更换模型时用于查询旧表
+     */
+    public void recordActiveModel() {
+        try {
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS vector_store_meta (key text PRIMARY KEY, value text)");
+            jdbcTemplate.update("INSERT INTO vector_store_meta (key, value) VALUES ('embedding_model', ?) "
+                + "ON CONFLICT (key) DO UPDATE SET value = EXCLUDED.value", embeddingModel);
+            jdbcTemplate.update("INSERT INTO vector_store_meta (key, value) VALUES ('dimensions', ?) "
+                + "ON CONFLICT (key) DO UPDATE SET value = EXCLUDED.value", String.valueOf(expectedDimensions));
+        } catch (Exception e) {
+            log.warn("记录向量表模型信息失败: {}", e.getMessage());
+        }
+    }
+
+    private String recordedModel() {
+        try {
+            return jdbcTemplate.query("SELECT value FROM vector_store_meta WHERE key = 'embedding_model'",
+                rs -> rs.next() ? rs.getString(1) : null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private void ensureQuantizationSupport() {
+        if ("none".equalsIgnoreCase(quantization)) {
+            return;
+        }
+        try {
+            String version = extensionVersion();
+            if (version != null && !isAtLeast(version, 0, 7)) {
+                log.info("pgvector 版本 {} 不支持量化存储，尝试升级扩展", version);
+                jdbcTemplate.execute("ALTER EXTENSION vector UPDATE");
+                version = extensionVersion();
+            }
+            quantizationSupported = version != null && isAtLeast(version, 0, 7);
+            if (quantizationSupported) {
+                log.info("pgvector {} 支持量化索引: {}", version, quantization);
+            } else {
+                log.warn("pgvector 版本 {} 不支持 halfvec/binary 量化，回退为全精度索引", version);
+            }
+        } catch (Exception e) {
+            log.warn("检查 pgvector 量化支持失败，回退为全精度索引: {}", e.getMessage());
+        }
+    }
+
+    private String extensionVersion() {
+        return jdbcTemplate.query("SELECT extversion FROM pg_extension WHERE extname = 'vector'",
+            rs -> rs.next() ? rs.getString(1) : null);
+    }
+
+    private boolean isAtLeast(String version, int major, int minor) {
+        String[] parts = version.split("\\.");
+        try {
+            int ma = Integer.parseInt(parts[0]);
+            int mi = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+            return ma > major || (ma == major && mi >= minor);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private void alignVectorDimensions() {
         try {
             Integer typmod = jdbcTemplate.query(
                 """
@@ -38,17 +144,34 @@ public class VectorStoreSchemaService {
                 rs -> rs.next() ? rs.getInt(1) : null
             );
 
-            if (typmod == null || typmod <= 4) {
+            // pgvector 的 typmod 即维度本身（不同于 varchar 的 +4 头部）
+            if (typmod == null || typmod <= 0) {
                 log.info("未检测到 vector_store.embedding 维度信息，跳过自动修复");
                 return;
             }
 
-            int currentDimensions = typmod - 4;
+            int currentDimensions = typmod;
             if (currentDimensions == expectedDimensions) {
+                // 维度相同但换了模型：旧向量与新查询向量不在同一空间，同样需要重新向量化
+                String recorded = recordedModel();
+                if (migrationEnabled && recorded != null && !sameModel(recorded, embeddingModel)) {
+                    pendingMigration = new DimensionMismatch(currentDimensions, expectedDimensions, recorded);
+                    log.warn("检测到 embedding 模型变更: {} -> {}（维度均为 {}），将在后台重新向量化迁移",
+                        recorded, embeddingModel, currentDimensions);
+                    return;
+                }
                 log.info("Vector 维度检查通过: {}", currentDimensions);
                 return;
             }
 
+            if (migrationEnabled) {
+                String sourceModel = configuredSourceModel.isBlank() ? recordedModel() : configuredSourceModel;
+                pendingMigration = new DimensionMismatch(currentDimensions, expectedDimensions, sourceModel);
+                log.warn("检测到向量维度不一致: DB={}, Expected={}，将在后台重新向量化迁移（旧模型: {}）",
+                    currentDimensions, expectedDimensions, sourceModel == null ? "未知" : sourceModel);
+                return;
+            }
+
             log.warn("检测到向量维度不一致: DB={}, Expected={}，开始自动修复（清空向量表）", currentDimensions, expectedDimensions);
             jdbcTemplate.execute("TRUNCATE TABLE vector_store");
             jdbcTemplate.execute("ALTER TABLE vector_store ALTER COLUMN embedding TYPE vector(" + expectedDimensions + ")");
@@ -57,4 +180,21 @@ public class VectorStoreSchemaService {
             log.error("自动修复向量维度失败，请手动执行表修复: {}", e.getMessage(), e);
         }
     }
+
+    /**
+     * Ollama 模型名不带标签时等同于 :latest
+     */
+    private static boolean sameModel(String a, String b) {
+        return stripLatest(a).equalsIgnoreCase(stripLatest(b));
+    }
+
+    private static String stripLatest(String model) {
+        String trimmed = model.trim();
+        return trimmed.endsWith(":latest") ? trimmed.substring(0, trimmed.length() - ":latest".length()) : trimmed;
+    }
+
+    /**
+     * 待迁移信息：维度不同，或维度相同但 embedding 模型已更换
+     */
+    public record DimensionMismatch(int sourceDimensions, int targetDimensions, String sourceModel) {}
 }
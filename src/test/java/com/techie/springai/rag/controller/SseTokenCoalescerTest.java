@@ -0,0 +1,140 @@
+package com.techie.springai.rag.controller;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * token 合并：时间窗口与字节阈值触发发送、显式 flush、关闭合并时直通、客户端断开后的失败传递
+ */
+class SseTokenCoalescerTest {
+
+    private SseTokenCoalescer coalescer;
+
+    @BeforeEach
+    void setUp() {
+        coalescer = new SseTokenCoalescer();
+        ReflectionTestUtils.setField(coalescer, "enabled", true);
+        ReflectionTestUtils.setField(coalescer, "windowMs", 30L);
+        ReflectionTestUtils.setField(coalescer, "maxBytes", 512);
+    }
+
+    @AfterEach
+    void tearDown() {
+        coalescer.shutdown();
+    }
+
+    @Test
+    void windowMergesTokensIntoOneEvent() throws Exception {
+        RecordingEmitter emitter = new RecordingEmitter();
+        SseTokenCoalescer.TokenStream stream = coalescer.open(emitter);
+
+        stream.send("Hel");
+        stream.send("lo");
+        stream.send(" world");
+        assertTrue(emitter.tokens.isEmpty());
+
+        waitFor(() -> !emitter.tokens.isEmpty());
+        assertEquals(List.of("Hello world"), emitter.tokens);
+    }
+
+    @Test
+    void byteThresholdFlushesImmediately() throws Exception {
+        ReflectionTestUtils.setField(coalescer, "maxBytes", 6);
+        RecordingEmitter emitter = new RecordingEmitter();
+        SseTokenCoalescer.TokenStream stream = coalescer.open(emitter);
+
+        // 中文按 UTF-8 每字 3 字节，两个字达到阈值
+        stream.send("你");
+        assertTrue(emitter.tokens.isEmpty());
+        stream.send("好");
+        assertEquals(List.of("你好"), emitter.tokens);
+
+        stream.send("!");
+        stream.flush();
+        assertEquals(List.of("你好", "!"), emitter.tokens);
+    }
+
+    @Test
+    void flushSendsRemainderAndCancelsWindow() throws Exception {
+        RecordingEmitter emitter = new RecordingEmitter();
+        SseTokenCoalescer.TokenStream stream = coalescer.open(emitter);
+
+        stream.send("tail");
+        stream.flush();
+        stream.flush();
+        Thread.sleep(80);
+
+        assertEquals(List.of("tail"), emitter.tokens);
+    }
+
+    @Test
+    void disabledSendsEveryToken() throws Exception {
+        ReflectionTestUtils.setField(coalescer, "enabled", false);
+        RecordingEmitter emitter = new RecordingEmitter();
+        SseTokenCoalescer.TokenStream stream = coalescer.open(emitter);
+
+        stream.send("a");
+        stream.send("b");
+
+        assertEquals(List.of("a", "b"), emitter.tokens);
+    }
+
+    @Test
+    void timedFlushFailureIsRaisedOnNextToken() throws Exception {
+        IOException disconnect = new IOException("Broken pipe");
+        RecordingEmitter emitter = new RecordingEmitter();
+        emitter.failure = disconnect;
+        SseTokenCoalescer.TokenStream stream = coalescer.open(emitter);
+
+        stream.send("lost");
+        waitFor(() -> emitter.attempts > 0);
+        // 定时发送在调度线程上失败（失败记录与发送在同一把锁内），下一个 token 与收尾 flush 都要把断开抛给调用方以终止生成
+        assertSame(disconnect, assertThrows(IOException.class, () -> stream.send("next")));
+        assertSame(disconnect, assertThrows(IOException.class, stream::flush));
+        assertEquals(1, emitter.attempts);
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "等待条件超时");
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * 记录 token 事件的 data；设置 failure 后模拟客户端断开
+     */
+    private static final class RecordingEmitter extends SseEmitter {
+
+        final List<String> tokens = new CopyOnWriteArrayList<>();
+        volatile IOException failure;
+        volatile int attempts;
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            attempts++;
+            if (failure != null) {
+                throw failure;
+            }
+            // 事件依次为 "event:token\ndata:"、data 本身与结尾换行
+            List<DataWithMediaType> parts = new ArrayList<>(builder.build());
+            tokens.add((String) parts.get(1).getData());
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.techie.springai.rag.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 延迟加载候选（库内 SQL 计算）与完整分块（Java 计算）的文本特征必须一致，否则同一分块两种检索路径下重排分数不同
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class ChunkFeaturesParityTest {
+
+    @Container
+    static final PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>(DockerImageName.parse("pgvector/pgvector:pg16")
+        .asCompatibleSubstituteFor("postgres"));
+
+    private static final List<String> TERMS = List.of("rag", "向量", "item");
+
+    private static final List<String> SAMPLES = List.of(
+        "",
+        "没有任何特征的文本",
+        "第一句。第二句！第三句？",
+        "结尾没有句号。还有一句",
+        "。开头就是句号",
+        "多行文本\n1. first item\n2. second item",
+        "版本 3.14 的说明",
+        "• 项目符号",
+        "前缀\n★ 星号列表",
+        "键：值",
+        "a -> b",
+        "箭头 → 指向",
+        "emoji 😀😀 计数",
+        "RAG 与向量检索",
+        "line one\nline two: with colon\n9"
+    );
+
+    @Test
+    void sqlAndJavaFeaturesMatch() throws Exception {
+        try (Connection connection = DriverManager.getConnection(postgres.getJdbcUrl(), postgres.getUsername(),
+                 postgres.getPassword());
+             PreparedStatement statement = connection.prepareStatement(
+                 "SELECT " + ChunkFeatures.SQL_COLUMNS + " FROM (SELECT CAST(? AS text) AS content) v")) {
+            for (String text : SAMPLES) {
+                statement.setString(1, ChunkFeatures.joinTerms(TERMS));
+                statement.setString(2, text);
+                Map<String, Object> metadata = new HashMap<>();
+                try (ResultSet rs = statement.executeQuery()) {
+                    assertTrue(rs.next());
+                    ChunkFeatures.read(rs, metadata);
+                }
+                Document lazy = Document.builder().id("lazy").text("").metadata(metadata).build();
+                Document full = Document.builder().id("full").text(text).build();
+
+                assertEquals(ChunkFeatures.length(full), ChunkFeatures.length(lazy), "length: " + text);
+                assertEquals(ChunkFeatures.sentences(full), ChunkFeatures.sentences(lazy), "sentences: " + text);
+                assertEquals(ChunkFeatures.hasDigits(full), ChunkFeatures.hasDigits(lazy), "hasDigits: " + text);
+                assertEquals(ChunkFeatures.hasList(full), ChunkFeatures.hasList(lazy), "hasList: " + text);
+                assertEquals(ChunkFeatures.hasStructure(full), ChunkFeatures.hasStructure(lazy), "hasStructure: " + text);
+                for (String term : TERMS) {
+                    assertEquals(ChunkFeatures.contains(full, term), ChunkFeatures.contains(lazy, term),
+                        "contains " + term + ": " + text);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.techie.springai.rag.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 完整分块的特征按库内语义计算：长度按码点、句子保留末尾空段、正则按子串匹配（跨行也能命中）
+ */
+class ChunkFeaturesTest {
+
+    @Test
+    void lengthCountsCodePoints() {
+        // 😀 是代理对，String.length() 计为 2
+        assertEquals(4, ChunkFeatures.length(doc("分块😀✓")));
+        assertEquals(0, ChunkFeatures.length(doc("")));
+    }
+
+    @Test
+    void sentencesKeepTrailingEmptySegment() {
+        assertEquals(3, ChunkFeatures.sentences(doc("第一句。第二句！")));
+        assertEquals(2, ChunkFeatures.sentences(doc("第一句。第二句")));
+        assertEquals(1, ChunkFeatures.sentences(doc("")));
+    }
+
+    @Test
+    void patternsMatchAnywhereAcrossLines() {
+        Document multiLine = doc("说明\n1. 第一步\n结果：42");
+        assertTrue(ChunkFeatures.hasDigits(multiLine));
+        assertTrue(ChunkFeatures.hasList(multiLine));
+        assertTrue(ChunkFeatures.hasStructure(multiLine));
+
+        assertTrue(ChunkFeatures.hasList(doc("要点\n• 第一项")));
+        assertFalse(ChunkFeatures.hasList(doc("版本 0.5")));
+        assertFalse(ChunkFeatures.hasDigits(doc("没有数字")));
+        assertFalse(ChunkFeatures.hasStructure(doc("没有结构")));
+    }
+
+    @Test
+    void containsIsCaseInsensitiveSubstring() {
+        Document doc = doc("Spring AI 使用 PgVector");
+        assertTrue(ChunkFeatures.contains(doc, "pgvector"));
+        assertTrue(ChunkFeatures.contains(doc, "ai 使用"));
+        assertFalse(ChunkFeatures.contains(doc, "ollama"));
+    }
+
+    @Test
+    void rerankerCountsFeaturesOnLaterLines() {
+        DocumentReranker reranker = new DocumentReranker();
+        ReflectionTestUtils.setField(reranker, "enabled", true);
+        ReflectionTestUtils.setField(reranker, "positionWeight", 0.2);
+        ReflectionTestUtils.setField(reranker, "diversityWeight", 0.15);
+        ReflectionTestUtils.setField(reranker, "coverageWeight", 0.15);
+        Document plain = doc("plain", "普通文本");
+        // 数字、列表和结构都在第二行之后：覆盖度 0.6，足以超过排在第一位的 plain
+        Document structured = doc("structured", "说明\n1. 第一步\n结果：42");
+
+        List<Document> reranked = reranker.rerank(List.of(plain, structured), "无关查询");
+
+        assertEquals(List.of("structured", "plain"), reranked.stream().map(Document::getId).toList());
+    }
+
+    private static Document doc(String text) {
+        return doc("chunk", text);
+    }
+
+    private static Document doc(String id, String text) {
+        return Document.builder().id(id).text(text).metadata(Map.of("source", "guide.md")).build();
+    }
+}
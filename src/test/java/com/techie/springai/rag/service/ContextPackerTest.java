@@ -0,0 +1,132 @@
+package com.techie.springai.rag.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 上下文打包：相邻分块合并与重叠去除、重复句去重、按排名填充 token 预算
+ */
+class ContextPackerTest {
+
+    private ContextPacker packer;
+
+    @BeforeEach
+    void setUp() {
+        packer = new ContextPacker();
+        ReflectionTestUtils.setField(packer, "enabled", true);
+        ReflectionTestUtils.setField(packer, "tokenBudget", 3000);
+        ReflectionTestUtils.setField(packer, "minBlockTokens", 64);
+        ReflectionTestUtils.setField(packer, "dedupeMinChars", 20);
+    }
+
+    @Test
+    void mergesAdjacentChunksAndStripsOverlap() {
+        String overlap = "shared overlap sentence that spans both chunks.";
+        Document first = chunk("a", "guide.md", 0, "Intro paragraph about vectors. " + overlap);
+        Document second = chunk("b", "guide.md", 1, overlap + " Follow-up details here.");
+        Document other = chunk("c", "other.md", 0, "Unrelated text from another file.");
+
+        List<Document> packed = packer.pack(List.of(other, second, first));
+
+        assertEquals(2, packed.size());
+        // 合并片段的排名取段内最高排名：second 排第 2，other 排第 1
+        assertEquals("c", packed.get(0).getId());
+        Document merged = packed.get(1);
+        assertEquals("a", merged.getId());
+        assertEquals(List.of("a", "b"), merged.getMetadata().get("chunkIds"));
+        assertEquals(2, merged.getMetadata().get("mergedChunks"));
+        assertEquals(1, countOccurrences(merged.getText(), overlap));
+        assertTrue(merged.getText().endsWith("Follow-up details here."));
+    }
+
+    @Test
+    void nonAdjacentOrUnindexedChunksStaySeparate() {
+        Document first = chunk("a", "guide.md", 0, "Chunk zero text.");
+        Document far = chunk("b", "guide.md", 5, "Chunk five text.");
+        Document unindexed = Document.builder().id("c").text("No index text.").metadata(Map.of("source", "guide.md"))
+            .build();
+
+        List<Document> packed = packer.pack(List.of(first, far, unindexed));
+
+        assertEquals(List.of("a", "b", "c"), packed.stream().map(Document::getId).toList());
+    }
+
+    @Test
+    void removesSentencesAlreadyPackedEarlier() {
+        String repeated = "This sentence is long enough to be deduplicated.";
+        Document first = chunk("a", "one.md", 0, repeated + "\nUnique line in the first document.");
+        Document second = chunk("b", "two.md", 0, repeated + "\nUnique line in the second document.");
+        Document copy = chunk("c", "three.md", 0, repeated);
+
+        List<Document> packed = packer.pack(List.of(first, second, copy));
+
+        // 第三个文档去重后为空，整体跳过
+        assertEquals(2, packed.size());
+        assertTrue(packed.get(0).getText().contains(repeated));
+        assertFalse(packed.get(1).getText().contains(repeated));
+        assertTrue(packed.get(1).getText().contains("Unique line in the second document."));
+    }
+
+    @Test
+    void fillsTokenBudgetInRankOrder() {
+        Document top = chunk("a", "one.md", 0, words("alpha", 100));
+        Document truncated = chunk("b", "two.md", 0, words("beta", 100));
+        Document skipped = chunk("c", "three.md", 0, words("gamma", 100));
+        // 第一块完整放入，剩余 50 token 不够第二块但不低于 minBlockTokens，截断放入；之后预算不足，跳过
+        int topTokens = new JTokkitTokenCountEstimator().estimate(top.getText());
+        ReflectionTestUtils.setField(packer, "tokenBudget", topTokens + 50);
+        ReflectionTestUtils.setField(packer, "minBlockTokens", 30);
+
+        List<Document> packed = packer.pack(List.of(top, truncated, skipped));
+
+        assertEquals(List.of("a", "b"), packed.stream().map(Document::getId).toList());
+        assertEquals(top.getText(), packed.get(0).getText());
+        assertTrue(packed.get(1).getText().endsWith("…"));
+        assertTrue(packed.get(1).getText().length() < truncated.getText().length());
+    }
+
+    @Test
+    void disabledOrEmptyInputIsPassedThrough() {
+        List<Document> docs = List.of(chunk("a", "one.md", 0, "text"), chunk("b", "one.md", 1, "more"));
+        ReflectionTestUtils.setField(packer, "enabled", false);
+
+        assertSame(docs, packer.pack(docs));
+        assertTrue(packer.pack(null).isEmpty());
+        assertTrue(packer.pack(List.of()).isEmpty());
+    }
+
+    private static Document chunk(String id, String source, int chunkIndex, String text) {
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put("source", source);
+        metadata.put("chunkIndex", chunkIndex);
+        return Document.builder().id(id).text(text).metadata(metadata).score(0.5).build();
+    }
+
+    private static String words(String word, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(word).append(' ');
+        }
+        return sb.toString().trim();
+    }
+
+    private static int countOccurrences(String text, String needle) {
+        int count = 0;
+        for (int i = text.indexOf(needle); i >= 0; i = text.indexOf(needle, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+}
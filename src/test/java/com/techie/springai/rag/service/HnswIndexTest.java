@@ -0,0 +1,144 @@
+package com.techie.springai.rag.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * HNSW 内存图与暴力检索对比：召回率、删除（墓碑）与分数
+ */
+class HnswIndexTest {
+
+    private static final int DIMS = 32;
+    private static final int COUNT = 3000;
+    private static final int QUERIES = 100;
+    private static final int K = 10;
+    private static final int EF = 100;
+
+    @Test
+    void recallAgainstBruteForce() {
+        Random random = new Random(42);
+        float[][] vectors = randomVectors(random, COUNT);
+        HnswIndex index = build(vectors);
+
+        double recall = averageRecall(index, vectors, randomVectors(random, QUERIES), Set.of());
+
+        assertTrue(recall >= 0.95, "recall@" + K + " = " + recall);
+        assertEquals(COUNT, index.size());
+    }
+
+    @Test
+    void deletedNodesNeverReturnedAndRecallHolds() {
+        Random random = new Random(7);
+        float[][] vectors = randomVectors(random, COUNT);
+        HnswIndex index = build(vectors);
+        Set<Integer> deleted = new HashSet<>();
+        for (int node = 0; node < COUNT; node += 3) {
+            index.delete(node);
+            deleted.add(node);
+        }
+        // 重复删除不重复计数
+        index.delete(0);
+
+        float[][] queries = randomVectors(random, QUERIES);
+        for (float[] query : queries) {
+            for (HnswIndex.Hit hit : index.search(query, K, EF)) {
+                assertFalse(deleted.contains(hit.node()), "deleted node returned: " + hit.node());
+            }
+        }
+        double recall = averageRecall(index, vectors, queries, deleted);
+
+        assertTrue(recall >= 0.9, "recall@" + K + " after deletes = " + recall);
+        assertEquals(deleted.size(), index.deletedCount());
+        assertEquals(COUNT - deleted.size(), index.size());
+    }
+
+    @Test
+    void scoresAreCosineSimilarityInDescendingOrder() {
+        Random random = new Random(3);
+        float[][] vectors = randomVectors(random, 500);
+        HnswIndex index = build(vectors);
+        float[] query = randomVectors(random, 1)[0];
+
+        List<HnswIndex.Hit> hits = index.search(query, K, EF);
+
+        assertEquals(K, hits.size());
+        for (int i = 0; i < hits.size(); i++) {
+            HnswIndex.Hit hit = hits.get(i);
+            assertEquals(cosine(query, vectors[hit.node()]), hit.score(), 1e-4);
+            if (i > 0) {
+                assertTrue(hits.get(i - 1).score() >= hit.score());
+            }
+        }
+    }
+
+    @Test
+    void rejectsDimensionMismatch() {
+        HnswIndex index = new HnswIndex(DIMS, 16, 100, 16);
+        assertThrows(IllegalArgumentException.class, () -> index.add(new float[DIMS + 1]));
+        assertThrows(IllegalArgumentException.class, () -> index.search(new float[DIMS - 1], K, EF));
+        assertTrue(index.search(new float[DIMS], K, EF).isEmpty());
+    }
+
+    private static HnswIndex build(float[][] vectors) {
+        HnswIndex index = new HnswIndex(DIMS, 16, 100, vectors.length);
+        for (int i = 0; i < vectors.length; i++) {
+            assertEquals(i, index.add(vectors[i]));
+        }
+        return index;
+    }
+
+    private static double averageRecall(HnswIndex index, float[][] vectors, float[][] queries, Set<Integer> deleted) {
+        double sum = 0;
+        for (float[] query : queries) {
+            Set<Integer> exact = new HashSet<>(bruteForce(vectors, query, deleted));
+            long found = index.search(query, K, EF).stream().filter(hit -> exact.contains(hit.node())).count();
+            sum += (double) found / exact.size();
+        }
+        return sum / queries.length;
+    }
+
+    private static List<Integer> bruteForce(float[][] vectors, float[] query, Set<Integer> deleted) {
+        return IntStream.range(0, vectors.length)
+            .filter(i -> !deleted.contains(i))
+            .boxed()
+            .sorted(Comparator.comparingDouble((Integer i) -> cosine(query, vectors[i])).reversed())
+            .limit(K)
+            .toList();
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0;
+        double normA = 0;
+        double normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        return dot / Math.sqrt(normA * normB);
+    }
+
+    private static float[][] randomVectors(Random random, int count) {
+        List<float[]> vectors = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            float[] v = new float[DIMS];
+            for (int d = 0; d < DIMS; d++) {
+                v[d] = (float) random.nextGaussian();
+            }
+            vectors.add(v);
+        }
+        return vectors.toArray(new float[0][]);
+    }
+}
@@ -0,0 +1,44 @@
+package com.techie.springai.rag.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 向量文本格式往返、metadata 解析的容错与可修改性
+ */
+class PgVectorsTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void vectorLiteralRoundTrip() {
+        float[] embedding = {0.25f, -1.5f, 3.0E-7f, 42f};
+
+        String literal = PgVectors.toVectorLiteral(embedding);
+
+        assertEquals("[0.25,-1.5,3.0E-7,42.0]", literal);
+        assertArrayEquals(embedding, PgVectors.parseVector(literal));
+        // pgvector 输出 embedding::text 时逗号后不带空格，也接受带空格的写法
+        assertArrayEquals(new float[]{1f, 2f}, PgVectors.parseVector("[1, 2]"));
+    }
+
+    @Test
+    void metadataIsMutableAndTolerant() {
+        Map<String, Object> metadata = PgVectors.parseMetadata(objectMapper, "{\"documentId\":\"doc-1\",\"chunkIndex\":3}");
+        assertEquals("doc-1", metadata.get("documentId"));
+        assertEquals(3, metadata.get("chunkIndex"));
+        metadata.put("distance", 0.1);
+
+        assertTrue(PgVectors.parseMetadata(objectMapper, null).isEmpty());
+        assertTrue(PgVectors.parseMetadata(objectMapper, " ").isEmpty());
+        Map<String, Object> broken = PgVectors.parseMetadata(objectMapper, "{not json");
+        assertTrue(broken.isEmpty());
+        broken.put("distance", 0.2);
+    }
+}
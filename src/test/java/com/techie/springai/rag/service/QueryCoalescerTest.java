@@ -0,0 +1,81 @@
+package com.techie.springai.rag.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 合并键的规范化、过滤条件隔离、回答生成的合并条件
+ */
+class QueryCoalescerTest {
+
+    private QueryCoalescer coalescer;
+
+    @BeforeEach
+    void setUp() {
+        coalescer = new QueryCoalescer();
+        ReflectionTestUtils.setField(coalescer, "enabled", true);
+        ReflectionTestUtils.setField(coalescer, "coalesceGeneration", true);
+    }
+
+    @Test
+    void keyNormalizesCaseWhitespaceAndTrailingPunctuation() {
+        RAGService.RetrievalOptions options = RAGService.RetrievalOptions.defaultOptions();
+        String key = coalescer.key("What is  PgVector?", options);
+
+        assertEquals(key, coalescer.key("  what is pgvector ？ ", options));
+        assertEquals(key, coalescer.key("WHAT IS PGVECTOR!!", options));
+        assertNotEquals(key, coalescer.key("what is pg vector", options));
+        assertEquals(coalescer.key("什么是向量库？", null), coalescer.key("什么是向量库。", null));
+    }
+
+    @Test
+    void keySeparatesFilterScopes() {
+        String question = "如何部署";
+        RAGService.RetrievalOptions all = RAGService.RetrievalOptions.defaultOptions();
+        RAGService.RetrievalOptions pdf = new RAGService.RetrievalOptions(Set.of(), Set.of("pdf"));
+        RAGService.RetrievalOptions guide = new RAGService.RetrievalOptions(Set.of("guide.md"), Set.of());
+
+        assertNotEquals(coalescer.key(question, all), coalescer.key(question, pdf));
+        assertNotEquals(coalescer.key(question, pdf), coalescer.key(question, guide));
+        assertEquals(coalescer.key(question, pdf),
+            coalescer.key(question, new RAGService.RetrievalOptions(Set.of(), Set.of("pdf"))));
+    }
+
+    @Test
+    void generationIsSharedOnlyForFirstTurnWhenEnabled() {
+        assertTrue(coalescer.canShareGeneration(true));
+        assertFalse(coalescer.canShareGeneration(false));
+
+        ReflectionTestUtils.setField(coalescer, "coalesceGeneration", false);
+        assertFalse(coalescer.canShareGeneration(true));
+
+        ReflectionTestUtils.setField(coalescer, "coalesceGeneration", true);
+        ReflectionTestUtils.setField(coalescer, "enabled", false);
+        assertFalse(coalescer.canShareGeneration(true));
+    }
+
+    @Test
+    void flightsAreReusedPerNameAndReportedInStats() {
+        SingleFlight<String> retrieval = coalescer.flight("retrieval");
+        assertSame(retrieval, coalescer.flight("retrieval"));
+        assertNotSame(retrieval, coalescer.flight("stream"));
+
+        retrieval.execute("q", () -> "docs");
+        Map<String, Object> stats = coalescer.stats();
+
+        assertEquals(true, stats.get("enabled"));
+        assertTrue(stats.containsKey("stream"));
+        assertEquals(1L, ((Map<?, ?>) stats.get("retrieval")).get("executions"));
+    }
+}
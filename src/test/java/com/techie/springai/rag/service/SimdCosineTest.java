@@ -0,0 +1,63 @@
+package com.techie.springai.rag.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Vector API 点积与标量点积一致；需要 --add-modules jdk.incubator.vector（surefire argLine 已配置），否则跳过
+ */
+class SimdCosineTest {
+
+    @BeforeEach
+    void requireVectorModule() {
+        assumeTrue(VectorSnapshot.SIMD, "jdk.incubator.vector 不可用");
+    }
+
+    @Test
+    void matchesScalarDotForAllTailLengths() {
+        Random random = new Random(11);
+        // 覆盖小于一个 SIMD 宽度、整倍数与带尾部的长度，以及常见 embedding 维度
+        int[] lengths = new int[70];
+        for (int i = 0; i < 67; i++) {
+            lengths[i] = i + 1;
+        }
+        lengths[67] = 384;
+        lengths[68] = 768;
+        lengths[69] = 1536;
+        for (int length : lengths) {
+            float[] query = random(random, length);
+            int offset = random.nextInt(5) * length + random.nextInt(3);
+            float[] block = random(random, offset + length + 3);
+            assertEquals(scalarDot(query, block, offset), SimdCosine.dot(query, block, offset),
+                1e-3 * Math.max(1.0, Math.sqrt(length)), "length=" + length);
+        }
+    }
+
+    @Test
+    void normalizedSelfDotIsOne() {
+        float[] v = HnswIndex.normalize(random(new Random(12), 1024));
+        assertEquals(1.0f, SimdCosine.dot(v, v, 0), 1e-4);
+        assertEquals(0.0f, SimdCosine.dot(new float[1024], v, 0), 0.0);
+    }
+
+    private static double scalarDot(float[] query, float[] block, int offset) {
+        double sum = 0;
+        for (int i = 0; i < query.length; i++) {
+            sum += (double) query[i] * block[offset + i];
+        }
+        return sum;
+    }
+
+    private static float[] random(Random random, int length) {
+        float[] v = new float[length];
+        for (int i = 0; i < length; i++) {
+            v[i] = (float) random.nextGaussian();
+        }
+        return v;
+    }
+}
@@ -0,0 +1,193 @@
+package com.techie.springai.rag.service;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 同键合并：并发调用只执行一次、异常共享后即释放、held 模式保留结果直到 release
+ */
+class SingleFlightTest {
+
+    private static ExecutorService pool;
+
+    @BeforeAll
+    static void startPool() {
+        pool = Executors.newFixedThreadPool(8);
+    }
+
+    @AfterAll
+    static void stopPool() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    void concurrentCallersShareOneExecution() throws Exception {
+        SingleFlight<String> flight = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+
+        Future<String> leader = pool.submit(() -> flight.execute("q", () -> {
+            calls.incrementAndGet();
+            started.countDown();
+            await(finish);
+            return "answer";
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        List<Future<String>> joiners = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            joiners.add(pool.submit(() -> flight.execute("q", () -> {
+                calls.incrementAndGet();
+                return "duplicate";
+            })));
+        }
+        waitFor(() -> ((Number) flight.stats().get("shared")).longValue() == 5);
+        finish.countDown();
+
+        assertEquals("answer", leader.get(5, TimeUnit.SECONDS));
+        for (Future<String> joiner : joiners) {
+            assertEquals("answer", joiner.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, calls.get());
+        assertEquals(0, flight.stats().get("inflight"));
+        assertEquals(1L, flight.stats().get("executions"));
+        assertEquals(5.0 / 6, (double) flight.stats().get("shareRate"), 1e-9);
+    }
+
+    @Test
+    void completedKeyRunsAgainWithoutCaching() {
+        SingleFlight<Integer> flight = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+
+        assertEquals(1, flight.execute("q", calls::incrementAndGet));
+        assertEquals(2, flight.execute("q", calls::incrementAndGet));
+        assertEquals(3, flight.execute("other", calls::incrementAndGet));
+    }
+
+    @Test
+    void failureIsSharedAndThenReleased() throws Exception {
+        SingleFlight<String> flight = new SingleFlight<>();
+        IllegalStateException failure = new IllegalStateException("boom");
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+
+        Future<String> leader = pool.submit(() -> flight.execute("q", () -> {
+            started.countDown();
+            await(finish);
+            throw failure;
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<String> joiner = pool.submit(() -> flight.execute("q", () -> "duplicate"));
+        waitFor(() -> ((Number) flight.stats().get("shared")).longValue() == 1);
+        finish.countDown();
+
+        assertSame(failure, assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS)).getCause());
+        assertSame(failure, assertThrows(ExecutionException.class, () -> joiner.get(5, TimeUnit.SECONDS)).getCause());
+        // 失败不保留：下一次调用重新执行
+        assertEquals("retry", flight.execute("q", () -> "retry"));
+    }
+
+    @Test
+    void errorsPropagateUnwrapped() {
+        SingleFlight<String> flight = new SingleFlight<>();
+        StackOverflowError error = new StackOverflowError();
+
+        assertSame(error, assertThrows(StackOverflowError.class, () -> flight.execute("q", () -> {
+            throw error;
+        })));
+        assertEquals(0, flight.stats().get("inflight"));
+    }
+
+    @Test
+    void heldResultIsSharedUntilReleased() {
+        SingleFlight<Object> flight = new SingleFlight<>();
+        Object stream = new Object();
+
+        assertSame(stream, flight.executeHeld("q", () -> stream));
+        assertSame(stream, flight.executeHeld("q", Object::new));
+        assertSame(stream, flight.execute("q", Object::new));
+        assertEquals(1, flight.stats().get("inflight"));
+
+        flight.release("q");
+        assertEquals(0, flight.stats().get("inflight"));
+        Object next = new Object();
+        assertSame(next, flight.executeHeld("q", () -> next));
+    }
+
+    @Test
+    void heldFailureIsNotRetained() {
+        SingleFlight<Object> flight = new SingleFlight<>();
+
+        assertInstanceOf(IllegalStateException.class, assertThrows(RuntimeException.class,
+            () -> flight.executeHeld("q", () -> {
+                throw new IllegalStateException("boom");
+            })));
+        assertEquals(0, flight.stats().get("inflight"));
+    }
+
+    @Test
+    void releaseDoesNotDropAnInflightExecution() throws Exception {
+        SingleFlight<String> flight = new SingleFlight<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+
+        Future<String> leader = pool.submit(() -> flight.executeHeld("q", () -> {
+            calls.incrementAndGet();
+            started.countDown();
+            await(finish);
+            return "stream";
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        // 过早的 release（如上一轮的订阅结束）不能把仍在执行的请求移出，否则后到的调用会重复执行
+        flight.release("q");
+        assertEquals(1, flight.stats().get("inflight"));
+        Future<String> joiner = pool.submit(() -> flight.executeHeld("q", () -> {
+            calls.incrementAndGet();
+            return "duplicate";
+        }));
+        waitFor(() -> ((Number) flight.stats().get("shared")).longValue() == 1);
+        finish.countDown();
+
+        assertEquals("stream", leader.get(5, TimeUnit.SECONDS));
+        assertEquals("stream", joiner.get(5, TimeUnit.SECONDS));
+        assertEquals(1, calls.get());
+        flight.release("q");
+        assertEquals(0, flight.stats().get("inflight"));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "等待条件超时");
+            Thread.sleep(5);
+        }
+    }
+}
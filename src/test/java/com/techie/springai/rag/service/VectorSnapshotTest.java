@@ -0,0 +1,220 @@
+package com.techie.springai.rag.service;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 快照文件读写往返、分段映射、并行与串行扫描一致性
+ */
+class VectorSnapshotTest {
+
+    private static final int DIMS = 24;
+    private static final int COUNT = 1000;
+    private static final VectorSnapshot.Watermark WATERMARK = new VectorSnapshot.Watermark(1_700_000_000_123L, 4242);
+
+    private static ExecutorService pool;
+
+    @TempDir
+    Path dir;
+
+    @BeforeAll
+    static void startPool() {
+        pool = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterAll
+    static void stopPool() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    void roundTripPreservesIdsPayloadsAndHeader() throws IOException {
+        Fixture fixture = fixture(new Random(1), COUNT);
+        Path file = write(fixture, "round-trip.snap");
+
+        try (VectorSnapshot snapshot = VectorSnapshot.open(file)) {
+            assertEquals(DIMS, snapshot.dims());
+            assertEquals(COUNT, snapshot.count());
+            assertEquals(WATERMARK, snapshot.watermark());
+            for (int i = 0; i < COUNT; i++) {
+                assertEquals(fixture.ids.get(i), snapshot.id(i));
+                VectorSnapshot.Payload payload = snapshot.payload(i);
+                assertEquals(fixture.contents.get(i), payload.content());
+                assertEquals(fixture.metadata.get(i), payload.metadata());
+            }
+        }
+        assertFalse(Files.exists(file.resolveSibling(file.getFileName() + ".tmp")));
+    }
+
+    @Test
+    void searchMatchesBruteForce() throws IOException {
+        Random random = new Random(2);
+        Fixture fixture = fixture(random, COUNT);
+        try (VectorSnapshot snapshot = VectorSnapshot.open(write(fixture, "exact.snap"))) {
+            for (int q = 0; q < 20; q++) {
+                float[] query = randomVector(random);
+                List<VectorSnapshot.Hit> hits = snapshot.search(query, 10, -1.0, null, 1, Integer.MAX_VALUE);
+                List<Integer> expected = bruteForce(fixture.vectors, query, 10);
+                assertEquals(expected, hits.stream().map(VectorSnapshot.Hit::index).toList());
+                for (VectorSnapshot.Hit hit : hits) {
+                    assertEquals(cosine(query, fixture.vectors.get(hit.index())), hit.score(), 1e-4);
+                }
+            }
+        }
+    }
+
+    @Test
+    void parallelScanMatchesSerialScan() throws IOException {
+        Random random = new Random(3);
+        Fixture fixture = fixture(random, COUNT);
+        try (VectorSnapshot snapshot = VectorSnapshot.open(write(fixture, "parallel.snap"))) {
+            for (int q = 0; q < 20; q++) {
+                float[] query = randomVector(random);
+                List<VectorSnapshot.Hit> serial = snapshot.search(query, 25, 0.0, null, 1, Integer.MAX_VALUE);
+                List<VectorSnapshot.Hit> parallel = snapshot.search(query, 25, 0.0, pool, 4, 1);
+                assertEquals(serial, parallel);
+                assertTrue(serial.stream().allMatch(hit -> hit.score() >= 0.0f));
+            }
+        }
+    }
+
+    @Test
+    void smallSegmentsScanAcrossBoundaries() throws IOException {
+        Random random = new Random(4);
+        Fixture fixture = fixture(random, COUNT);
+        Path file = write(fixture, "segments.snap");
+        // 每段 7 个向量且段长不是向量长度的整数倍：扫描块（64 个向量）会跨越段边界
+        long segmentBytes = 7L * DIMS * 4 + 5;
+        try (VectorSnapshot whole = VectorSnapshot.open(file);
+             VectorSnapshot segmented = VectorSnapshot.open(file, segmentBytes)) {
+            for (int q = 0; q < 20; q++) {
+                float[] query = randomVector(random);
+                assertEquals(whole.search(query, 15, -1.0, null, 1, Integer.MAX_VALUE),
+                    segmented.search(query, 15, -1.0, null, 1, Integer.MAX_VALUE));
+                assertEquals(whole.search(query, 15, -1.0, null, 1, Integer.MAX_VALUE),
+                    segmented.search(query, 15, -1.0, pool, 4, 1));
+            }
+        }
+    }
+
+    @Test
+    void segmentMathBeyondTwoGigabytes() {
+        int dims = 1536;
+        int perSegment = VectorSnapshot.vectorsPerSegment(dims, VectorSnapshot.SEGMENT_BYTES);
+        assertEquals(174_762, perSegment);
+        assertTrue((long) perSegment * dims * 4 <= VectorSnapshot.SEGMENT_BYTES);
+        assertTrue((long) (perSegment + 1) * dims * 4 > VectorSnapshot.SEGMENT_BYTES);
+
+        // 第 3 段起点已超过 2GB，int 运算会溢出成负数
+        long offset = VectorSnapshot.segmentOffset(4096, 3, perSegment, dims);
+        assertEquals(4096L + 3L * 174_762L * 1536L * 4L, offset);
+        assertTrue(offset > Integer.MAX_VALUE);
+
+        // 单个向量超过分段大小时每段至少放一个向量
+        assertEquals(1, VectorSnapshot.vectorsPerSegment(dims, 100));
+    }
+
+    @Test
+    void emptySnapshotAndInvalidInput() throws IOException {
+        Path file = dir.resolve("empty.snap");
+        try (VectorSnapshot.Writer writer = VectorSnapshot.create(file, DIMS, WATERMARK)) {
+            writer.commit();
+        }
+        try (VectorSnapshot snapshot = VectorSnapshot.open(file)) {
+            assertEquals(0, snapshot.count());
+            assertTrue(snapshot.search(new float[DIMS], 5, -1.0, pool, 4, 1).isEmpty());
+            assertThrows(IllegalArgumentException.class, () -> snapshot.search(new float[DIMS + 1], 5, -1.0, null, 1, 1));
+        }
+
+        Path garbage = dir.resolve("garbage.snap");
+        Files.write(garbage, new byte[256]);
+        assertThrows(IOException.class, () -> VectorSnapshot.open(garbage));
+    }
+
+    @Test
+    void abandonedWriterLeavesNoFiles() throws IOException {
+        Path file = dir.resolve("abandoned.snap");
+        try (VectorSnapshot.Writer writer = VectorSnapshot.create(file, DIMS, WATERMARK)) {
+            writer.add(UUID.randomUUID().toString(), randomVector(new Random(5)), "text", "{}");
+        }
+        try (var files = Files.list(dir)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    private Path write(Fixture fixture, String name) throws IOException {
+        Path file = dir.resolve(name);
+        try (VectorSnapshot.Writer writer = VectorSnapshot.create(file, DIMS, WATERMARK)) {
+            for (int i = 0; i < fixture.ids.size(); i++) {
+                writer.add(fixture.ids.get(i), fixture.vectors.get(i), fixture.contents.get(i), fixture.metadata.get(i));
+            }
+            writer.commit();
+        }
+        return file;
+    }
+
+    private static Fixture fixture(Random random, int count) {
+        Fixture fixture = new Fixture();
+        for (int i = 0; i < count; i++) {
+            fixture.ids.add(new UUID(random.nextLong(), random.nextLong()).toString());
+            fixture.vectors.add(randomVector(random));
+            fixture.contents.add(i % 7 == 0 ? "" : "分块 " + i + " 正文 ✓ 😀");
+            fixture.metadata.add("{\"documentId\":\"doc-" + (i % 13) + "\",\"chunkIndex\":" + i + "}");
+        }
+        return fixture;
+    }
+
+    private static List<Integer> bruteForce(List<float[]> vectors, float[] query, int k) {
+        return IntStream.range(0, vectors.size())
+            .boxed()
+            .sorted(Comparator.comparingDouble((Integer i) -> cosine(query, vectors.get(i))).reversed())
+            .limit(k)
+            .toList();
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0;
+        double normA = 0;
+        double normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        return dot / Math.sqrt(normA * normB);
+    }
+
+    private static float[] randomVector(Random random) {
+        float[] v = new float[DIMS];
+        for (int d = 0; d < DIMS; d++) {
+            v[d] = (float) random.nextGaussian();
+        }
+        return v;
+    }
+
+    private static final class Fixture {
+        final List<String> ids = new ArrayList<>();
+        final List<float[]> vectors = new ArrayList<>();
+        final List<String> contents = new ArrayList<>();
+        final List<String> metadata = new ArrayList<>();
+    }
+}